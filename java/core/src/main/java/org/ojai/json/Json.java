@@ -24,6 +24,7 @@ import java.util.Map;
 
 import org.ojai.Document;
 import org.ojai.DocumentBuilder;
+import org.ojai.DocumentListener;
 import org.ojai.DocumentReader;
 import org.ojai.DocumentReader.EventType;
 import org.ojai.DocumentStream;
@@ -167,6 +168,14 @@ public final class Json {
     return new JsonDocumentStream(in, null, eventDelegate);
   }
 
+  /**
+   * Returns a new push-based parser of JSON documents which passes them to the
+   * specified listener as the chunks of the stream are fed to it.
+   */
+  public static JsonDocumentFeeder newDocumentFeeder(@NonNullable DocumentListener listener) {
+    return new JsonDocumentFeeder(listener);
+  }
+
   public static <T> T encode(@NonNullable String jsonString, @NonNullable Class<T> beanClass) {
     return BeanCodec.encode(newDocumentReader(jsonString), beanClass);
   }
@@ -0,0 +1,294 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.json;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import org.ojai.Document;
+import org.ojai.DocumentListener;
+import org.ojai.DocumentReader;
+import org.ojai.FieldPath;
+import org.ojai.Value.Type;
+import org.ojai.annotation.API;
+import org.ojai.annotation.API.NonNullable;
+import org.ojai.exceptions.DecodingException;
+import org.ojai.json.impl.JsonDocumentStream;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.google.common.base.Preconditions;
+
+/**
+ * A push-based parser of a stream of JSON documents, for callers which receive the
+ * stream in chunks and can not block waiting for the rest of it, such as the handlers
+ * of a non-blocking server.<p/>
+ *
+ * The chunks are {@link #feed(byte[], int, int) fed} to the parser as they arrive,
+ * split anywhere. The feeder parses them with a non-blocking Jackson parser and keeps
+ * the tokens of the current document until it is complete, at which point the
+ * document is passed to the {@link DocumentListener}, or a {@link DocumentReader} of
+ * it to the {@link ReaderListener}, before {@code feed()} returns. As with
+ * {@link Json#newDocumentStream(java.io.InputStream)}, the documents may be
+ * concatenated or enclosed in an array, and their values may use the extended types.
+ * <p/>
+ *
+ * The listener is notified of the end of the stream when {@link #close()} is called
+ * or when it returns {@code false} to stop listening, and of the failure of the
+ * parser or of the listener itself, after which the feeder ignores further chunks.
+ */
+@API.Public
+@API.Evolving
+@API.NotThreadSafe
+public class JsonDocumentFeeder implements AutoCloseable {
+
+  /**
+   * The counterpart of {@link DocumentListener} for the {@link DocumentReader}s of
+   * the parsed documents. Each reader is independent of the feeder and of the other
+   * readers.
+   */
+  public interface ReaderListener {
+
+    /**
+     * @return {@code false} to stop listening for more documents
+     */
+    boolean readerArrived(@NonNullable DocumentReader reader);
+
+    void failed(@NonNullable Exception e);
+
+    void eos();
+
+  }
+
+  private static final JsonFactory FACTORY = new JsonFactory();
+
+  private final DocumentListener documentListener;
+  private final ReaderListener readerListener;
+  private final Map<FieldPath, Type> fieldPathTypeMap;
+
+  private final JsonParser parser;
+  private final ByteArrayFeeder feeder;
+
+  /** the tokens of the current document, or {@code null} between documents */
+  private TokenBuffer tokens;
+  private int depth;
+  private boolean inArray;
+  private boolean done;
+
+  private byte[] copyBuffer;
+  private long byteCount;
+  private long documentCount;
+
+  public JsonDocumentFeeder(@NonNullable DocumentListener listener) {
+    this(Preconditions.checkNotNull(listener), null, null);
+  }
+
+  /**
+   * Creates a feeder which uses the FieldPath => Type mapping to decode the JSON tokens.
+   */
+  public JsonDocumentFeeder(@NonNullable DocumentListener listener,
+      @NonNullable Map<FieldPath, Type> fieldPathTypeMap) {
+    this(Preconditions.checkNotNull(listener), null, Preconditions.checkNotNull(fieldPathTypeMap));
+  }
+
+  public JsonDocumentFeeder(@NonNullable ReaderListener listener) {
+    this(null, Preconditions.checkNotNull(listener), null);
+  }
+
+  private JsonDocumentFeeder(DocumentListener documentListener, ReaderListener readerListener,
+      Map<FieldPath, Type> fieldPathTypeMap) {
+    this.documentListener = documentListener;
+    this.readerListener = readerListener;
+    this.fieldPathTypeMap = fieldPathTypeMap;
+    try {
+      parser = FACTORY.createNonBlockingByteArrayParser();
+    } catch (IOException e) {
+      throw new DecodingException(e);
+    }
+    feeder = (ByteArrayFeeder) parser.getNonBlockingInputFeeder();
+  }
+
+  /**
+   * Parses the next chunk of the stream and passes the documents it completes to the
+   * listener. The bytes are not used after this method returns.
+   *
+   * @return {@code false} if the feeder no longer accepts input because the stream was
+   *         closed, the listener stopped listening or the parsing failed
+   */
+  public boolean feed(@NonNullable byte[] bytes, int offset, int length) {
+    Preconditions.checkPositionIndexes(offset, offset + length, bytes.length);
+    if (done) {
+      return false;
+    }
+    try {
+      feeder.feedInput(bytes, offset, offset + length);
+      byteCount += length;
+      parse();
+    } catch (Exception e) {
+      fail(e);
+    }
+    return !done;
+  }
+
+  /**
+   * @see #feed(byte[], int, int)
+   */
+  public boolean feed(@NonNullable byte[] bytes) {
+    return feed(bytes, 0, bytes.length);
+  }
+
+  /**
+   * Parses the remaining bytes of the buffer, whose position is moved to its limit.
+   *
+   * @see #feed(byte[], int, int)
+   */
+  public boolean feed(@NonNullable ByteBuffer buffer) {
+    final int length = buffer.remaining();
+    final boolean accepted;
+    if (buffer.hasArray()) {
+      accepted = feed(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+    } else {
+      if (copyBuffer == null || copyBuffer.length < length) {
+        copyBuffer = new byte[Math.max(length, 8192)];
+      }
+      buffer.duplicate().get(copyBuffer, 0, length);
+      accepted = feed(copyBuffer, 0, length);
+    }
+    buffer.position(buffer.limit());
+    return accepted;
+  }
+
+  /**
+   * Signals the end of the stream. The listener is notified of the end of the stream,
+   * or of its failure if it ends within a document.
+   */
+  @Override
+  public void close() {
+    if (done) {
+      return;
+    }
+    try {
+      feeder.endOfInput();
+      parse();
+      if (!done) {
+        if (tokens != null || inArray) {
+          throw new DecodingException("Unexpected end of the JSON stream after " + byteCount + " bytes");
+        }
+        finish();
+      }
+    } catch (Exception e) {
+      fail(e);
+    }
+  }
+
+  /**
+   * @return {@code true} if the feeder no longer accepts input
+   */
+  public boolean isDone() {
+    return done;
+  }
+
+  /**
+   * @return the number of bytes fed to the parser
+   */
+  public long getByteCount() {
+    return byteCount;
+  }
+
+  /**
+   * @return the number of documents passed to the listener
+   */
+  public long getDocumentCount() {
+    return documentCount;
+  }
+
+  private void parse() throws IOException {
+    JsonToken token;
+    while (!done && (token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+      if (tokens == null) {
+        // between documents, skipping the array which may enclose them
+        if (token == JsonToken.START_ARRAY && !inArray) {
+          inArray = true;
+          continue;
+        } else if (token == JsonToken.END_ARRAY && inArray) {
+          inArray = false;
+          continue;
+        } else if (token != JsonToken.START_OBJECT) {
+          throw new DecodingException("Encountered " + token + " while looking for the start of a document");
+        }
+        tokens = new TokenBuffer(parser);
+      }
+
+      tokens.copyCurrentEvent(parser);
+      if (token.isStructStart()) {
+        depth++;
+      } else if (token.isStructEnd() && --depth == 0) {
+        documentArrived();
+      }
+    }
+  }
+
+  private void documentArrived() {
+    final JsonDocumentStream stream = new JsonDocumentStream(tokens.asParser(), fieldPathTypeMap, null);
+    tokens = null;
+    documentCount++;
+    final boolean more;
+    if (documentListener != null) {
+      final Document document = stream.iterator().next();
+      stream.close();
+      more = documentListener.documentArrived(document);
+    } else {
+      more = readerListener.readerArrived(stream.documentReaders().iterator().next());
+    }
+    if (!more) {
+      finish();
+    }
+  }
+
+  private void finish() {
+    done = true;
+    closeParser();
+    if (documentListener != null) {
+      documentListener.eos();
+    } else {
+      readerListener.eos();
+    }
+  }
+
+  private void fail(Exception e) {
+    done = true;
+    closeParser();
+    final Exception failure = e instanceof IOException ? new DecodingException(e) : e;
+    if (documentListener != null) {
+      documentListener.failed(failure);
+    } else {
+      readerListener.failed(failure);
+    }
+  }
+
+  private void closeParser() {
+    try {
+      parser.close();
+    } catch (IOException e) {
+      // nothing to release but the buffers of the parser
+    }
+  }
+
+}
@@ -67,6 +67,20 @@ public class JsonDocumentStream implements DocumentStream {
     }
   }
 
+  /**
+   * Creates a stream of the documents read by the specified parser, which is
+   * closed along with the stream.
+   */
+  public JsonDocumentStream(JsonParser parser,
+      Map<FieldPath, Type> fieldPathTypeMap, Events.Delegate eventDelegate) {
+    inputStream = null;
+    readStarted = false;
+    iteratorOpened = false;
+    this.eventDelegate = eventDelegate;
+    this.fieldPathTypeMap = fieldPathTypeMap;
+    jsonParser = parser;
+  }
+
   /**
    * Returns the current position in the underlying InputStream
    */
@@ -0,0 +1,156 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.reactive;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.ojai.Document;
+import org.ojai.annotation.API;
+import org.ojai.annotation.API.NonNullable;
+import org.ojai.store.DocumentStore;
+import org.ojai.util.DocumentStreams;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A {@link Subscriber} which writes the documents it receives to a
+ * {@link DocumentStore} with {@link DocumentStore#insertOrReplace(org.ojai.DocumentStream)
+ * insertOrReplace()}, in batches.<p/>
+ *
+ * The subscriber requests {@code batchSize} documents at a time and writes each batch
+ * once it is complete, before requesting the next, so at most one batch is held in
+ * memory and a publisher is never ahead of the store by more than a batch. The last,
+ * partial batch is written when the publisher completes, or fails. The write runs on
+ * the thread delivering the last document of the batch.<p/>
+ *
+ * The {@link #getCompletion() completion} of the subscriber is completed with the
+ * number of documents written once the publisher completes and the store is
+ * {@link DocumentStore#flush() flushed}, or exceptionally if the publisher or a write
+ * fails, in which case the subscription is cancelled.
+ */
+@API.Public
+@API.Evolving
+@API.NotThreadSafe
+public class DocumentStoreSubscriber implements Subscriber<Document> {
+
+  private final DocumentStore store;
+  private final int batchSize;
+  private final CompletableFuture<Long> completion = new CompletableFuture<>();
+
+  private Subscription subscription;
+  private List<Document> batch;
+  private long writtenCount;
+  private long batchCount;
+
+  public DocumentStoreSubscriber(@NonNullable DocumentStore store, int batchSize) {
+    Preconditions.checkArgument(batchSize > 0, "batchSize must be positive, found %s", batchSize);
+    this.store = Preconditions.checkNotNull(store);
+    this.batchSize = batchSize;
+    this.batch = new ArrayList<>(batchSize);
+  }
+
+  /**
+   * @return a future completed with the number of documents written
+   */
+  public CompletableFuture<Long> getCompletion() {
+    return completion;
+  }
+
+  /**
+   * @return the number of documents written so far
+   */
+  public long getWrittenCount() {
+    return writtenCount;
+  }
+
+  /**
+   * @return the number of batches written so far
+   */
+  public long getBatchCount() {
+    return batchCount;
+  }
+
+  @Override
+  public void onSubscribe(@NonNullable Subscription subscription) {
+    Preconditions.checkNotNull(subscription);
+    if (this.subscription != null || completion.isDone()) {
+      subscription.cancel(); // a subscriber can only be subscribed once
+      return;
+    }
+    this.subscription = subscription;
+    subscription.request(batchSize);
+  }
+
+  @Override
+  public void onNext(@NonNullable Document document) {
+    Preconditions.checkNotNull(document);
+    if (completion.isDone()) {
+      return; // the subscription was cancelled
+    }
+    batch.add(document);
+    if (batch.size() == batchSize && write()) {
+      subscription.request(batchSize);
+    }
+  }
+
+  @Override
+  public void onError(@NonNullable Throwable throwable) {
+    Preconditions.checkNotNull(throwable);
+    if (!completion.isDone() && write()) {
+      completion.completeExceptionally(throwable);
+    }
+  }
+
+  @Override
+  public void onComplete() {
+    if (completion.isDone() || !write()) {
+      return;
+    }
+    try {
+      store.flush();
+      completion.complete(writtenCount);
+    } catch (RuntimeException e) {
+      completion.completeExceptionally(e);
+    }
+  }
+
+  /**
+   * Writes the current batch, if any.
+   *
+   * @return {@code false} if the write failed, in which case the subscription is cancelled
+   */
+  private boolean write() {
+    if (batch.isEmpty()) {
+      return true;
+    }
+    try {
+      store.insertOrReplace(DocumentStreams.of(batch));
+      writtenCount += batch.size();
+      batchCount++;
+      batch = new ArrayList<>(batchSize);
+      return true;
+    } catch (RuntimeException e) {
+      completion.completeExceptionally(e);
+      if (subscription != null) {
+        subscription.cancel();
+      }
+      return false;
+    }
+  }
+
+}
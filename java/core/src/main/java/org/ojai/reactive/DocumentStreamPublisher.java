@@ -0,0 +1,247 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.reactive;
+
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.ojai.Document;
+import org.ojai.DocumentStream;
+import org.ojai.annotation.API;
+import org.ojai.annotation.API.NonNullable;
+import org.ojai.store.DocumentStore;
+import org.ojai.store.Query;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A {@link Publisher} of the {@link Document}s of a {@link DocumentStream}, such as a
+ * {@link org.ojai.store.QueryResult QueryResult} or a stream parsed from JSON.<p/>
+ *
+ * Unlike {@link DocumentStream#streamTo(org.ojai.DocumentListener)}, the stream is
+ * read only as far as the subscriber has requested: each document is read from the
+ * stream's iterator just before it is passed to {@link Subscriber#onNext(Object)},
+ * so a lazily parsed stream does not advance, and no more than one document is held,
+ * while there is no demand. The stream is closed when it is exhausted, when it fails
+ * and when the subscription is cancelled.<p/>
+ *
+ * The documents are published on the thread which calls
+ * {@link Subscription#request(long)}, or on the {@link Executor} of the publisher if it
+ * has one, one thread at a time. A stream can only be read once, so the publisher
+ * accepts a single subscriber; a publisher {@link #defer(Supplier) deferring} the
+ * creation of its stream, for example to run a query, opens a new stream for each
+ * subscriber instead.
+ */
+@API.Public
+@API.Evolving
+@API.ThreadSafe
+public class DocumentStreamPublisher implements Publisher<Document> {
+
+  private static final Logger logger = LoggerFactory.getLogger(DocumentStreamPublisher.class);
+
+  private final Supplier<? extends DocumentStream> streams;
+  private final Executor executor;
+  private final boolean reusable;
+  private final AtomicBoolean subscribed = new AtomicBoolean();
+
+  /**
+   * Creates a publisher which publishes the documents on the threads requesting them.
+   */
+  public DocumentStreamPublisher(@NonNullable DocumentStream stream) {
+    this(stream, null);
+  }
+
+  /**
+   * Creates a publisher which publishes the documents on the specified executor, or on
+   * the threads requesting them if it is {@code null}.
+   */
+  public DocumentStreamPublisher(@NonNullable DocumentStream stream, Executor executor) {
+    this(singleton(Preconditions.checkNotNull(stream)), executor, false);
+  }
+
+  private DocumentStreamPublisher(Supplier<? extends DocumentStream> streams, Executor executor,
+      boolean reusable) {
+    this.streams = Preconditions.checkNotNull(streams);
+    this.executor = executor;
+    this.reusable = reusable;
+  }
+
+  /**
+   * Returns a publisher which obtains a new stream from the supplier for each
+   * subscriber, once the subscriber first requests documents.
+   */
+  public static DocumentStreamPublisher defer(@NonNullable Supplier<? extends DocumentStream> streams,
+      Executor executor) {
+    return new DocumentStreamPublisher(streams, executor, true);
+  }
+
+  /**
+   * Returns a publisher which runs the query on the store for each subscriber.
+   */
+  public static DocumentStreamPublisher find(@NonNullable DocumentStore store, @NonNullable Query query,
+      Executor executor) {
+    Preconditions.checkNotNull(store);
+    Preconditions.checkNotNull(query);
+    return defer(() -> store.find(query), executor);
+  }
+
+  private static Supplier<DocumentStream> singleton(DocumentStream stream) {
+    return () -> stream;
+  }
+
+  @Override
+  public void subscribe(@NonNullable Subscriber<? super Document> subscriber) {
+    Preconditions.checkNotNull(subscriber);
+    if (!reusable && !subscribed.compareAndSet(false, true)) {
+      subscriber.onSubscribe(CANCELLED);
+      subscriber.onError(new IllegalStateException("A DocumentStream can only be published to one subscriber"));
+      return;
+    }
+    subscriber.onSubscribe(new StreamSubscription(subscriber));
+  }
+
+  private static final Subscription CANCELLED = new Subscription() {
+    @Override
+    public void request(long n) {}
+
+    @Override
+    public void cancel() {}
+  };
+
+  /**
+   * Publishes the documents of one stream. The state is only accessed by the thread
+   * draining the stream, which the counter of pending signals makes exclusive.
+   */
+  private final class StreamSubscription implements Subscription, Runnable {
+    private final Subscriber<? super Document> subscriber;
+    private final AtomicLong demand = new AtomicLong();
+    private final AtomicInteger pending = new AtomicInteger();
+    private volatile boolean cancelled;
+    private volatile Throwable invalidRequest;
+
+    private DocumentStream stream;
+    private Iterator<Document> iterator;
+    private boolean done;
+
+    StreamSubscription(Subscriber<? super Document> subscriber) {
+      this.subscriber = subscriber;
+    }
+
+    @Override
+    public void request(long n) {
+      if (n <= 0) {
+        invalidRequest = new IllegalArgumentException("The number of requested documents must be positive, found " + n);
+      } else {
+        demand.getAndAccumulate(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+      }
+      schedule();
+    }
+
+    @Override
+    public void cancel() {
+      cancelled = true;
+      schedule();
+    }
+
+    private void schedule() {
+      if (pending.getAndIncrement() == 0) {
+        if (executor == null) {
+          run();
+        } else {
+          executor.execute(this);
+        }
+      }
+    }
+
+    @Override
+    public void run() {
+      int missed = 1;
+      do {
+        drain();
+        missed = pending.addAndGet(-missed);
+      } while (missed != 0);
+    }
+
+    private void drain() {
+      if (done) {
+        return;
+      } else if (cancelled) {
+        close();
+        return;
+      } else if (invalidRequest != null) {
+        close();
+        subscriber.onError(invalidRequest);
+        return;
+      }
+
+      try {
+        if (iterator == null) {
+          stream = streams.get();
+          iterator = stream.iterator();
+        }
+        long requested = demand.get();
+        while (requested != 0) {
+          long emitted = 0;
+          while (emitted != requested) {
+            if (cancelled || invalidRequest != null) {
+              return; // handled by the next pass
+            }
+            if (!iterator.hasNext()) {
+              close();
+              subscriber.onComplete();
+              return;
+            }
+            final Document document = iterator.next();
+            try {
+              subscriber.onNext(document);
+            } catch (RuntimeException e) {
+              // a subscriber must not throw, the subscription is considered cancelled
+              logger.warn("Cancelling the subscription of {} which failed", subscriber, e);
+              close();
+              return;
+            }
+            emitted++;
+          }
+          requested = demand.addAndGet(-emitted);
+        }
+      } catch (RuntimeException e) {
+        close();
+        subscriber.onError(e);
+      }
+    }
+
+    private void close() {
+      done = true;
+      if (stream == null && !reusable) {
+        stream = streams.get(); // cancelled before the first request
+      }
+      if (stream != null) {
+        try {
+          stream.close();
+        } catch (RuntimeException e) {
+          logger.debug("Failed to close {}", stream, e);
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,44 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.reactive;
+
+import org.ojai.annotation.API;
+
+/**
+ * A provider of a potentially unbounded number of elements, published according to
+ * the demand received from its {@link Subscriber}s.<p/>
+ *
+ * This interface and {@link Subscriber} and {@link Subscription} have the methods
+ * and contracts of their namesakes in Reactive Streams and in
+ * {@code java.util.concurrent.Flow}, which OJAI can not depend on, so that they can
+ * be bridged to either by delegating each method to its counterpart. On Java 9 and
+ * later, {@code FlowAdapters} converts them to and from {@code Flow}; OJAI has no
+ * adapter for Reactive Streams, whose own {@code FlowAdapters} converts {@code Flow}
+ * to and from {@code org.reactivestreams}.
+ */
+@API.Public
+@API.Evolving
+@FunctionalInterface
+public interface Publisher<T> {
+
+  /**
+   * Requests the publisher to start streaming elements to the subscriber, which is
+   * called back with {@link Subscriber#onSubscribe(Subscription)}, or notified with
+   * {@link Subscriber#onError(Throwable)} if the publisher rejects it.
+   */
+  void subscribe(Subscriber<? super T> subscriber);
+
+}
@@ -0,0 +1,50 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.reactive;
+
+import org.ojai.annotation.API;
+
+/**
+ * A receiver of the elements of a {@link Publisher}. No element is received until
+ * {@link Subscription#request(long)} is called, and the methods are called serially.
+ */
+@API.Public
+@API.Evolving
+public interface Subscriber<T> {
+
+  /**
+   * Called before any other method, with the subscription on which to request
+   * elements.
+   */
+  void onSubscribe(Subscription subscription);
+
+  /**
+   * Called with the next element, once per element requested.
+   */
+  void onNext(T item);
+
+  /**
+   * Called when the publisher fails; no other method is called afterwards.
+   */
+  void onError(Throwable throwable);
+
+  /**
+   * Called when the publisher has no more elements; no other method is called
+   * afterwards.
+   */
+  void onComplete();
+
+}
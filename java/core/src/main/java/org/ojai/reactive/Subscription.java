@@ -0,0 +1,40 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.reactive;
+
+import org.ojai.annotation.API;
+
+/**
+ * The link between a {@link Publisher} and one of its {@link Subscriber}s.
+ */
+@API.Public
+@API.Evolving
+public interface Subscription {
+
+  /**
+   * Adds {@code n} elements to the demand of the subscriber, which may receive up to
+   * the total outstanding demand. A non-positive {@code n} is reported with
+   * {@link Subscriber#onError(Throwable)} and cancels the subscription.
+   */
+  void request(long n);
+
+  /**
+   * Requests the publisher to stop sending elements and to release its resources.
+   * Elements may still be received for a short while.
+   */
+  void cancel();
+
+}
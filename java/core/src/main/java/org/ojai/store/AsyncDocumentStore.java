@@ -0,0 +1,170 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.store;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+import org.ojai.Document;
+import org.ojai.FieldPath;
+import org.ojai.Value;
+import org.ojai.annotation.API;
+import org.ojai.annotation.API.NonNullable;
+import org.ojai.annotation.API.Nullable;
+import org.ojai.store.base.AsyncStoreAdapter;
+import org.ojai.store.exceptions.DocumentNotFoundException;
+import org.ojai.store.exceptions.StoreException;
+
+/**
+ * A non-blocking view of a {@link DocumentStore}. Each operation returns immediately
+ * with a {@link CompletableFuture} which is completed when the operation finishes.
+ * <p/>
+ * An OJAI driver with native asynchronous I/O can implement this interface directly on
+ * its {@link DocumentStore}. For all other stores, {@link AsyncStoreAdapter} runs the
+ * blocking operations on an {@link java.util.concurrent.Executor} with a bounded
+ * number of in-flight requests.
+ *
+ * @see AsyncStoreAdapter#wrap(DocumentStore, java.util.concurrent.Executor, int)
+ */
+@API.Public
+@API.Evolving
+@API.ThreadSafe
+public interface AsyncDocumentStore extends AutoCloseable {
+
+  /**
+   * Returns the {@link DocumentStore} on which the operations of this instance are performed.
+   */
+  public DocumentStore getStore();
+
+  /**
+   * Asynchronously reads the Document with the specified "_id".
+   *
+   * @return a future which is completed with the Document, or with {@code null}
+   *         if the Document does not exist
+   */
+  public CompletableFuture<Document> findByIdAsync(@NonNullable Value _id);
+
+  /**
+   * Asynchronously reads the specified fields of the Document with the given "_id".
+   *
+   * @return a future which is completed with the projected Document, or with
+   *         {@code null} if the Document does not exist
+   */
+  public CompletableFuture<Document> findByIdAsync(@NonNullable Value _id, @NonNullable FieldPath... fieldPaths);
+
+  /**
+   * Asynchronously reads the specified fields of the Document with the given "_id"
+   * if the Document satisfies the condition.
+   *
+   * @return a future which is completed with the projected Document, or with
+   *         {@code null} if the Document does not exist or does not match
+   */
+  public CompletableFuture<Document> findByIdAsync(@NonNullable Value _id,
+      @Nullable QueryCondition condition, @NonNullable FieldPath... fieldPaths);
+
+  /**
+   * Asynchronously executes the query.
+   *
+   * @return a future which is completed with the {@link QueryResult}; the caller
+   *         is responsible for closing the result
+   */
+  public CompletableFuture<QueryResult> findAsync(@NonNullable Query query);
+
+  /**
+   * Asynchronously inserts or replaces the Document using its "_id" field.
+   */
+  public CompletableFuture<Void> insertOrReplaceAsync(@NonNullable Document doc);
+
+  /**
+   * Asynchronously inserts or replaces the Document with the specified "_id".
+   */
+  public CompletableFuture<Void> insertOrReplaceAsync(@NonNullable Value _id, @NonNullable Document doc);
+
+  /**
+   * Asynchronously applies the mutation to the Document with the specified "_id".
+   */
+  public CompletableFuture<Void> updateAsync(@NonNullable Value _id, @NonNullable DocumentMutation mutation);
+
+  /**
+   * Asynchronously applies the mutation to the Document with the specified "_id"
+   * if it satisfies the condition.
+   *
+   * @return a future which is completed with {@code true} if the mutation was applied
+   */
+  public CompletableFuture<Boolean> checkAndMutateAsync(@NonNullable Value _id,
+      @NonNullable QueryCondition condition, @NonNullable DocumentMutation mutation);
+
+  /**
+   * Asynchronously reads the Document with the specified "_id" and notifies
+   * the listener with the outcome. If the Document does not exist, the listener's
+   * {@link OpListener#onFailure(Exception) onFailure()} is invoked with a
+   * {@link DocumentNotFoundException}.
+   */
+  default public void findByIdAsync(@NonNullable Value _id, @NonNullable OpListener listener) {
+    findByIdAsync(_id).whenComplete((document, failure) -> {
+      if (failure != null) {
+        listener.onFailure(unwrap(failure));
+      } else if (document == null) {
+        listener.onFailure(new DocumentNotFoundException("No document found with _id " + _id));
+      } else {
+        listener.onSuccess(document);
+      }
+    });
+  }
+
+  /**
+   * Asynchronously executes the query and notifies the listener of each Document
+   * of the result, in order. Any failure, either while executing the query or while
+   * iterating over the result, is reported to {@link OpListener#onFailure(Exception)}
+   * and terminates the notifications.
+   */
+  default public void findAsync(@NonNullable Query query, @NonNullable OpListener listener) {
+    findAsync(query).whenComplete((result, failure) -> {
+      if (failure != null) {
+        listener.onFailure(unwrap(failure));
+        return;
+      }
+      try (QueryResult documents = result) {
+        for (Document document : documents) {
+          listener.onSuccess(document);
+        }
+      } catch (Exception e) {
+        listener.onFailure(e);
+      }
+    });
+  }
+
+  /**
+   * Closes the underlying {@link DocumentStore} and releases any resources held by this instance.
+   */
+  @Override
+  public void close() throws StoreException;
+
+  /**
+   * Returns the cause of a {@link CompletionException} or {@link ExecutionException}
+   * if it is an {@code Exception}; otherwise wraps the {@code Throwable} in a
+   * {@link StoreException}.
+   */
+  @API.Internal
+  static Exception unwrap(Throwable t) {
+    if ((t instanceof CompletionException || t instanceof ExecutionException) && t.getCause() != null) {
+      t = t.getCause();
+    }
+    return t instanceof Exception ? (Exception) t : new StoreException(t);
+  }
+
+}
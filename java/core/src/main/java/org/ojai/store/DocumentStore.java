@@ -16,6 +16,11 @@
 package org.ojai.store;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
 
 import org.ojai.Document;
 import org.ojai.DocumentStream;
@@ -23,6 +28,7 @@ import org.ojai.FieldPath;
 import org.ojai.Value;
 import org.ojai.annotation.API;
 import org.ojai.annotation.API.NonNullable;
+import org.ojai.base.DocumentStreamBase;
 import org.ojai.store.exceptions.DocumentExistsException;
 import org.ojai.store.exceptions.DocumentNotFoundException;
 import org.ojai.store.exceptions.MultiOpException;
@@ -287,6 +293,57 @@ public interface DocumentStore extends AutoCloseable {
    */
   public Document findById(Value _id, QueryCondition condition, FieldPath...fieldPaths) throws StoreException;
 
+  /**
+   * Returns the Documents with the specified `_id`s, in the order of the `_id`s. The `_id`s
+   * which do not exist in this DocumentStore are skipped. The returned Documents will include
+   * only the specified fields, or all the fields if none is specified.
+   * <p>The returned DocumentStream must be closed after retrieving the documents.
+   * <p>The default implementation calls {@link #findById(Value, FieldPath...)} for each `_id`,
+   * one after the other on the thread consuming the stream. Drivers with a native batch lookup
+   * should override this method; drivers which support concurrent calls may return
+   * {@link org.ojai.store.base.MultiGet#findByIds(DocumentStore, Collection, java.util.concurrent.Executor,
+   * int, FieldPath...) MultiGet.findByIds()} to overlap the lookups.
+   *
+   * @param ids the `_id`s of the documents to return
+   * @param fieldPaths list of fields that should be returned in the read documents
+   *
+   * @return a DocumentStream of the Documents with the specified `_id`s
+   *
+   * @throws StoreException
+   */
+  @API.Evolving
+  default public DocumentStream findByIds(@NonNullable Collection<? extends Value> ids,
+      @NonNullable FieldPath... fieldPaths) throws StoreException {
+    final List<Value> idList = new ArrayList<>(ids);
+    return new DocumentStreamBase() {
+      @Override
+      protected Iterator<Document> iteratorDerived() {
+        final Iterator<Value> it = idList.iterator();
+        return new Iterator<Document>() {
+          private Document next;
+
+          @Override
+          public boolean hasNext() {
+            while (next == null && it.hasNext() && !isClosed()) {
+              next = findById(it.next(), fieldPaths);
+            }
+            return next != null;
+          }
+
+          @Override
+          public Document next() {
+            if (!hasNext()) {
+              throw new NoSuchElementException();
+            }
+            final Document document = next;
+            next = null;
+            return document;
+          }
+        };
+      }
+    };
+  }
+
   /**
    * <p>Executes the specified query on the DocumentStore and return a QueryResult.
    * <p>The returned QueryResult must be closed after retrieving the documents.
@@ -0,0 +1,187 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.store.base;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+import org.ojai.Document;
+import org.ojai.FieldPath;
+import org.ojai.Value;
+import org.ojai.annotation.API;
+import org.ojai.store.AsyncDocumentStore;
+import org.ojai.store.DocumentMutation;
+import org.ojai.store.DocumentStore;
+import org.ojai.store.Query;
+import org.ojai.store.QueryCondition;
+import org.ojai.store.QueryResult;
+import org.ojai.store.exceptions.StoreException;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * An implementation of {@link AsyncDocumentStore} which executes the blocking
+ * operations of a {@link DocumentStore} on an {@link Executor}.
+ * <p/>
+ * At most {@code maxInFlight} operations are submitted to the executor at any time.
+ * An operation requested while that many are outstanding fails immediately with a
+ * {@link RejectedExecutionException}, so that callers on an event loop are never
+ * blocked and can apply their own back-pressure.
+ * <p/>
+ * The wrapped store is invoked concurrently from the executor's threads and must
+ * therefore be thread-safe whenever {@code maxInFlight} is greater than one.
+ */
+@API.Public
+@API.Evolving
+@API.ThreadSafe
+public class AsyncStoreAdapter implements AsyncDocumentStore {
+
+  private final DocumentStore store;
+  private final Executor executor;
+  private final Semaphore permits;
+  private final int maxInFlight;
+
+  /**
+   * Returns an {@link AsyncDocumentStore} for the specified store. If the store
+   * natively implements {@link AsyncDocumentStore}, it is returned as-is, otherwise
+   * it is wrapped in a new {@code AsyncStoreAdapter}.
+   *
+   * @param store the {@link DocumentStore} to perform the operations on
+   * @param executor the {@link Executor} to run the blocking operations on
+   * @param maxInFlight the maximum number of concurrently outstanding operations
+   */
+  public static AsyncDocumentStore wrap(final DocumentStore store, final Executor executor, final int maxInFlight) {
+    if (store instanceof AsyncDocumentStore) {
+      return (AsyncDocumentStore) store;
+    }
+    return new AsyncStoreAdapter(store, executor, maxInFlight);
+  }
+
+  public AsyncStoreAdapter(final DocumentStore store, final Executor executor, final int maxInFlight) {
+    Preconditions.checkArgument(maxInFlight > 0, "maxInFlight must be positive, found %s", maxInFlight);
+    this.store = Preconditions.checkNotNull(store);
+    this.executor = Preconditions.checkNotNull(executor);
+    this.maxInFlight = maxInFlight;
+    this.permits = new Semaphore(maxInFlight);
+  }
+
+  /**
+   * @return the number of operations currently submitted and not yet completed
+   */
+  public int getInFlightCount() {
+    return maxInFlight - permits.availablePermits();
+  }
+
+  public int getMaxInFlight() {
+    return maxInFlight;
+  }
+
+  @Override
+  public DocumentStore getStore() {
+    return store;
+  }
+
+  /**
+   * Submits the operation to the executor if a permit is available.
+   */
+  protected <T> CompletableFuture<T> submit(final Callable<T> operation) {
+    final CompletableFuture<T> future = new CompletableFuture<>();
+    if (!permits.tryAcquire()) {
+      future.completeExceptionally(new RejectedExecutionException(
+          "Too many in-flight operations, the limit is " + maxInFlight));
+      return future;
+    }
+    try {
+      executor.execute(() -> {
+        try {
+          final T result = operation.call();
+          permits.release();
+          future.complete(result);
+        } catch (Throwable t) {
+          permits.release();
+          future.completeExceptionally(t);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      permits.release();
+      future.completeExceptionally(e);
+    }
+    return future;
+  }
+
+  @Override
+  public CompletableFuture<Document> findByIdAsync(final Value _id) {
+    return submit(() -> store.findById(_id));
+  }
+
+  @Override
+  public CompletableFuture<Document> findByIdAsync(final Value _id, final FieldPath... fieldPaths) {
+    return submit(() -> store.findById(_id, fieldPaths));
+  }
+
+  @Override
+  public CompletableFuture<Document> findByIdAsync(final Value _id,
+      final QueryCondition condition, final FieldPath... fieldPaths) {
+    return submit(() -> store.findById(_id, condition, fieldPaths));
+  }
+
+  @Override
+  public CompletableFuture<QueryResult> findAsync(final Query query) {
+    return submit(() -> store.find(query));
+  }
+
+  @Override
+  public CompletableFuture<Void> insertOrReplaceAsync(final Document doc) {
+    return submit(() -> {
+      store.insertOrReplace(doc);
+      return null;
+    });
+  }
+
+  @Override
+  public CompletableFuture<Void> insertOrReplaceAsync(final Value _id, final Document doc) {
+    return submit(() -> {
+      store.insertOrReplace(_id, doc);
+      return null;
+    });
+  }
+
+  @Override
+  public CompletableFuture<Void> updateAsync(final Value _id, final DocumentMutation mutation) {
+    return submit(() -> {
+      store.update(_id, mutation);
+      return null;
+    });
+  }
+
+  @Override
+  public CompletableFuture<Boolean> checkAndMutateAsync(final Value _id,
+      final QueryCondition condition, final DocumentMutation mutation) {
+    return submit(() -> store.checkAndUpdate(_id, condition, mutation));
+  }
+
+  /**
+   * Closes the wrapped store. The executor is owned by the caller and is not shut down.
+   */
+  @Override
+  public void close() throws StoreException {
+    store.close();
+  }
+
+}
@@ -0,0 +1,286 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.store.base;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.ojai.Document;
+import org.ojai.FieldPath;
+import org.ojai.Value;
+import org.ojai.Value.Type;
+import org.ojai.annotation.API;
+import org.ojai.json.JsonOptions;
+import org.ojai.store.DocumentStore;
+import org.ojai.store.QueryCondition;
+import org.ojai.store.exceptions.StoreException;
+import org.ojai.util.BinaryDocumentCodec;
+
+/**
+ * A {@link ForwardingStore} which merges concurrent, identical {@code findById()}
+ * calls into a single call to the wrapped store.<p/>
+ *
+ * While a {@code findById()} for an {@code _id} is in flight, any other thread
+ * requesting the same {@code _id} with the same projection and condition waits for
+ * that call instead of issuing its own, and receives the same result or exception.
+ * Calls are only merged while they overlap; no result is retained once the call which
+ * fetched it has completed, so this is not a cache.<p/>
+ *
+ * Each caller receives its own document: when a call was merged, every caller,
+ * including the one which issued it, receives a copy of the fetched document, so that
+ * the callers can modify their results independently. A call which was not merged
+ * returns the document of the wrapped store as is. All other operations are forwarded
+ * unchanged.
+ */
+@API.Public
+@API.Evolving
+@API.ThreadSafe
+public class CoalescingStore extends ForwardingStore {
+
+  private final DocumentStore store;
+  private final ConcurrentMap<Key, Call> inFlight = new ConcurrentHashMap<>();
+  private final LongAdder coalescedCount = new LongAdder();
+
+  public CoalescingStore(final DocumentStore store) {
+    super(store);
+    this.store = store;
+  }
+
+  /**
+   * @return the number of {@code findById()} calls which were served by the call of
+   *         another thread instead of calling the wrapped store
+   */
+  public long getCoalescedCount() {
+    return coalescedCount.sum();
+  }
+
+  /**
+   * @return the number of distinct {@code findById()} calls currently in flight
+   */
+  public int getInFlightCount() {
+    return inFlight.size();
+  }
+
+  private Document coalesce(final Key key, final Supplier<Document> supplier) {
+    for (;;) {
+      final Call call = new Call();
+      final Call leader = inFlight.putIfAbsent(key, call);
+      if (leader == null) {
+        return lead(key, call, supplier);
+      } else if (leader.join()) {
+        coalescedCount.increment();
+        final Document result = await(leader.future);
+        return result == null ? null : copy(result);
+      }
+      // the leader completed without waiters and returned its document, issue a new call
+    }
+  }
+
+  private Document lead(final Key key, final Call call, final Supplier<Document> supplier) {
+    final Document result;
+    try {
+      result = supplier.get();
+    } catch (Throwable t) {
+      inFlight.remove(key, call);
+      call.future.completeExceptionally(t);
+      throw t;
+    }
+    // callers arriving from now on must issue a new call to observe later writes
+    inFlight.remove(key, call);
+    final boolean shared = call.seal() > 0;
+    call.future.complete(result);
+    return shared && result != null ? copy(result) : result;
+  }
+
+  private static Document await(final CompletableFuture<Document> future) {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new StoreException(cause);
+    }
+  }
+
+  private static Document copy(final Document document) {
+    return BinaryDocumentCodec.decode(BinaryDocumentCodec.encode(document));
+  }
+
+  @Override
+  public Document findById(final String id) throws StoreException {
+    return coalesce(new Key(id, null, null), () -> store.findById(id));
+  }
+
+  @Override
+  public Document findById(final Value id) throws StoreException {
+    return coalesce(new Key(id, null, null), () -> store.findById(id));
+  }
+
+  @Override
+  public Document findById(final String id, final String... paths) throws StoreException {
+    return coalesce(new Key(id, paths, null), () -> store.findById(id, paths));
+  }
+
+  @Override
+  public Document findById(final String id, final FieldPath... paths) throws StoreException {
+    return coalesce(new Key(id, paths, null), () -> store.findById(id, paths));
+  }
+
+  @Override
+  public Document findById(final String id, final QueryCondition c) throws StoreException {
+    return coalesce(new Key(id, null, c), () -> store.findById(id, c));
+  }
+
+  @Override
+  public Document findById(final String id, final QueryCondition c, final String... paths) throws StoreException {
+    return coalesce(new Key(id, paths, c), () -> store.findById(id, c, paths));
+  }
+
+  @Override
+  public Document findById(final String id, final QueryCondition c, final FieldPath... paths) throws StoreException {
+    return coalesce(new Key(id, paths, c), () -> store.findById(id, c, paths));
+  }
+
+  @Override
+  public Document findById(final Value _id, final String... fieldPaths) throws StoreException {
+    return coalesce(new Key(_id, fieldPaths, null), () -> store.findById(_id, fieldPaths));
+  }
+
+  @Override
+  public Document findById(final Value _id, final FieldPath... fieldPaths) throws StoreException {
+    return coalesce(new Key(_id, fieldPaths, null), () -> store.findById(_id, fieldPaths));
+  }
+
+  @Override
+  public Document findById(final Value _id, final QueryCondition condition) throws StoreException {
+    return coalesce(new Key(_id, null, condition), () -> store.findById(_id, condition));
+  }
+
+  @Override
+  public Document findById(final Value _id, final QueryCondition condition, final String... fieldPaths)
+      throws StoreException {
+    return coalesce(new Key(_id, fieldPaths, condition), () -> store.findById(_id, condition, fieldPaths));
+  }
+
+  @Override
+  public Document findById(final Value _id, final QueryCondition condition, final FieldPath... fieldPaths)
+      throws StoreException {
+    return coalesce(new Key(_id, fieldPaths, condition), () -> store.findById(_id, condition, fieldPaths));
+  }
+
+  /**
+   * A {@code findById()} call in flight and the number of callers waiting for it.
+   */
+  private static final class Call {
+    final CompletableFuture<Document> future = new CompletableFuture<>();
+    // -1 once the result was handed to the caller which issued the call
+    final AtomicInteger waiters = new AtomicInteger();
+
+    /**
+     * @return {@code false} if the result was already handed out without a copy
+     */
+    boolean join() {
+      for (;;) {
+        final int n = waiters.get();
+        if (n < 0) {
+          return false;
+        } else if (waiters.compareAndSet(n, n + 1)) {
+          return true;
+        }
+      }
+    }
+
+    /**
+     * @return the number of callers which joined the call
+     */
+    int seal() {
+      return waiters.getAndSet(-1);
+    }
+  }
+
+  /**
+   * Identifies a {@code findById()} request by its {@code _id}, projection and condition.
+   * String and Value ids of type STRING are considered identical, as are
+   * {@code String} and {@link FieldPath} projections with the same path strings.
+   */
+  private static final class Key {
+    private final Type idType;
+    private final String id;
+    private final String projection;
+    private final String condition;
+    private final int hash;
+
+    Key(final String id, final Object[] paths, final QueryCondition condition) {
+      this(Type.STRING, id, paths, condition);
+    }
+
+    Key(final Value id, final Object[] paths, final QueryCondition condition) {
+      this(id.getType(), id.getType() == Type.STRING
+          ? id.getString() : id.asJsonString(JsonOptions.WITH_TAGS), paths, condition);
+    }
+
+    private Key(final Type idType, final String id, final Object[] paths, final QueryCondition condition) {
+      this.idType = idType;
+      this.id = id;
+      this.projection = projectionOf(paths);
+      this.condition = condition == null ? null : condition.asJsonString(JsonOptions.WITH_TAGS);
+      int h = idType.hashCode() * 31 + id.hashCode();
+      h = h * 31 + (projection == null ? 0 : projection.hashCode());
+      this.hash = h * 31 + (this.condition == null ? 0 : this.condition.hashCode());
+    }
+
+    private static String projectionOf(final Object[] paths) {
+      if (paths == null || paths.length == 0) {
+        return null;
+      }
+      final StringBuilder sb = new StringBuilder();
+      for (Object path : paths) {
+        sb.append(path).append(',');
+      }
+      return sb.toString();
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+      if (this == obj) {
+        return true;
+      } else if (!(obj instanceof Key)) {
+        return false;
+      }
+      final Key other = (Key) obj;
+      return hash == other.hash
+          && idType == other.idType
+          && id.equals(other.id)
+          && (projection == null ? other.projection == null : projection.equals(other.projection))
+          && (condition == null ? other.condition == null : condition.equals(other.condition));
+    }
+  }
+
+}
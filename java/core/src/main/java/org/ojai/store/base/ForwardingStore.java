@@ -16,6 +16,7 @@
 package org.ojai.store.base;
 
 import java.math.BigDecimal;
+import java.util.Collection;
 
 import org.ojai.Document;
 import org.ojai.DocumentStream;
@@ -103,6 +104,12 @@ public class ForwardingStore implements DocumentStore {
     return store.findById(_id, condition, fieldPaths);
   }
 
+  @Override
+  public DocumentStream findByIds(final Collection<? extends Value> ids, final FieldPath... fieldPaths)
+      throws StoreException {
+    return store.findByIds(ids, fieldPaths);
+  }
+
   @Override
   public QueryResult find(final Query query) throws StoreException {
     return store.find(query);
@@ -0,0 +1,932 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.store.base;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.ojai.Document;
+import org.ojai.DocumentStream;
+import org.ojai.FieldPath;
+import org.ojai.Value;
+import org.ojai.Value.Type;
+import org.ojai.annotation.API;
+import org.ojai.json.JsonOptions;
+import org.ojai.json.impl.JsonValueBuilder;
+import org.ojai.store.DocumentMutation;
+import org.ojai.store.DocumentStore;
+import org.ojai.store.Driver;
+import org.ojai.store.QueryCondition;
+import org.ojai.store.exceptions.MultiOpException;
+import org.ojai.store.exceptions.StoreException;
+import org.ojai.util.impl.DaemonThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A {@link ForwardingStore} which absorbs {@code increment()} calls in local counters
+ * and periodically applies their sum to the wrapped store, as one
+ * {@link DocumentMutation} per document.<p/>
+ *
+ * Each ({@code _id}, field) pair is backed by a {@link LongAdder} or a
+ * {@link DoubleAdder}, so that concurrent increments of the same counter do not
+ * contend. The counters are flushed every {@code flushInterval}, which bounds how
+ * stale the stored values can be, as well as on {@link #flush()} and {@link #close()}.
+ * A counter whose flush fails is retried at the next flush.<p/>
+ *
+ * To preserve the order of operations on a document, its pending increments are
+ * flushed before any other operation on the same {@code _id}, including
+ * {@code findById()}, and all pending increments are flushed before a bulk operation
+ * on a {@link DocumentStream}. {@code find()} queries are not affected and may not
+ * reflect the increments of the last interval.<p/>
+ *
+ * The buffered field type is the widest of the increments applied to the field, so
+ * a new field is created with the same type as without buffering. As the increments
+ * are summed before being applied, fractional increments of an integral field are
+ * truncated once rather than individually. {@code BigDecimal} increments are not
+ * buffered. The counters of a document are dropped once their increments are
+ * applied; while {@code maxCounters} counters are buffered, increments of other
+ * counters are forwarded directly to the wrapped store.
+ */
+@API.Public
+@API.Evolving
+@API.ThreadSafe
+@SuppressWarnings("deprecation")
+public class IncrementBufferingStore extends ForwardingStore {
+
+  private static final Logger logger = LoggerFactory.getLogger(IncrementBufferingStore.class);
+
+  public static final int DEFAULT_MAX_COUNTERS = 100_000;
+
+  // the widening order of the increment types
+  private static final int BYTE = 0;
+  private static final int SHORT = 1;
+  private static final int INT = 2;
+  private static final int LONG = 3;
+  private static final int FLOAT = 4;
+  private static final int DOUBLE = 5;
+
+  private final DocumentStore store;
+  private final Driver driver;
+  private final int maxCounters;
+  private final ConcurrentMap<String, Counters> pending = new ConcurrentHashMap<>();
+  private final AtomicInteger counterCount = new AtomicInteger();
+  private final ReentrantLock flushLock = new ReentrantLock();
+  private final ScheduledExecutorService scheduler;
+  private final boolean ownsScheduler;
+  private final ScheduledFuture<?> flushTask;
+  private volatile boolean closed;
+
+  /**
+   * Creates an {@code IncrementBufferingStore} which flushes its counters from a
+   * dedicated daemon thread, and buffers up to {@link #DEFAULT_MAX_COUNTERS} counters.
+   *
+   * @param store the {@link DocumentStore} to apply the increments to
+   * @param driver the {@link Driver} used to create the mutations
+   * @param flushInterval the maximum time an increment is buffered
+   * @param unit the unit of {@code flushInterval}
+   */
+  public IncrementBufferingStore(final DocumentStore store, final Driver driver,
+      final long flushInterval, final TimeUnit unit) {
+    this(store, driver, flushInterval, unit, Executors.newSingleThreadScheduledExecutor(
+        new DaemonThreadFactory("ojai-increment-flusher")), true, DEFAULT_MAX_COUNTERS);
+  }
+
+  /**
+   * @param store the {@link DocumentStore} to apply the increments to
+   * @param driver the {@link Driver} used to create the mutations
+   * @param flushInterval the maximum time an increment is buffered
+   * @param unit the unit of {@code flushInterval}
+   * @param scheduler the executor to run the periodic flushes on; it is not shut down
+   *        when this store is closed
+   * @param maxCounters the maximum number of ({@code _id}, field) counters to buffer
+   */
+  public IncrementBufferingStore(final DocumentStore store, final Driver driver,
+      final long flushInterval, final TimeUnit unit, final ScheduledExecutorService scheduler,
+      final int maxCounters) {
+    this(store, driver, flushInterval, unit, scheduler, false, maxCounters);
+  }
+
+  private IncrementBufferingStore(final DocumentStore store, final Driver driver,
+      final long flushInterval, final TimeUnit unit, final ScheduledExecutorService scheduler,
+      final boolean ownsScheduler, final int maxCounters) {
+    super(store);
+    Preconditions.checkArgument(flushInterval > 0, "flushInterval must be positive, found %s", flushInterval);
+    Preconditions.checkArgument(maxCounters > 0, "maxCounters must be positive, found %s", maxCounters);
+    this.store = store;
+    this.driver = Preconditions.checkNotNull(driver);
+    this.maxCounters = maxCounters;
+    this.scheduler = Preconditions.checkNotNull(scheduler);
+    this.ownsScheduler = ownsScheduler;
+    this.flushTask = scheduler.scheduleWithFixedDelay(() -> {
+      try {
+        flushPendingIncrements();
+      } catch (RuntimeException e) {
+        logger.warn("Failed to flush the buffered increments, they will be retried.", e);
+      }
+    }, flushInterval, flushInterval, unit);
+  }
+
+  /**
+   * @return the number of ({@code _id}, field) counters currently buffered
+   */
+  public int getCounterCount() {
+    return counterCount.get();
+  }
+
+  private static String keyOf(final String _id) {
+    return _id;
+  }
+
+  private static String keyOf(final Value _id) {
+    // a STRING _id shares the key of the same id passed as a String
+    return _id.getType() == Type.STRING
+        ? _id.getString() : '\u0000' + _id.getType().name() + _id.asJsonString(JsonOptions.WITH_TAGS);
+  }
+
+  /**
+   * @return the counter of the field, whose owner must be released after the
+   *         increment, or {@code null} if {@code maxCounters} counters exist
+   */
+  private Counter counter(final String key, final Object _id, final String field, final int rank) {
+    Counters counters;
+    while (true) {
+      counters = pending.get(key);
+      if (counters == null) {
+        if (counterCount.get() >= maxCounters) {
+          return null;
+        }
+        counters = pending.computeIfAbsent(key, k -> new Counters(k, _id instanceof Value
+            ? (Value) _id : JsonValueBuilder.initFrom((String) _id)));
+      }
+      if (counters.acquire()) {
+        break;
+      }
+      // dropped by a concurrent flush
+      pending.remove(key, counters);
+    }
+    final FieldPath path = FieldPath.parseFrom(field);
+    Counter counter = counters.fields.get(path);
+    if (counter == null) {
+      if (counterCount.get() >= maxCounters) {
+        counters.release();
+        return null;
+      }
+      final Counters owner = counters;
+      counter = counters.fields.computeIfAbsent(path, p -> {
+        counterCount.incrementAndGet();
+        return new Counter(owner);
+      });
+    }
+    counter.widenTo(rank);
+    return counter;
+  }
+
+  private boolean buffer(final Object _id, final String key, final String field, final long inc, final int rank) {
+    Preconditions.checkState(!closed, "The store is closed");
+    final Counter counter = counter(key, _id, field, rank);
+    if (counter == null) {
+      return false;
+    }
+    try {
+      counter.longs.add(inc);
+      counter.owner.markDirty();
+    } finally {
+      counter.owner.release();
+    }
+    return true;
+  }
+
+  private boolean buffer(final Object _id, final String key, final String field, final double inc, final int rank) {
+    Preconditions.checkState(!closed, "The store is closed");
+    final Counter counter = counter(key, _id, field, rank);
+    if (counter == null) {
+      return false;
+    }
+    try {
+      counter.doubles.add(inc);
+      counter.owner.markDirty();
+    } finally {
+      counter.owner.release();
+    }
+    return true;
+  }
+
+  private boolean buffer(final String _id, final String field, final long inc, final int rank) {
+    return buffer(_id, keyOf(_id), field, inc, rank);
+  }
+
+  private boolean buffer(final Value _id, final String field, final long inc, final int rank) {
+    return buffer(_id, keyOf(_id), field, inc, rank);
+  }
+
+  private boolean buffer(final String _id, final String field, final double inc, final int rank) {
+    return buffer(_id, keyOf(_id), field, inc, rank);
+  }
+
+  private boolean buffer(final Value _id, final String field, final double inc, final int rank) {
+    return buffer(_id, keyOf(_id), field, inc, rank);
+  }
+
+  private void flushPending(final String _id) {
+    flushPendingKey(keyOf(_id));
+  }
+
+  private void flushPending(final Value _id) {
+    if (_id != null) {
+      flushPendingKey(keyOf(_id));
+    }
+  }
+
+  private void flushPending(final Document doc) {
+    flushPending(doc.getId());
+  }
+
+  private void flushPending(final Document doc, final String fieldAsKey) {
+    flushPending(doc.getValue(fieldAsKey));
+  }
+
+  private void flushPending(final Document doc, final FieldPath fieldAsKey) {
+    flushPending(doc.getValue(fieldAsKey));
+  }
+
+  private void flushPendingKey(final String key) {
+    final Counters counters = pending.get(key);
+    if (counters != null && counters.dirty) {
+      flushLock.lock();
+      try {
+        flush(counters);
+      } finally {
+        flushLock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Applies all the buffered increments to the wrapped store, without flushing it.
+   *
+   * @throws StoreException if the increments of any document could not be applied;
+   *         these are retried on the next flush
+   */
+  public void flushPendingIncrements() throws StoreException {
+    flushLock.lock();
+    try {
+      RuntimeException firstFailure = null;
+      int failed = 0;
+      for (Counters counters : pending.values()) {
+        if (counters.dirty) {
+          try {
+            flush(counters);
+          } catch (RuntimeException e) {
+            if (failed++ == 0) {
+              firstFailure = e;
+            }
+          }
+        }
+      }
+      if (failed != 0) {
+        throw new StoreException("Failed to apply the increments of " + failed + " document(s)", firstFailure);
+      }
+    } finally {
+      flushLock.unlock();
+    }
+  }
+
+  /**
+   * Applies the pending increments of one document. Must be called while holding
+   * the flush lock.
+   */
+  private void flush(final Counters counters) {
+    // reset the flag before reading the adders, so that concurrent increments set it again
+    counters.dirty = false;
+    DocumentMutation mutation = null;
+    for (Map.Entry<FieldPath, Counter> entry : counters.fields.entrySet()) {
+      final Counter counter = entry.getValue();
+      if (counter.prepare()) {
+        if (mutation == null) {
+          mutation = driver.newMutation();
+        }
+        counter.addTo(mutation, entry.getKey());
+      }
+    }
+    if (mutation != null) {
+      try {
+        store.update(counters.id, mutation);
+      } catch (RuntimeException e) {
+        for (Counter counter : counters.fields.values()) {
+          counter.rollback();
+        }
+        counters.dirty = true;
+        throw e;
+      }
+      for (Counter counter : counters.fields.values()) {
+        counter.commit();
+      }
+    }
+    drop(counters);
+  }
+
+  /**
+   * Drops the counters of a document if they have nothing left to apply and are not
+   * being incremented. Must be called while holding the flush lock.
+   */
+  private void drop(final Counters counters) {
+    if (counters.dirty || !counters.retire()) {
+      return;
+    }
+    // an increment marks its document dirty before releasing it
+    if (counters.dirty) {
+      counters.unretire();
+      return;
+    }
+    if (pending.remove(counters.key, counters)) {
+      counterCount.addAndGet(-counters.fields.size());
+    }
+  }
+
+  /**
+   * Applies all the buffered increments and flushes the wrapped store.
+   */
+  @Override
+  public void flush() throws StoreException {
+    flushPendingIncrements();
+    store.flush();
+  }
+
+  /**
+   * Stops the periodic flushes, applies all the buffered increments and closes the
+   * wrapped store.
+   */
+  @Override
+  public void close() throws StoreException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    flushTask.cancel(false);
+    if (ownsScheduler) {
+      scheduler.shutdown();
+    }
+    try {
+      flushPendingIncrements();
+    } finally {
+      store.close();
+    }
+  }
+
+  /**
+   * The counters of one document.
+   */
+  private static final class Counters {
+    private final String key;
+    private final Value id;
+    private final ConcurrentMap<FieldPath, Counter> fields = new ConcurrentHashMap<>();
+    // the number of increments in progress, or -1 once the counters are dropped
+    private final AtomicInteger users = new AtomicInteger();
+    private volatile boolean dirty;
+
+    Counters(final String key, final Value id) {
+      this.key = key;
+      this.id = id;
+    }
+
+    boolean acquire() {
+      int current;
+      while ((current = users.get()) >= 0) {
+        if (users.compareAndSet(current, current + 1)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    void release() {
+      users.decrementAndGet();
+    }
+
+    boolean retire() {
+      return users.compareAndSet(0, -1);
+    }
+
+    void unretire() {
+      users.set(0);
+    }
+
+    void markDirty() {
+      // only write the flag when needed, to not contend on a hot counter
+      if (!dirty) {
+        dirty = true;
+      }
+    }
+  }
+
+  /**
+   * The sum of the increments of one field. The adders are never reset; instead the
+   * amount already applied to the store is tracked, so that no concurrent increment
+   * can be lost.
+   */
+  private static final class Counter {
+    private final Counters owner;
+    private final LongAdder longs = new LongAdder();
+    private final DoubleAdder doubles = new DoubleAdder();
+    private final AtomicInteger rank = new AtomicInteger(BYTE);
+    // guarded by the flush lock
+    private long appliedLong;
+    private double appliedDouble;
+    private long deltaLong;
+    private double deltaDouble;
+
+    Counter(final Counters owner) {
+      this.owner = owner;
+    }
+
+    void widenTo(final int newRank) {
+      int current;
+      while (newRank > (current = rank.get())) {
+        if (rank.compareAndSet(current, newRank)) {
+          break;
+        }
+      }
+    }
+
+    boolean prepare() {
+      deltaLong = longs.sum() - appliedLong;
+      deltaDouble = doubles.sum() - appliedDouble;
+      return deltaLong != 0 || deltaDouble != 0;
+    }
+
+    void commit() {
+      appliedLong += deltaLong;
+      appliedDouble += deltaDouble;
+      deltaLong = 0;
+      deltaDouble = 0;
+    }
+
+    void rollback() {
+      deltaLong = 0;
+      deltaDouble = 0;
+    }
+
+    void addTo(final DocumentMutation mutation, final FieldPath path) {
+      final int type = rank.get();
+      switch (type) {
+      case DOUBLE:
+        mutation.increment(path, deltaDouble + deltaLong);
+        break;
+      case FLOAT:
+        mutation.increment(path, (float) (deltaDouble + deltaLong));
+        break;
+      default:
+        if (type == BYTE && deltaLong == (byte) deltaLong) {
+          mutation.increment(path, (byte) deltaLong);
+        } else if (type <= SHORT && deltaLong == (short) deltaLong) {
+          mutation.increment(path, (short) deltaLong);
+        } else if (type <= INT && deltaLong == (int) deltaLong) {
+          mutation.increment(path, (int) deltaLong);
+        } else {
+          mutation.increment(path, deltaLong);
+        }
+      }
+    }
+  }
+
+  @Override
+  public Document findById(final Value _id, final String... fieldPaths) throws StoreException {
+    flushPending(_id);
+    return store.findById(_id, fieldPaths);
+  }
+
+  @Override
+  public Document findById(final Value _id, final FieldPath... fieldPaths) throws StoreException {
+    flushPending(_id);
+    return store.findById(_id, fieldPaths);
+  }
+
+  @Override
+  public Document findById(final Value _id, final QueryCondition condition) throws StoreException {
+    flushPending(_id);
+    return store.findById(_id, condition);
+  }
+
+  @Override
+  public Document findById(final Value _id, final QueryCondition condition, final String... fieldPaths)
+      throws StoreException {
+    flushPending(_id);
+    return store.findById(_id, condition, fieldPaths);
+  }
+
+  @Override
+  public Document findById(final Value _id, final QueryCondition condition, final FieldPath... fieldPaths)
+      throws StoreException {
+    flushPending(_id);
+    return store.findById(_id, condition, fieldPaths);
+  }
+
+  @Override
+  public void insertOrReplace(final Value _id, final Document doc) throws StoreException {
+    flushPending(_id);
+    store.insertOrReplace(_id, doc);
+  }
+
+  @Override
+  public void update(final Value _id, final DocumentMutation mutation) throws StoreException {
+    flushPending(_id);
+    store.update(_id, mutation);
+  }
+
+  @Override
+  public void delete(final Value _id) throws StoreException {
+    flushPending(_id);
+    store.delete(_id);
+  }
+
+  @Override
+  public void insert(final Value _id, final Document doc) throws StoreException {
+    flushPending(_id);
+    store.insert(_id, doc);
+  }
+
+  @Override
+  public void replace(final Value _id, final Document doc) throws StoreException {
+    flushPending(_id);
+    store.replace(_id, doc);
+  }
+
+  @Override
+  public void increment(final Value _id, final String field, final byte inc) throws StoreException {
+    if (!buffer(_id, field, inc, BYTE)) {
+      store.increment(_id, field, inc);
+    }
+  }
+
+  @Override
+  public void increment(final Value _id, final String field, final short inc) throws StoreException {
+    if (!buffer(_id, field, inc, SHORT)) {
+      store.increment(_id, field, inc);
+    }
+  }
+
+  @Override
+  public void increment(final Value _id, final String field, final int inc) throws StoreException {
+    if (!buffer(_id, field, inc, INT)) {
+      store.increment(_id, field, inc);
+    }
+  }
+
+  @Override
+  public void increment(final Value _id, final String field, final long inc) throws StoreException {
+    if (!buffer(_id, field, inc, LONG)) {
+      store.increment(_id, field, inc);
+    }
+  }
+
+  @Override
+  public void increment(final Value _id, final String field, final float inc) throws StoreException {
+    if (!buffer(_id, field, inc, FLOAT)) {
+      store.increment(_id, field, inc);
+    }
+  }
+
+  @Override
+  public void increment(final Value _id, final String field, final double inc) throws StoreException {
+    if (!buffer(_id, field, inc, DOUBLE)) {
+      store.increment(_id, field, inc);
+    }
+  }
+
+  @Override
+  public void increment(final Value _id, final String field, final BigDecimal inc) throws StoreException {
+    flushPending(_id);
+    store.increment(_id, field, inc);
+  }
+
+  @Override
+  public boolean checkAndMutate(final Value _id, final QueryCondition condition, final DocumentMutation mutation)
+      throws StoreException {
+    flushPending(_id);
+    return store.checkAndUpdate(_id, condition, mutation);
+  }
+
+  @Override
+  public boolean checkAndDelete(final Value _id, final QueryCondition condition) throws StoreException {
+    flushPending(_id);
+    return store.checkAndDelete(_id, condition);
+  }
+
+  @Override
+  public boolean checkAndReplace(final Value _id, final QueryCondition condition, final Document doc)
+      throws StoreException {
+    flushPending(_id);
+    return store.checkAndReplace(_id, condition, doc);
+  }
+
+  @Override
+  public Document findById(final String id) throws StoreException {
+    flushPending(id);
+    return store.findById(id);
+  }
+
+  @Override
+  public Document findById(final Value id) throws StoreException {
+    flushPending(id);
+    return store.findById(id);
+  }
+
+  @Override
+  public Document findById(final String id, final String... paths) throws StoreException {
+    flushPending(id);
+    return store.findById(id, paths);
+  }
+
+  @Override
+  public Document findById(final String id, final FieldPath... paths) throws StoreException {
+    flushPending(id);
+    return store.findById(id, paths);
+  }
+
+  @Override
+  public Document findById(final String id, final QueryCondition c) throws StoreException {
+    flushPending(id);
+    return store.findById(id, c);
+  }
+
+  @Override
+  public Document findById(final String id, final QueryCondition c, final String... paths) throws StoreException {
+    flushPending(id);
+    return store.findById(id, c, paths);
+  }
+
+  @Override
+  public Document findById(final String id, final QueryCondition c, final FieldPath... paths) throws StoreException {
+    flushPending(id);
+    return store.findById(id, c, paths);
+  }
+
+  @Override
+  public void insertOrReplace(final Document r) throws StoreException {
+    flushPending(r);
+    store.insertOrReplace(r);
+  }
+
+  @Override
+  public void insertOrReplace(final String id, final Document r) throws StoreException {
+    flushPending(id);
+    store.insertOrReplace(id, r);
+  }
+
+  @Override
+  public void insertOrReplace(final Document r, final FieldPath fieldAsKey) throws StoreException {
+    flushPending(r, fieldAsKey);
+    store.insertOrReplace(r, fieldAsKey);
+  }
+
+  @Override
+  public void insertOrReplace(final Document r, final String fieldAsKey) throws StoreException {
+    flushPending(r, fieldAsKey);
+    store.insertOrReplace(r, fieldAsKey);
+  }
+
+  @Override
+  public void insertOrReplace(final DocumentStream rs) throws MultiOpException {
+    flushPendingIncrements();
+    store.insertOrReplace(rs);
+  }
+
+  @Override
+  public void insertOrReplace(final DocumentStream rs, final FieldPath fieldAsKey) throws MultiOpException {
+    flushPendingIncrements();
+    store.insertOrReplace(rs, fieldAsKey);
+  }
+
+  @Override
+  public void insertOrReplace(final DocumentStream rs, final String fieldAsKey) throws MultiOpException {
+    flushPendingIncrements();
+    store.insertOrReplace(rs, fieldAsKey);
+  }
+
+  @Override
+  public void update(final String id, final DocumentMutation m) throws StoreException {
+    flushPending(id);
+    store.update(id, m);
+  }
+
+  @Override
+  public void delete(final String id) throws StoreException {
+    flushPending(id);
+    store.delete(id);
+  }
+
+  @Override
+  public void delete(final Document r) throws StoreException {
+    flushPending(r);
+    store.delete(r);
+  }
+
+  @Override
+  public void delete(final Document r, final FieldPath fieldAsKey) throws StoreException {
+    flushPending(r, fieldAsKey);
+    store.delete(r, fieldAsKey);
+  }
+
+  @Override
+  public void delete(final Document r, final String fieldAsKey) throws StoreException {
+    flushPending(r, fieldAsKey);
+    store.delete(r, fieldAsKey);
+  }
+
+  @Override
+  public void delete(final DocumentStream rs) throws MultiOpException {
+    flushPendingIncrements();
+    store.delete(rs);
+  }
+
+  @Override
+  public void delete(final DocumentStream rs, final FieldPath fieldAsKey) throws MultiOpException {
+    flushPendingIncrements();
+    store.delete(rs, fieldAsKey);
+  }
+
+  @Override
+  public void delete(final DocumentStream rs, final String fieldAsKey) throws MultiOpException {
+    flushPendingIncrements();
+    store.delete(rs, fieldAsKey);
+  }
+
+  @Override
+  public void insert(final String id, final Document r) throws StoreException {
+    flushPending(id);
+    store.insert(id, r);
+  }
+
+  @Override
+  public void insert(final Document r) throws StoreException {
+    flushPending(r);
+    store.insert(r);
+  }
+
+  @Override
+  public void insert(final Document r, final FieldPath fieldAsKey) throws StoreException {
+    flushPending(r, fieldAsKey);
+    store.insert(r, fieldAsKey);
+  }
+
+  @Override
+  public void insert(final Document r, final String fieldAsKey) throws StoreException {
+    flushPending(r, fieldAsKey);
+    store.insert(r, fieldAsKey);
+  }
+
+  @Override
+  public void insert(final DocumentStream rs) throws MultiOpException {
+    flushPendingIncrements();
+    store.insert(rs);
+  }
+
+  @Override
+  public void insert(final DocumentStream rs, final FieldPath fieldAsKey) throws MultiOpException {
+    flushPendingIncrements();
+    store.insert(rs, fieldAsKey);
+  }
+
+  @Override
+  public void insert(final DocumentStream rs, final String fieldAsKey) throws MultiOpException {
+    flushPendingIncrements();
+    store.insert(rs, fieldAsKey);
+  }
+
+  @Override
+  public void replace(final String id, final Document r) throws StoreException {
+    flushPending(id);
+    store.replace(id, r);
+  }
+
+  @Override
+  public void replace(final Document r) throws StoreException {
+    flushPending(r);
+    store.replace(r);
+  }
+
+  @Override
+  public void replace(final Document r, final FieldPath fieldAsKey) throws StoreException {
+    flushPending(r, fieldAsKey);
+    store.replace(r, fieldAsKey);
+  }
+
+  @Override
+  public void replace(final Document r, final String fieldAsKey) throws StoreException {
+    flushPending(r, fieldAsKey);
+    store.replace(r, fieldAsKey);
+  }
+
+  @Override
+  public void replace(final DocumentStream rs) throws MultiOpException {
+    flushPendingIncrements();
+    store.replace(rs);
+  }
+
+  @Override
+  public void replace(final DocumentStream rs, final FieldPath fieldAsKey) throws MultiOpException {
+    flushPendingIncrements();
+    store.replace(rs, fieldAsKey);
+  }
+
+  @Override
+  public void replace(final DocumentStream rs, final String fieldAsKey) throws MultiOpException {
+    flushPendingIncrements();
+    store.replace(rs, fieldAsKey);
+  }
+
+  @Override
+  public void increment(final String id, final String field, final byte inc) throws StoreException {
+    if (!buffer(id, field, inc, BYTE)) {
+      store.increment(id, field, inc);
+    }
+  }
+
+  @Override
+  public void increment(final String id, final String field, final short inc) throws StoreException {
+    if (!buffer(id, field, inc, SHORT)) {
+      store.increment(id, field, inc);
+    }
+  }
+
+  @Override
+  public void increment(final String id, final String field, final int inc) throws StoreException {
+    if (!buffer(id, field, inc, INT)) {
+      store.increment(id, field, inc);
+    }
+  }
+
+  @Override
+  public void increment(final String id, final String field, final long inc) throws StoreException {
+    if (!buffer(id, field, inc, LONG)) {
+      store.increment(id, field, inc);
+    }
+  }
+
+  @Override
+  public void increment(final String id, final String field, final float inc) throws StoreException {
+    if (!buffer(id, field, inc, FLOAT)) {
+      store.increment(id, field, inc);
+    }
+  }
+
+  @Override
+  public void increment(final String id, final String field, final double inc) throws StoreException {
+    if (!buffer(id, field, inc, DOUBLE)) {
+      store.increment(id, field, inc);
+    }
+  }
+
+  @Override
+  public void increment(final String id, final String field, final BigDecimal inc) throws StoreException {
+    flushPending(id);
+    store.increment(id, field, inc);
+  }
+
+  @Override
+  public boolean checkAndMutate(final String id, final QueryCondition condition, final DocumentMutation m)
+      throws StoreException {
+    flushPending(id);
+    return store.checkAndMutate(id, condition, m);
+  }
+
+  @Override
+  public boolean checkAndDelete(final String id, final QueryCondition condition) throws StoreException {
+    flushPending(id);
+    return store.checkAndDelete(id, condition);
+  }
+
+  @Override
+  public boolean checkAndReplace(final String id, final QueryCondition condition, final Document r)
+      throws StoreException {
+    flushPending(id);
+    return store.checkAndReplace(id, condition, r);
+  }
+
+}
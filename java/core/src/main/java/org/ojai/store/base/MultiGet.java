@@ -0,0 +1,186 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.store.base;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+
+import org.ojai.Document;
+import org.ojai.DocumentStream;
+import org.ojai.FieldPath;
+import org.ojai.Value;
+import org.ojai.annotation.API;
+import org.ojai.annotation.API.NonNullable;
+import org.ojai.base.DocumentStreamBase;
+import org.ojai.exceptions.OjaiException;
+import org.ojai.store.DocumentStore;
+import org.ojai.store.exceptions.StoreException;
+import org.ojai.util.impl.DaemonThreadFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * An implementation of {@link DocumentStore#findByIds(Collection, FieldPath...)} which
+ * issues concurrent {@code findById()} calls, for the callers and drivers of stores
+ * which support them.<p/>
+ *
+ * Up to {@code maxConcurrency} lookups are in flight at any time. The lookups start
+ * as soon as the stream is created and, as each document is consumed, the lookup of
+ * the next {@code _id} is started, so that the round-trips overlap with each other and
+ * with the processing of the results while memory stays bounded.<p/>
+ *
+ * The documents are returned in the order of the {@code _id}s, and the {@code _id}s
+ * which do not exist are skipped. If a lookup fails, its exception is thrown when the
+ * stream reaches it. Closing the stream cancels the lookups which have not started.
+ */
+@API.Public
+@API.Evolving
+public final class MultiGet {
+
+  /**
+   * The maximum number of concurrent lookups on the shared pool.
+   */
+  public static final int DEFAULT_CONCURRENCY = 16;
+
+  private MultiGet() {}
+
+  /**
+   * Looks up the documents with the specified {@code _id}s with at most
+   * {@link #DEFAULT_CONCURRENCY} concurrent calls, on a shared pool of daemon threads.
+   */
+  public static DocumentStream findByIds(@NonNullable final DocumentStore store,
+      @NonNullable final Collection<? extends Value> ids, @NonNullable final FieldPath... fieldPaths) {
+    return findByIds(store, ids, DefaultExecutorHolder.EXECUTOR, DEFAULT_CONCURRENCY, fieldPaths);
+  }
+
+  /**
+   * Looks up the documents with the specified {@code _id}s.
+   *
+   * @param store the {@link DocumentStore} to call {@code findById()} on; it is called
+   *        concurrently from the threads of the executor
+   * @param ids the {@code _id}s of the documents to look up
+   * @param executor the {@link Executor} to run the lookups on
+   * @param maxConcurrency the maximum number of lookups in flight at any time
+   * @param fieldPaths the fields to return, or none to return entire documents
+   */
+  public static DocumentStream findByIds(@NonNullable final DocumentStore store,
+      @NonNullable final Collection<? extends Value> ids, @NonNullable final Executor executor,
+      final int maxConcurrency, @NonNullable final FieldPath... fieldPaths) {
+    Preconditions.checkArgument(maxConcurrency > 0, "maxConcurrency must be positive, found %s", maxConcurrency);
+    return new PipelinedStream(Preconditions.checkNotNull(store), new ArrayList<Value>(ids),
+        Preconditions.checkNotNull(executor), maxConcurrency, fieldPaths);
+  }
+
+  private static final class DefaultExecutorHolder {
+    static final ExecutorService EXECUTOR = DaemonThreadFactory.newCachedThreadPool("ojai-multiget");
+  }
+
+  private static final class PipelinedStream extends DocumentStreamBase {
+    private final DocumentStore store;
+    private final Iterator<Value> pending;
+    private final Executor executor;
+    private final FieldPath[] fieldPaths;
+    private final ArrayDeque<CompletableFuture<Document>> window;
+
+    PipelinedStream(final DocumentStore store, final List<Value> ids, final Executor executor,
+        final int maxConcurrency, final FieldPath[] fieldPaths) {
+      this.store = store;
+      this.pending = ids.iterator();
+      this.executor = executor;
+      this.fieldPaths = fieldPaths;
+      this.window = new ArrayDeque<>(Math.min(maxConcurrency, ids.size()));
+      for (int i = 0; i < maxConcurrency && pending.hasNext(); i++) {
+        submitNext();
+      }
+    }
+
+    private void submitNext() {
+      final Value _id = pending.next();
+      window.add(CompletableFuture.supplyAsync(() -> store.findById(_id, fieldPaths), executor));
+    }
+
+    /**
+     * @return the next document, or {@code null} at the end of the stream
+     */
+    private Document take() {
+      while (!window.isEmpty()) {
+        final CompletableFuture<Document> head = window.poll();
+        final Document document;
+        try {
+          document = head.join();
+        } catch (CompletionException e) {
+          final Throwable cause = e.getCause();
+          if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+          } else if (cause instanceof Error) {
+            throw (Error) cause;
+          }
+          throw new StoreException(cause);
+        } finally {
+          if (pending.hasNext()) {
+            submitNext();
+          }
+        }
+        if (document != null) {
+          return document;
+        }
+      }
+      return null;
+    }
+
+    @Override
+    protected Iterator<Document> iteratorDerived() {
+      return new Iterator<Document>() {
+        private Document next;
+
+        @Override
+        public boolean hasNext() {
+          if (next == null) {
+            next = take();
+          }
+          return next != null;
+        }
+
+        @Override
+        public Document next() {
+          if (!hasNext()) {
+            throw new NoSuchElementException();
+          }
+          final Document document = next;
+          next = null;
+          return document;
+        }
+      };
+    }
+
+    @Override
+    protected void closeDerived() throws OjaiException {
+      for (CompletableFuture<Document> future : window) {
+        future.cancel(false);
+      }
+      window.clear();
+    }
+  }
+
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.store.bulk;
+
+import java.util.concurrent.TimeUnit;
+
+import org.ojai.annotation.API;
+import org.ojai.store.metrics.LatencyHistogram;
+
+/**
+ * A point-in-time summary of the progress of a {@link BulkLoader}.
+ */
+@API.Public
+@API.Evolving
+@API.Immutable
+public final class BulkLoadReport {
+
+  private final long skippedCount;
+  private final long readCount;
+  private final long writtenCount;
+  private final long deadLetterCount;
+  private final long retryCount;
+  private final long batchCount;
+  private final long checkpoint;
+  private final long elapsedNanos;
+  private final LatencyHistogram.Snapshot batchLatency;
+
+  BulkLoadReport(long skippedCount, long readCount, long writtenCount, long deadLetterCount,
+      long retryCount, long batchCount, long checkpoint, long elapsedNanos,
+      LatencyHistogram.Snapshot batchLatency) {
+    this.skippedCount = skippedCount;
+    this.readCount = readCount;
+    this.writtenCount = writtenCount;
+    this.deadLetterCount = deadLetterCount;
+    this.retryCount = retryCount;
+    this.batchCount = batchCount;
+    this.checkpoint = checkpoint;
+    this.elapsedNanos = elapsedNanos;
+    this.batchLatency = batchLatency;
+  }
+
+  /**
+   * @return the number of input documents skipped because an earlier load, whose
+   *         checkpoint was resumed, had processed them
+   */
+  public long getSkippedCount() {
+    return skippedCount;
+  }
+
+  /**
+   * @return the number of input documents read and dispatched to the workers
+   */
+  public long getReadCount() {
+    return readCount;
+  }
+
+  /**
+   * @return the number of documents written to the store
+   */
+  public long getWrittenCount() {
+    return writtenCount;
+  }
+
+  /**
+   * @return the number of documents which permanently failed to be written
+   */
+  public long getDeadLetterCount() {
+    return deadLetterCount;
+  }
+
+  /**
+   * @return the number of documents whose write was retried, counted once per retry
+   */
+  public long getRetryCount() {
+    return retryCount;
+  }
+
+  /**
+   * @return the number of batch writes, including retries
+   */
+  public long getBatchCount() {
+    return batchCount;
+  }
+
+  /**
+   * @return the position in the input before which every document has been written
+   *         or dead-lettered, counting the skipped documents
+   */
+  public long getCheckpoint() {
+    return checkpoint;
+  }
+
+  public long getElapsed(TimeUnit unit) {
+    return unit.convert(elapsedNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * @return the number of documents written per second since the load started
+   */
+  public double getDocumentsPerSecond() {
+    return elapsedNanos == 0 ? 0 : writtenCount * 1e9 / elapsedNanos;
+  }
+
+  /**
+   * @return the latencies of the batch writes to the store
+   */
+  public LatencyHistogram.Snapshot getBatchLatency() {
+    return batchLatency;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("read %d (skipped %d), written %d, dead letters %d, retries %d, batches %d, "
+        + "checkpoint %d, %.0f docs/s, batch p50 %.1f ms, p99 %.1f ms",
+        readCount, skippedCount, writtenCount, deadLetterCount, retryCount, batchCount, checkpoint,
+        getDocumentsPerSecond(), batchLatency.getValueAtPercentile(50) / 1e6,
+        batchLatency.getValueAtPercentile(99) / 1e6);
+  }
+
+}
@@ -0,0 +1,683 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.store.bulk;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import org.ojai.Document;
+import org.ojai.DocumentStream;
+import org.ojai.Value;
+import org.ojai.annotation.API;
+import org.ojai.annotation.API.NonNullable;
+import org.ojai.json.Json;
+import org.ojai.store.Connection;
+import org.ojai.store.DocumentStore;
+import org.ojai.store.DriverManager;
+import org.ojai.store.exceptions.ConcurrencyLimitExceededException;
+import org.ojai.store.exceptions.ConnectionException;
+import org.ojai.store.exceptions.FailedOp;
+import org.ojai.store.exceptions.MultiOpException;
+import org.ojai.store.exceptions.StoreException;
+import org.ojai.store.metrics.LatencyHistogram;
+import org.ojai.util.DocumentStreams;
+import org.ojai.util.impl.DaemonThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Loads a {@link DocumentStream}, or files of JSON documents, into a
+ * {@link DocumentStore} with several worker threads.<p/>
+ *
+ * The calling thread reads the input and routes each document by the hash of its
+ * {@code _id} to one of {@link #setThreadCount(int) threadCount} workers, so that the
+ * writes of a given {@code _id} keep their input order. The documents of a worker are
+ * grouped in batches of {@link #setBatchSize(int) batchSize}, queued in a bounded
+ * queue of {@link #setQueueDepth(int) queueDepth} batches, which blocks the reader when
+ * the store can not keep up. Each worker writes its batches to its own store, with
+ * {@link DocumentStore#insertOrReplace(DocumentStream) insertOrReplace()} or
+ * {@link DocumentStore#insert(DocumentStream) insert()}, obtained from the supplier of
+ * the loader or, for {@link #forStore(String, String)}, from its own
+ * {@link DriverManager} connection.<p/>
+ *
+ * The {@link FailedOp}s of a batch whose exception is {@link #setRetryable(Predicate)
+ * retryable}, by default a connection error, a timeout or a rejection by a
+ * concurrency limit, are written again after an exponential backoff with jitter, up
+ * to {@link #setMaxAttempts(int) maxAttempts} times. The other failed documents are
+ * written to the {@link #setDeadLetterFile(File) dead-letter file}, one JSON document
+ * per line of the form {@code {"error": ..., "attempts": ..., "document": {...}}}. The
+ * load is aborted once there are more than {@link #setMaxDeadLetters(long)
+ * maxDeadLetters}.<p/>
+ *
+ * At every {@link #setCheckpointInterval(long, TimeUnit) checkpoint interval}, and at
+ * the end of the load, the position in the input before which every document has
+ * been written or dead-lettered is saved to the {@link #setCheckpointFile(File)
+ * checkpoint file}, and a {@link BulkLoadReport} is passed to the
+ * {@link #setProgressListener(Consumer) progress listener}. A load with an existing
+ * checkpoint file skips the documents before the saved position, so an interrupted
+ * load can be resumed with the same input; the documents after it may be written
+ * twice, which {@link Mode#INSERT_OR_REPLACE} makes harmless.
+ */
+@API.Public
+@API.Evolving
+@API.NotThreadSafe
+public class BulkLoader {
+
+  private static final Logger logger = LoggerFactory.getLogger(BulkLoader.class);
+
+  public static final int DEFAULT_THREAD_COUNT = 4;
+  public static final int DEFAULT_BATCH_SIZE = 500;
+  public static final int DEFAULT_QUEUE_DEPTH = 4;
+  public static final int DEFAULT_MAX_ATTEMPTS = 5;
+  public static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 100;
+  public static final long DEFAULT_MAX_BACKOFF_MILLIS = 10_000;
+  public static final long DEFAULT_CHECKPOINT_INTERVAL_MILLIS = 10_000;
+
+  /**
+   * How documents are written to the store.
+   */
+  public enum Mode {
+    /** With {@link DocumentStore#insert(DocumentStream)}, failing for existing documents */
+    INSERT,
+
+    /** With {@link DocumentStore#insertOrReplace(DocumentStream)} */
+    INSERT_OR_REPLACE
+  }
+
+  private static final Batch END = new Batch(-1, 0);
+
+  private static final long POLL_MILLIS = 100;
+
+  private final Supplier<Target> targets;
+
+  private int threadCount = DEFAULT_THREAD_COUNT;
+  private int batchSize = DEFAULT_BATCH_SIZE;
+  private int queueDepth = DEFAULT_QUEUE_DEPTH;
+  private Mode mode = Mode.INSERT_OR_REPLACE;
+  private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+  private long initialBackoffNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_INITIAL_BACKOFF_MILLIS);
+  private long maxBackoffNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_MAX_BACKOFF_MILLIS);
+  private Predicate<? super Exception> retryable = BulkLoader::isTransient;
+  private File deadLetterFile;
+  private long maxDeadLetters = Long.MAX_VALUE;
+  private File checkpointFile;
+  private long checkpointIntervalNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_CHECKPOINT_INTERVAL_MILLIS);
+  private Consumer<? super BulkLoadReport> progressListener;
+
+  /**
+   * Creates a loader whose workers each write to a store obtained from the supplier.
+   * The stores are not closed by the loader.
+   */
+  public BulkLoader(@NonNullable final Supplier<? extends DocumentStore> stores) {
+    Preconditions.checkNotNull(stores);
+    this.targets = () -> new Target(stores.get(), null);
+  }
+
+  private BulkLoader(final String url, final String storeName) {
+    this.targets = () -> {
+      final Connection connection = DriverManager.getConnection(url);
+      try {
+        return new Target(connection.getStore(storeName), connection);
+      } catch (RuntimeException e) {
+        connection.close();
+        throw e;
+      }
+    };
+  }
+
+  /**
+   * Returns a loader whose workers each open a connection to the specified OJAI url and
+   * write to the named store, closing both at the end of the load.
+   */
+  public static BulkLoader forStore(@NonNullable final String url, @NonNullable final String storeName) {
+    return new BulkLoader(Preconditions.checkNotNull(url), Preconditions.checkNotNull(storeName));
+  }
+
+  /**
+   * @return {@code true} if the exception, or one of its causes, is a connection
+   *         error, a timeout or a rejection which may not happen again
+   */
+  public static boolean isTransient(final Throwable exception) {
+    for (Throwable t = exception; t != null; t = t.getCause()) {
+      if (t instanceof ConnectionException
+          || t instanceof ConcurrencyLimitExceededException
+          || t instanceof TimeoutException
+          || t instanceof RejectedExecutionException
+          || t instanceof IOException) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public BulkLoader setThreadCount(final int threadCount) {
+    Preconditions.checkArgument(threadCount > 0, "threadCount must be positive, found %s", threadCount);
+    this.threadCount = threadCount;
+    return this;
+  }
+
+  /**
+   * Sets the maximum number of documents written by a single call to the store.
+   */
+  public BulkLoader setBatchSize(final int batchSize) {
+    Preconditions.checkArgument(batchSize > 0, "batchSize must be positive, found %s", batchSize);
+    this.batchSize = batchSize;
+    return this;
+  }
+
+  /**
+   * Sets the number of batches queued for each worker before the reader blocks.
+   */
+  public BulkLoader setQueueDepth(final int queueDepth) {
+    Preconditions.checkArgument(queueDepth > 0, "queueDepth must be positive, found %s", queueDepth);
+    this.queueDepth = queueDepth;
+    return this;
+  }
+
+  public BulkLoader setMode(@NonNullable final Mode mode) {
+    this.mode = Preconditions.checkNotNull(mode);
+    return this;
+  }
+
+  /**
+   * Sets the maximum number of times a document is written before it is dead-lettered.
+   */
+  public BulkLoader setMaxAttempts(final int maxAttempts) {
+    Preconditions.checkArgument(maxAttempts > 0, "maxAttempts must be positive, found %s", maxAttempts);
+    this.maxAttempts = maxAttempts;
+    return this;
+  }
+
+  /**
+   * Sets the delay before the first retry, which doubles with every attempt up to the
+   * maximum delay. Each delay is reduced by a random jitter of up to a half.
+   */
+  public BulkLoader setBackoff(final long initialBackoff, final long maxBackoff, @NonNullable final TimeUnit unit) {
+    Preconditions.checkArgument(initialBackoff >= 0 && maxBackoff >= initialBackoff,
+        "Invalid backoff %s to %s", initialBackoff, maxBackoff);
+    this.initialBackoffNanos = unit.toNanos(initialBackoff);
+    this.maxBackoffNanos = unit.toNanos(maxBackoff);
+    return this;
+  }
+
+  /**
+   * Sets the predicate telling whether the exception of a failed write is transient,
+   * in which case the write is retried.
+   */
+  public BulkLoader setRetryable(@NonNullable final Predicate<? super Exception> retryable) {
+    this.retryable = Preconditions.checkNotNull(retryable);
+    return this;
+  }
+
+  /**
+   * Sets the file to append the documents which can not be written to; by default, they
+   * are only counted and logged.
+   */
+  public BulkLoader setDeadLetterFile(final File deadLetterFile) {
+    this.deadLetterFile = deadLetterFile;
+    return this;
+  }
+
+  /**
+   * Sets the number of dead letters above which the load is aborted.
+   */
+  public BulkLoader setMaxDeadLetters(final long maxDeadLetters) {
+    Preconditions.checkArgument(maxDeadLetters >= 0, "maxDeadLetters must not be negative, found %s", maxDeadLetters);
+    this.maxDeadLetters = maxDeadLetters;
+    return this;
+  }
+
+  /**
+   * Sets the file to save the progress of the load to, and to resume it from if it
+   * exists.
+   */
+  public BulkLoader setCheckpointFile(final File checkpointFile) {
+    this.checkpointFile = checkpointFile;
+    return this;
+  }
+
+  public BulkLoader setCheckpointInterval(final long interval, @NonNullable final TimeUnit unit) {
+    Preconditions.checkArgument(interval >= 0, "interval must not be negative, found %s", interval);
+    this.checkpointIntervalNanos = unit.toNanos(interval);
+    return this;
+  }
+
+  /**
+   * Sets the listener called, from a worker thread, with the progress of the load at
+   * every checkpoint, and from the calling thread at the end of the load.
+   */
+  public BulkLoader setProgressListener(final Consumer<? super BulkLoadReport> progressListener) {
+    this.progressListener = progressListener;
+    return this;
+  }
+
+  /**
+   * Loads the documents of the stream, which is not closed.
+   *
+   * @return the final report of the load
+   * @throws StoreException if the load is aborted because the input, a store or the
+   *         dead-letter file failed, or there were too many dead letters
+   */
+  public BulkLoadReport load(@NonNullable final DocumentStream input) throws StoreException {
+    Preconditions.checkNotNull(input);
+    return load(run -> run.dispatchAll(input));
+  }
+
+  /**
+   * Loads the JSON documents of the files, in order.
+   *
+   * @see #load(DocumentStream)
+   */
+  public BulkLoadReport load(@NonNullable final List<File> files) throws StoreException {
+    Preconditions.checkNotNull(files);
+    return load(run -> {
+      for (File file : files) {
+        try (InputStream in = new FileInputStream(file);
+            DocumentStream input = Json.newDocumentStream(in)) {
+          run.dispatchAll(input);
+        }
+        if (run.failure.get() != null) {
+          return;
+        }
+      }
+    });
+  }
+
+  @FunctionalInterface
+  private interface Input {
+    void readInto(Run run) throws IOException, InterruptedException;
+  }
+
+  private BulkLoadReport load(final Input input) throws StoreException {
+    final Run run = new Run(readCheckpoint());
+    final ExecutorService workers = Executors.newFixedThreadPool(threadCount,
+        new DaemonThreadFactory("ojai-bulk-load"));
+    try {
+      for (int i = 0; i < threadCount; i++) {
+        final int worker = i;
+        workers.execute(() -> run.work(worker));
+      }
+      try {
+        input.readInto(run);
+        run.finish();
+      } catch (Throwable t) {
+        run.abort(t);
+      }
+    } finally {
+      workers.shutdown();
+      try {
+        while (!workers.awaitTermination(POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+          logger.debug("Waiting for the bulk load workers to finish");
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        run.abort(e);
+        workers.shutdownNow();
+      }
+      run.close();
+    }
+
+    final BulkLoadReport report = run.checkpoint();
+    final Throwable failure = run.failure.get();
+    if (failure != null) {
+      throw new StoreException("The bulk load was aborted at position " + report.getCheckpoint(), failure);
+    }
+    logger.info("Bulk load complete: {}", report);
+    return report;
+  }
+
+  private long readCheckpoint() {
+    if (checkpointFile == null || !checkpointFile.exists()) {
+      return 0;
+    }
+    try {
+      final long position = Json.loadDocument(checkpointFile).getLong("position");
+      logger.info("Resuming the bulk load from position {} saved in {}", position, checkpointFile);
+      return position;
+    } catch (IOException | RuntimeException e) {
+      throw new StoreException("Can not read the checkpoint " + checkpointFile, e);
+    }
+  }
+
+  private long backoffNanos(final int attempt) {
+    final long backoff = initialBackoffNanos << Math.min(attempt - 1, 30);
+    final long capped = backoff < 0 || backoff > maxBackoffNanos ? maxBackoffNanos : backoff;
+    return capped - (long) (ThreadLocalRandom.current().nextDouble() * capped / 2);
+  }
+
+  /**
+   * A run of documents of the input, starting at {@code firstPosition}.
+   */
+  private static final class Batch {
+    final long firstPosition;
+    final List<Document> documents;
+
+    Batch(long firstPosition, int capacity) {
+      this.firstPosition = firstPosition;
+      this.documents = new ArrayList<>(capacity);
+    }
+  }
+
+  private static final class Target implements AutoCloseable {
+    final DocumentStore store;
+    final Connection connection;
+
+    Target(DocumentStore store, Connection connection) {
+      this.store = Preconditions.checkNotNull(store);
+      this.connection = connection;
+    }
+
+    @Override
+    public void close() {
+      if (connection != null) {
+        try {
+          store.close();
+        } catch (Exception e) {
+          logger.warn("Failed to close {}", store, e);
+        }
+        connection.close();
+      }
+    }
+  }
+
+  /**
+   * The state of one load.
+   */
+  private final class Run {
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+    final long startNanos = System.nanoTime();
+    final long skip;
+
+    // written by the reader
+    final List<BlockingQueue<Batch>> queues = new ArrayList<>(threadCount);
+    final Batch[] pending = new Batch[threadCount];
+    volatile long position;
+    volatile long readCount;
+
+    // the first positions of the batches which are not written yet
+    final ConcurrentSkipListSet<Long> outstanding = new ConcurrentSkipListSet<>();
+
+    final LongAdder writtenCount = new LongAdder();
+    final LongAdder deadLetterCount = new LongAdder();
+    final LongAdder retryCount = new LongAdder();
+    final LongAdder batchCount = new LongAdder();
+    final LatencyHistogram batchLatency = new LatencyHistogram();
+
+    final Object checkpointLock = new Object();
+    long lastCheckpointNanos = System.nanoTime();
+    long lastCheckpoint;
+    FileOutputStream deadLetterStream;
+    Writer deadLetters;
+
+    Run(long skip) {
+      this.skip = skip;
+      this.lastCheckpoint = skip;
+      for (int i = 0; i < threadCount; i++) {
+        queues.add(new ArrayBlockingQueue<>(queueDepth));
+      }
+    }
+
+    void dispatchAll(DocumentStream input) throws InterruptedException {
+      for (Document document : input) {
+        if (failure.get() != null) {
+          return;
+        }
+        dispatch(document);
+      }
+    }
+
+    private void dispatch(Document document) throws InterruptedException {
+      final long p = position;
+      if (p < skip) {
+        position = p + 1;
+        return;
+      }
+      final Value id = document.getId();
+      final int worker = (int) Math.floorMod(id == null ? p : id.asJsonString().hashCode(), (long) threadCount);
+      Batch batch = pending[worker];
+      if (batch == null) {
+        batch = pending[worker] = new Batch(p, batchSize);
+        outstanding.add(p); // before the position moves past it
+      }
+      batch.documents.add(document);
+      position = p + 1;
+      readCount++;
+      if (batch.documents.size() == batchSize) {
+        pending[worker] = null;
+        enqueue(worker, batch);
+      }
+    }
+
+    private void enqueue(int worker, Batch batch) throws InterruptedException {
+      while (!queues.get(worker).offer(batch, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+        if (failure.get() != null) {
+          return;
+        }
+      }
+    }
+
+    void finish() throws InterruptedException {
+      for (int i = 0; i < threadCount; i++) {
+        if (pending[i] != null) {
+          enqueue(i, pending[i]);
+          pending[i] = null;
+        }
+        enqueue(i, END);
+      }
+    }
+
+    void abort(Throwable t) {
+      if (failure.compareAndSet(null, t)) {
+        logger.error("Aborting the bulk load at position {}", getCheckpoint(), t);
+      }
+    }
+
+    void work(int worker) {
+      final BlockingQueue<Batch> queue = queues.get(worker);
+      try (Target target = targets.get()) {
+        while (failure.get() == null) {
+          final Batch batch = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+          if (batch == END) {
+            return;
+          } else if (batch != null) {
+            write(target.store, batch.documents);
+            outstanding.remove(batch.firstPosition);
+            if (checkpointIntervalNanos == 0
+                || System.nanoTime() - lastCheckpointNanos >= checkpointIntervalNanos) {
+              checkpoint();
+            }
+          }
+        }
+      } catch (Throwable t) {
+        abort(t);
+      }
+    }
+
+    private void write(DocumentStore store, List<Document> documents) throws InterruptedException, IOException {
+      for (int attempt = 1; ; attempt++) {
+        List<FailedOp> failures = Collections.emptyList();
+        final long start = System.nanoTime();
+        try {
+          if (mode == Mode.INSERT) {
+            store.insert(DocumentStreams.of(documents));
+          } else {
+            store.insertOrReplace(DocumentStreams.of(documents));
+          }
+        } catch (MultiOpException e) {
+          if (e.iterator() == null) {
+            // the failed operations are unknown, the whole batch failed
+            failures = failAll(documents, e);
+          } else {
+            failures = new ArrayList<>();
+            for (FailedOp op : e) {
+              failures.add(op);
+            }
+          }
+        } catch (RuntimeException e) {
+          failures = failAll(documents, e);
+        } finally {
+          batchLatency.record(System.nanoTime() - start);
+          batchCount.increment();
+        }
+        writtenCount.add(documents.size() - failures.size());
+
+        final List<Document> retries = new ArrayList<>();
+        for (FailedOp op : failures) {
+          if (attempt < maxAttempts && op.getDocument() != null && retryable.test(op.getException())) {
+            retries.add(op.getDocument());
+          } else {
+            deadLetter(op, attempt);
+          }
+        }
+        if (retries.isEmpty()) {
+          return;
+        }
+        retryCount.add(retries.size());
+        TimeUnit.NANOSECONDS.sleep(backoffNanos(attempt));
+        documents = retries;
+      }
+    }
+
+    /**
+     * @return a failure of every document of a batch, for a failure of the whole batch
+     */
+    private List<FailedOp> failAll(List<Document> documents, RuntimeException e) {
+      final List<FailedOp> failures = new ArrayList<>(documents.size());
+      for (Document document : documents) {
+        failures.add(new FailedOp(document, e));
+      }
+      return failures;
+    }
+
+    private void deadLetter(FailedOp op, int attempts) throws IOException {
+      deadLetterCount.increment();
+      logger.debug("Dead-lettering a document after {} attempts", attempts, op.getException());
+      if (deadLetterFile != null) {
+        final Document record = Json.newDocument()
+            .set("error", String.valueOf(op.getException()))
+            .set("attempts", attempts);
+        if (op.getDocument() != null) {
+          record.set("document", op.getDocument());
+        }
+        synchronized (this) {
+          if (deadLetters == null) {
+            deadLetterStream = new FileOutputStream(deadLetterFile, true);
+            deadLetters = new BufferedWriter(new OutputStreamWriter(deadLetterStream, StandardCharsets.UTF_8));
+          }
+          deadLetters.write(record.asJsonString());
+          deadLetters.write('\n');
+        }
+      }
+      if (deadLetterCount.sum() > maxDeadLetters) {
+        throw new StoreException("More than " + maxDeadLetters + " documents could not be written");
+      }
+    }
+
+    long getCheckpoint() {
+      final long p = position; // read before the outstanding batches
+      final Long first = outstanding.isEmpty() ? null : outstanding.first();
+      final long checkpoint = first == null ? p : Math.min(first, p);
+      return Math.max(checkpoint, skip);
+    }
+
+    /**
+     * Saves the checkpoint, if it moved forward, and reports the progress.
+     */
+    BulkLoadReport checkpoint() {
+      synchronized (checkpointLock) {
+        lastCheckpointNanos = System.nanoTime();
+        final long checkpoint = getCheckpoint();
+        if (checkpointFile != null && checkpoint > lastCheckpoint) {
+          try {
+            synchronized (this) {
+              if (deadLetters != null) {
+                // the dead letters before the checkpoint are durable
+                deadLetters.flush();
+                deadLetterStream.getFD().sync();
+              }
+            }
+            final File temp = new File(checkpointFile.getPath() + ".tmp");
+            try (FileOutputStream out = new FileOutputStream(temp)) {
+              out.write(Json.newDocument()
+                  .set("position", checkpoint)
+                  .set("written", writtenCount.sum())
+                  .set("deadLetters", deadLetterCount.sum())
+                  .asJsonString().getBytes(StandardCharsets.UTF_8));
+              out.getFD().sync(); // the content is durable before the file is renamed
+            }
+            Files.move(temp.toPath(), checkpointFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            lastCheckpoint = checkpoint;
+          } catch (IOException e) {
+            abort(e);
+          }
+        }
+        final BulkLoadReport report = new BulkLoadReport(Math.min(position, skip), readCount,
+            writtenCount.sum(), deadLetterCount.sum(), retryCount.sum(), batchCount.sum(), checkpoint,
+            System.nanoTime() - startNanos, batchLatency.snapshot());
+        logger.debug("Bulk load progress: {}", report);
+        if (progressListener != null) {
+          progressListener.accept(report);
+        }
+        return report;
+      }
+    }
+
+    synchronized void close() {
+      if (deadLetters != null) {
+        try {
+          try {
+            deadLetters.flush();
+            deadLetterStream.getFD().sync();
+          } finally {
+            deadLetters.close();
+          }
+        } catch (IOException e) {
+          abort(e);
+        }
+      }
+    }
+  }
+
+}
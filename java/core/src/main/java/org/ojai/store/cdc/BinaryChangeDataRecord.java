@@ -0,0 +1,591 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.store.cdc;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.ojai.FieldPath;
+import org.ojai.KeyValue;
+import org.ojai.Value;
+import org.ojai.Value.Type;
+import org.ojai.annotation.API;
+import org.ojai.annotation.API.NonNullable;
+import org.ojai.exceptions.DecodingException;
+import org.ojai.exceptions.RangeException;
+import org.ojai.exceptions.TypeException;
+import org.ojai.types.ODate;
+import org.ojai.types.OInterval;
+import org.ojai.types.OTime;
+import org.ojai.types.OTimestamp;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A {@link ChangeDataRecord} read in place from its compact binary encoding, as
+ * written by {@link BinaryChangeDataWriter}.<p/>
+ *
+ * An instance is a flyweight which can be {@link #wrap(ByteBuffer, int, int) wrapped}
+ * around one record after another. Its {@link #getReader() reader} walks the encoded
+ * events without copying them: field names, binary values and unscaled decimals are
+ * handed out as read-only slices of the buffer, and primitive values, including
+ * {@link ChangeDataReader#getDateInt() dates}, {@link ChangeDataReader#getTimeInt()
+ * times}, {@link ChangeDataReader#getTimestampLong() timestamps} and
+ * {@link ChangeDataReader#getIntervalMillis() intervals}, are decoded without creating
+ * objects. To avoid allocation, the record returns the same reader from every call to
+ * {@code getReader()}, reset to the first event, and the reader returns the same
+ * slices, repositioned, for every event; both are only valid until the record is
+ * wrapped around another one.<p/>
+ *
+ * The encoding of a record is, with multi-byte integers in big-endian order:
+ * <pre>
+ * record    := version:u8 type:u8 opTimestamp:i64 serverTimestamp:i64 id:value event*
+ * event     := flags:u8 [op:u8] [name:bytes | index:varint] [value]
+ * flags     := the ChangeEvent code (bits 0-2) | NAMED (0x08) | INDEXED (0x10) | VALUE (0x20)
+ * value     := type:u8 payload
+ * bytes     := length:varint byte*
+ * </pre>
+ * The {@link ChangeOp} code is present on every event except {@code END_MAP} and
+ * {@code END_ARRAY}, and the value only on the {@code NODE} events which have one. The
+ * payload of a value is empty for {@code NULL}, one byte for {@code BOOLEAN} and
+ * {@code BYTE}, the fixed-width integer or IEEE 754 bits of the other numbers, the
+ * days since epoch of a {@code DATE}, the milliseconds of the day of a {@code TIME}, the
+ * milliseconds since epoch of a {@code TIMESTAMP} and the milliseconds of an
+ * {@code INTERVAL}. A {@code STRING} is encoded as UTF-8 bytes, a {@code BINARY} as its
+ * bytes, and a {@code DECIMAL} as its {@code i32} scale followed by the bytes of the
+ * two's complement representation of its unscaled value. The change nodes all have the
+ * timestamps of the record.
+ */
+@API.Public
+@API.Evolving
+@API.NotThreadSafe
+public class BinaryChangeDataRecord implements ChangeDataRecord {
+
+  static final byte VERSION = 1;
+  static final int HEADER_SIZE = 18;
+
+  static final int EVENT_MASK = 0x07;
+  static final int NAMED = 0x08;
+  static final int INDEXED = 0x10;
+  static final int VALUE = 0x20;
+
+  private static final ChangeEvent[] EVENTS = new ChangeEvent[8];
+  private static final ChangeOp[] OPS = new ChangeOp[8];
+  private static final Type[] TYPES = new Type[32];
+  private static final ChangeDataRecordType[] RECORD_TYPES = new ChangeDataRecordType[4];
+  static {
+    for (ChangeEvent e : ChangeEvent.values()) {
+      EVENTS[e.getCode()] = e;
+    }
+    for (ChangeOp op : ChangeOp.values()) {
+      OPS[op.getCode()] = op;
+    }
+    for (Type t : Type.values()) {
+      TYPES[t.getCode()] = t;
+    }
+    for (ChangeDataRecordType t : ChangeDataRecordType.values()) {
+      RECORD_TYPES[t.getCode()] = t;
+    }
+  }
+
+  private ByteBuffer buffer;
+  private int offset;
+  private int end;
+  private int eventsOffset;
+  private Value id;
+  private final Reader reader = new Reader();
+
+  /**
+   * Creates a record which must be {@link #wrap(ByteBuffer, int, int) wrapped} around
+   * an encoded record before use.
+   */
+  public BinaryChangeDataRecord() {}
+
+  /**
+   * @return a record reading the specified encoded record
+   */
+  public static BinaryChangeDataRecord of(@NonNullable byte[] bytes) {
+    return new BinaryChangeDataRecord().wrap(ByteBuffer.wrap(bytes), 0, bytes.length);
+  }
+
+  /**
+   * Points this record at the encoded record at the specified position of a buffer.
+   * The position and limit of the buffer are neither used nor modified.
+   *
+   * @return {@code this}
+   * @throws DecodingException if the buffer does not hold an encoded record
+   */
+  public BinaryChangeDataRecord wrap(@NonNullable ByteBuffer buffer, int offset, int length) {
+    Preconditions.checkArgument(offset >= 0 && length >= 0 && offset + length <= buffer.capacity(),
+        "Invalid offset and length");
+    if (length < HEADER_SIZE + 1 || buffer.get(offset) != VERSION) {
+      throw new DecodingException("Not a binary change data record");
+    }
+    final int type = buffer.get(offset + 1);
+    if (type <= 0 || type >= RECORD_TYPES.length || RECORD_TYPES[type] == null) {
+      throw new DecodingException("Invalid record type " + type);
+    }
+    this.buffer = buffer;
+    this.offset = offset;
+    this.end = offset + length;
+    this.id = null;
+    reader.bind(buffer, offset, offset + HEADER_SIZE, end);
+    this.eventsOffset = reader.readValue(offset + HEADER_SIZE);
+    reader.bind(buffer, offset, eventsOffset, end);
+    return this;
+  }
+
+  /**
+   * @return the length in bytes of the encoded record
+   */
+  public int getLength() {
+    return end - offset;
+  }
+
+  @Override
+  public Value getId() {
+    if (id == null) {
+      final Reader r = new Reader();
+      r.bind(buffer, offset, offset + HEADER_SIZE, end);
+      r.readValue(offset + HEADER_SIZE);
+      id = ChangeDataReaders.readScalar(r);
+    }
+    return id;
+  }
+
+  @Override
+  public ChangeDataRecordType getType() {
+    return RECORD_TYPES[buffer.get(offset + 1)];
+  }
+
+  @Override
+  public long getOpTimestamp() {
+    return buffer.getLong(offset + 2);
+  }
+
+  @Override
+  public long getServerTimestamp() {
+    return buffer.getLong(offset + 10);
+  }
+
+  @Override
+  public Iterator<KeyValue<FieldPath, ChangeNode>> iterator() {
+    final Reader r = new Reader();
+    r.bind(buffer, offset, eventsOffset, end);
+    return ChangeDataReaders.readNodes(r, getOpTimestamp(), getServerTimestamp()).iterator();
+  }
+
+  /**
+   * Returns the reader of this record, reset to its first event. The same reader is
+   * returned by every call.
+   */
+  @Override
+  public ChangeDataReader getReader() {
+    Preconditions.checkState(buffer != null, "The record is not wrapped around a buffer");
+    reader.bind(buffer, offset, eventsOffset, end);
+    return reader;
+  }
+
+  @Override
+  public String toString() {
+    return buffer == null ? "<unwrapped>" : SimpleChangeDataRecord.toString(this);
+  }
+
+  /**
+   * Reads an unsigned LEB128 varint at {@code position[0]}, advancing it past the varint.
+   */
+  static int readVarint(ByteBuffer buffer, int[] position) {
+    int pos = position[0];
+    int result = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      final byte b = buffer.get(pos++);
+      result |= (b & 0x7f) << shift;
+      if (b >= 0) {
+        position[0] = pos;
+        return result;
+      }
+    }
+    throw new DecodingException("Malformed varint at " + position[0]);
+  }
+
+  private static final class Reader implements ChangeDataReader {
+    private final int[] cursor = new int[1];
+    private ByteBuffer buffer;
+    private int record;
+    private int end;
+    private int position;
+
+    private ChangeEvent event;
+    private ChangeOp op;
+    private int nameOffset;
+    private int nameLength;
+    private int index;
+    private Type type;
+    private int valueOffset;
+    private int valueLength;
+    private int scale;
+
+    private ByteBuffer nameSlice;
+    private ByteBuffer valueSlice;
+
+    void bind(ByteBuffer buffer, int record, int start, int end) {
+      if (this.buffer != buffer) {
+        this.buffer = buffer;
+        nameSlice = null;
+        valueSlice = null;
+      }
+      this.record = record;
+      this.end = end;
+      this.position = start;
+      event = null;
+      op = null;
+      type = null;
+      nameLength = -1;
+      index = -1;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return position < end;
+    }
+
+    @Override
+    public ChangeEvent next() {
+      if (position >= end) {
+        throw new NoSuchElementException();
+      }
+      final int flags = buffer.get(position++);
+      event = EVENTS[flags & EVENT_MASK];
+      if (event == null) {
+        throw new DecodingException("Invalid event flags " + flags + " at " + (position - 1));
+      }
+      op = ChangeOp.NULL;
+      if (event != ChangeEvent.END_MAP && event != ChangeEvent.END_ARRAY) {
+        final int code = buffer.get(position++);
+        op = code > 0 && code < OPS.length ? OPS[code] : null;
+        if (op == null) {
+          throw new DecodingException("Invalid change op " + code + " at " + (position - 1));
+        }
+      }
+      nameLength = -1;
+      index = -1;
+      if ((flags & NAMED) != 0) {
+        cursor[0] = position;
+        nameLength = readVarint(buffer, cursor);
+        nameOffset = cursor[0];
+        position = nameOffset + nameLength;
+      } else if ((flags & INDEXED) != 0) {
+        cursor[0] = position;
+        index = readVarint(buffer, cursor);
+        position = cursor[0];
+      }
+      type = null;
+      if ((flags & VALUE) != 0) {
+        position = readValue(position);
+      }
+      if (position > end) {
+        throw new DecodingException("Truncated change data record");
+      }
+      return event;
+    }
+
+    /**
+     * Decodes the type and extent of the value at the specified position.
+     *
+     * @return the position following the value
+     */
+    int readValue(int pos) {
+      final int code = buffer.get(pos++);
+      type = code > 0 && code < TYPES.length ? TYPES[code] : null;
+      if (type == null || !type.isScalar()) {
+        throw new DecodingException("Invalid value type " + code + " at " + (pos - 1));
+      }
+      valueOffset = pos;
+      switch (type) {
+      case NULL:
+        valueLength = 0;
+        break;
+      case BOOLEAN:
+      case BYTE:
+        valueLength = 1;
+        break;
+      case SHORT:
+        valueLength = 2;
+        break;
+      case INT:
+      case FLOAT:
+      case DATE:
+      case TIME:
+        valueLength = 4;
+        break;
+      case LONG:
+      case DOUBLE:
+      case TIMESTAMP:
+      case INTERVAL:
+        valueLength = 8;
+        break;
+      case DECIMAL:
+        scale = buffer.getInt(pos);
+        pos += 4;
+        // falls through to the length prefixed bytes
+      default:
+        cursor[0] = pos;
+        valueLength = readVarint(buffer, cursor);
+        valueOffset = cursor[0];
+        break;
+      }
+      if (valueOffset + valueLength > end) {
+        throw new DecodingException("Truncated value at " + pos);
+      }
+      return valueOffset + valueLength;
+    }
+
+    private void check(Type expected) {
+      if (type != expected) {
+        throw new TypeException("The current node is " + (type == null ? "not a value" : type)
+            + ", not " + expected);
+      }
+    }
+
+    private ByteBuffer slice(ByteBuffer slice, int offset, int length) {
+      if (slice == null) {
+        slice = buffer.asReadOnlyBuffer();
+      }
+      // the limit first, the slice may be positioned beyond the new limit
+      slice.limit(offset + length);
+      slice.position(offset);
+      return slice;
+    }
+
+    private byte[] copy(int offset, int length) {
+      final byte[] bytes = new byte[length];
+      for (int i = 0; i < length; i++) {
+        bytes[i] = buffer.get(offset + i);
+      }
+      return bytes;
+    }
+
+    private String utf8(int offset, int length) {
+      if (buffer.hasArray()) {
+        return new String(buffer.array(), buffer.arrayOffset() + offset, length, StandardCharsets.UTF_8);
+      }
+      return new String(copy(offset, length), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public ChangeOp getOp() {
+      return op;
+    }
+
+    @Override
+    public String getFieldName() {
+      return nameLength < 0 ? null : utf8(nameOffset, nameLength);
+    }
+
+    @Override
+    public ByteBuffer getFieldNameBytes() {
+      if (nameLength < 0) {
+        return null;
+      }
+      nameSlice = slice(nameSlice, nameOffset, nameLength);
+      return nameSlice;
+    }
+
+    @Override
+    public int getArrayIndex() {
+      return index;
+    }
+
+    @Override
+    public boolean inMap() {
+      return index < 0;
+    }
+
+    @Override
+    public boolean inArray() {
+      return index >= 0;
+    }
+
+    @Override
+    public Type getType() {
+      return type;
+    }
+
+    @Override
+    public long getOpTimestamp() {
+      return buffer.getLong(record + 2);
+    }
+
+    @Override
+    public long getServerTimestamp() {
+      return buffer.getLong(record + 10);
+    }
+
+    @Override
+    public byte getByte() {
+      check(Type.BYTE);
+      return buffer.get(valueOffset);
+    }
+
+    @Override
+    public short getShort() {
+      check(Type.SHORT);
+      return buffer.getShort(valueOffset);
+    }
+
+    @Override
+    public int getInt() {
+      check(Type.INT);
+      return buffer.getInt(valueOffset);
+    }
+
+    @Override
+    public long getLong() {
+      check(Type.LONG);
+      return buffer.getLong(valueOffset);
+    }
+
+    @Override
+    public float getFloat() {
+      check(Type.FLOAT);
+      return buffer.getFloat(valueOffset);
+    }
+
+    @Override
+    public double getDouble() {
+      check(Type.DOUBLE);
+      return buffer.getDouble(valueOffset);
+    }
+
+    @Override
+    public BigDecimal getDecimal() {
+      check(Type.DECIMAL);
+      if (valueLength == 0) {
+        return BigDecimal.valueOf(0, scale);
+      }
+      return new BigDecimal(new BigInteger(copy(valueOffset, valueLength)), scale);
+    }
+
+    @Override
+    public int getDecimalPrecision() {
+      return getDecimal().precision();
+    }
+
+    @Override
+    public int getDecimalScale() {
+      check(Type.DECIMAL);
+      return scale;
+    }
+
+    private long unscaled(int maxBytes) {
+      check(Type.DECIMAL);
+      if (valueLength > maxBytes) {
+        throw new RangeException("The unscaled value of " + getDecimal() + " does not fit in "
+            + maxBytes + " bytes");
+      }
+      long value = valueLength == 0 ? 0 : buffer.get(valueOffset);
+      for (int i = 1; i < valueLength; i++) {
+        value = (value << 8) | (buffer.get(valueOffset + i) & 0xff);
+      }
+      return value;
+    }
+
+    @Override
+    public int getDecimalValueAsInt() {
+      return (int) unscaled(4);
+    }
+
+    @Override
+    public long getDecimalValueAsLong() {
+      return unscaled(8);
+    }
+
+    @Override
+    public ByteBuffer getDecimalValueAsBytes() {
+      check(Type.DECIMAL);
+      valueSlice = slice(valueSlice, valueOffset, valueLength);
+      return valueSlice;
+    }
+
+    @Override
+    public boolean getBoolean() {
+      check(Type.BOOLEAN);
+      return buffer.get(valueOffset) != 0;
+    }
+
+    @Override
+    public String getString() {
+      check(Type.STRING);
+      return utf8(valueOffset, valueLength);
+    }
+
+    @Override
+    public long getTimestampLong() {
+      check(Type.TIMESTAMP);
+      return buffer.getLong(valueOffset);
+    }
+
+    @Override
+    public OTimestamp getTimestamp() {
+      return new OTimestamp(getTimestampLong());
+    }
+
+    @Override
+    public int getDateInt() {
+      check(Type.DATE);
+      return buffer.getInt(valueOffset);
+    }
+
+    @Override
+    public ODate getDate() {
+      return ODate.fromDaysSinceEpoch(getDateInt());
+    }
+
+    @Override
+    public int getTimeInt() {
+      check(Type.TIME);
+      return buffer.getInt(valueOffset);
+    }
+
+    @Override
+    public OTime getTime() {
+      return OTime.fromMillisOfDay(getTimeInt());
+    }
+
+    @Override
+    public OInterval getInterval() {
+      return new OInterval(getIntervalMillis());
+    }
+
+    @Override
+    public long getIntervalMillis() {
+      check(Type.INTERVAL);
+      return buffer.getLong(valueOffset);
+    }
+
+    @Override
+    public ByteBuffer getBinary() {
+      check(Type.BINARY);
+      valueSlice = slice(valueSlice, valueOffset, valueLength);
+      return valueSlice;
+    }
+  }
+
+}
@@ -0,0 +1,277 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.store.cdc;
+
+import static org.ojai.store.cdc.BinaryChangeDataRecord.INDEXED;
+import static org.ojai.store.cdc.BinaryChangeDataRecord.NAMED;
+import static org.ojai.store.cdc.BinaryChangeDataRecord.VALUE;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.ojai.Value;
+import org.ojai.Value.Type;
+import org.ojai.annotation.API;
+import org.ojai.annotation.API.NonNullable;
+import org.ojai.exceptions.EncodingException;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Encodes {@link ChangeDataRecord}s in the binary format read by
+ * {@link BinaryChangeDataRecord}, by transcribing the events of their
+ * {@link ChangeDataRecord#getReader() readers}.<p/>
+ *
+ * A writer encodes into a buffer which it grows as needed and reuses for the next
+ * record, so that encoding a steady stream of records does not allocate.
+ */
+@API.Public
+@API.Evolving
+@API.NotThreadSafe
+public class BinaryChangeDataWriter {
+
+  private static final int DEFAULT_CAPACITY = 1024;
+
+  private byte[] bytes;
+  private ByteBuffer buffer;
+
+  public BinaryChangeDataWriter() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  public BinaryChangeDataWriter(int initialCapacity) {
+    Preconditions.checkArgument(initialCapacity > 0, "initialCapacity must be positive");
+    bytes = new byte[initialCapacity];
+    buffer = ByteBuffer.wrap(bytes);
+  }
+
+  /**
+   * Encodes a record into the buffer of this writer.
+   *
+   * @return a read-only view of the encoded record, positioned at its first byte and
+   *         valid until the next call to this writer
+   * @throws EncodingException if the record holds a value of an unsupported type
+   */
+  public ByteBuffer write(@NonNullable ChangeDataRecord record) {
+    buffer.clear();
+    ensure(BinaryChangeDataRecord.HEADER_SIZE);
+    buffer.put(BinaryChangeDataRecord.VERSION);
+    buffer.put(record.getType().getCode());
+    buffer.putLong(record.getOpTimestamp());
+    buffer.putLong(record.getServerTimestamp());
+    writeValue(record.getId());
+
+    final ChangeDataReader reader = record.getReader();
+    while (reader.hasNext()) {
+      writeEvent(reader.next(), reader);
+    }
+    buffer.flip();
+    return buffer.asReadOnlyBuffer();
+  }
+
+  /**
+   * @return the encoding of a record in a new array
+   */
+  public byte[] encode(@NonNullable ChangeDataRecord record) {
+    final ByteBuffer encoded = write(record);
+    return Arrays.copyOf(bytes, encoded.remaining());
+  }
+
+  private void writeEvent(ChangeEvent event, ChangeDataReader reader) {
+    int flags = event.getCode();
+    if (event == ChangeEvent.END_MAP || event == ChangeEvent.END_ARRAY) {
+      ensure(1);
+      buffer.put((byte) flags);
+      return;
+    }
+
+    ByteBuffer name = null;
+    if (reader.inArray()) {
+      flags |= INDEXED;
+    } else if ((name = reader.getFieldNameBytes()) != null) {
+      name = name.duplicate();
+      flags |= NAMED;
+    }
+    final Type type = event == ChangeEvent.NODE ? reader.getType() : null;
+    if (type != null) {
+      flags |= VALUE;
+    }
+    ensure(2);
+    buffer.put((byte) flags);
+    buffer.put(reader.getOp().getCode());
+    if (name != null) {
+      writeVarint(name.remaining());
+      ensure(name.remaining());
+      buffer.put(name);
+    } else if (reader.inArray()) {
+      writeVarint(reader.getArrayIndex());
+    }
+    if (type != null) {
+      writeValue(type, reader);
+    }
+  }
+
+  private void writeValue(Type type, ChangeDataReader reader) {
+    ensure(9);
+    buffer.put(type.getCode());
+    switch (type) {
+    case NULL:
+      break;
+    case BOOLEAN:
+      buffer.put((byte) (reader.getBoolean() ? 1 : 0));
+      break;
+    case BYTE:
+      buffer.put(reader.getByte());
+      break;
+    case SHORT:
+      buffer.putShort(reader.getShort());
+      break;
+    case INT:
+      buffer.putInt(reader.getInt());
+      break;
+    case LONG:
+      buffer.putLong(reader.getLong());
+      break;
+    case FLOAT:
+      buffer.putFloat(reader.getFloat());
+      break;
+    case DOUBLE:
+      buffer.putDouble(reader.getDouble());
+      break;
+    case DATE:
+      buffer.putInt(reader.getDateInt());
+      break;
+    case TIME:
+      buffer.putInt(reader.getTimeInt());
+      break;
+    case TIMESTAMP:
+      buffer.putLong(reader.getTimestampLong());
+      break;
+    case INTERVAL:
+      buffer.putLong(reader.getIntervalMillis());
+      break;
+    case STRING:
+      writeString(reader.getString());
+      break;
+    case BINARY:
+      writeBytes(reader.getBinary());
+      break;
+    case DECIMAL:
+      writeDecimal(reader.getDecimal());
+      break;
+    default:
+      throw new EncodingException("Unexpected value type " + type);
+    }
+  }
+
+  private void writeValue(Value value) {
+    final Type type = value == null ? Type.NULL : value.getType();
+    ensure(9);
+    buffer.put(type.getCode());
+    switch (type) {
+    case NULL:
+      break;
+    case BOOLEAN:
+      buffer.put((byte) (value.getBoolean() ? 1 : 0));
+      break;
+    case BYTE:
+      buffer.put(value.getByte());
+      break;
+    case SHORT:
+      buffer.putShort(value.getShort());
+      break;
+    case INT:
+      buffer.putInt(value.getInt());
+      break;
+    case LONG:
+      buffer.putLong(value.getLong());
+      break;
+    case FLOAT:
+      buffer.putFloat(value.getFloat());
+      break;
+    case DOUBLE:
+      buffer.putDouble(value.getDouble());
+      break;
+    case DATE:
+      buffer.putInt(value.getDateAsInt());
+      break;
+    case TIME:
+      buffer.putInt(value.getTimeAsInt());
+      break;
+    case TIMESTAMP:
+      buffer.putLong(value.getTimestampAsLong());
+      break;
+    case INTERVAL:
+      buffer.putLong(value.getIntervalAsLong());
+      break;
+    case STRING:
+      writeString(value.getString());
+      break;
+    case BINARY:
+      writeBytes(value.getBinary());
+      break;
+    case DECIMAL:
+      writeDecimal(value.getDecimal());
+      break;
+    default:
+      throw new EncodingException("A change data record can not have a " + type + " _id");
+    }
+  }
+
+  private void writeString(String s) {
+    final byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+    writeVarint(utf8.length);
+    ensure(utf8.length);
+    buffer.put(utf8);
+  }
+
+  private void writeBytes(ByteBuffer bytes) {
+    final ByteBuffer source = bytes.duplicate();
+    writeVarint(source.remaining());
+    ensure(source.remaining());
+    buffer.put(source);
+  }
+
+  private void writeDecimal(BigDecimal decimal) {
+    final byte[] unscaled = decimal.unscaledValue().toByteArray();
+    ensure(4);
+    buffer.putInt(decimal.scale());
+    writeVarint(unscaled.length);
+    ensure(unscaled.length);
+    buffer.put(unscaled);
+  }
+
+  private void writeVarint(int value) {
+    ensure(5);
+    while ((value & ~0x7f) != 0) {
+      buffer.put((byte) ((value & 0x7f) | 0x80));
+      value >>>= 7;
+    }
+    buffer.put((byte) value);
+  }
+
+  private void ensure(int length) {
+    if (buffer.remaining() < length) {
+      final int position = buffer.position();
+      bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, position + length));
+      buffer = ByteBuffer.wrap(bytes);
+      buffer.position(position);
+    }
+  }
+
+}
@@ -0,0 +1,699 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.store.cdc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.ojai.Document;
+import org.ojai.DocumentConstants;
+import org.ojai.FieldPath;
+import org.ojai.KeyValue;
+import org.ojai.Value;
+import org.ojai.Value.Type;
+import org.ojai.annotation.API;
+import org.ojai.annotation.API.NonNullable;
+import org.ojai.exceptions.DecodingException;
+import org.ojai.json.Json;
+import org.ojai.json.impl.JsonValueBuilder;
+import org.ojai.util.BinaryDocumentCodec;
+import org.ojai.util.DocumentAggregator;
+import org.ojai.util.DocumentAggregator.Function;
+import org.ojai.util.Values;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Maintains group-by aggregates of the documents of a
+ * {@link org.ojai.store.DocumentStore DocumentStore} incrementally from its change
+ * feed, as a continuously up-to-date equivalent of a {@link DocumentAggregator} over
+ * the whole store, e.g.
+ * <pre>
+ *   ChangeDataAggregator totals = new ChangeDataAggregator("country")
+ *       .count("orders")
+ *       .sum("revenue", "amount")
+ *       .max("largest", "amount");
+ *   for (ChangeDataRecord record : feed) {
+ *     totals.apply(record);
+ *   }
+ *   List&lt;Document&gt; results = totals.getResults();
+ * </pre>
+ * The groups, the aggregate functions and the results follow the conventions of the
+ * {@code DocumentAggregator}.<p/>
+ *
+ * As the change data records only describe the changes of a document, the aggregator
+ * retains the state of every document restricted to its group and input fields, and
+ * applies the records to it as a {@link ChangeDataApplier} does. The contribution of the
+ * previous state of a document to its group is retracted before the contribution of
+ * its new state is added. To support retraction, the {@code MIN} and {@code MAX} of a
+ * group are kept in a sorted multiset of its values, while floating point sums are
+ * reset whenever the last floating point value of their group is retracted, so that
+ * their rounding errors do not accumulate indefinitely. As with the applier, a record
+ * older than the last record applied to its {@code _id} is dropped, and the timestamps
+ * of the deleted documents are retained until {@link #purgeTombstones(long)} is called.
+ * <p/>
+ *
+ * The retained state can be {@link #checkpoint(File) checkpointed} to a local file,
+ * along with the operation timestamp of the last applied record, and
+ * {@link #restore(File) restored} by an aggregator with the same definition, which
+ * recomputes the aggregates from it.
+ */
+@API.Public
+@API.Evolving
+@API.NotThreadSafe
+public class ChangeDataAggregator {
+
+  private static final Logger logger = LoggerFactory.getLogger(ChangeDataAggregator.class);
+
+  private static final int CHECKPOINT_MAGIC = 0x4f4a4341; // "OJCA"
+  private static final byte CHECKPOINT_VERSION = 1;
+
+  private static final Value NULL = JsonValueBuilder.initFromNull();
+
+  private static final class Aggregate {
+    final FieldPath output;
+    final Function function;
+    final FieldPath input;
+
+    Aggregate(FieldPath output, Function function, FieldPath input) {
+      this.output = output;
+      this.function = function;
+      this.input = input;
+    }
+
+    @Override
+    public String toString() {
+      return output.asPathString() + '=' + function + '(' + (input == null ? "*" : input.asPathString()) + ')';
+    }
+  }
+
+  private final FieldPath[] groupBy;
+  private final List<Aggregate> aggregates = new ArrayList<>();
+  private final List<FieldPath> retained = new ArrayList<>();
+  private final Map<String, Document> documents = new HashMap<>();
+  private final VersionTracker versions = new VersionTracker();
+  private final Map<String, Group> groups = new LinkedHashMap<>();
+  private long lastOpTimestamp = Long.MIN_VALUE;
+  private long appliedCount;
+
+  /**
+   * @param groupBy the fields to group by; with no fields, all the documents are one
+   *        group
+   */
+  public ChangeDataAggregator(@NonNullable String... groupBy) {
+    this.groupBy = new FieldPath[groupBy.length];
+    for (int i = 0; i < groupBy.length; i++) {
+      this.groupBy[i] = FieldPath.parseFrom(groupBy[i]);
+      retained.add(this.groupBy[i]);
+    }
+  }
+
+  /**
+   * @param groupBy the fields to group by; with no fields, all the documents are one
+   *        group
+   */
+  public ChangeDataAggregator(@NonNullable FieldPath... groupBy) {
+    this.groupBy = groupBy.clone();
+    for (FieldPath field : groupBy) {
+      retained.add(field);
+    }
+  }
+
+  /**
+   * Adds an aggregate to maintain. Aggregates can only be added before the first
+   * document is applied.
+   *
+   * @param output the field of the result documents to store the aggregate in
+   * @param function the aggregate function
+   * @param input the field to aggregate, or {@code null} to count documents
+   */
+  public ChangeDataAggregator add(@NonNullable FieldPath output, @NonNullable Function function, FieldPath input) {
+    Preconditions.checkNotNull(output);
+    Preconditions.checkNotNull(function);
+    Preconditions.checkArgument(input != null || function == Function.COUNT,
+        "%s requires an input field", function);
+    Preconditions.checkState(versions.isEmpty(), "Aggregates can not be added once documents are applied");
+    aggregates.add(new Aggregate(output, function, input));
+    if (input != null) {
+      retained.add(input);
+    }
+    return this;
+  }
+
+  public ChangeDataAggregator count(@NonNullable String output) {
+    return add(FieldPath.parseFrom(output), Function.COUNT, null);
+  }
+
+  public ChangeDataAggregator count(@NonNullable String output, @NonNullable String input) {
+    return add(FieldPath.parseFrom(output), Function.COUNT, FieldPath.parseFrom(input));
+  }
+
+  public ChangeDataAggregator sum(@NonNullable String output, @NonNullable String input) {
+    return add(FieldPath.parseFrom(output), Function.SUM, FieldPath.parseFrom(input));
+  }
+
+  public ChangeDataAggregator min(@NonNullable String output, @NonNullable String input) {
+    return add(FieldPath.parseFrom(output), Function.MIN, FieldPath.parseFrom(input));
+  }
+
+  public ChangeDataAggregator max(@NonNullable String output, @NonNullable String input) {
+    return add(FieldPath.parseFrom(output), Function.MAX, FieldPath.parseFrom(input));
+  }
+
+  public ChangeDataAggregator avg(@NonNullable String output, @NonNullable String input) {
+    return add(FieldPath.parseFrom(output), Function.AVG, FieldPath.parseFrom(input));
+  }
+
+  /**
+   * Adds or replaces a document, for instance from the snapshot the change feed is
+   * followed from. Records older than the specified timestamp are dropped for its
+   * {@code _id}.
+   *
+   * @param document the document, which must have an {@code _id}
+   * @param opTimestamp the operation timestamp of the document
+   * @return {@code this} for chaining
+   */
+  public ChangeDataAggregator put(@NonNullable Document document, long opTimestamp) {
+    final Value id = Preconditions.checkNotNull(document.getId(), "The document has no _id");
+    final String key = VersionTracker.keyOf(id);
+    replace(key, project(document));
+    versions.put(key, opTimestamp);
+    lastOpTimestamp = Math.max(lastOpTimestamp, opTimestamp);
+    return this;
+  }
+
+  /**
+   * Updates the aggregates with the nodes of a change data record, as returned by its
+   * {@code iterator()}.
+   *
+   * @return {@code true} if the record was applied, {@code false} if it was older than
+   *         the last record applied to the same {@code _id} and was dropped
+   */
+  public boolean apply(@NonNullable ChangeDataRecord record) {
+    final Value id = Preconditions.checkNotNull(record.getId(), "The record has no _id");
+    final String key = VersionTracker.keyOf(id);
+    if (!versions.accept(key, record.getOpTimestamp())) {
+      return false;
+    }
+
+    Document document = null;
+    switch (record.getType()) {
+    case RECORD_INSERT:
+      document = Json.newDocument().setId(id);
+      break;
+    case RECORD_UPDATE:
+      document = documents.get(key);
+      // applied to a copy, as the retained state is retracted from its group
+      document = document == null ? Json.newDocument().setId(id) : ChangeDataGenerator.copy(document);
+      break;
+    default:
+      break;
+    }
+    if (document != null) {
+      for (KeyValue<FieldPath, ChangeNode> kv : record) {
+        final ChangeNode node = kv.getValue();
+        final ChangeOp op = node.getOp();
+        final Value value = op == ChangeOp.SET || op == ChangeOp.PUT || op == ChangeOp.MERGE
+            ? node.getValue() : null;
+        document = ChangeDataApplier.applyOp(document, id, kv.getKey(), op, value);
+      }
+    }
+    replace(key, document == null ? null : project(document));
+    versions.put(key, record.getOpTimestamp());
+    lastOpTimestamp = Math.max(lastOpTimestamp, record.getOpTimestamp());
+    appliedCount++;
+    return true;
+  }
+
+  /**
+   * @see ChangeDataApplier#purgeTombstones(long)
+   */
+  public int purgeTombstones(long opTimestamp) {
+    return versions.purgeTombstones(opTimestamp, documents.keySet());
+  }
+
+  /**
+   * @return one document per group, with the group fields and the aggregates, in the
+   *         order in which the groups were formed
+   */
+  public List<Document> getResults() {
+    final List<Document> results = new ArrayList<>(groups.size());
+    for (Group group : groups.values()) {
+      results.add(group.result());
+    }
+    return results;
+  }
+
+  /**
+   * @return the number of groups
+   */
+  public int getGroupCount() {
+    return groups.size();
+  }
+
+  /**
+   * @return the number of documents
+   */
+  public int size() {
+    return documents.size();
+  }
+
+  /**
+   * @return the highest operation timestamp of the records and documents applied, or
+   *         {@code Long.MIN_VALUE} if none was
+   */
+  public long getLastOpTimestamp() {
+    return lastOpTimestamp;
+  }
+
+  /**
+   * @return the number of records applied
+   */
+  public long getAppliedCount() {
+    return appliedCount;
+  }
+
+  /**
+   * @return the number of records dropped as out of order
+   */
+  public long getDroppedCount() {
+    return versions.getDroppedCount();
+  }
+
+  /**
+   * Writes the retained state of the documents and the timestamps of this aggregator
+   * to a file. The file is synced to disk and replaced atomically, so that a failed
+   * checkpoint leaves the previous one intact.
+   */
+  public void checkpoint(@NonNullable File file) throws IOException {
+    final File temp = new File(file.getPath() + ".tmp");
+    boolean moved = false;
+    try {
+      try (FileOutputStream fileOut = new FileOutputStream(temp);
+          DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+        out.writeInt(CHECKPOINT_MAGIC);
+        out.writeByte(CHECKPOINT_VERSION);
+        out.writeUTF(signature());
+        out.writeLong(lastOpTimestamp);
+        out.writeLong(appliedCount);
+        out.writeInt(versions.size());
+        for (Map.Entry<String, Long> e : versions.entries()) {
+          final Document document = documents.get(e.getKey());
+          out.writeBoolean(document != null);
+          if (document != null) {
+            BinaryDocumentCodec.write(document, out);
+          } else {
+            out.writeUTF(e.getKey());
+          }
+          out.writeLong(e.getValue());
+        }
+        out.flush();
+        fileOut.getFD().sync();
+      }
+      Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      moved = true;
+    } finally {
+      if (!moved && temp.exists() && !temp.delete()) {
+        logger.warn("Failed to delete the incomplete checkpoint {}", temp);
+      }
+    }
+    logger.debug("Checkpointed {} documents and {} groups to {}", documents.size(), groups.size(), file);
+  }
+
+  /**
+   * Replaces the state of this aggregator with a checkpoint written by an aggregator
+   * with the same group fields and aggregates, and recomputes the aggregates. The
+   * state is only replaced once the whole checkpoint is read, so that a failed
+   * restore leaves this aggregator unchanged.
+   *
+   * @throws DecodingException if the file is not such a checkpoint
+   */
+  public void restore(@NonNullable File file) throws IOException {
+    final long restoredOpTimestamp;
+    final long restoredAppliedCount;
+    final Map<String, Document> restoredDocuments = new LinkedHashMap<>();
+    final Map<String, Long> restoredVersions = new LinkedHashMap<>();
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      if (in.readInt() != CHECKPOINT_MAGIC || in.readByte() != CHECKPOINT_VERSION) {
+        throw new DecodingException(file + " is not a checkpoint of a ChangeDataAggregator");
+      }
+      final String signature = in.readUTF();
+      if (!signature.equals(signature())) {
+        throw new DecodingException("The checkpoint " + file + " is of a different aggregator: " + signature);
+      }
+      restoredOpTimestamp = in.readLong();
+      restoredAppliedCount = in.readLong();
+      for (int n = in.readInt(); n > 0; n--) {
+        final String key;
+        if (in.readBoolean()) {
+          final Document document = BinaryDocumentCodec.read(in);
+          key = VersionTracker.keyOf(document.getId());
+          restoredDocuments.put(key, document);
+        } else {
+          key = in.readUTF();
+        }
+        restoredVersions.put(key, in.readLong());
+      }
+    }
+
+    documents.clear();
+    versions.clear();
+    groups.clear();
+    lastOpTimestamp = restoredOpTimestamp;
+    appliedCount = restoredAppliedCount;
+    for (Map.Entry<String, Document> e : restoredDocuments.entrySet()) {
+      replace(e.getKey(), e.getValue());
+    }
+    for (Map.Entry<String, Long> e : restoredVersions.entrySet()) {
+      versions.put(e.getKey(), e.getValue());
+    }
+  }
+
+  private String signature() {
+    final StringBuilder sb = new StringBuilder();
+    for (FieldPath field : groupBy) {
+      sb.append(field.asPathString()).append(',');
+    }
+    return sb.append(aggregates).toString();
+  }
+
+  /**
+   * @return a document with the {@code _id}, group and input fields of a document
+   */
+  private Document project(Document document) {
+    final Document projected = Json.newDocument();
+    projected.set(DocumentConstants.ID_FIELD, document.getId());
+    for (FieldPath field : retained) {
+      final Value value = document.getValue(field);
+      if (value != null) {
+        projected.set(field, value);
+      }
+    }
+    // the projection must not share the values of the records it was built from
+    return ChangeDataGenerator.copy(projected);
+  }
+
+  private void replace(String key, Document document) {
+    final Document previous = document == null ? documents.remove(key) : documents.put(key, document);
+    if (previous != null) {
+      final String groupKey = groupKey(previous);
+      final Group group = groups.get(groupKey);
+      group.add(previous, -1);
+      if (group.documentCount == 0) {
+        groups.remove(groupKey);
+      }
+    }
+    if (document != null) {
+      final String groupKey = groupKey(document);
+      Group group = groups.get(groupKey);
+      if (group == null) {
+        group = new Group(document);
+        groups.put(groupKey, group);
+      }
+      group.add(document, 1);
+    }
+  }
+
+  private String groupKey(Document document) {
+    final StringBuilder sb = new StringBuilder();
+    for (FieldPath field : groupBy) {
+      final Value value = groupValue(document, field);
+      // extended JSON keeps the values of different types apart, e.g. "1" and 1
+      sb.append(value == null ? "\u0000" : Values.asJsonString(value)).append('\u0001');
+    }
+    return sb.toString();
+  }
+
+  /**
+   * @return the value of a group field, integral values as {@code LONG}s and floating
+   *         point values as {@code DOUBLE}s, as the {@code DocumentAggregator} groups them
+   */
+  private static Value groupValue(Document document, FieldPath field) {
+    final Value value = document.getValue(field);
+    if (value == null) {
+      return null;
+    }
+    switch (value.getType()) {
+    case BYTE:
+    case SHORT:
+    case INT:
+      return JsonValueBuilder.initFrom(value.getLong());
+    case FLOAT:
+      return JsonValueBuilder.initFrom(value.getDouble());
+    default:
+      return value;
+    }
+  }
+
+  private static boolean isPresent(Value value) {
+    return value != null && value.getType() != Type.NULL;
+  }
+
+  private static boolean isIntegral(Type type) {
+    return type == Type.BYTE || type == Type.SHORT || type == Type.INT || type == Type.LONG;
+  }
+
+  private final class Group {
+    final Value[] values;
+    final State[] states;
+    long documentCount;
+
+    Group(Document document) {
+      values = new Value[groupBy.length];
+      for (int i = 0; i < groupBy.length; i++) {
+        values[i] = groupValue(document, groupBy[i]);
+      }
+      states = new State[aggregates.size()];
+      for (int i = 0; i < states.length; i++) {
+        switch (aggregates.get(i).function) {
+        case COUNT:
+          states[i] = new CountState(aggregates.get(i).input == null);
+          break;
+        case SUM:
+          states[i] = new SumState();
+          break;
+        case MIN:
+          states[i] = new ExtremeState(true);
+          break;
+        case MAX:
+          states[i] = new ExtremeState(false);
+          break;
+        default:
+          states[i] = new AvgState();
+          break;
+        }
+      }
+    }
+
+    /**
+     * Adds the contribution of a document to this group, or retracts it.
+     *
+     * @param sign 1 to add the document, -1 to retract it
+     */
+    void add(Document document, int sign) {
+      documentCount += sign;
+      for (int i = 0; i < states.length; i++) {
+        final FieldPath input = aggregates.get(i).input;
+        states[i].add(input == null ? null : document.getValue(input), sign);
+      }
+    }
+
+    Document result() {
+      final Document result = Json.newDocument();
+      for (int i = 0; i < groupBy.length; i++) {
+        if (values[i] != null) {
+          result.set(groupBy[i], values[i]);
+        }
+      }
+      for (int i = 0; i < states.length; i++) {
+        result.set(aggregates.get(i).output, states[i].result());
+      }
+      return result;
+    }
+  }
+
+  private abstract static class State {
+    abstract void add(Value value, int sign);
+
+    abstract Value result();
+  }
+
+  private static final class CountState extends State {
+    private final boolean documents;
+    private long count;
+
+    CountState(boolean documents) {
+      this.documents = documents;
+    }
+
+    @Override
+    void add(Value value, int sign) {
+      if (documents || isPresent(value)) {
+        count += sign;
+      }
+    }
+
+    @Override
+    Value result() {
+      return JsonValueBuilder.initFrom(count);
+    }
+  }
+
+  /**
+   * An exact integral sum, promoted to {@code DECIMAL} on overflow, a floating point
+   * sum and a decimal sum, with the number of values in each.
+   */
+  private static final class SumState extends State {
+    private long integralCount;
+    private long integral;
+    private BigDecimal overflow;
+    private long floatingCount;
+    private double floating;
+    private long decimalCount;
+    private BigDecimal decimal = BigDecimal.ZERO;
+
+    @Override
+    void add(Value value, int sign) {
+      if (!isPresent(value) || !value.getType().isNumeric()) {
+        return;
+      }
+      final Type type = value.getType();
+      if (isIntegral(type)) {
+        integralCount += sign;
+        final long l = value.getLong();
+        try {
+          integral = sign > 0 ? Math.addExact(integral, l) : Math.subtractExact(integral, l);
+        } catch (ArithmeticException e) {
+          final BigDecimal d = BigDecimal.valueOf(l);
+          overflow = (overflow == null ? BigDecimal.ZERO : overflow).add(sign > 0 ? d : d.negate());
+        }
+        if (integralCount == 0) {
+          integral = 0;
+          overflow = null;
+        }
+      } else if (type == Type.FLOAT || type == Type.DOUBLE) {
+        floatingCount += sign;
+        floating = floatingCount == 0 ? 0 : floating + sign * value.getDouble();
+      } else {
+        decimalCount += sign;
+        final BigDecimal d = value.getDecimal();
+        decimal = decimalCount == 0 ? BigDecimal.ZERO : decimal.add(sign > 0 ? d : d.negate());
+      }
+    }
+
+    @Override
+    Value result() {
+      if (integralCount == 0 && floatingCount == 0 && decimalCount == 0) {
+        return NULL;
+      } else if (decimalCount != 0 || overflow != null) {
+        BigDecimal sum = decimal.add(BigDecimal.valueOf(integral));
+        if (overflow != null) {
+          sum = sum.add(overflow);
+        }
+        return JsonValueBuilder.initFrom(floatingCount == 0 ? sum : sum.add(BigDecimal.valueOf(floating)));
+      } else if (floatingCount != 0) {
+        return JsonValueBuilder.initFrom(floating + integral);
+      }
+      return JsonValueBuilder.initFrom(integral);
+    }
+  }
+
+  /**
+   * A {@link SumState} and the number of its values, divided as the
+   * {@code DocumentAggregator} does.
+   */
+  private static final class AvgState extends State {
+    private final SumState sum = new SumState();
+    private long count;
+
+    @Override
+    void add(Value value, int sign) {
+      if (isPresent(value) && value.getType().isNumeric()) {
+        count += sign;
+        sum.add(value, sign);
+      }
+    }
+
+    @Override
+    Value result() {
+      if (count == 0) {
+        return NULL;
+      }
+      final Value total = sum.result();
+      switch (total.getType()) {
+      case LONG:
+        return JsonValueBuilder.initFrom(BigDecimal.valueOf(total.getLong())
+            .divide(BigDecimal.valueOf(count), MathContext.DECIMAL128).doubleValue());
+      case DOUBLE:
+        return JsonValueBuilder.initFrom(total.getDouble() / count);
+      default:
+        return JsonValueBuilder.initFrom(total.getDecimal().divide(BigDecimal.valueOf(count), MathContext.DECIMAL128));
+      }
+    }
+  }
+
+  /**
+   * The values of a group with their multiplicities, in the order of
+   * {@link Values#compare}.
+   */
+  private static final class ExtremeState extends State {
+    private final boolean min;
+    private final TreeMap<Value, long[]> values = new TreeMap<>(Values::compare);
+
+    ExtremeState(boolean min) {
+      this.min = min;
+    }
+
+    @Override
+    void add(Value value, int sign) {
+      if (!isPresent(value)) {
+        return;
+      }
+      final long[] count = values.computeIfAbsent(value, v -> new long[1]);
+      count[0] += sign;
+      if (count[0] == 0) {
+        values.remove(value);
+      }
+    }
+
+    @Override
+    Value result() {
+      if (values.isEmpty()) {
+        return NULL;
+      }
+      return min ? values.firstKey() : values.lastKey();
+    }
+  }
+
+}
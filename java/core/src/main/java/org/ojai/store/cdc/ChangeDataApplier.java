@@ -0,0 +1,364 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.store.cdc;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.ojai.Document;
+import org.ojai.DocumentConstants;
+import org.ojai.FieldPath;
+import org.ojai.KeyValue;
+import org.ojai.Value;
+import org.ojai.Value.Type;
+import org.ojai.annotation.API;
+import org.ojai.annotation.API.NonNullable;
+import org.ojai.annotation.API.Nullable;
+import org.ojai.exceptions.DecodingException;
+import org.ojai.json.Json;
+import org.ojai.json.impl.JsonValueBuilder;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Maintains an in-memory replica of the documents of a {@link org.ojai.store.DocumentStore
+ * DocumentStore} by applying the {@link ChangeDataRecord}s of its change feed.<p/>
+ *
+ * A {@link ChangeDataRecordType#RECORD_INSERT RECORD_INSERT} starts the document over
+ * from its {@code _id}, a {@link ChangeDataRecordType#RECORD_UPDATE RECORD_UPDATE}
+ * modifies the replicated document, creating it if it is not yet known, and a
+ * {@link ChangeDataRecordType#RECORD_DELETE RECORD_DELETE} removes it. The change nodes
+ * of a record are applied in order, either from {@link ChangeDataRecord#iterator()} or
+ * from {@link ChangeDataRecord#getReader()}:
+ * <ul>
+ * <li>{@link ChangeOp#SET SET} and {@link ChangeOp#PUT PUT} set the field to the value
+ * of the node; on the root of the document they replace the whole document.</li>
+ * <li>{@link ChangeOp#MERGE MERGE} sets each field of the map value of the node in the
+ * map at the field, or sets the field if it is not a map.</li>
+ * <li>{@link ChangeOp#DELETE DELETE} and {@link ChangeOp#DELETE_EXACT DELETE_EXACT}
+ * delete the field, or the document when applied to the root.</li>
+ * </ul>
+ *
+ * A {@code ChangeDataReader} presents the nodes as a tree: a {@code START_MAP} or
+ * {@code START_ARRAY} with a {@code SET} or {@code PUT} operation starts a value which
+ * is set as a whole, while one with a {@code MERGE} or no operation groups the changes
+ * of the fields it contains. The events of the root of the document have no field name.
+ * <p/>
+ *
+ * Change feeds deliver the records of a document in order but may redeliver or reorder
+ * them across partitions. The applier remembers the {@link ChangeDataRecord#getOpTimestamp()
+ * operation timestamp} of the last record applied to every {@code _id}, including deleted
+ * ones, and drops any record older than that. The timestamps of deleted documents are
+ * retained until {@link #purgeTombstones(long)} is called.<p/>
+ *
+ * The replicated documents are updated in place and returned without copying.
+ */
+@API.Public
+@API.Evolving
+@API.NotThreadSafe
+public class ChangeDataApplier {
+
+  private final Map<String, Document> documents = new LinkedHashMap<>();
+  private final VersionTracker versions = new VersionTracker();
+  private long appliedCount;
+
+  private Value currentId;
+  private Document current;
+
+  /**
+   * Adds or replaces a document of the replica, for instance from the snapshot the
+   * change feed is followed from. Records older than the specified timestamp are
+   * dropped for its {@code _id}.
+   *
+   * @param document the document, which must have an {@code _id}
+   * @param opTimestamp the operation timestamp of the document
+   * @return {@code this} for chaining
+   */
+  public ChangeDataApplier put(@NonNullable Document document, long opTimestamp) {
+    final Value id = Preconditions.checkNotNull(document.getId(), "The document has no _id");
+    final String key = keyOf(id);
+    documents.put(key, document);
+    versions.put(key, opTimestamp);
+    return this;
+  }
+
+  /**
+   * Applies the nodes of a change data record, as returned by its {@code iterator()}.
+   *
+   * @return {@code true} if the record was applied, {@code false} if it was older than
+   *         the last record applied to the same {@code _id} and was dropped
+   */
+  public boolean apply(@NonNullable ChangeDataRecord record) {
+    if (!begin(record)) {
+      return false;
+    }
+    if (record.getType() != ChangeDataRecordType.RECORD_DELETE) {
+      for (KeyValue<FieldPath, ChangeNode> kv : record) {
+        final ChangeNode node = kv.getValue();
+        final ChangeOp op = node.getOp();
+        applyOp(kv.getKey(), op, hasValue(op) ? node.getValue() : null);
+      }
+    }
+    end(record);
+    return true;
+  }
+
+  /**
+   * Applies the nodes of a change data record, as returned by its {@code getReader()}.
+   *
+   * @return {@code true} if the record was applied, {@code false} if it was older than
+   *         the last record applied to the same {@code _id} and was dropped
+   * @throws DecodingException if the events of the reader are not well formed
+   */
+  public boolean applyFromReader(@NonNullable ChangeDataRecord record) {
+    if (!begin(record)) {
+      return false;
+    }
+    if (record.getType() != ChangeDataRecordType.RECORD_DELETE) {
+      final ChangeDataReader reader = record.getReader();
+      while (reader.hasNext()) {
+        applyEvent(reader.next(), reader, null);
+      }
+    }
+    end(record);
+    return true;
+  }
+
+  /**
+   * Forgets the timestamps of the documents deleted by records older than the
+   * specified timestamp. Late records of these documents are applied afterwards.
+   *
+   * @return the number of timestamps purged
+   */
+  public int purgeTombstones(long opTimestamp) {
+    return versions.purgeTombstones(opTimestamp, documents.keySet());
+  }
+
+  /**
+   * @return the replicated document with the specified {@code _id}, or {@code null}
+   */
+  public Document get(@NonNullable Value id) {
+    return documents.get(keyOf(id));
+  }
+
+  /**
+   * @return the replicated document with the specified {@code _id}, or {@code null}
+   */
+  public Document get(@NonNullable String id) {
+    return get(JsonValueBuilder.initFrom(id));
+  }
+
+  /**
+   * @return the operation timestamp of the last record applied to the specified
+   *         {@code _id}, or {@code Long.MIN_VALUE} if none was
+   */
+  public long getOpTimestamp(@NonNullable Value id) {
+    return versions.get(keyOf(id));
+  }
+
+  /**
+   * @return an unmodifiable view of the replicated documents, in the order in which
+   *         they were inserted
+   */
+  public Collection<Document> getDocuments() {
+    return Collections.unmodifiableCollection(documents.values());
+  }
+
+  /**
+   * @return the number of replicated documents
+   */
+  public int size() {
+    return documents.size();
+  }
+
+  /**
+   * @return the number of records applied
+   */
+  public long getAppliedCount() {
+    return appliedCount;
+  }
+
+  /**
+   * @return the number of records dropped as out of order
+   */
+  public long getDroppedCount() {
+    return versions.getDroppedCount();
+  }
+
+  private static String keyOf(Value id) {
+    return VersionTracker.keyOf(id);
+  }
+
+  private boolean begin(ChangeDataRecord record) {
+    final Value id = Preconditions.checkNotNull(record.getId(), "The record has no _id");
+    if (!versions.accept(keyOf(id), record.getOpTimestamp())) {
+      return false;
+    }
+    currentId = id;
+    switch (record.getType()) {
+    case RECORD_INSERT:
+      current = newDocument();
+      break;
+    case RECORD_UPDATE:
+      current = documents.get(keyOf(id));
+      if (current == null) {
+        current = newDocument();
+      }
+      break;
+    default:
+      current = null;
+      break;
+    }
+    return true;
+  }
+
+  private void end(ChangeDataRecord record) {
+    final String key = keyOf(currentId);
+    if (current == null) {
+      documents.remove(key);
+    } else {
+      documents.put(key, current);
+    }
+    versions.put(key, record.getOpTimestamp());
+    appliedCount++;
+    currentId = null;
+    current = null;
+  }
+
+  private Document newDocument() {
+    return Json.newDocument().setId(currentId);
+  }
+
+  private static boolean hasValue(ChangeOp op) {
+    return op == ChangeOp.SET || op == ChangeOp.PUT || op == ChangeOp.MERGE;
+  }
+
+  private void applyOp(@Nullable FieldPath path, ChangeOp op, Value value) {
+    current = applyOp(current, currentId, path, op, value);
+  }
+
+  /**
+   * Applies one change node to a document.
+   *
+   * @param document the document, or {@code null} if it does not exist
+   * @param id the {@code _id} of the document
+   * @return the modified document, which may be a new one, or {@code null} if the
+   *         document was deleted
+   */
+  static Document applyOp(Document document, Value id, @Nullable FieldPath path, ChangeOp op, Value value) {
+    if (DocumentConstants.ID_FIELD.equals(path)) {
+      // the _id of a document is immutable
+      return document;
+    } else if (document == null) {
+      // the document was deleted by an earlier node of this record
+      if (op == ChangeOp.NULL || op == ChangeOp.DELETE || op == ChangeOp.DELETE_EXACT) {
+        return null;
+      }
+      document = Json.newDocument().setId(id);
+    }
+
+    switch (op) {
+    case SET:
+    case PUT:
+      if (ChangeDataReaders.isRoot(path)) {
+        checkMap(path, value);
+        document = Json.newDocument().setId(id);
+        mergeInto(document, null, value);
+      } else {
+        document.set(path, value);
+      }
+      break;
+    case MERGE:
+      checkMap(path, value);
+      if (ChangeDataReaders.isRoot(path)) {
+        mergeInto(document, null, value);
+      } else {
+        final Value existing = document.getValue(path);
+        if (existing != null && existing.getType() == Type.MAP) {
+          mergeInto(document, path, value);
+        } else {
+          document.set(path, value);
+        }
+      }
+      break;
+    case DELETE:
+    case DELETE_EXACT:
+      if (ChangeDataReaders.isRoot(path)) {
+        return null;
+      }
+      document.delete(path);
+      break;
+    default:
+      break;
+    }
+    return document;
+  }
+
+  private static void mergeInto(Document document, FieldPath path, Value map) {
+    for (Map.Entry<String, Object> e : map.getMap().entrySet()) {
+      final FieldPath child = ChangeDataReaders.childOf(path, e.getKey());
+      if (!child.equals(DocumentConstants.ID_FIELD)) {
+        document.set(child, JsonValueBuilder.initFromObject(e.getValue()));
+      }
+    }
+  }
+
+  private static void checkMap(FieldPath path, Value value) {
+    if (value == null || value.getType() != Type.MAP) {
+      throw new DecodingException("Expected a map value at "
+          + (ChangeDataReaders.isRoot(path) ? "the document root" : path.asPathString())
+          + ", found " + (value == null ? "none" : value.getType()));
+    }
+  }
+
+  private void applyEvent(ChangeEvent event, ChangeDataReader reader, FieldPath parent) {
+    switch (event) {
+    case NULL:
+      return;
+    case NODE: {
+      final FieldPath path = ChangeDataReaders.pathOf(reader, parent);
+      final ChangeOp op = reader.getOp();
+      applyOp(path, op, hasValue(op) ? ChangeDataReaders.readScalar(reader) : null);
+      return;
+    }
+    case START_MAP:
+    case START_ARRAY: {
+      final FieldPath path = ChangeDataReaders.pathOf(reader, parent);
+      final ChangeOp op = reader.getOp();
+      if (op == ChangeOp.SET || op == ChangeOp.PUT) {
+        applyOp(path, op, ChangeDataReaders.readContainer(event, reader));
+        return;
+      }
+      if (op == ChangeOp.MERGE && !ChangeDataReaders.isRoot(path) && current != null) {
+        final Value existing = current.getValue(path);
+        if (existing == null || existing.getType() != Type.MAP) {
+          current.set(path, Json.newDocument());
+        }
+      }
+      final ChangeEvent end = event == ChangeEvent.START_MAP ? ChangeEvent.END_MAP : ChangeEvent.END_ARRAY;
+      ChangeEvent e;
+      while ((e = ChangeDataReaders.nextEvent(reader)) != end) {
+        applyEvent(e, reader, path);
+      }
+      return;
+    }
+    default:
+      throw new DecodingException("Unexpected event " + event);
+    }
+  }
+}
@@ -0,0 +1,445 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.store.cdc;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.ojai.Document;
+import org.ojai.DocumentConstants;
+import org.ojai.FieldPath;
+import org.ojai.FieldSegment;
+import org.ojai.KeyValue;
+import org.ojai.Value;
+import org.ojai.Value.Type;
+import org.ojai.annotation.API;
+import org.ojai.annotation.API.NonNullable;
+import org.ojai.json.Json;
+import org.ojai.json.impl.JsonValueBuilder;
+import org.ojai.util.Values;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Folds the {@link ChangeDataRecord}s of a change feed which change the same document
+ * within a window into a single equivalent record, so that a sink which only needs the
+ * latest state of the documents does not receive every intermediate change.<p/>
+ *
+ * The records {@link #offer(ChangeDataRecord) offered} to the compactor are buffered
+ * per {@code _id} and delivered to the sink as one record when the window of their
+ * {@code _id} closes. Applied by a {@link ChangeDataApplier}, the folded record has the
+ * same effect as the records it replaces:
+ * <ul>
+ * <li>once a {@code RECORD_INSERT}, a {@code RECORD_DELETE}, or a {@code SET} or
+ * {@code PUT} of the document root has been seen, the state of the document is known
+ * and the later changes are applied to it; the result is a {@code RECORD_INSERT} of
+ * the resulting document, or a {@code RECORD_DELETE} if it ends up deleted.</li>
+ * <li>otherwise, the result is a {@code RECORD_UPDATE} whose change nodes are those of
+ * the buffered records, in order, without the changes which a later node overwrites:
+ * a {@code SET} or top-level {@code DELETE} of a field drops the earlier changes of
+ * the field and its descendants, a change of a field below a field set to a map is
+ * folded into that map, and consecutive {@code MERGE}s of a field are combined.</li>
+ * </ul>
+ * Records are folded in the order they are offered. As the applier does, the
+ * compactor drops a record older than the last record buffered for its {@code _id}.
+ * <p/>
+ *
+ * The window of an {@code _id} opens with its first buffered record and closes once a
+ * record with an {@link ChangeDataRecord#getOpTimestamp() operation timestamp} at least
+ * {@link #setWindow(long) window} later is offered or {@link #advanceTo(long) the clock
+ * is advanced} past it, or once it holds {@link #setMaxRecordsPerKey(int)
+ * maxRecordsPerKey} records. The memory used is bounded by flushing the oldest windows
+ * first whenever more than {@link #setMaxPendingKeys(int) maxPendingKeys} documents are
+ * buffered. The records of different documents are delivered in the order in which
+ * their windows opened, so the relative order of the changes of different documents is
+ * not preserved.
+ */
+@API.Public
+@API.Evolving
+@API.NotThreadSafe
+public class ChangeDataCompactor {
+
+  public static final long DEFAULT_WINDOW = 1000;
+  public static final int DEFAULT_MAX_RECORDS_PER_KEY = 1000;
+  public static final int DEFAULT_MAX_PENDING_KEYS = 100_000;
+
+  private final Consumer<? super ChangeDataRecord> sink;
+  private final Map<String, Pending> pending = new LinkedHashMap<>();
+  private long window = DEFAULT_WINDOW;
+  private int maxRecordsPerKey = DEFAULT_MAX_RECORDS_PER_KEY;
+  private int maxPendingKeys = DEFAULT_MAX_PENDING_KEYS;
+  private long clock = Long.MIN_VALUE;
+
+  private long receivedCount;
+  private long emittedCount;
+  private long droppedCount;
+
+  /**
+   * @param sink the consumer of the folded records
+   */
+  public ChangeDataCompactor(@NonNullable Consumer<? super ChangeDataRecord> sink) {
+    this.sink = Preconditions.checkNotNull(sink);
+  }
+
+  /**
+   * Sets the span of operation timestamps over which the records of a document are
+   * folded, {@value #DEFAULT_WINDOW} by default.
+   */
+  public ChangeDataCompactor setWindow(long window) {
+    Preconditions.checkArgument(window >= 0, "window must not be negative");
+    this.window = window;
+    return this;
+  }
+
+  /**
+   * Sets the number of records of a document after which they are delivered,
+   * {@value #DEFAULT_MAX_RECORDS_PER_KEY} by default.
+   */
+  public ChangeDataCompactor setMaxRecordsPerKey(int maxRecordsPerKey) {
+    Preconditions.checkArgument(maxRecordsPerKey > 0, "maxRecordsPerKey must be positive");
+    this.maxRecordsPerKey = maxRecordsPerKey;
+    return this;
+  }
+
+  /**
+   * Sets the number of documents whose records can be buffered at once,
+   * {@value #DEFAULT_MAX_PENDING_KEYS} by default.
+   */
+  public ChangeDataCompactor setMaxPendingKeys(int maxPendingKeys) {
+    Preconditions.checkArgument(maxPendingKeys > 0, "maxPendingKeys must be positive");
+    this.maxPendingKeys = maxPendingKeys;
+    return this;
+  }
+
+  /**
+   * Buffers a record, then delivers the folded records of the windows which it closes.
+   *
+   * @return {@code false} if the record was older than the last record buffered for
+   *         its {@code _id} and was dropped
+   */
+  public boolean offer(@NonNullable ChangeDataRecord record) {
+    final Value id = Preconditions.checkNotNull(record.getId(), "The record has no _id");
+    final String key = Values.asJsonString(id);
+    receivedCount++;
+    Pending p = pending.get(key);
+    if (p != null && record.getOpTimestamp() < p.lastOpTimestamp) {
+      droppedCount++;
+      return false;
+    }
+    if (p == null) {
+      p = new Pending(id, record.getOpTimestamp());
+      pending.put(key, p);
+    }
+    p.fold(record);
+    if (p.recordCount >= maxRecordsPerKey) {
+      pending.remove(key);
+      emit(p);
+    }
+    advanceTo(record.getOpTimestamp());
+    while (pending.size() > maxPendingKeys) {
+      emitOldest();
+    }
+    return true;
+  }
+
+  /**
+   * Delivers the folded records of the windows which close at the specified
+   * operation timestamp, for instance when the change feed is idle.
+   */
+  public void advanceTo(long opTimestamp) {
+    clock = Math.max(clock, opTimestamp);
+    final Iterator<Pending> it = pending.values().iterator();
+    while (it.hasNext()) {
+      final Pending p = it.next();
+      if (clock - p.firstOpTimestamp < window) {
+        break;
+      }
+      it.remove();
+      emit(p);
+    }
+  }
+
+  /**
+   * Delivers the folded records of all the buffered documents.
+   */
+  public void flush() {
+    while (!pending.isEmpty()) {
+      emitOldest();
+    }
+  }
+
+  /**
+   * @return the number of documents with buffered records
+   */
+  public int getPendingKeyCount() {
+    return pending.size();
+  }
+
+  /**
+   * @return the number of records offered
+   */
+  public long getReceivedCount() {
+    return receivedCount;
+  }
+
+  /**
+   * @return the number of folded records delivered to the sink
+   */
+  public long getEmittedCount() {
+    return emittedCount;
+  }
+
+  /**
+   * @return the number of records dropped as out of order
+   */
+  public long getDroppedCount() {
+    return droppedCount;
+  }
+
+  private void emitOldest() {
+    final Iterator<Pending> it = pending.values().iterator();
+    final Pending p = it.next();
+    it.remove();
+    emit(p);
+  }
+
+  private void emit(Pending p) {
+    emittedCount++;
+    sink.accept(p.toRecord());
+  }
+
+  private static boolean hasValue(ChangeOp op) {
+    return op == ChangeOp.SET || op == ChangeOp.PUT || op == ChangeOp.MERGE;
+  }
+
+  private static boolean isMap(Value value) {
+    return value != null && value.getType() == Type.MAP;
+  }
+
+  /**
+   * @return the path of a descendant relative to an ancestor, if it only has named
+   *         segments, or {@code null}
+   */
+  private static FieldPath relativeTo(FieldPath path, FieldPath ancestor) {
+    final FieldPath relative = path.cloneAfterAncestor(ancestor);
+    if (relative == null || FieldPath.EMPTY.equals(relative)) {
+      return null;
+    }
+    for (FieldSegment segment = relative.getRootSegment(); segment != null; segment = segment.getChild()) {
+      if (segment.isIndexed()) {
+        return null;
+      }
+    }
+    return relative;
+  }
+
+  private static Document asDocument(Value map) {
+    return map instanceof Document ? (Document) map : Json.newDocument(map.getMap());
+  }
+
+  /**
+   * A change node of a pending update.
+   */
+  private static final class Node {
+    final FieldPath path;
+    final ChangeOp op;
+    Value value;
+
+    Node(FieldPath path, ChangeOp op, Value value) {
+      this.path = path;
+      this.op = op;
+      this.value = value;
+    }
+  }
+
+  /**
+   * The buffered changes of one document: either its known state, or the nodes of the
+   * updates to an unknown state.
+   */
+  private static final class Pending {
+    final Value id;
+    final long firstOpTimestamp;
+    long lastOpTimestamp;
+    long lastServerTimestamp;
+    int recordCount;
+
+    boolean known;
+    Document document;
+    final List<Node> nodes = new ArrayList<>();
+
+    Pending(Value id, long firstOpTimestamp) {
+      this.id = id;
+      this.firstOpTimestamp = firstOpTimestamp;
+    }
+
+    void fold(ChangeDataRecord record) {
+      switch (record.getType()) {
+      case RECORD_INSERT:
+        setKnown(Json.newDocument().setId(id));
+        break;
+      case RECORD_DELETE:
+        setKnown(null);
+        break;
+      default:
+        if (known && document == null) {
+          // an update creates a missing document
+          document = Json.newDocument().setId(id);
+        }
+        break;
+      }
+      if (record.getType() != ChangeDataRecordType.RECORD_DELETE) {
+        for (KeyValue<FieldPath, ChangeNode> kv : record) {
+          final ChangeOp op = kv.getValue().getOp();
+          if (op != ChangeOp.NULL && !DocumentConstants.ID_FIELD.equals(kv.getKey())) {
+            // the buffered values are modified by later changes
+            fold(kv.getKey(), op, hasValue(op) ? ChangeDataGenerator.copy(kv.getValue().getValue()) : null);
+          }
+        }
+      }
+      lastOpTimestamp = record.getOpTimestamp();
+      lastServerTimestamp = record.getServerTimestamp();
+      recordCount++;
+    }
+
+    private void setKnown(Document document) {
+      this.known = true;
+      this.document = document;
+      nodes.clear();
+    }
+
+    private void fold(FieldPath path, ChangeOp op, Value value) {
+      final boolean root = ChangeDataReaders.isRoot(path);
+      if (known) {
+        document = ChangeDataApplier.applyOp(document, id, path, op, value);
+        return;
+      } else if (root && op != ChangeOp.MERGE) {
+        setKnown(ChangeDataApplier.applyOp(null, id, path, op, value));
+        return;
+      }
+      if (!root && foldIntoAncestor(path, op, value)) {
+        return;
+      }
+
+      switch (op) {
+      case SET:
+      case PUT:
+        removeAtOrBelow(path, false);
+        break;
+      case DELETE:
+      case DELETE_EXACT:
+        // the earlier changes below the top level also create the maps above the field
+        removeAtOrBelow(path, path.getRootSegment().getChild() != null);
+        break;
+      case MERGE:
+        final Map<String, Object> fields = value.getMap();
+        for (String name : fields.keySet()) {
+          removeAtOrBelow(ChangeDataReaders.childOf(path, name), false);
+        }
+        final Node last = lastAtOrAbove(path);
+        if (last != null && last.op == ChangeOp.MERGE && last.path.equals(path)) {
+          // the merges of other fields below the path commute with this one
+          final Document merged = asDocument(last.value);
+          for (Map.Entry<String, Object> e : fields.entrySet()) {
+            merged.set(ChangeDataReaders.childOf(null, e.getKey()), JsonValueBuilder.initFromObject(e.getValue()));
+          }
+          last.value = JsonValueBuilder.initFrom(merged);
+          return;
+        }
+        break;
+      default:
+        break;
+      }
+      nodes.add(new Node(path, op, value));
+    }
+
+    /**
+     * Applies a change to the value of the node setting a map above it, if any.
+     */
+    private boolean foldIntoAncestor(FieldPath path, ChangeOp op, Value value) {
+      final Node node = lastAtOrAbove(path);
+      if (node == null || (node.op != ChangeOp.SET && node.op != ChangeOp.PUT) || !isMap(node.value)) {
+        return false;
+      }
+      final FieldPath relative = relativeTo(path, node.path);
+      if (relative == null) {
+        return false;
+      }
+      final Document map = asDocument(node.value);
+      switch (op) {
+      case SET:
+      case PUT:
+        map.set(relative, value);
+        break;
+      case MERGE:
+        if (isMap(map.getValue(relative))) {
+          for (Map.Entry<String, Object> e : value.getMap().entrySet()) {
+            map.set(ChangeDataReaders.childOf(relative, e.getKey()), JsonValueBuilder.initFromObject(e.getValue()));
+          }
+        } else {
+          map.set(relative, value);
+        }
+        break;
+      default:
+        map.delete(relative);
+        break;
+      }
+      node.value = JsonValueBuilder.initFrom(map);
+      return true;
+    }
+
+    /**
+     * @return the last node which changes the field or one of its ancestors, or
+     *         {@code null}
+     */
+    private Node lastAtOrAbove(FieldPath path) {
+      for (int i = nodes.size() - 1; i >= 0; i--) {
+        if (path.isAtOrBelow(nodes.get(i).path)) {
+          return nodes.get(i);
+        }
+      }
+      return null;
+    }
+
+    private void removeAtOrBelow(FieldPath path, boolean deletesOnly) {
+      nodes.removeIf(node -> node.path.isAtOrBelow(path)
+          && (!deletesOnly || node.op == ChangeOp.DELETE || node.op == ChangeOp.DELETE_EXACT));
+    }
+
+    ChangeDataRecord toRecord() {
+      final List<KeyValue<FieldPath, ChangeNode>> result = new ArrayList<>();
+      final ChangeDataRecordType type;
+      if (!known) {
+        type = ChangeDataRecordType.RECORD_UPDATE;
+        for (Node node : nodes) {
+          result.add(SimpleChangeDataRecord.node(node.path, node.op, node.value,
+              lastOpTimestamp, lastServerTimestamp));
+        }
+      } else if (document == null) {
+        type = ChangeDataRecordType.RECORD_DELETE;
+      } else {
+        type = ChangeDataRecordType.RECORD_INSERT;
+        result.add(SimpleChangeDataRecord.node(FieldPath.EMPTY, ChangeOp.SET,
+            JsonValueBuilder.initFrom(document), lastOpTimestamp, lastServerTimestamp));
+      }
+      return new SimpleChangeDataRecord(id, type, lastOpTimestamp, lastServerTimestamp, result);
+    }
+  }
+
+}
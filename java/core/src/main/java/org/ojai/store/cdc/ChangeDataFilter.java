@@ -0,0 +1,109 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.store.cdc;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.ojai.FieldPath;
+import org.ojai.KeyValue;
+import org.ojai.annotation.API;
+import org.ojai.annotation.API.NonNullable;
+import org.ojai.util.Fields;
+import org.ojai.util.impl.ProjectionTree;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Selects the {@link ChangeDataRecord}s of a change feed which change a sub-set of
+ * fields, and the change nodes of these fields, so that a consumer interested in a few
+ * fields of large documents does not walk every change node.<p/>
+ *
+ * The fields are projected as by a {@link ChangeDataReaderWithProjection}: a change
+ * is relevant if it is made to one of the fields, to a descendant of one, or to an
+ * ancestor of one which it replaces or deletes. A {@code RECORD_DELETE} is always
+ * relevant, and so is a {@code RECORD_INSERT}, whose document is projected onto the
+ * fields. Applying the {@link #filter(ChangeDataRecord) filtered} records of a feed
+ * with a {@link ChangeDataApplier} yields the projection of the documents onto the
+ * fields.<p/>
+ *
+ * A filter holds a single projection tree and may be shared by several threads.
+ */
+@API.Public
+@API.Evolving
+public class ChangeDataFilter {
+
+  private final ProjectionTree rootSegment;
+
+  public ChangeDataFilter(@NonNullable String... includedPaths) {
+    this(Fields.toFieldPathArray(Preconditions.checkNotNull(includedPaths)));
+  }
+
+  public ChangeDataFilter(@NonNullable FieldPath... includedPaths) {
+    this(Arrays.asList(Preconditions.checkNotNull(includedPaths)));
+  }
+
+  public ChangeDataFilter(@NonNullable Collection<FieldPath> includedPaths) {
+    rootSegment = ChangeDataReaderWithProjection.projectionTree(includedPaths);
+  }
+
+  /**
+   * @return a reader of the relevant changes of the specified record
+   */
+  public ChangeDataReader getReader(@NonNullable ChangeDataRecord record) {
+    return new ChangeDataReaderWithProjection(record.getReader(), rootSegment);
+  }
+
+  /**
+   * Checks whether a record makes a relevant change, skipping the values and the
+   * sub-trees of the changes of other fields.
+   *
+   * @return {@code true} if the record changes one of the fields of this filter
+   */
+  public boolean touches(@NonNullable ChangeDataRecord record) {
+    return record.getType() != ChangeDataRecordType.RECORD_UPDATE || getReader(record).hasNext();
+  }
+
+  /**
+   * @return {@code true} if the record changes the specified field, one of its
+   *         descendants or the field itself as a part of one of its ancestors
+   */
+  public static boolean touches(@NonNullable ChangeDataRecord record, @NonNullable FieldPath path) {
+    return new ChangeDataFilter(path).touches(record);
+  }
+
+  /**
+   * @return a record with the relevant changes of the specified record, or {@code null}
+   *         if it makes none
+   */
+  public ChangeDataRecord filter(@NonNullable ChangeDataRecord record) {
+    final ChangeDataReader reader = getReader(record);
+    if (record.getType() == ChangeDataRecordType.RECORD_UPDATE && !reader.hasNext()) {
+      return null;
+    }
+    final List<KeyValue<FieldPath, ChangeNode>> nodes =
+        ChangeDataReaders.readNodes(reader, record.getOpTimestamp(), record.getServerTimestamp());
+    return new SimpleChangeDataRecord(record.getId(), record.getType(), record.getOpTimestamp(),
+        record.getServerTimestamp(), nodes);
+  }
+
+  @Override
+  public String toString() {
+    return rootSegment.toString();
+  }
+
+}
@@ -0,0 +1,416 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.store.cdc;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+import org.ojai.Document;
+import org.ojai.DocumentConstants;
+import org.ojai.FieldPath;
+import org.ojai.FieldSegment.NameSegment;
+import org.ojai.KeyValue;
+import org.ojai.Value;
+import org.ojai.Value.Type;
+import org.ojai.annotation.API;
+import org.ojai.annotation.API.NonNullable;
+import org.ojai.annotation.API.Nullable;
+import org.ojai.exceptions.TypeException;
+import org.ojai.json.Json;
+import org.ojai.json.impl.JsonValueBuilder;
+import org.ojai.store.DocumentMutation;
+import org.ojai.store.MutationOp;
+import org.ojai.store.exceptions.DocumentExistsException;
+import org.ojai.store.exceptions.DocumentNotFoundException;
+import org.ojai.util.BinaryDocumentCodec;
+import org.ojai.util.Values;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Generates the {@link ChangeDataRecord}s a {@link org.ojai.store.DocumentStore
+ * DocumentStore} would publish for a sequence of operations, e.g. to test or
+ * benchmark change feed consumers without a cluster.<p/>
+ *
+ * The generator keeps its own copy of the documents it has seen so that the records
+ * carry the values a store would publish:
+ * <ul>
+ * <li>{@code insert()}, {@code insertOrReplace()} and {@code replace()} produce a
+ * {@link ChangeDataRecordType#RECORD_INSERT RECORD_INSERT} with a single
+ * {@link ChangeOp#SET SET} of the document root.</li>
+ * <li>{@code update()} produces a {@link ChangeDataRecordType#RECORD_UPDATE
+ * RECORD_UPDATE} with a node per {@link MutationOp}: {@code set()} and
+ * {@code setOrReplace()} become a {@code SET}, {@code merge()} a {@link ChangeOp#MERGE
+ * MERGE} and {@code delete()} a {@link ChangeOp#DELETE DELETE}, while
+ * {@code increment()} and {@code append()} become a {@code SET} of the resulting
+ * value.</li>
+ * <li>{@code delete()} produces a {@link ChangeDataRecordType#RECORD_DELETE
+ * RECORD_DELETE} with a {@code DELETE} of the document root.</li>
+ * <li>{@link #diff(Document, Document)} produces the records which turn one version of
+ * a document into another, with a {@code SET} or {@code DELETE} per changed field.</li>
+ * </ul>
+ *
+ * Every record is stamped with a new operation timestamp taken from the clock of the
+ * generator, advanced if necessary so that timestamps strictly increase. Applying the
+ * records in order to a {@link ChangeDataApplier} reproduces the documents of the
+ * generator.
+ */
+@API.Public
+@API.Evolving
+@API.NotThreadSafe
+public class ChangeDataGenerator {
+
+  private final LongSupplier clock;
+  private final Map<String, Document> documents = new HashMap<>();
+  private long lastTimestamp = Long.MIN_VALUE;
+
+  /**
+   * Creates a generator stamping records with the current time in milliseconds.
+   */
+  public ChangeDataGenerator() {
+    this(System::currentTimeMillis);
+  }
+
+  /**
+   * Creates a generator stamping records with the specified clock.
+   */
+  public ChangeDataGenerator(@NonNullable LongSupplier clock) {
+    this.clock = Preconditions.checkNotNull(clock);
+  }
+
+  /**
+   * @return the record of the insertion of the specified document
+   * @throws DocumentExistsException if a document with the same {@code _id} exists
+   */
+  public ChangeDataRecord insert(@NonNullable Document document) {
+    final Value id = idOf(document);
+    if (documents.containsKey(keyOf(id))) {
+      throw new DocumentExistsException("A document with _id " + id.asJsonString() + " exists");
+    }
+    return insertOrReplace(document);
+  }
+
+  /**
+   * @return the record of the replacement of the specified document
+   * @throws DocumentNotFoundException if no document with the same {@code _id} exists
+   */
+  public ChangeDataRecord replace(@NonNullable Document document) {
+    final Value id = idOf(document);
+    if (!documents.containsKey(keyOf(id))) {
+      throw new DocumentNotFoundException("No document with _id " + id.asJsonString());
+    }
+    return insertOrReplace(document);
+  }
+
+  /**
+   * @return the record of the insertion or replacement of the specified document
+   */
+  public ChangeDataRecord insertOrReplace(@NonNullable Document document) {
+    final Value id = idOf(document);
+    final Document copy = copy(document);
+    documents.put(keyOf(id), copy);
+    final long ts = nextTimestamp();
+    final List<KeyValue<FieldPath, ChangeNode>> nodes = new ArrayList<>(1);
+    nodes.add(SimpleChangeDataRecord.node(FieldPath.EMPTY, ChangeOp.SET,
+        JsonValueBuilder.initFrom(copy(document)), ts, ts));
+    return new SimpleChangeDataRecord(id, ChangeDataRecordType.RECORD_INSERT, ts, ts, nodes);
+  }
+
+  /**
+   * Returns the record of the update of a document, which is created if it does not
+   * exist. A {@link DocumentMutation} is an {@code Iterable} of {@code MutationOp}s.
+   *
+   * @param _id the {@code _id} of the document
+   * @param mutation the operations of the update
+   * @return the record of the update
+   * @throws TypeException if a field can not be incremented or appended to, in which
+   *         case the document of the generator is unchanged
+   */
+  public ChangeDataRecord update(@NonNullable Value _id, @NonNullable Iterable<MutationOp> mutation) {
+    final String key = keyOf(_id);
+    final Document existingDocument = documents.get(key);
+    final Document document = existingDocument == null ? Json.newDocument().setId(_id) : copy(existingDocument);
+
+    final List<Change> changes = new ArrayList<>();
+    for (MutationOp op : mutation) {
+      final FieldPath path = op.getFieldPath();
+      if (DocumentConstants.ID_FIELD.equals(path)) {
+        throw new IllegalArgumentException("The _id of a document can not be mutated");
+      }
+      final Value existing = document.getValue(path);
+      final Value value = op.getOpValue() == null ? null : copy(op.getOpValue());
+      switch (op.getType()) {
+      case SET:
+      case SET_OR_REPLACE:
+        document.set(path, value);
+        changes.add(new Change(path, ChangeOp.SET, copy(value)));
+        break;
+      case DELETE:
+        document.delete(path);
+        changes.add(new Change(path, ChangeOp.DELETE, null));
+        break;
+      case MERGE:
+        if (value == null || value.getType() != Type.MAP) {
+          throw new TypeException("Only a map can be merged into " + path.asPathString());
+        }
+        if (existing != null && existing.getType() == Type.MAP) {
+          final Map<String, Object> merged = new LinkedHashMap<>(existing.getMap());
+          merged.putAll(value.getMap());
+          document.set(path, merged);
+        } else {
+          document.set(path, value);
+        }
+        changes.add(new Change(path, ChangeOp.MERGE, copy(value)));
+        break;
+      case INCREMENT:
+        document.set(path, existing == null ? value : increment(path, existing, value));
+        changes.add(new Change(path, ChangeOp.SET, copy(document.getValue(path))));
+        break;
+      case APPEND:
+        document.set(path, append(path, existing, value));
+        changes.add(new Change(path, ChangeOp.SET, copy(document.getValue(path))));
+        break;
+      }
+    }
+
+    // every operation succeeded
+    documents.put(key, document);
+    final long ts = nextTimestamp();
+    final List<KeyValue<FieldPath, ChangeNode>> nodes = new ArrayList<>(changes.size());
+    for (Change change : changes) {
+      nodes.add(SimpleChangeDataRecord.node(change.path, change.op, change.value, ts, ts));
+    }
+    return new SimpleChangeDataRecord(_id, ChangeDataRecordType.RECORD_UPDATE, ts, ts, nodes);
+  }
+
+  /**
+   * @see #update(Value, Iterable)
+   */
+  public ChangeDataRecord update(@NonNullable String _id, @NonNullable Iterable<MutationOp> mutation) {
+    return update(JsonValueBuilder.initFrom(_id), mutation);
+  }
+
+  /**
+   * @return the record of the deletion of the document with the specified {@code _id},
+   *         or {@code null} if it does not exist
+   */
+  public ChangeDataRecord delete(@NonNullable Value _id) {
+    if (documents.remove(keyOf(_id)) == null) {
+      return null;
+    }
+    final long ts = nextTimestamp();
+    final List<KeyValue<FieldPath, ChangeNode>> nodes = new ArrayList<>(1);
+    nodes.add(SimpleChangeDataRecord.node(FieldPath.EMPTY, ChangeOp.DELETE, null, ts, ts));
+    return new SimpleChangeDataRecord(_id, ChangeDataRecordType.RECORD_DELETE, ts, ts, nodes);
+  }
+
+  /**
+   * @see #delete(Value)
+   */
+  public ChangeDataRecord delete(@NonNullable String _id) {
+    return delete(JsonValueBuilder.initFrom(_id));
+  }
+
+  /**
+   * Returns the record which turns one version of a document into another: an insert
+   * if there was no previous version, a delete if there is no new version, and
+   * otherwise an update which deletes the removed fields, sets the added and changed
+   * ones, and descends into the maps present in both versions. The new version becomes
+   * the document of the generator.
+   *
+   * @param before the previous version of the document, or {@code null}
+   * @param after the new version of the document, or {@code null}
+   * @return the record, or {@code null} if the versions are equal
+   * @throws IllegalArgumentException if the versions have different {@code _id}s
+   */
+  public ChangeDataRecord diff(@Nullable Document before, @Nullable Document after) {
+    if (before == null) {
+      return after == null ? null : insertOrReplace(after);
+    } else if (after == null) {
+      final Value id = idOf(before);
+      documents.put(keyOf(id), before);
+      return delete(id);
+    }
+
+    final Value id = idOf(after);
+    Preconditions.checkArgument(Values.compare(id, idOf(before)) == 0
+        && id.getType() == before.getId().getType(), "The versions have different _ids");
+    final List<Change> changes = new ArrayList<>();
+    diffFields(null, before.asMap(), after.asMap(), changes);
+    documents.put(keyOf(id), copy(after));
+    if (changes.isEmpty()) {
+      return null;
+    }
+
+    final long ts = nextTimestamp();
+    final List<KeyValue<FieldPath, ChangeNode>> nodes = new ArrayList<>(changes.size());
+    for (Change change : changes) {
+      nodes.add(SimpleChangeDataRecord.node(change.path, change.op, copy(change.value), ts, ts));
+    }
+    return new SimpleChangeDataRecord(id, ChangeDataRecordType.RECORD_UPDATE, ts, ts, nodes);
+  }
+
+  /**
+   * @return the document of the generator with the specified {@code _id}, or
+   *         {@code null}; the document must not be modified
+   */
+  public Document get(@NonNullable Value _id) {
+    return documents.get(keyOf(_id));
+  }
+
+  /**
+   * @return the document of the generator with the specified {@code _id}, or
+   *         {@code null}; the document must not be modified
+   */
+  public Document get(@NonNullable String _id) {
+    return get(JsonValueBuilder.initFrom(_id));
+  }
+
+  /**
+   * @return the number of documents of the generator
+   */
+  public int size() {
+    return documents.size();
+  }
+
+  /**
+   * @return the operation timestamp of the last record generated, or
+   *         {@code Long.MIN_VALUE} if none was
+   */
+  public long getLastTimestamp() {
+    return lastTimestamp;
+  }
+
+  private long nextTimestamp() {
+    final long now = clock.getAsLong();
+    lastTimestamp = lastTimestamp == Long.MIN_VALUE || now > lastTimestamp ? now : lastTimestamp + 1;
+    return lastTimestamp;
+  }
+
+  private static Value idOf(Document document) {
+    return Preconditions.checkNotNull(document.getId(), "The document has no _id");
+  }
+
+  private static String keyOf(Value id) {
+    return Values.asJsonString(id);
+  }
+
+  private static final class Change {
+    final FieldPath path;
+    final ChangeOp op;
+    final Value value;
+
+    Change(FieldPath path, Value value) {
+      this(path, value == null ? ChangeOp.DELETE : ChangeOp.SET, value);
+    }
+
+    Change(FieldPath path, ChangeOp op, Value value) {
+      this.path = path;
+      this.op = op;
+      this.value = value;
+    }
+  }
+
+  private static void diffFields(FieldPath parent, Map<String, Object> before, Map<String, Object> after,
+      List<Change> changes) {
+    for (String name : before.keySet()) {
+      if (!after.containsKey(name) && !(parent == null && DocumentConstants.ID_KEY.equals(name))) {
+        changes.add(new Change(child(parent, name), null));
+      }
+    }
+    for (Map.Entry<String, Object> e : after.entrySet()) {
+      final String name = e.getKey();
+      if (parent == null && DocumentConstants.ID_KEY.equals(name)) {
+        continue;
+      }
+      final Value a = JsonValueBuilder.initFromObject(e.getValue());
+      final Value b = before.containsKey(name) ? JsonValueBuilder.initFromObject(before.get(name)) : null;
+      if (b != null && b.getType() == Type.MAP && a.getType() == Type.MAP) {
+        diffFields(child(parent, name), b.getMap(), a.getMap(), changes);
+      } else if (b == null || b.getType() != a.getType() || !Values.asJsonString(b).equals(Values.asJsonString(a))) {
+        changes.add(new Change(child(parent, name), a));
+      }
+    }
+  }
+
+  private static FieldPath child(FieldPath parent, String name) {
+    final NameSegment segment = new NameSegment(name, null, false);
+    return parent == null ? new FieldPath(segment) : parent.cloneWithNewChild(segment);
+  }
+
+  private static Value increment(FieldPath path, Value existing, Value delta) {
+    switch (existing.getType()) {
+    case BYTE:
+      return JsonValueBuilder.initFrom((byte) (existing.getByte() + Values.asByte(delta)));
+    case SHORT:
+      return JsonValueBuilder.initFrom((short) (existing.getShort() + Values.asShort(delta)));
+    case INT:
+      return JsonValueBuilder.initFrom(existing.getInt() + Values.asInt(delta));
+    case LONG:
+      return JsonValueBuilder.initFrom(existing.getLong() + Values.asLong(delta));
+    case FLOAT:
+      return JsonValueBuilder.initFrom(existing.getFloat() + Values.asFloat(delta));
+    case DOUBLE:
+      return JsonValueBuilder.initFrom(existing.getDouble() + Values.asDouble(delta));
+    case DECIMAL:
+      return JsonValueBuilder.initFrom(existing.getDecimal().add(Values.asDecimal(delta)));
+    default:
+      throw new TypeException("Can not increment " + path.asPathString() + " of type " + existing.getType());
+    }
+  }
+
+  private static Value append(FieldPath path, Value existing, Value value) {
+    if (existing == null) {
+      return value;
+    } else if (existing.getType() == Type.STRING && value.getType() == Type.STRING) {
+      return JsonValueBuilder.initFrom(existing.getString() + value.getString());
+    } else if (existing.getType() == Type.ARRAY && value.getType() == Type.ARRAY) {
+      final List<Object> list = new ArrayList<>(existing.getList());
+      list.addAll(value.getList());
+      return JsonValueBuilder.initFromObject(list);
+    }
+    throw new TypeException("Can not append a " + value.getType() + " to "
+        + path.asPathString() + " of type " + existing.getType());
+  }
+
+  static Document copy(Document document) {
+    return BinaryDocumentCodec.decode(BinaryDocumentCodec.encode(document));
+  }
+
+  static Value copy(Value value) {
+    if (value == null) {
+      return null;
+    }
+    try {
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      BinaryDocumentCodec.writeValue(value, new DataOutputStream(bytes));
+      return BinaryDocumentCodec.readValue(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+}
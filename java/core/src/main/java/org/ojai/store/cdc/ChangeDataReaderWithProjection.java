@@ -0,0 +1,456 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.store.cdc;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.ojai.DocumentConstants;
+import org.ojai.FieldPath;
+import org.ojai.FieldSegment.NameSegment;
+import org.ojai.Value;
+import org.ojai.Value.Type;
+import org.ojai.annotation.API;
+import org.ojai.annotation.API.NonNullable;
+import org.ojai.exceptions.TypeException;
+import org.ojai.types.ODate;
+import org.ojai.types.OInterval;
+import org.ojai.types.OTime;
+import org.ojai.types.OTimestamp;
+import org.ojai.util.Fields;
+import org.ojai.util.impl.MutableFieldSegment;
+import org.ojai.util.impl.ProjectionTree;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * An implementation of {@link ChangeDataReader} interface which presents only the
+ * changes of a sub-set of fields, with the semantics of a
+ * {@link org.ojai.util.FieldProjector FieldProjector}.<p/>
+ *
+ * The events of a field which is neither a projected field, a descendant of one nor
+ * an ancestor of one are skipped along with their sub-tree, without reading their
+ * values. The {@code START_MAP} and {@code START_ARRAY} events of the ancestors of
+ * the projected fields are presented only if a change below them is, except for a map
+ * or array which is {@link ChangeOp#SET SET} or {@link ChangeOp#PUT PUT} as a whole,
+ * since it replaces the projected fields below it even if it does not contain them.
+ * For the same reason, a scalar change of an ancestor of a projected field, such as
+ * a {@link ChangeOp#DELETE DELETE}, is presented. Changes of the document root are
+ * always presented, with the fields of a root map projected.<p/>
+ *
+ * Deciding whether another change is to be presented requires reading ahead in the
+ * wrapped reader, so {@link #hasNext()} copies the value of the current change node
+ * before it moves the wrapped reader.
+ */
+@API.Public
+@API.NotThreadSafe
+public class ChangeDataReaderWithProjection implements ChangeDataReader {
+
+  private static final NameSegment DOCUMENT_ROOT =
+      new NameSegment(DocumentConstants.DOCUMENT_KEY, null, false);
+
+  private final ChangeDataReader reader;
+  private final ProjectionTree rootSegment;
+
+  /** the open maps and arrays of the wrapped reader which are not skipped */
+  private final List<Frame> containers = new ArrayList<>();
+
+  /** the events to present before {@link #held} */
+  private final List<Frame> replay = new ArrayList<>();
+  private int replayPosition;
+
+  /** the event of the wrapped reader to present next, if already read */
+  private ChangeEvent held;
+
+  /** the current event if it is not the current event of the wrapped reader */
+  private Frame current;
+
+  /** the last event of the wrapped reader which was presented */
+  private ChangeEvent last;
+
+  public ChangeDataReaderWithProjection(@NonNullable ChangeDataReader reader,
+      @NonNullable String... includedPaths) {
+    this(reader, Arrays.asList(Fields.toFieldPathArray(Preconditions.checkNotNull(includedPaths))));
+  }
+
+  public ChangeDataReaderWithProjection(@NonNullable ChangeDataReader reader,
+      @NonNullable FieldPath... includedPaths) {
+    this(reader, Arrays.asList(Preconditions.checkNotNull(includedPaths)));
+  }
+
+  public ChangeDataReaderWithProjection(@NonNullable ChangeDataReader reader,
+      @NonNullable Collection<FieldPath> includedPaths) {
+    this(reader, projectionTree(includedPaths));
+  }
+
+  ChangeDataReaderWithProjection(ChangeDataReader reader, ProjectionTree rootSegment) {
+    this.reader = Preconditions.checkNotNull(reader);
+    this.rootSegment = rootSegment;
+  }
+
+  static ProjectionTree projectionTree(Collection<FieldPath> includedPaths) {
+    final ProjectionTree rootSegment = new ProjectionTree(DOCUMENT_ROOT, null);
+    for (FieldPath includedPath : Preconditions.checkNotNull(includedPaths)) {
+      Preconditions.checkArgument(!FieldPath.EMPTY.equals(includedPath), "Can not project the document root");
+      rootSegment.addOrGetChild(includedPath.getRootSegment());
+    }
+    return rootSegment;
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (replayPosition < replay.size() || held != null) {
+      return true;
+    }
+    if (last != null && current == null) {
+      // the wrapped reader is about to move away from the current event
+      current = new Frame(last, reader, true);
+    }
+    advance();
+    return held != null;
+  }
+
+  @Override
+  public ChangeEvent next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    if (replayPosition < replay.size()) {
+      current = replay.get(replayPosition++);
+      return current.event;
+    }
+    replay.clear();
+    replayPosition = 0;
+    current = null;
+    last = held;
+    held = null;
+    return last;
+  }
+
+  /**
+   * Moves the wrapped reader to its next event to present, if any, and queues the
+   * pending {@code START_MAP} and {@code START_ARRAY} events of its ancestors.
+   */
+  private void advance() {
+    while (held == null && reader.hasNext()) {
+      final ChangeEvent event = reader.next();
+      final Frame parent = containers.isEmpty() ? null : containers.get(containers.size() - 1);
+      switch (event) {
+      case END_MAP:
+      case END_ARRAY:
+        containers.remove(containers.size() - 1);
+        if (parent.presented) {
+          held = event;
+        }
+        break;
+      case NULL:
+        if (parent != null && parent.segment == null) {
+          held = event;
+        }
+        break;
+      default:
+        moveTo(event, parent);
+        break;
+      }
+    }
+  }
+
+  private void moveTo(ChangeEvent event, Frame parent) {
+    final boolean container = event == ChangeEvent.START_MAP || event == ChangeEvent.START_ARRAY;
+    final ChangeOp op = reader.getOp();
+    ProjectionTree segment;
+    if (parent == null && reader.inMap() && reader.getFieldName() == null) {
+      segment = rootSegment; // the document root
+    } else if (parent != null && parent.segment == null) {
+      segment = null; // below a projected field
+    } else {
+      final ProjectionTree parentSegment = parent == null ? rootSegment : parent.segment;
+      if (parentSegment.isSingleValueArray() && reader.inArray()) {
+        segment = null;
+      } else {
+        segment = parentSegment.findChild(reader.inArray()
+            ? new MutableFieldSegment(reader.getArrayIndex()) : new MutableFieldSegment(reader.getFieldName()));
+        if (segment == null) {
+          if (container) {
+            skipChildren();
+          }
+          return;
+        }
+        if (segment.isLeafSegment()) {
+          segment = null;
+        }
+      }
+    }
+
+    if (!container) {
+      if (segment == null || op != ChangeOp.NULL) {
+        present(event);
+      }
+    } else if (segment == null || op == ChangeOp.SET || op == ChangeOp.PUT) {
+      present(event);
+      containers.add(new Frame(segment, true));
+    } else {
+      // presented only if one of its descendants is
+      final Frame frame = new Frame(event, reader, false);
+      frame.segment = segment;
+      containers.add(frame);
+    }
+  }
+
+  private void present(ChangeEvent event) {
+    for (Frame frame : containers) {
+      if (!frame.presented) {
+        frame.presented = true;
+        replay.add(frame);
+      }
+    }
+    held = event;
+  }
+
+  private void skipChildren() {
+    int depth = 1;
+    while (depth > 0) {
+      switch (ChangeDataReaders.nextEvent(reader)) {
+      case START_MAP:
+      case START_ARRAY:
+        depth++;
+        break;
+      case END_MAP:
+      case END_ARRAY:
+        depth--;
+        break;
+      default:
+        break;
+      }
+    }
+  }
+
+  private Value value() {
+    if (current.value == null) {
+      throw new TypeException("The current change node has no scalar value");
+    }
+    return current.value;
+  }
+
+  @Override
+  public ChangeOp getOp() {
+    return current == null ? reader.getOp() : current.op;
+  }
+
+  @Override
+  public String getFieldName() {
+    return current == null ? reader.getFieldName() : current.name;
+  }
+
+  @Override
+  public ByteBuffer getFieldNameBytes() {
+    if (current == null) {
+      return reader.getFieldNameBytes();
+    }
+    return current.name == null ? null : ByteBuffer.wrap(current.name.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Override
+  public int getArrayIndex() {
+    return current == null ? reader.getArrayIndex() : current.index;
+  }
+
+  @Override
+  public boolean inMap() {
+    return current == null ? reader.inMap() : !current.inArray;
+  }
+
+  @Override
+  public boolean inArray() {
+    return current == null ? reader.inArray() : current.inArray;
+  }
+
+  @Override
+  public Type getType() {
+    if (current == null) {
+      return reader.getType();
+    }
+    return current.value == null ? null : current.value.getType();
+  }
+
+  @Override
+  public long getOpTimestamp() {
+    return current == null ? reader.getOpTimestamp() : current.opTimestamp;
+  }
+
+  @Override
+  public long getServerTimestamp() {
+    return current == null ? reader.getServerTimestamp() : current.serverTimestamp;
+  }
+
+  @Override
+  public byte getByte() {
+    return current == null ? reader.getByte() : value().getByte();
+  }
+
+  @Override
+  public short getShort() {
+    return current == null ? reader.getShort() : value().getShort();
+  }
+
+  @Override
+  public int getInt() {
+    return current == null ? reader.getInt() : value().getInt();
+  }
+
+  @Override
+  public long getLong() {
+    return current == null ? reader.getLong() : value().getLong();
+  }
+
+  @Override
+  public float getFloat() {
+    return current == null ? reader.getFloat() : value().getFloat();
+  }
+
+  @Override
+  public double getDouble() {
+    return current == null ? reader.getDouble() : value().getDouble();
+  }
+
+  @Override
+  public BigDecimal getDecimal() {
+    return current == null ? reader.getDecimal() : value().getDecimal();
+  }
+
+  @Override
+  public int getDecimalPrecision() {
+    return current == null ? reader.getDecimalPrecision() : getDecimal().precision();
+  }
+
+  @Override
+  public int getDecimalScale() {
+    return current == null ? reader.getDecimalScale() : getDecimal().scale();
+  }
+
+  @Override
+  public int getDecimalValueAsInt() {
+    return current == null ? reader.getDecimalValueAsInt() : getDecimal().unscaledValue().intValueExact();
+  }
+
+  @Override
+  public long getDecimalValueAsLong() {
+    return current == null ? reader.getDecimalValueAsLong() : getDecimal().unscaledValue().longValueExact();
+  }
+
+  @Override
+  public ByteBuffer getDecimalValueAsBytes() {
+    return current == null ? reader.getDecimalValueAsBytes()
+        : ByteBuffer.wrap(getDecimal().unscaledValue().toByteArray());
+  }
+
+  @Override
+  public boolean getBoolean() {
+    return current == null ? reader.getBoolean() : value().getBoolean();
+  }
+
+  @Override
+  public String getString() {
+    return current == null ? reader.getString() : value().getString();
+  }
+
+  @Override
+  public long getTimestampLong() {
+    return current == null ? reader.getTimestampLong() : value().getTimestampAsLong();
+  }
+
+  @Override
+  public OTimestamp getTimestamp() {
+    return current == null ? reader.getTimestamp() : value().getTimestamp();
+  }
+
+  @Override
+  public int getDateInt() {
+    return current == null ? reader.getDateInt() : value().getDateAsInt();
+  }
+
+  @Override
+  public ODate getDate() {
+    return current == null ? reader.getDate() : value().getDate();
+  }
+
+  @Override
+  public int getTimeInt() {
+    return current == null ? reader.getTimeInt() : value().getTimeAsInt();
+  }
+
+  @Override
+  public OTime getTime() {
+    return current == null ? reader.getTime() : value().getTime();
+  }
+
+  @Override
+  public OInterval getInterval() {
+    return current == null ? reader.getInterval() : value().getInterval();
+  }
+
+  @Override
+  public long getIntervalMillis() {
+    return current == null ? reader.getIntervalMillis() : value().getIntervalAsLong();
+  }
+
+  @Override
+  public ByteBuffer getBinary() {
+    return current == null ? reader.getBinary() : value().getBinary();
+  }
+
+  /**
+   * An open container of the wrapped reader, or a copy of one of its events.
+   */
+  private static final class Frame {
+    ChangeEvent event;
+    ChangeOp op;
+    String name;
+    int index;
+    boolean inArray;
+    long opTimestamp;
+    long serverTimestamp;
+    Value value;
+
+    /** the position in the projection tree, {@code null} below a projected field */
+    ProjectionTree segment;
+    boolean presented;
+
+    Frame(ProjectionTree segment, boolean presented) {
+      this.segment = segment;
+      this.presented = presented;
+    }
+
+    Frame(ChangeEvent event, ChangeDataReader reader, boolean withValue) {
+      this.event = event;
+      op = reader.getOp();
+      name = reader.getFieldName();
+      index = reader.getArrayIndex();
+      inArray = reader.inArray();
+      opTimestamp = reader.getOpTimestamp();
+      serverTimestamp = reader.getServerTimestamp();
+      if (withValue && reader.getType() != null) {
+        value = ChangeDataReaders.readScalar(reader);
+      }
+    }
+  }
+}
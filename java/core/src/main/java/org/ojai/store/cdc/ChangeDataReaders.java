@@ -0,0 +1,224 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.store.cdc;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ojai.Document;
+import org.ojai.FieldPath;
+import org.ojai.FieldSegment.IndexSegment;
+import org.ojai.FieldSegment.NameSegment;
+import org.ojai.KeyValue;
+import org.ojai.Value;
+import org.ojai.Value.Type;
+import org.ojai.exceptions.DecodingException;
+import org.ojai.json.Json;
+import org.ojai.json.impl.JsonValueBuilder;
+
+/**
+ * Helpers to read the values and field paths of the events of a {@link ChangeDataReader}
+ * which presents its change nodes as described in {@link SimpleChangeDataRecord}.
+ */
+final class ChangeDataReaders {
+
+  private ChangeDataReaders() {}
+
+  /**
+   * Reads the remaining events of a reader into the change nodes they describe. A
+   * {@code START_MAP} or {@code START_ARRAY} with an operation other than
+   * {@link ChangeOp#NULL NULL} is read as a single node with a map or array value.
+   */
+  static List<KeyValue<FieldPath, ChangeNode>> readNodes(ChangeDataReader reader,
+      long opTimestamp, long serverTimestamp) {
+    final List<KeyValue<FieldPath, ChangeNode>> nodes = new ArrayList<>();
+    while (reader.hasNext()) {
+      readNodes(reader.next(), reader, null, nodes, opTimestamp, serverTimestamp);
+    }
+    return nodes;
+  }
+
+  private static void readNodes(ChangeEvent event, ChangeDataReader reader, FieldPath parent,
+      List<KeyValue<FieldPath, ChangeNode>> nodes, long opTimestamp, long serverTimestamp) {
+    switch (event) {
+    case NULL:
+      return;
+    case NODE: {
+      final ChangeOp op = reader.getOp();
+      final Value value = reader.getType() == null ? null : readScalar(reader);
+      nodes.add(SimpleChangeDataRecord.node(rootIfNull(pathOf(reader, parent)), op, value,
+          opTimestamp, serverTimestamp));
+      return;
+    }
+    case START_MAP:
+    case START_ARRAY: {
+      final FieldPath path = pathOf(reader, parent);
+      final ChangeOp op = reader.getOp();
+      if (op == ChangeOp.SET || op == ChangeOp.PUT) {
+        nodes.add(SimpleChangeDataRecord.node(rootIfNull(path), op, readContainer(event, reader),
+            opTimestamp, serverTimestamp));
+        return;
+      }
+
+      // a merged map whose fields are all set is read back as a single MERGE node
+      final List<KeyValue<FieldPath, ChangeNode>> children = new ArrayList<>();
+      final Document merged = Json.newDocument();
+      boolean folded = op == ChangeOp.MERGE && event == ChangeEvent.START_MAP;
+      final ChangeEvent end = event == ChangeEvent.START_MAP ? ChangeEvent.END_MAP : ChangeEvent.END_ARRAY;
+      for (ChangeEvent e = nextEvent(reader); e != end; e = nextEvent(reader)) {
+        final int first = children.size();
+        final String name = reader.inArray() ? null : reader.getFieldName();
+        readNodes(e, reader, path, children, opTimestamp, serverTimestamp);
+        if (folded && name != null && children.size() == first + 1) {
+          final KeyValue<FieldPath, ChangeNode> child = children.get(first);
+          folded = child.getValue().getOp() == ChangeOp.SET && child.getKey().equals(childOf(path, name));
+          if (folded) {
+            merged.set(new FieldPath(new NameSegment(name, null, false)), child.getValue().getValue());
+          }
+        } else {
+          folded = false;
+        }
+      }
+      if (op == ChangeOp.MERGE) {
+        nodes.add(SimpleChangeDataRecord.node(rootIfNull(path), op,
+            JsonValueBuilder.initFrom(folded ? merged : Json.newDocument()), opTimestamp, serverTimestamp));
+        if (folded) {
+          return;
+        }
+      }
+      nodes.addAll(children);
+      return;
+    }
+    default:
+      throw new DecodingException("Unexpected event " + event);
+    }
+  }
+
+  private static FieldPath rootIfNull(FieldPath path) {
+    return path == null ? FieldPath.EMPTY : path;
+  }
+
+  static boolean isRoot(FieldPath path) {
+    return path == null || FieldPath.EMPTY.equals(path);
+  }
+
+  static FieldPath childOf(FieldPath parent, String name) {
+    final NameSegment segment = new NameSegment(name, null, false);
+    return isRoot(parent) ? new FieldPath(segment) : parent.cloneWithNewChild(segment);
+  }
+
+  static FieldPath pathOf(ChangeDataReader reader, FieldPath parent) {
+    if (reader.inArray()) {
+      if (isRoot(parent)) {
+        throw new DecodingException("An array element can not be at the document root");
+      }
+      return parent.cloneWithNewChild(new IndexSegment(reader.getArrayIndex(), null));
+    }
+    final String name = reader.getFieldName();
+    return name == null ? parent : childOf(parent, name);
+  }
+
+  static ChangeEvent nextEvent(ChangeDataReader reader) {
+    if (!reader.hasNext()) {
+      throw new DecodingException("Unexpected end of the change data reader");
+    }
+    return reader.next();
+  }
+
+  static Value readContainer(ChangeEvent event, ChangeDataReader reader) {
+    if (event == ChangeEvent.START_MAP) {
+      final Document map = Json.newDocument();
+      for (ChangeEvent e = nextEvent(reader); e != ChangeEvent.END_MAP; e = nextEvent(reader)) {
+        final String name = reader.getFieldName();
+        final Value value = readValue(e, reader);
+        if (value != null) {
+          map.set(new FieldPath(new NameSegment(name, null, false)), value);
+        }
+      }
+      return JsonValueBuilder.initFrom(map);
+    } else {
+      final List<Object> list = new ArrayList<>();
+      for (ChangeEvent e = nextEvent(reader); e != ChangeEvent.END_ARRAY; e = nextEvent(reader)) {
+        final Value value = readValue(e, reader);
+        if (value != null) {
+          list.add(value);
+        }
+      }
+      return JsonValueBuilder.initFromObject(list);
+    }
+  }
+
+  static Value readValue(ChangeEvent event, ChangeDataReader reader) {
+    switch (event) {
+    case NULL:
+      return null;
+    case NODE:
+      return readScalar(reader);
+    case START_MAP:
+    case START_ARRAY:
+      return readContainer(event, reader);
+    default:
+      throw new DecodingException("Unexpected event " + event);
+    }
+  }
+
+  static Value readScalar(ChangeDataReader reader) {
+    final Type type = reader.getType();
+    if (type == null) {
+      throw new DecodingException("The change node " + reader.getFieldName() + " has no value");
+    }
+    switch (type) {
+    case NULL:
+      return JsonValueBuilder.initFromNull();
+    case BOOLEAN:
+      return JsonValueBuilder.initFrom(reader.getBoolean());
+    case STRING:
+      return JsonValueBuilder.initFrom(reader.getString());
+    case BYTE:
+      return JsonValueBuilder.initFrom(reader.getByte());
+    case SHORT:
+      return JsonValueBuilder.initFrom(reader.getShort());
+    case INT:
+      return JsonValueBuilder.initFrom(reader.getInt());
+    case LONG:
+      return JsonValueBuilder.initFrom(reader.getLong());
+    case FLOAT:
+      return JsonValueBuilder.initFrom(reader.getFloat());
+    case DOUBLE:
+      return JsonValueBuilder.initFrom(reader.getDouble());
+    case DECIMAL:
+      return JsonValueBuilder.initFrom(reader.getDecimal());
+    case DATE:
+      return JsonValueBuilder.initFrom(reader.getDate());
+    case TIME:
+      return JsonValueBuilder.initFrom(reader.getTime());
+    case TIMESTAMP:
+      return JsonValueBuilder.initFrom(reader.getTimestamp());
+    case INTERVAL:
+      return JsonValueBuilder.initFrom(reader.getInterval());
+    case BINARY: {
+      // readers may reuse the buffer they return
+      final ByteBuffer binary = reader.getBinary().duplicate();
+      final ByteBuffer copy = ByteBuffer.allocate(binary.remaining());
+      copy.put(binary).flip();
+      return JsonValueBuilder.initFrom(copy);
+    }
+    default:
+      throw new DecodingException("Unexpected scalar type " + type);
+    }
+  }
+}
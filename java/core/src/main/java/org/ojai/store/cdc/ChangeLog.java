@@ -0,0 +1,294 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.store.cdc;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.ojai.annotation.API;
+import org.ojai.annotation.API.NonNullable;
+import org.ojai.exceptions.DecodingException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * An append-only log of {@link ChangeDataRecord}s in the {@link BinaryChangeDataRecord}
+ * format, stored in memory-mapped segment files of a directory.<p/>
+ *
+ * Each record is framed by its {@code i32} length and addressed by its offset, the
+ * number of bytes of the log preceding it. A segment is named after the offset of its
+ * first record, and a new segment is started when a record does not fit in the
+ * current one. The payload of a record is written before its length, so a zero length
+ * marks the end of a segment, and a record is not seen partially written when the log
+ * is reopened after a crash of the process.<p/>
+ *
+ * {@link #cursor(long) Cursors} read the records in place from the mapped segments
+ * through a reused {@link BinaryChangeDataRecord}, and see the records appended after
+ * their creation. Records are only durable once the log is {@link #flush() flushed}:
+ * the operating system may write the pages of a segment back in any order, so after a
+ * crash of the system, the records appended since the last flush may be lost or, if
+ * their length reached the disk before their payload, read back corrupt.
+ */
+@API.Public
+@API.Evolving
+@API.NotThreadSafe
+public final class ChangeLog implements Closeable {
+
+  private static final Logger logger = LoggerFactory.getLogger(ChangeLog.class);
+
+  /**
+   * The default size of a segment file, 64 MB.
+   */
+  public static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+
+  private static final String SUFFIX = ".log";
+  private static final int FRAME_SIZE = 4;
+
+  private final File directory;
+  private final int segmentSize;
+  private final BinaryChangeDataWriter writer = new BinaryChangeDataWriter();
+  private final List<Segment> segments = new ArrayList<>();
+  private Segment current;
+  private boolean closed;
+
+  /**
+   * Opens the log in a directory, creating it if needed, with segments of the
+   * {@link #DEFAULT_SEGMENT_SIZE default size}.
+   */
+  public ChangeLog(@NonNullable File directory) throws IOException {
+    this(directory, DEFAULT_SEGMENT_SIZE);
+  }
+
+  /**
+   * Opens the log in a directory, creating it if needed. Appends continue at the end
+   * of the last existing segment.
+   *
+   * @param segmentSize the size in bytes of new segment files; a segment is larger if
+   *        needed to hold a single record
+   */
+  public ChangeLog(@NonNullable File directory, int segmentSize) throws IOException {
+    Preconditions.checkArgument(segmentSize >= 2 * FRAME_SIZE, "segmentSize is too small");
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Failed to create the directory " + directory);
+    }
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+
+    final File[] files = directory.listFiles((dir, name) -> name.matches("\\d{20}\\" + SUFFIX));
+    Arrays.sort(files);
+    long end = 0;
+    for (File file : files) {
+      final long base = Long.parseLong(file.getName().substring(0, 20));
+      if (file.length() == 0) {
+        // created by a crash before it was mapped, it holds no records
+        logger.debug("Deleting the empty change log segment {}", file);
+        if (!file.delete()) {
+          throw new IOException("Failed to delete the empty segment " + file);
+        }
+        end = Math.max(end, base);
+        continue;
+      }
+      final Segment segment = new Segment(file, base, (int) file.length());
+      segment.position = segment.scan();
+      segments.add(segment);
+    }
+    if (segments.isEmpty()) {
+      segments.add(new Segment(segmentFile(end), end, segmentSize));
+    }
+    current = segments.get(segments.size() - 1);
+    logger.debug("Opened change log {} with {} segments ending at offset {}", directory, segments.size(),
+        getEndOffset());
+  }
+
+  public File getDirectory() {
+    return directory;
+  }
+
+  /**
+   * @return the offset at which the next record will be appended
+   */
+  public long getEndOffset() {
+    return current.base + current.position;
+  }
+
+  /**
+   * @return the number of segment files
+   */
+  public int getSegmentCount() {
+    return segments.size();
+  }
+
+  /**
+   * Appends a record to the log.
+   *
+   * @return the offset of the record
+   */
+  public long append(@NonNullable ChangeDataRecord record) throws IOException {
+    Preconditions.checkState(!closed, "The change log is closed");
+    final ByteBuffer encoded = writer.write(record);
+    final int length = encoded.remaining();
+    if (current.size - current.position < FRAME_SIZE + length) {
+      final long base = getEndOffset();
+      current.force();
+      current = new Segment(segmentFile(base), base, Math.max(segmentSize, 2 * FRAME_SIZE + length));
+      segments.add(current);
+    }
+    final int position = current.position;
+    final ByteBuffer buffer = current.buffer;
+    buffer.position(position + FRAME_SIZE);
+    buffer.put(encoded);
+    buffer.putInt(position, length);
+    current.position = position + FRAME_SIZE + length;
+    return current.base + position;
+  }
+
+  /**
+   * Writes the appended records to storage.
+   */
+  public void flush() {
+    Preconditions.checkState(!closed, "The change log is closed");
+    current.force();
+  }
+
+  /**
+   * Returns a cursor over the records of this log from the specified offset, which
+   * must be the offset of a record or the end of the log.
+   */
+  public Cursor cursor(long offset) {
+    Preconditions.checkState(!closed, "The change log is closed");
+    Preconditions.checkArgument(offset >= 0 && offset <= getEndOffset(), "Invalid offset %s", offset);
+    int index = segments.size() - 1;
+    while (segments.get(index).base > offset) {
+      index--;
+    }
+    return new Cursor(index, (int) (offset - segments.get(index).base));
+  }
+
+  /**
+   * Flushes the log. Cursors of this log can not be used afterwards. The segment files
+   * are closed as soon as they are mapped, and stay mapped until their buffers are
+   * garbage collected.
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    current.force();
+  }
+
+  private File segmentFile(long base) {
+    return new File(directory, String.format("%020d%s", base, SUFFIX));
+  }
+
+  private static final class Segment {
+    final long base;
+    final int size;
+    final MappedByteBuffer buffer;
+    int position;
+
+    Segment(File file, long base, int size) throws IOException {
+      this.base = base;
+      this.size = size;
+      // the mapping remains valid once the file is closed
+      try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+        this.buffer = raf.getChannel().map(MapMode.READ_WRITE, 0, size);
+      }
+    }
+
+    /**
+     * @return the position following the last complete record of this segment
+     */
+    int scan() {
+      int p = 0;
+      int length;
+      while (p + FRAME_SIZE <= size && (length = buffer.getInt(p)) > 0) {
+        if (p + FRAME_SIZE + length > size) {
+          throw new DecodingException("Corrupt change log segment at offset " + (base + p));
+        }
+        p += FRAME_SIZE + length;
+      }
+      return p;
+    }
+
+    void force() {
+      buffer.force();
+    }
+  }
+
+  /**
+   * An iterator over the records of a {@link ChangeLog}, which returns the same
+   * {@link BinaryChangeDataRecord} wrapped around each record in turn.
+   */
+  @API.NotThreadSafe
+  public final class Cursor implements Iterator<ChangeDataRecord> {
+    private final BinaryChangeDataRecord record = new BinaryChangeDataRecord();
+    private int index;
+    private int position;
+
+    private Cursor(int index, int position) {
+      this.index = index;
+      this.position = position;
+    }
+
+    /**
+     * @return the offset of the next record
+     */
+    public long getOffset() {
+      return segments.get(index).base + position;
+    }
+
+    @Override
+    public boolean hasNext() {
+      Preconditions.checkState(!closed, "The change log is closed");
+      // the segments are only written by the enclosing log, up to their positions
+      while (position >= segments.get(index).position) {
+        if (index == segments.size() - 1) {
+          return false;
+        }
+        index++;
+        position = 0;
+      }
+      return true;
+    }
+
+    @Override
+    public BinaryChangeDataRecord next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      final Segment segment = segments.get(index);
+      final int length = segment.buffer.getInt(position);
+      record.wrap(segment.buffer, position + FRAME_SIZE, length);
+      position += FRAME_SIZE + length;
+      return record;
+    }
+  }
+
+}
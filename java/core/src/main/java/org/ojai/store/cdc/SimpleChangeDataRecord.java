@@ -0,0 +1,566 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.store.cdc;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.ojai.FieldPath;
+import org.ojai.FieldSegment;
+import org.ojai.KeyValue;
+import org.ojai.Value;
+import org.ojai.Value.Type;
+import org.ojai.exceptions.TypeException;
+import org.ojai.json.impl.JsonValueBuilder;
+import org.ojai.types.ODate;
+import org.ojai.types.OInterval;
+import org.ojai.types.OTime;
+import org.ojai.types.OTimestamp;
+
+/**
+ * A {@link ChangeDataRecord} holding its change nodes in a list.<p/>
+ *
+ * The {@link #getReader() reader} presents the nodes in order as a tree: consecutive
+ * nodes share the {@code START_MAP} and {@code START_ARRAY} events of their common
+ * ancestors, which carry no operation, and the value of a node is presented as a
+ * nested map or array with the operation of the node, except that the fields of a
+ * {@link ChangeOp#MERGE MERGE}d map are {@link ChangeOp#SET SET} individually. The
+ * root of the document has no field name.
+ */
+final class SimpleChangeDataRecord implements ChangeDataRecord {
+
+  private final Value id;
+  private final ChangeDataRecordType type;
+  private final long opTimestamp;
+  private final long serverTimestamp;
+  private final List<KeyValue<FieldPath, ChangeNode>> nodes;
+
+  SimpleChangeDataRecord(Value id, ChangeDataRecordType type, long opTimestamp,
+      long serverTimestamp, List<KeyValue<FieldPath, ChangeNode>> nodes) {
+    this.id = id;
+    this.type = type;
+    this.opTimestamp = opTimestamp;
+    this.serverTimestamp = serverTimestamp;
+    this.nodes = Collections.unmodifiableList(nodes);
+  }
+
+  static KeyValue<FieldPath, ChangeNode> node(FieldPath path, ChangeOp op, Value value,
+      long opTimestamp, long serverTimestamp) {
+    return new Entry(path, new Node(op, value, opTimestamp, serverTimestamp));
+  }
+
+  @Override
+  public Value getId() {
+    return id;
+  }
+
+  @Override
+  public ChangeDataRecordType getType() {
+    return type;
+  }
+
+  @Override
+  public long getOpTimestamp() {
+    return opTimestamp;
+  }
+
+  @Override
+  public long getServerTimestamp() {
+    return type == ChangeDataRecordType.RECORD_UPDATE ? -1 : serverTimestamp;
+  }
+
+  @Override
+  public Iterator<KeyValue<FieldPath, ChangeNode>> iterator() {
+    return nodes.iterator();
+  }
+
+  @Override
+  public ChangeDataReader getReader() {
+    final List<Frame> frames = new ArrayList<>();
+    final List<FieldSegment> open = new ArrayList<>();
+    final List<ChangeEvent> ends = new ArrayList<>();
+    for (KeyValue<FieldPath, ChangeNode> kv : nodes) {
+      final List<FieldSegment> segments = segmentsOf(kv.getKey());
+      final int parents = Math.max(0, segments.size() - 1);
+      int common = 0;
+      while (common < open.size() && common < parents
+          && sameSegment(open.get(common), segments.get(common))) {
+        common++;
+      }
+      close(frames, open, ends, common);
+      for (int i = common; i < parents; i++) {
+        // an ancestor is an array if the path continues with an index
+        final boolean array = segments.get(i + 1).isArray();
+        frames.add(new Frame(array ? ChangeEvent.START_ARRAY : ChangeEvent.START_MAP,
+            ChangeOp.NULL, segments.get(i), null, kv.getValue()));
+        open.add(segments.get(i));
+        ends.add(array ? ChangeEvent.END_ARRAY : ChangeEvent.END_MAP);
+      }
+      final ChangeNode node = kv.getValue();
+      addValue(frames, segments.isEmpty() ? null : segments.get(parents), node.getOp(),
+          node.getType() == null ? null : node.getValue(), node);
+    }
+    close(frames, open, ends, 0);
+    return new Reader(frames);
+  }
+
+  @Override
+  public String toString() {
+    return toString(this);
+  }
+
+  /**
+   * @return the type, {@code _id}, operation timestamp and change nodes of a record
+   */
+  static String toString(ChangeDataRecord record) {
+    final Value id = record.getId();
+    final StringBuilder sb = new StringBuilder();
+    sb.append(record.getType()).append(' ').append(id == null ? null : id.asJsonString())
+        .append('@').append(record.getOpTimestamp());
+    for (KeyValue<FieldPath, ChangeNode> kv : record) {
+      sb.append(' ').append(kv.getValue().getOp()).append(' ').append(kv.getKey().asPathString());
+    }
+    return sb.toString();
+  }
+
+  private static List<FieldSegment> segmentsOf(FieldPath path) {
+    final List<FieldSegment> segments = new ArrayList<>();
+    if (path != null && !FieldPath.EMPTY.equals(path)) {
+      for (FieldSegment s = path.getRootSegment(); s != null; s = s.getChild()) {
+        segments.add(s);
+      }
+    }
+    return segments;
+  }
+
+  private static boolean sameSegment(FieldSegment s1, FieldSegment s2) {
+    if (s1.isArray() != s2.isArray()) {
+      return false;
+    }
+    return s1.isArray() ? s1.getIndexSegment().getIndex() == s2.getIndexSegment().getIndex()
+        : s1.getNameSegment().getName().equals(s2.getNameSegment().getName());
+  }
+
+  private static void close(List<Frame> frames, List<FieldSegment> open, List<ChangeEvent> ends, int depth) {
+    for (int i = open.size() - 1; i >= depth; i--) {
+      frames.add(new Frame(ends.remove(i), ChangeOp.NULL, null, null, null));
+      open.remove(i);
+    }
+  }
+
+  private static void addValue(List<Frame> frames, Object key, ChangeOp op, Value value, ChangeNode node) {
+    if (value != null && value.getType() == Type.MAP) {
+      frames.add(new Frame(ChangeEvent.START_MAP, op, key, null, node));
+      final ChangeOp childOp = op == ChangeOp.MERGE ? ChangeOp.SET : op;
+      for (Map.Entry<String, Object> e : value.getMap().entrySet()) {
+        addValue(frames, e.getKey(), childOp, JsonValueBuilder.initFromObject(e.getValue()), node);
+      }
+      frames.add(new Frame(ChangeEvent.END_MAP, ChangeOp.NULL, null, null, node));
+    } else if (value != null && value.getType() == Type.ARRAY) {
+      frames.add(new Frame(ChangeEvent.START_ARRAY, op, key, null, node));
+      final List<Object> list = value.getList();
+      for (int i = 0; i < list.size(); i++) {
+        addValue(frames, i, op, JsonValueBuilder.initFromObject(list.get(i)), node);
+      }
+      frames.add(new Frame(ChangeEvent.END_ARRAY, ChangeOp.NULL, null, null, node));
+    } else {
+      frames.add(new Frame(ChangeEvent.NODE, op, key, value, node));
+    }
+  }
+
+  private static final class Entry extends SimpleImmutableEntry<FieldPath, ChangeNode>
+      implements KeyValue<FieldPath, ChangeNode> {
+    private static final long serialVersionUID = 1L;
+
+    Entry(FieldPath path, ChangeNode node) {
+      super(path, node);
+    }
+  }
+
+  private static final class Frame {
+    final ChangeEvent event;
+    final ChangeOp op;
+    final String name;
+    final int index;
+    final Value value;
+    final ChangeNode node;
+
+    Frame(ChangeEvent event, ChangeOp op, Object key, Value value, ChangeNode node) {
+      this.event = event;
+      this.op = op;
+      if (key instanceof FieldSegment) {
+        final FieldSegment segment = (FieldSegment) key;
+        key = segment.isArray() ? (Object) segment.getIndexSegment().getIndex()
+            : segment.getNameSegment().getName();
+      }
+      this.name = key instanceof String ? (String) key : null;
+      this.index = key instanceof Integer ? (Integer) key : -1;
+      this.value = value;
+      this.node = node;
+    }
+  }
+
+  private static final class Reader implements ChangeDataReader {
+    private final List<Frame> frames;
+    private int position = -1;
+    private Frame current;
+
+    Reader(List<Frame> frames) {
+      this.frames = frames;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return position + 1 < frames.size();
+    }
+
+    @Override
+    public ChangeEvent next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      current = frames.get(++position);
+      return current.event;
+    }
+
+    private Value value() {
+      if (current == null || current.value == null) {
+        throw new TypeException("The current change node has no scalar value");
+      }
+      return current.value;
+    }
+
+    @Override
+    public ChangeOp getOp() {
+      return current.op;
+    }
+
+    @Override
+    public String getFieldName() {
+      return current.name;
+    }
+
+    @Override
+    public ByteBuffer getFieldNameBytes() {
+      return current.name == null ? null : ByteBuffer.wrap(current.name.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public int getArrayIndex() {
+      return current.index;
+    }
+
+    @Override
+    public boolean inMap() {
+      return current.index < 0;
+    }
+
+    @Override
+    public boolean inArray() {
+      return current.index >= 0;
+    }
+
+    @Override
+    public Type getType() {
+      return current.value == null ? null : current.value.getType();
+    }
+
+    @Override
+    public long getOpTimestamp() {
+      return current.node == null ? -1 : current.node.getOpTimestamp();
+    }
+
+    @Override
+    public long getServerTimestamp() {
+      return current.node == null ? -1 : current.node.getServerTimestamp();
+    }
+
+    @Override
+    public byte getByte() {
+      return value().getByte();
+    }
+
+    @Override
+    public short getShort() {
+      return value().getShort();
+    }
+
+    @Override
+    public int getInt() {
+      return value().getInt();
+    }
+
+    @Override
+    public long getLong() {
+      return value().getLong();
+    }
+
+    @Override
+    public float getFloat() {
+      return value().getFloat();
+    }
+
+    @Override
+    public double getDouble() {
+      return value().getDouble();
+    }
+
+    @Override
+    public BigDecimal getDecimal() {
+      return value().getDecimal();
+    }
+
+    @Override
+    public int getDecimalPrecision() {
+      return getDecimal().precision();
+    }
+
+    @Override
+    public int getDecimalScale() {
+      return getDecimal().scale();
+    }
+
+    @Override
+    public int getDecimalValueAsInt() {
+      return getDecimal().unscaledValue().intValueExact();
+    }
+
+    @Override
+    public long getDecimalValueAsLong() {
+      return getDecimal().unscaledValue().longValueExact();
+    }
+
+    @Override
+    public ByteBuffer getDecimalValueAsBytes() {
+      return ByteBuffer.wrap(getDecimal().unscaledValue().toByteArray());
+    }
+
+    @Override
+    public boolean getBoolean() {
+      return value().getBoolean();
+    }
+
+    @Override
+    public String getString() {
+      return value().getString();
+    }
+
+    @Override
+    public long getTimestampLong() {
+      return value().getTimestampAsLong();
+    }
+
+    @Override
+    public OTimestamp getTimestamp() {
+      return value().getTimestamp();
+    }
+
+    @Override
+    public int getDateInt() {
+      return value().getDateAsInt();
+    }
+
+    @Override
+    public ODate getDate() {
+      return value().getDate();
+    }
+
+    @Override
+    public int getTimeInt() {
+      return value().getTimeAsInt();
+    }
+
+    @Override
+    public OTime getTime() {
+      return value().getTime();
+    }
+
+    @Override
+    public OInterval getInterval() {
+      return value().getInterval();
+    }
+
+    @Override
+    public long getIntervalMillis() {
+      return value().getIntervalAsLong();
+    }
+
+    @Override
+    public ByteBuffer getBinary() {
+      return value().getBinary();
+    }
+  }
+
+  private static final class Node implements ChangeNode {
+    private final ChangeOp op;
+    private final Value value;
+    private final long opTimestamp;
+    private final long serverTimestamp;
+
+    Node(ChangeOp op, Value value, long opTimestamp, long serverTimestamp) {
+      this.op = op;
+      this.value = value;
+      this.opTimestamp = opTimestamp;
+      this.serverTimestamp = serverTimestamp;
+    }
+
+    private Value value() {
+      if (value == null) {
+        throw new TypeException("A " + op + " change node has no value");
+      }
+      return value;
+    }
+
+    @Override
+    public ChangeOp getOp() {
+      return op;
+    }
+
+    @Override
+    public Type getType() {
+      return value == null ? null : value.getType();
+    }
+
+    @Override
+    public long getOpTimestamp() {
+      return opTimestamp;
+    }
+
+    @Override
+    public long getServerTimestamp() {
+      return serverTimestamp;
+    }
+
+    @Override
+    public byte getByte() {
+      return value().getByte();
+    }
+
+    @Override
+    public short getShort() {
+      return value().getShort();
+    }
+
+    @Override
+    public int getInt() {
+      return value().getInt();
+    }
+
+    @Override
+    public long getLong() {
+      return value().getLong();
+    }
+
+    @Override
+    public float getFloat() {
+      return value().getFloat();
+    }
+
+    @Override
+    public double getDouble() {
+      return value().getDouble();
+    }
+
+    @Override
+    public BigDecimal getDecimal() {
+      return value().getDecimal();
+    }
+
+    @Override
+    public boolean getBoolean() {
+      return value().getBoolean();
+    }
+
+    @Override
+    public String getString() {
+      return value().getString();
+    }
+
+    @Override
+    public OTimestamp getTimestamp() {
+      return value().getTimestamp();
+    }
+
+    @Override
+    public long getTimestampAsLong() {
+      return value().getTimestampAsLong();
+    }
+
+    @Override
+    public ODate getDate() {
+      return value().getDate();
+    }
+
+    @Override
+    public int getDateAsInt() {
+      return value().getDateAsInt();
+    }
+
+    @Override
+    public OTime getTime() {
+      return value().getTime();
+    }
+
+    @Override
+    public int getTimeAsInt() {
+      return value().getTimeAsInt();
+    }
+
+    @Override
+    public OInterval getInterval() {
+      return value().getInterval();
+    }
+
+    @Override
+    public long getIntervalAsLong() {
+      return value().getIntervalAsLong();
+    }
+
+    @Override
+    public ByteBuffer getBinary() {
+      return value().getBinary();
+    }
+
+    @Override
+    public Map<String, Object> getMap() {
+      return value().getMap();
+    }
+
+    @Override
+    public List<Object> getList() {
+      return value().getList();
+    }
+
+    @Override
+    public Object getObject() {
+      return value == null ? null : value.getObject();
+    }
+
+    @Override
+    public Value getValue() {
+      return value;
+    }
+  }
+
+}
@@ -0,0 +1,256 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.store.cdc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.SplittableRandom;
+
+import org.ojai.Document;
+import org.ojai.FieldPath;
+import org.ojai.FieldSegment.NameSegment;
+import org.ojai.Value;
+import org.ojai.annotation.API;
+import org.ojai.json.Json;
+import org.ojai.json.impl.JsonValueBuilder;
+import org.ojai.store.MutationOp;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * An endless, or {@link #setLimit(long) limited}, deterministic stream of
+ * {@link ChangeDataRecord}s over a fixed key space, for benchmarking change feed
+ * consumers.<p/>
+ *
+ * Each record picks one of {@link #setKeyCount(int) keyCount} {@code _id}s at random
+ * and inserts, updates or deletes the document in the proportions set by
+ * {@link #setMix(int, int, int)}. As in a store, an insert of an existing document
+ * replaces it and an update of a missing document creates it, while the deletion of a
+ * missing document becomes an insert. Inserted documents have
+ * {@link #setFieldCount(int) fieldCount} fields cycling through long, double, string,
+ * boolean, map and array values. Updates combine one to
+ * three of {@code set()}, {@code increment()}, {@code merge()}, {@code append()} and
+ * {@code delete()} operations on these fields.<p/>
+ *
+ * The records are produced by a {@link ChangeDataGenerator} with a logical clock which
+ * advances by one per record from the {@link #setStartTimestamp(long) start timestamp},
+ * so the same seed and settings always produce the same records.
+ */
+@API.Public
+@API.Evolving
+@API.NotThreadSafe
+public class SyntheticChangeFeed implements Iterator<ChangeDataRecord> {
+
+  private final SplittableRandom random;
+  private ChangeDataGenerator generator;
+  private long startTimestamp = 0;
+  private int keyCount = 10000;
+  private int fieldCount = 8;
+  private int insertWeight = 10;
+  private int updateWeight = 85;
+  private int deleteWeight = 5;
+  private long limit = Long.MAX_VALUE;
+  private long count;
+
+  private FieldPath[] fields;
+  private Value[] ids;
+
+  public SyntheticChangeFeed(long seed) {
+    this.random = new SplittableRandom(seed);
+  }
+
+  /**
+   * Sets the number of distinct {@code _id}s, 10000 by default.
+   */
+  public SyntheticChangeFeed setKeyCount(int keyCount) {
+    checkNotStarted();
+    Preconditions.checkArgument(keyCount > 0, "keyCount must be positive");
+    this.keyCount = keyCount;
+    return this;
+  }
+
+  /**
+   * Sets the number of fields of an inserted document besides its {@code _id},
+   * 8 by default.
+   */
+  public SyntheticChangeFeed setFieldCount(int fieldCount) {
+    checkNotStarted();
+    Preconditions.checkArgument(fieldCount > 0, "fieldCount must be positive");
+    this.fieldCount = fieldCount;
+    return this;
+  }
+
+  /**
+   * Sets the relative weights of inserts, updates and deletes, 10, 85 and 5 by default.
+   */
+  public SyntheticChangeFeed setMix(int insertWeight, int updateWeight, int deleteWeight) {
+    checkNotStarted();
+    Preconditions.checkArgument(insertWeight >= 0 && updateWeight >= 0 && deleteWeight >= 0
+        && insertWeight + updateWeight + deleteWeight > 0, "The weights must be non-negative with a positive sum");
+    this.insertWeight = insertWeight;
+    this.updateWeight = updateWeight;
+    this.deleteWeight = deleteWeight;
+    return this;
+  }
+
+  /**
+   * Sets the number of records after which the feed ends, unlimited by default.
+   */
+  public SyntheticChangeFeed setLimit(long limit) {
+    Preconditions.checkArgument(limit >= 0, "limit must not be negative");
+    this.limit = limit;
+    return this;
+  }
+
+  /**
+   * Sets the operation timestamp of the first record, 0 by default.
+   */
+  public SyntheticChangeFeed setStartTimestamp(long startTimestamp) {
+    checkNotStarted();
+    this.startTimestamp = startTimestamp;
+    return this;
+  }
+
+  /**
+   * @return the generator of the records, whose documents are the current state of
+   *         the feed
+   */
+  public ChangeDataGenerator getGenerator() {
+    start();
+    return generator;
+  }
+
+  /**
+   * @return the number of records produced so far
+   */
+  public long getCount() {
+    return count;
+  }
+
+  @Override
+  public boolean hasNext() {
+    return count < limit;
+  }
+
+  @Override
+  public ChangeDataRecord next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    start();
+    final Value id = ids[random.nextInt(keyCount)];
+    final int roll = random.nextInt(insertWeight + updateWeight + deleteWeight);
+    ChangeDataRecord record;
+    if (roll < insertWeight) {
+      record = generator.insertOrReplace(newDocument(id));
+    } else if (roll < insertWeight + updateWeight) {
+      record = generator.update(id, newMutation());
+    } else if ((record = generator.delete(id)) == null) {
+      record = generator.insertOrReplace(newDocument(id));
+    }
+    count++;
+    return record;
+  }
+
+  private void checkNotStarted() {
+    Preconditions.checkState(generator == null, "The feed has already started");
+  }
+
+  private void start() {
+    if (generator != null) {
+      return;
+    }
+    final long[] clock = {startTimestamp};
+    generator = new ChangeDataGenerator(() -> clock[0]++);
+    fields = new FieldPath[fieldCount];
+    for (int i = 0; i < fieldCount; i++) {
+      fields[i] = new FieldPath(new NameSegment("f" + i, null, false));
+    }
+    ids = new Value[keyCount];
+    final int width = String.valueOf(keyCount - 1).length();
+    for (int i = 0; i < keyCount; i++) {
+      ids[i] = JsonValueBuilder.initFrom(String.format("key%0" + width + "d", i));
+    }
+  }
+
+  private Document newDocument(Value id) {
+    final Document document = Json.newDocument().setId(id);
+    for (int i = 0; i < fieldCount; i++) {
+      document.set(fields[i], newValue(i));
+    }
+    return document;
+  }
+
+  private Value newValue(int field) {
+    switch (field % 6) {
+    case 0:
+      return JsonValueBuilder.initFrom(random.nextLong(1_000_000));
+    case 1:
+      return JsonValueBuilder.initFrom(random.nextDouble());
+    case 2:
+      return JsonValueBuilder.initFrom("value-" + random.nextInt(100_000));
+    case 3:
+      return JsonValueBuilder.initFrom(random.nextBoolean());
+    case 4:
+      return JsonValueBuilder.initFrom(Json.newDocument()
+          .set("x", random.nextInt(1000))
+          .set("y", "n" + random.nextInt(1000)));
+    default:
+      return JsonValueBuilder.initFromObject(Arrays.<Object>asList(random.nextInt(100), random.nextInt(100)));
+    }
+  }
+
+  private List<MutationOp> newMutation() {
+    final int n = 1 + random.nextInt(3);
+    final List<MutationOp> ops = new ArrayList<>(n);
+    for (int i = 0; i < n; i++) {
+      final int field = random.nextInt(fieldCount);
+      final MutationOp op = new MutationOp();
+      op.setFieldPath(fields[field]);
+      switch (random.nextInt(8)) {
+      case 0:
+        op.setType(MutationOp.Type.DELETE);
+        break;
+      case 1:
+      case 2:
+        if (field % 6 == 0) {
+          op.setType(MutationOp.Type.INCREMENT);
+          op.setOpValue(JsonValueBuilder.initFrom(1L + random.nextInt(10)));
+          break;
+        } else if (field % 6 == 4) {
+          op.setType(MutationOp.Type.MERGE);
+          op.setOpValue(JsonValueBuilder.initFrom(Json.newDocument().set("z", random.nextInt(1000))));
+          break;
+        } else if (field % 6 == 5) {
+          op.setType(MutationOp.Type.APPEND);
+          op.setOpValue(JsonValueBuilder.initFromObject(Arrays.<Object>asList(random.nextInt(100))));
+          break;
+        }
+        // falls through to a set
+      default:
+        op.setType(MutationOp.Type.SET);
+        op.setOpValue(newValue(field));
+        break;
+      }
+      ops.add(op);
+    }
+    return ops;
+  }
+
+}
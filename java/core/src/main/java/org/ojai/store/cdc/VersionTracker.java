@@ -0,0 +1,106 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.store.cdc;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.ojai.Value;
+import org.ojai.util.Values;
+
+/**
+ * The {@link ChangeDataRecord#getOpTimestamp() operation timestamp} of the last record
+ * applied to every {@code _id}, including deleted ones, against which older records
+ * are dropped as out of order.
+ */
+final class VersionTracker {
+
+  private final Map<String, Long> versions = new HashMap<>();
+  private long droppedCount;
+
+  static String keyOf(Value id) {
+    // extended JSON keeps the _id of different types apart, e.g. "1" and 1
+    return Values.asJsonString(id);
+  }
+
+  /**
+   * @return {@code false}, counting the record as dropped, if a record with a later
+   *         timestamp was applied to the key; a record with the same timestamp is a
+   *         redelivery and is applied again
+   */
+  boolean accept(String key, long opTimestamp) {
+    final Long version = versions.get(key);
+    if (version != null && opTimestamp < version) {
+      droppedCount++;
+      return false;
+    }
+    return true;
+  }
+
+  void put(String key, long opTimestamp) {
+    versions.put(key, opTimestamp);
+  }
+
+  /**
+   * @return the timestamp of the key, or {@code Long.MIN_VALUE} if it has none
+   */
+  long get(String key) {
+    final Long version = versions.get(key);
+    return version == null ? Long.MIN_VALUE : version;
+  }
+
+  /**
+   * Forgets the timestamps older than the specified one of the keys which are not
+   * live, i.e. of the documents since deleted.
+   *
+   * @return the number of timestamps forgotten
+   */
+  int purgeTombstones(long opTimestamp, Collection<String> liveKeys) {
+    int purged = 0;
+    for (Iterator<Map.Entry<String, Long>> it = versions.entrySet().iterator(); it.hasNext();) {
+      final Map.Entry<String, Long> e = it.next();
+      if (e.getValue() < opTimestamp && !liveKeys.contains(e.getKey())) {
+        it.remove();
+        purged++;
+      }
+    }
+    return purged;
+  }
+
+  Set<Map.Entry<String, Long>> entries() {
+    return versions.entrySet();
+  }
+
+  int size() {
+    return versions.size();
+  }
+
+  boolean isEmpty() {
+    return versions.isEmpty();
+  }
+
+  void clear() {
+    versions.clear();
+  }
+
+  long getDroppedCount() {
+    return droppedCount;
+  }
+
+}
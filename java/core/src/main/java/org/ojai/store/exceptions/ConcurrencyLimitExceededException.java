@@ -0,0 +1,58 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.store.exceptions;
+
+import org.ojai.store.limit.ConcurrencyLimiter;
+
+/**
+ * This exception is thrown when an operation is rejected by a {@link ConcurrencyLimiter}
+ * because too many operations are already in flight. The operation was not attempted
+ * and may be retried later.
+ */
+public class ConcurrencyLimitExceededException extends StoreException {
+  private static final long serialVersionUID = 0x2d6f0c1b87a45e13L;
+
+  /** Default constructor. */
+  public ConcurrencyLimitExceededException() {
+    super();
+  }
+
+  /**
+   * Constructor.
+   * @param s message
+   */
+  public ConcurrencyLimitExceededException(String s) {
+    super(s);
+  }
+
+  /**
+   * Constructor taking another exception.
+   * @param t exception to grab data from
+   */
+  public ConcurrencyLimitExceededException(Throwable t) {
+    super(t);
+  }
+
+  /**
+   * Constructor taking a message and another exception.
+   * @param s message
+   * @param t exception to grab data from
+   */
+  public ConcurrencyLimitExceededException(String s, Throwable t) {
+    super(s, t);
+  }
+
+}
@@ -0,0 +1,73 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.store.limit;
+
+import java.util.concurrent.TimeUnit;
+
+import org.ojai.annotation.API;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Specifies how a {@link ConcurrencyLimiter} admits a class of operations once the
+ * concurrency limit is reached: whether they wait for a slot, for how long, and which
+ * waiting operations are admitted first.
+ */
+@API.Public
+@API.Evolving
+@API.Immutable
+public final class AdmissionPolicy {
+
+  private final int priority;
+  private final long maxWaitNanos;
+
+  private AdmissionPolicy(int priority, long maxWaitNanos) {
+    this.priority = priority;
+    this.maxWaitNanos = maxWaitNanos;
+  }
+
+  /**
+   * Returns a policy under which operations wait up to the specified time for a slot.
+   * Among waiting operations, those with a higher priority are admitted first, and
+   * those with the same priority in arrival order.
+   */
+  public static AdmissionPolicy queue(int priority, long maxWait, TimeUnit unit) {
+    Preconditions.checkArgument(maxWait >= 0, "maxWait must not be negative, found %s", maxWait);
+    return new AdmissionPolicy(priority, unit.toNanos(maxWait));
+  }
+
+  /**
+   * Returns a policy under which operations are rejected immediately when the limit
+   * is reached.
+   */
+  public static AdmissionPolicy shed() {
+    return new AdmissionPolicy(0, 0);
+  }
+
+  public int getPriority() {
+    return priority;
+  }
+
+  public long getMaxWaitNanos() {
+    return maxWaitNanos;
+  }
+
+  @Override
+  public String toString() {
+    return maxWaitNanos == 0 ? "shed" : "queue{priority=" + priority + ", maxWaitNanos=" + maxWaitNanos + "}";
+  }
+
+}
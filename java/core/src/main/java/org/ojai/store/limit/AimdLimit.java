@@ -0,0 +1,81 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.store.limit;
+
+import java.util.concurrent.TimeUnit;
+
+import org.ojai.annotation.API;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * An additive-increase/multiplicative-decrease {@link LimitAlgorithm}.<p/>
+ *
+ * The limit grows by one for every successful operation admitted while at least half
+ * of the limit was in use, and is multiplied by {@code backoffRatio} whenever an
+ * operation is overloaded or takes longer than {@code timeout}.
+ */
+@API.Public
+@API.Evolving
+public class AimdLimit implements LimitAlgorithm {
+
+  private final int minLimit;
+  private final int maxLimit;
+  private final double backoffRatio;
+  private final long timeoutNanos;
+  private int limit;
+
+  /**
+   * Creates an {@code AimdLimit} which starts at 20, varies between 1 and 1000, backs
+   * off by 10% and only reacts to overload errors.
+   */
+  public AimdLimit() {
+    this(20, 1, 1000, 0.9, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+  }
+
+  public AimdLimit(int initialLimit, int minLimit, int maxLimit,
+      double backoffRatio, long timeout, TimeUnit unit) {
+    Preconditions.checkArgument(minLimit > 0 && minLimit <= maxLimit,
+        "Invalid limit range [%s, %s]", minLimit, maxLimit);
+    Preconditions.checkArgument(backoffRatio > 0 && backoffRatio < 1,
+        "backoffRatio must be between 0 and 1, found %s", backoffRatio);
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.backoffRatio = backoffRatio;
+    this.timeoutNanos = unit.toNanos(timeout);
+    this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+  }
+
+  @Override
+  public int getLimit() {
+    return limit;
+  }
+
+  @Override
+  public void onSample(long rttNanos, int inFlight, boolean overloaded) {
+    if (overloaded || rttNanos > timeoutNanos) {
+      limit = Math.max(minLimit, (int) (limit * backoffRatio));
+    } else if (inFlight * 2 >= limit) {
+      limit = Math.min(maxLimit, limit + 1);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "AimdLimit{limit=" + limit + "}";
+  }
+
+}
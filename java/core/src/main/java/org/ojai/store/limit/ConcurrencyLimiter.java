@@ -0,0 +1,228 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.store.limit;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.ojai.annotation.API;
+import org.ojai.store.exceptions.ConcurrencyLimitExceededException;
+import org.ojai.store.exceptions.StoreException;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Bounds the number of concurrent operations to a limit maintained by a
+ * {@link LimitAlgorithm}.<p/>
+ *
+ * An operation first {@link #acquire(AdmissionPolicy) acquires} a {@link Permit},
+ * and releases it when done, which feeds the duration and outcome of the operation
+ * to the algorithm. Operations arriving while the limit is reached either wait, in
+ * priority order, or are rejected, as specified by their {@link AdmissionPolicy}.
+ */
+@API.Public
+@API.Evolving
+@API.ThreadSafe
+public class ConcurrencyLimiter {
+
+  private final LimitAlgorithm algorithm;
+  private final int maxQueueLength;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final PriorityQueue<Waiter> waiters = new PriorityQueue<>();
+  private final LongAdder rejectedCount = new LongAdder();
+  private int inFlight;
+  private long sequence;
+
+  /**
+   * @param algorithm the {@link LimitAlgorithm} which maintains the limit
+   * @param maxQueueLength the maximum number of operations waiting for a permit; further
+   *        operations are rejected regardless of their policy
+   */
+  public ConcurrencyLimiter(final LimitAlgorithm algorithm, final int maxQueueLength) {
+    Preconditions.checkArgument(maxQueueLength >= 0, "maxQueueLength must not be negative, found %s",
+        maxQueueLength);
+    this.algorithm = Preconditions.checkNotNull(algorithm);
+    this.maxQueueLength = maxQueueLength;
+  }
+
+  /**
+   * Acquires a permit to perform an operation, waiting if the limit is reached and
+   * the policy allows it.
+   *
+   * @throws ConcurrencyLimitExceededException if no permit could be acquired within
+   *         the maximum wait of the policy
+   * @throws StoreException if the thread was interrupted while waiting
+   */
+  public Permit acquire(final AdmissionPolicy policy) throws StoreException {
+    lock.lock();
+    try {
+      if (inFlight < algorithm.getLimit()) {
+        return new Permit(++inFlight);
+      }
+      if (policy.getMaxWaitNanos() == 0 || waiters.size() >= maxQueueLength) {
+        throw reject();
+      }
+
+      final Waiter waiter = new Waiter(policy.getPriority(), sequence++, lock.newCondition());
+      waiters.add(waiter);
+      long remaining = policy.getMaxWaitNanos();
+      try {
+        while (!waiter.granted) {
+          if (remaining <= 0) {
+            waiters.remove(waiter);
+            throw reject();
+          }
+          remaining = waiter.condition.awaitNanos(remaining);
+        }
+      } catch (InterruptedException e) {
+        if (waiter.granted) {
+          inFlight--;
+          grantWaiters();
+        } else {
+          waiters.remove(waiter);
+        }
+        Thread.currentThread().interrupt();
+        throw new StoreException("Interrupted while waiting for a concurrency permit", e);
+      }
+      return new Permit(inFlight);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private ConcurrencyLimitExceededException reject() {
+    rejectedCount.increment();
+    return new ConcurrencyLimitExceededException("Concurrency limit of "
+        + algorithm.getLimit() + " reached with " + waiters.size() + " operations waiting");
+  }
+
+  /**
+   * Admits waiting operations, in priority order, while the limit allows it.
+   * Must be called while holding the lock.
+   */
+  private void grantWaiters() {
+    final int limit = algorithm.getLimit();
+    while (inFlight < limit && !waiters.isEmpty()) {
+      final Waiter waiter = waiters.poll();
+      waiter.granted = true;
+      inFlight++;
+      waiter.condition.signal();
+    }
+  }
+
+  private void release(final long rttNanos, final int inFlightAtStart, final boolean overloaded) {
+    lock.lock();
+    try {
+      inFlight--;
+      algorithm.onSample(rttNanos, inFlightAtStart, overloaded);
+      grantWaiters();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the current concurrency limit
+   */
+  public int getLimit() {
+    lock.lock();
+    try {
+      return algorithm.getLimit();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the number of permits currently held
+   */
+  public int getInFlight() {
+    lock.lock();
+    try {
+      return inFlight;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the number of operations currently waiting for a permit
+   */
+  public int getQueueLength() {
+    lock.lock();
+    try {
+      return waiters.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the number of operations rejected since this limiter was created
+   */
+  public long getRejectedCount() {
+    return rejectedCount.sum();
+  }
+
+  /**
+   * The permission to perform one operation. A permit must be released exactly once.
+   */
+  @API.Public
+  public final class Permit {
+    private final long startNanos = System.nanoTime();
+    private final int inFlightAtStart;
+    private boolean released;
+
+    private Permit(final int inFlightAtStart) {
+      this.inFlightAtStart = inFlightAtStart;
+    }
+
+    /**
+     * Releases this permit, reporting the outcome of the operation.
+     *
+     * @param overloaded {@code true} if the operation failed because the store is overloaded
+     */
+    public void release(final boolean overloaded) {
+      Preconditions.checkState(!released, "The permit has already been released");
+      released = true;
+      ConcurrencyLimiter.this.release(System.nanoTime() - startNanos, inFlightAtStart, overloaded);
+    }
+  }
+
+  private static final class Waiter implements Comparable<Waiter> {
+    private final int priority;
+    private final long sequence;
+    private final Condition condition;
+    private boolean granted;
+
+    Waiter(final int priority, final long sequence, final Condition condition) {
+      this.priority = priority;
+      this.sequence = sequence;
+      this.condition = condition;
+    }
+
+    @Override
+    public int compareTo(final Waiter other) {
+      if (priority != other.priority) {
+        return priority > other.priority ? -1 : 1;
+      }
+      return Long.compare(sequence, other.sequence);
+    }
+  }
+
+}
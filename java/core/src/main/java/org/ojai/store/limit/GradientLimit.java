@@ -0,0 +1,96 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.store.limit;
+
+import org.ojai.annotation.API;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A {@link LimitAlgorithm} which scales the limit by the ratio of the long-term
+ * average latency to the latest latency.<p/>
+ *
+ * While latency is stable the gradient is 1 and the limit grows by a small headroom
+ * of {@code sqrt(limit)}; as latency rises above its long-term average, the gradient
+ * falls towards 0.5 and the limit shrinks proportionally. Changes are smoothed to
+ * avoid oscillation. Overload errors halve the limit.
+ */
+@API.Public
+@API.Evolving
+public class GradientLimit implements LimitAlgorithm {
+
+  private static final double LONG_RTT_WEIGHT = 0.01;
+
+  private final int minLimit;
+  private final int maxLimit;
+  private final double smoothing;
+  private double limit;
+  private double longRttNanos;
+
+  /**
+   * Creates a {@code GradientLimit} which starts at 20, varies between 1 and 1000, and
+   * applies 20% of each computed change.
+   */
+  public GradientLimit() {
+    this(20, 1, 1000, 0.2);
+  }
+
+  public GradientLimit(int initialLimit, int minLimit, int maxLimit, double smoothing) {
+    Preconditions.checkArgument(minLimit > 0 && minLimit <= maxLimit,
+        "Invalid limit range [%s, %s]", minLimit, maxLimit);
+    Preconditions.checkArgument(smoothing > 0 && smoothing <= 1,
+        "smoothing must be in (0, 1], found %s", smoothing);
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.smoothing = smoothing;
+    this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+  }
+
+  @Override
+  public int getLimit() {
+    return (int) limit;
+  }
+
+  @Override
+  public void onSample(long rttNanos, int inFlight, boolean overloaded) {
+    if (overloaded) {
+      limit = Math.max(minLimit, limit / 2);
+      return;
+    }
+    if (rttNanos <= 0) {
+      return;
+    }
+    if (longRttNanos == 0) {
+      longRttNanos = rttNanos;
+    } else {
+      longRttNanos += (rttNanos - longRttNanos) * LONG_RTT_WEIGHT;
+    }
+    // do not grow the limit when it is not being used
+    if (inFlight * 2 < limit && rttNanos <= longRttNanos) {
+      return;
+    }
+
+    final double gradient = Math.max(0.5, Math.min(1.0, longRttNanos / rttNanos));
+    final double target = limit * gradient + Math.sqrt(limit);
+    limit = Math.max(minLimit, Math.min(maxLimit, limit * (1 - smoothing) + target * smoothing));
+  }
+
+  @Override
+  public String toString() {
+    return "GradientLimit{limit=" + getLimit() + ", longRttNanos=" + (long) longRttNanos + "}";
+  }
+
+}
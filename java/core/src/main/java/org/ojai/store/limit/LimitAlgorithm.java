@@ -0,0 +1,47 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.store.limit;
+
+import org.ojai.annotation.API;
+
+/**
+ * An algorithm which adjusts the concurrency limit of a {@link ConcurrencyLimiter}
+ * from the outcome of the operations it admits.<p/>
+ *
+ * The methods of an algorithm are only called while holding the lock of its limiter,
+ * so implementations need not be thread-safe, but must not be shared by limiters.
+ */
+@API.Public
+@API.Evolving
+public interface LimitAlgorithm {
+
+  /**
+   * @return the current concurrency limit, at least 1
+   */
+  public int getLimit();
+
+  /**
+   * Updates the limit with the outcome of a completed operation.
+   *
+   * @param rttNanos the duration of the operation, in nanoseconds
+   * @param inFlight the number of operations in flight when this one was admitted,
+   *        including itself
+   * @param overloaded {@code true} if the operation failed with an error indicating
+   *        that the store is overloaded, e.g. a timeout
+   */
+  public void onSample(long rttNanos, int inFlight, boolean overloaded);
+
+}
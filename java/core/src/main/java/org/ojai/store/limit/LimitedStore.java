@@ -0,0 +1,542 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.store.limit;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.ojai.Document;
+import org.ojai.DocumentStream;
+import org.ojai.FieldPath;
+import org.ojai.Value;
+import org.ojai.annotation.API;
+import org.ojai.exceptions.QueryTimeoutException;
+import org.ojai.store.DocumentMutation;
+import org.ojai.store.DocumentStore;
+import org.ojai.store.Query;
+import org.ojai.store.QueryCondition;
+import org.ojai.store.QueryResult;
+import org.ojai.store.base.ForwardingStore;
+import org.ojai.store.exceptions.ConcurrencyLimitExceededException;
+import org.ojai.store.exceptions.ConnectionException;
+import org.ojai.store.exceptions.MultiOpException;
+import org.ojai.store.exceptions.StoreException;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A {@link ForwardingStore} which bounds the number of concurrent calls to the wrapped
+ * store with a {@link ConcurrencyLimiter}, whose limit adapts to the latency and the
+ * errors of these calls.<p/>
+ *
+ * Reads ({@code findById()}, {@code findByIds()} and {@code find()}) and writes (all
+ * other data operations, including {@code flush()}) are admitted according to separate
+ * {@link AdmissionPolicy}s, so that, for instance, interactive reads can be queued
+ * ahead of background writes, or writes can be shed rather than queued. Operations
+ * which are not admitted fail with a {@link ConcurrencyLimitExceededException}.<p/>
+ *
+ * A permit is held for the duration of the call only; the iteration of a stream
+ * returned by {@code find()} is not limited. A bulk operation on a
+ * {@link DocumentStream} holds a single permit.<p/>
+ *
+ * Failures which indicate an overloaded store, as decided by
+ * {@link #isOverloadSignal(Throwable)}, make the limit shrink; other failures, such as
+ * {@code DocumentExistsException}, are treated as regular responses.
+ */
+@API.Public
+@API.Evolving
+@API.ThreadSafe
+@SuppressWarnings("deprecation")
+public class LimitedStore extends ForwardingStore {
+
+  /**
+   * The default policy for reads: wait up to one second, ahead of writes.
+   */
+  public static final AdmissionPolicy DEFAULT_READ_POLICY = AdmissionPolicy.queue(1, 1, TimeUnit.SECONDS);
+
+  /**
+   * The default policy for writes: wait up to one second, behind reads.
+   */
+  public static final AdmissionPolicy DEFAULT_WRITE_POLICY = AdmissionPolicy.queue(0, 1, TimeUnit.SECONDS);
+
+  private final DocumentStore store;
+  private final ConcurrencyLimiter limiter;
+  private final AdmissionPolicy readPolicy;
+  private final AdmissionPolicy writePolicy;
+
+  /**
+   * Creates a {@code LimitedStore} with a {@link VegasLimit}, a queue of up to 1000
+   * operations and the default admission policies.
+   */
+  public LimitedStore(final DocumentStore store) {
+    this(store, new ConcurrencyLimiter(new VegasLimit(), 1000), DEFAULT_READ_POLICY, DEFAULT_WRITE_POLICY);
+  }
+
+  /**
+   * @param store the {@link DocumentStore} to limit
+   * @param limiter the {@link ConcurrencyLimiter} to acquire permits from; it may be
+   *        shared by several stores backed by the same cluster
+   * @param readPolicy the {@link AdmissionPolicy} of read operations
+   * @param writePolicy the {@link AdmissionPolicy} of write operations
+   */
+  public LimitedStore(final DocumentStore store, final ConcurrencyLimiter limiter,
+      final AdmissionPolicy readPolicy, final AdmissionPolicy writePolicy) {
+    super(store);
+    this.store = store;
+    this.limiter = Preconditions.checkNotNull(limiter);
+    this.readPolicy = Preconditions.checkNotNull(readPolicy);
+    this.writePolicy = Preconditions.checkNotNull(writePolicy);
+  }
+
+  public ConcurrencyLimiter getLimiter() {
+    return limiter;
+  }
+
+  /**
+   * Returns {@code true} if the specified failure of an operation indicates that the
+   * store is overloaded. By default these are {@link QueryTimeoutException}s,
+   * {@link ConnectionException}s and generic {@link StoreException}s, but not their
+   * more specific subclasses, which report the outcome of a successful round-trip.
+   */
+  protected boolean isOverloadSignal(final Throwable failure) {
+    return failure instanceof QueryTimeoutException
+        || failure instanceof ConnectionException
+        || failure.getClass() == StoreException.class;
+  }
+
+  private <T> T call(final AdmissionPolicy policy, final Supplier<T> operation) {
+    final ConcurrencyLimiter.Permit permit = limiter.acquire(policy);
+    boolean overloaded = false;
+    try {
+      return operation.get();
+    } catch (Throwable t) {
+      overloaded = isOverloadSignal(t);
+      throw t;
+    } finally {
+      permit.release(overloaded);
+    }
+  }
+
+  private <T> T read(final Supplier<T> operation) {
+    return call(readPolicy, operation);
+  }
+
+  private <T> T write(final Supplier<T> operation) {
+    return call(writePolicy, operation);
+  }
+
+  private void write(final Runnable operation) {
+    call(writePolicy, () -> {
+      operation.run();
+      return null;
+    });
+  }
+
+  @Override
+  public Document findById(final Value _id, final String... fieldPaths) throws StoreException {
+    return read(() -> store.findById(_id, fieldPaths));
+  }
+
+  @Override
+  public Document findById(final Value _id, final FieldPath... fieldPaths) throws StoreException {
+    return read(() -> store.findById(_id, fieldPaths));
+  }
+
+  @Override
+  public Document findById(final Value _id, final QueryCondition condition) throws StoreException {
+    return read(() -> store.findById(_id, condition));
+  }
+
+  @Override
+  public Document findById(final Value _id, final QueryCondition condition, final String... fieldPaths)
+      throws StoreException {
+    return read(() -> store.findById(_id, condition, fieldPaths));
+  }
+
+  @Override
+  public Document findById(final Value _id, final QueryCondition condition, final FieldPath... fieldPaths)
+      throws StoreException {
+    return read(() -> store.findById(_id, condition, fieldPaths));
+  }
+
+  @Override
+  public DocumentStream findByIds(final Collection<? extends Value> ids, final FieldPath... fieldPaths)
+      throws StoreException {
+    return read(() -> store.findByIds(ids, fieldPaths));
+  }
+
+  @Override
+  public QueryResult find(final Query query) throws StoreException {
+    return read(() -> store.find(query));
+  }
+
+  @Override
+  public DocumentStream findQuery(final Query query) throws StoreException {
+    return read(() -> store.find(query));
+  }
+
+  @Override
+  public DocumentStream findQuery(final String queryJSON) throws StoreException {
+    return read(() -> store.findQuery(queryJSON));
+  }
+
+  @Override
+  public void insertOrReplace(final Value _id, final Document doc) throws StoreException {
+    write(() -> store.insertOrReplace(_id, doc));
+  }
+
+  @Override
+  public void update(final Value _id, final DocumentMutation mutation) throws StoreException {
+    write(() -> store.update(_id, mutation));
+  }
+
+  @Override
+  public void delete(final Value _id) throws StoreException {
+    write(() -> store.delete(_id));
+  }
+
+  @Override
+  public void insert(final Value _id, final Document doc) throws StoreException {
+    write(() -> store.insert(_id, doc));
+  }
+
+  @Override
+  public void replace(final Value _id, final Document doc) throws StoreException {
+    write(() -> store.replace(_id, doc));
+  }
+
+  @Override
+  public void increment(final Value _id, final String field, final byte inc) throws StoreException {
+    write(() -> store.increment(_id, field, inc));
+  }
+
+  @Override
+  public void increment(final Value _id, final String field, final short inc) throws StoreException {
+    write(() -> store.increment(_id, field, inc));
+  }
+
+  @Override
+  public void increment(final Value _id, final String field, final int inc) throws StoreException {
+    write(() -> store.increment(_id, field, inc));
+  }
+
+  @Override
+  public void increment(final Value _id, final String field, final long inc) throws StoreException {
+    write(() -> store.increment(_id, field, inc));
+  }
+
+  @Override
+  public void increment(final Value _id, final String field, final float inc) throws StoreException {
+    write(() -> store.increment(_id, field, inc));
+  }
+
+  @Override
+  public void increment(final Value _id, final String field, final double inc) throws StoreException {
+    write(() -> store.increment(_id, field, inc));
+  }
+
+  @Override
+  public void increment(final Value _id, final String field, final BigDecimal inc) throws StoreException {
+    write(() -> store.increment(_id, field, inc));
+  }
+
+  @Override
+  public boolean checkAndMutate(final Value _id, final QueryCondition condition, final DocumentMutation mutation)
+      throws StoreException {
+    return write(() -> store.checkAndUpdate(_id, condition, mutation));
+  }
+
+  @Override
+  public boolean checkAndDelete(final Value _id, final QueryCondition condition) throws StoreException {
+    return write(() -> store.checkAndDelete(_id, condition));
+  }
+
+  @Override
+  public boolean checkAndReplace(final Value _id, final QueryCondition condition, final Document doc)
+      throws StoreException {
+    return write(() -> store.checkAndReplace(_id, condition, doc));
+  }
+
+  @Override
+  public void flush() throws StoreException {
+    write(() -> store.flush());
+  }
+
+  @Override
+  public Document findById(final String id) throws StoreException {
+    return read(() -> store.findById(id));
+  }
+
+  @Override
+  public Document findById(final Value id) throws StoreException {
+    return read(() -> store.findById(id));
+  }
+
+  @Override
+  public Document findById(final String id, final String... paths) throws StoreException {
+    return read(() -> store.findById(id, paths));
+  }
+
+  @Override
+  public Document findById(final String id, final FieldPath... paths) throws StoreException {
+    return read(() -> store.findById(id, paths));
+  }
+
+  @Override
+  public Document findById(final String id, final QueryCondition c) throws StoreException {
+    return read(() -> store.findById(id, c));
+  }
+
+  @Override
+  public Document findById(final String id, final QueryCondition c, final String... paths) throws StoreException {
+    return read(() -> store.findById(id, c, paths));
+  }
+
+  @Override
+  public Document findById(final String id, final QueryCondition c, final FieldPath... paths) throws StoreException {
+    return read(() -> store.findById(id, c, paths));
+  }
+
+  @Override
+  public DocumentStream find() throws StoreException {
+    return read(() -> store.find());
+  }
+
+  @Override
+  public DocumentStream find(final String... paths) throws StoreException {
+    return read(() -> store.find(paths));
+  }
+
+  @Override
+  public DocumentStream find(final FieldPath... paths) throws StoreException {
+    return read(() -> store.find(paths));
+  }
+
+  @Override
+  public DocumentStream find(final QueryCondition c) throws StoreException {
+    return read(() -> store.find(c));
+  }
+
+  @Override
+  public DocumentStream find(final QueryCondition c, final String... paths) throws StoreException {
+    return read(() -> store.find(c, paths));
+  }
+
+  @Override
+  public DocumentStream find(final QueryCondition c, final FieldPath... paths) throws StoreException {
+    return read(() -> store.find(c, paths));
+  }
+
+  @Override
+  public void insertOrReplace(final Document r) throws StoreException {
+    write(() -> store.insertOrReplace(r));
+  }
+
+  @Override
+  public void insertOrReplace(final String id, final Document r) throws StoreException {
+    write(() -> store.insertOrReplace(id, r));
+  }
+
+  @Override
+  public void insertOrReplace(final Document r, final FieldPath fieldAsKey) throws StoreException {
+    write(() -> store.insertOrReplace(r, fieldAsKey));
+  }
+
+  @Override
+  public void insertOrReplace(final Document r, final String fieldAsKey) throws StoreException {
+    write(() -> store.insertOrReplace(r, fieldAsKey));
+  }
+
+  @Override
+  public void insertOrReplace(final DocumentStream rs) throws MultiOpException {
+    write(() -> store.insertOrReplace(rs));
+  }
+
+  @Override
+  public void insertOrReplace(final DocumentStream rs, final FieldPath fieldAsKey) throws MultiOpException {
+    write(() -> store.insertOrReplace(rs, fieldAsKey));
+  }
+
+  @Override
+  public void insertOrReplace(final DocumentStream rs, final String fieldAsKey) throws MultiOpException {
+    write(() -> store.insertOrReplace(rs, fieldAsKey));
+  }
+
+  @Override
+  public void update(final String id, final DocumentMutation m) throws StoreException {
+    write(() -> store.update(id, m));
+  }
+
+  @Override
+  public void delete(final String id) throws StoreException {
+    write(() -> store.delete(id));
+  }
+
+  @Override
+  public void delete(final Document r) throws StoreException {
+    write(() -> store.delete(r));
+  }
+
+  @Override
+  public void delete(final Document r, final FieldPath fieldAsKey) throws StoreException {
+    write(() -> store.delete(r, fieldAsKey));
+  }
+
+  @Override
+  public void delete(final Document r, final String fieldAsKey) throws StoreException {
+    write(() -> store.delete(r, fieldAsKey));
+  }
+
+  @Override
+  public void delete(final DocumentStream rs) throws MultiOpException {
+    write(() -> store.delete(rs));
+  }
+
+  @Override
+  public void delete(final DocumentStream rs, final FieldPath fieldAsKey) throws MultiOpException {
+    write(() -> store.delete(rs, fieldAsKey));
+  }
+
+  @Override
+  public void delete(final DocumentStream rs, final String fieldAsKey) throws MultiOpException {
+    write(() -> store.delete(rs, fieldAsKey));
+  }
+
+  @Override
+  public void insert(final String id, final Document r) throws StoreException {
+    write(() -> store.insert(id, r));
+  }
+
+  @Override
+  public void insert(final Document r) throws StoreException {
+    write(() -> store.insert(r));
+  }
+
+  @Override
+  public void insert(final Document r, final FieldPath fieldAsKey) throws StoreException {
+    write(() -> store.insert(r, fieldAsKey));
+  }
+
+  @Override
+  public void insert(final Document r, final String fieldAsKey) throws StoreException {
+    write(() -> store.insert(r, fieldAsKey));
+  }
+
+  @Override
+  public void insert(final DocumentStream rs) throws MultiOpException {
+    write(() -> store.insert(rs));
+  }
+
+  @Override
+  public void insert(final DocumentStream rs, final FieldPath fieldAsKey) throws MultiOpException {
+    write(() -> store.insert(rs, fieldAsKey));
+  }
+
+  @Override
+  public void insert(final DocumentStream rs, final String fieldAsKey) throws MultiOpException {
+    write(() -> store.insert(rs, fieldAsKey));
+  }
+
+  @Override
+  public void replace(final String id, final Document r) throws StoreException {
+    write(() -> store.replace(id, r));
+  }
+
+  @Override
+  public void replace(final Document r) throws StoreException {
+    write(() -> store.replace(r));
+  }
+
+  @Override
+  public void replace(final Document r, final FieldPath fieldAsKey) throws StoreException {
+    write(() -> store.replace(r, fieldAsKey));
+  }
+
+  @Override
+  public void replace(final Document r, final String fieldAsKey) throws StoreException {
+    write(() -> store.replace(r, fieldAsKey));
+  }
+
+  @Override
+  public void replace(final DocumentStream rs) throws MultiOpException {
+    write(() -> store.replace(rs));
+  }
+
+  @Override
+  public void replace(final DocumentStream rs, final FieldPath fieldAsKey) throws MultiOpException {
+    write(() -> store.replace(rs, fieldAsKey));
+  }
+
+  @Override
+  public void replace(final DocumentStream rs, final String fieldAsKey) throws MultiOpException {
+    write(() -> store.replace(rs, fieldAsKey));
+  }
+
+  @Override
+  public void increment(final String id, final String field, final byte inc) throws StoreException {
+    write(() -> store.increment(id, field, inc));
+  }
+
+  @Override
+  public void increment(final String id, final String field, final short inc) throws StoreException {
+    write(() -> store.increment(id, field, inc));
+  }
+
+  @Override
+  public void increment(final String id, final String field, final int inc) throws StoreException {
+    write(() -> store.increment(id, field, inc));
+  }
+
+  @Override
+  public void increment(final String id, final String field, final long inc) throws StoreException {
+    write(() -> store.increment(id, field, inc));
+  }
+
+  @Override
+  public void increment(final String id, final String field, final float inc) throws StoreException {
+    write(() -> store.increment(id, field, inc));
+  }
+
+  @Override
+  public void increment(final String id, final String field, final double inc) throws StoreException {
+    write(() -> store.increment(id, field, inc));
+  }
+
+  @Override
+  public void increment(final String id, final String field, final BigDecimal inc) throws StoreException {
+    write(() -> store.increment(id, field, inc));
+  }
+
+  @Override
+  public boolean checkAndMutate(final String id, final QueryCondition condition, final DocumentMutation m)
+      throws StoreException {
+    return write(() -> store.checkAndMutate(id, condition, m));
+  }
+
+  @Override
+  public boolean checkAndDelete(final String id, final QueryCondition condition) throws StoreException {
+    return write(() -> store.checkAndDelete(id, condition));
+  }
+
+  @Override
+  public boolean checkAndReplace(final String id, final QueryCondition condition, final Document r)
+      throws StoreException {
+    return write(() -> store.checkAndReplace(id, condition, r));
+  }
+
+}
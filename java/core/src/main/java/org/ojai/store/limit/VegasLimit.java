@@ -0,0 +1,104 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.store.limit;
+
+import org.ojai.annotation.API;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A {@link LimitAlgorithm} modelled on TCP Vegas congestion control.<p/>
+ *
+ * The lowest latency observed approximates the latency of an unloaded store, from
+ * which the number of operations queued in the store is estimated as
+ * {@code limit * (1 - minRtt / rtt)}. The limit grows while this estimate is small
+ * and shrinks once it exceeds a threshold proportional to {@code log10(limit)}.
+ * Overload errors cut the limit in half.<p/>
+ *
+ * The minimum latency is re-measured every {@code probeInterval} samples, so that the
+ * limit adapts if the baseline latency of the store changes.
+ */
+@API.Public
+@API.Evolving
+public class VegasLimit implements LimitAlgorithm {
+
+  private final int minLimit;
+  private final int maxLimit;
+  private final int probeInterval;
+  private double limit;
+  private long minRttNanos = Long.MAX_VALUE;
+  private int samples;
+
+  /**
+   * Creates a {@code VegasLimit} which starts at 20, varies between 1 and 1000, and
+   * re-measures the minimum latency every 1000 samples.
+   */
+  public VegasLimit() {
+    this(20, 1, 1000, 1000);
+  }
+
+  public VegasLimit(int initialLimit, int minLimit, int maxLimit, int probeInterval) {
+    Preconditions.checkArgument(minLimit > 0 && minLimit <= maxLimit,
+        "Invalid limit range [%s, %s]", minLimit, maxLimit);
+    Preconditions.checkArgument(probeInterval > 0, "probeInterval must be positive, found %s", probeInterval);
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.probeInterval = probeInterval;
+    this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+  }
+
+  @Override
+  public int getLimit() {
+    return (int) limit;
+  }
+
+  @Override
+  public void onSample(long rttNanos, int inFlight, boolean overloaded) {
+    if (++samples % probeInterval == 0) {
+      minRttNanos = Long.MAX_VALUE;
+    }
+    if (overloaded) {
+      setLimit(limit / 2);
+      return;
+    }
+    if (rttNanos <= 0) {
+      return;
+    }
+    if (rttNanos < minRttNanos) {
+      minRttNanos = rttNanos;
+    }
+
+    final double log = Math.max(1, Math.log10(limit));
+    final double queued = Math.ceil(limit * (1 - (double) minRttNanos / rttNanos));
+    if (queued <= log && inFlight * 2 >= limit) {
+      setLimit(limit + 6 * log);
+    } else if (queued < 3 * log && inFlight * 2 >= limit) {
+      setLimit(limit + log);
+    } else if (queued > 6 * log) {
+      setLimit(limit - log);
+    }
+  }
+
+  private void setLimit(double newLimit) {
+    limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+  }
+
+  @Override
+  public String toString() {
+    return "VegasLimit{limit=" + getLimit() + ", minRttNanos=" + minRttNanos + "}";
+  }
+
+}
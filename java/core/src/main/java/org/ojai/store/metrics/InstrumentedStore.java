@@ -0,0 +1,774 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.store.metrics;
+
+import static org.ojai.store.metrics.StoreOperation.CHECK_AND_DELETE;
+import static org.ojai.store.metrics.StoreOperation.CHECK_AND_MUTATE;
+import static org.ojai.store.metrics.StoreOperation.CHECK_AND_REPLACE;
+import static org.ojai.store.metrics.StoreOperation.DELETE;
+import static org.ojai.store.metrics.StoreOperation.FIND;
+import static org.ojai.store.metrics.StoreOperation.FIND_BY_ID;
+import static org.ojai.store.metrics.StoreOperation.FLUSH;
+import static org.ojai.store.metrics.StoreOperation.INCREMENT;
+import static org.ojai.store.metrics.StoreOperation.INSERT;
+import static org.ojai.store.metrics.StoreOperation.INSERT_OR_REPLACE;
+import static org.ojai.store.metrics.StoreOperation.REPLACE;
+import static org.ojai.store.metrics.StoreOperation.UPDATE;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.function.Supplier;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.ojai.Document;
+import org.ojai.DocumentStream;
+import org.ojai.FieldPath;
+import org.ojai.Value;
+import org.ojai.annotation.API;
+import org.ojai.annotation.API.Nullable;
+import org.ojai.base.QueryResultBase;
+import org.ojai.exceptions.OjaiException;
+import org.ojai.store.DocumentMutation;
+import org.ojai.store.DocumentStore;
+import org.ojai.store.Query;
+import org.ojai.store.QueryCondition;
+import org.ojai.store.QueryResult;
+import org.ojai.store.base.ForwardingStore;
+import org.ojai.store.exceptions.MultiOpException;
+import org.ojai.store.exceptions.StoreException;
+import org.ojai.util.Documents;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A {@link ForwardingStore} which measures every call made to the wrapped store.<p/>
+ *
+ * For each {@link StoreOperation} family, the latency of every call is recorded in a
+ * {@link LatencyHistogram}, along with the number of failed calls and the number of
+ * documents read or written. The estimated size of these documents, as computed by
+ * {@link Documents#estimateSize(Document)}, is also tracked if byte tracking is
+ * enabled; since this walks every document, it is off by default.<p/>
+ *
+ * The metrics are available through {@link #getMetrics(StoreOperation)}, are
+ * registered as MXBeans named
+ * {@code org.ojai:type=DocumentStore,store=<tag>,operation=<method>}, and are passed
+ * to every configured {@link MetricsSink}. The MXBeans are unregistered when the
+ * store is closed.<p/>
+ *
+ * The latency of a {@code find()} call covers the call itself, not the iteration of
+ * the returned stream; the documents of the stream are counted as they are read.
+ * For operations which take a {@link DocumentStream}, the latency covers the whole
+ * bulk call and the documents are counted as the wrapped store consumes them.<p/>
+ *
+ * Recording is lock-free and, with no byte tracking and no sinks, adds a few tens of
+ * nanoseconds to each call.
+ */
+@API.Public
+@API.Evolving
+@API.ThreadSafe
+@SuppressWarnings("deprecation")
+public class InstrumentedStore extends ForwardingStore {
+
+  private static final Logger logger = LoggerFactory.getLogger(InstrumentedStore.class);
+
+  /**
+   * The domain of the {@link ObjectName}s under which the metrics are registered.
+   */
+  public static final String JMX_DOMAIN = "org.ojai";
+
+  private final DocumentStore store;
+  private final String tag;
+  private final boolean trackBytes;
+  private final MetricsSink[] sinks;
+  private final OperationMetrics[] metrics;
+  private final MBeanServer mbeanServer;
+  private final List<ObjectName> registeredNames = new ArrayList<>();
+
+  /**
+   * Creates an {@code InstrumentedStore} without a tag, see
+   * {@link #InstrumentedStore(DocumentStore, String)}.
+   */
+  public InstrumentedStore(final DocumentStore store) {
+    this(store, null);
+  }
+
+  /**
+   * Creates an {@code InstrumentedStore} which registers its metrics with the platform
+   * {@link MBeanServer}, reports to the {@link MetricsSink}s discovered by
+   * {@link ServiceLoader}, and does not track document sizes.
+   *
+   * @param store the {@link DocumentStore} to instrument
+   * @param tag the name of the store in the metrics; if {@code null}, a unique name
+   *        is generated
+   */
+  public InstrumentedStore(final DocumentStore store, @Nullable final String tag) {
+    this(store, tag, false, ManagementFactory.getPlatformMBeanServer(), loadSinks());
+  }
+
+  /**
+   * @param store the {@link DocumentStore} to instrument
+   * @param tag the name of the store in the metrics; if {@code null}, a unique name
+   *        is generated
+   * @param trackBytes whether to estimate the size of the documents read and written
+   * @param mbeanServer the {@link MBeanServer} to register the metrics with, or
+   *        {@code null} to not expose them through JMX
+   * @param sinks the {@link MetricsSink}s to report every operation to
+   */
+  public InstrumentedStore(final DocumentStore store, @Nullable final String tag,
+      final boolean trackBytes, @Nullable final MBeanServer mbeanServer,
+      final Collection<? extends MetricsSink> sinks) {
+    super(store);
+    this.store = store;
+    this.tag = tag != null ? tag : "store@" + Integer.toHexString(System.identityHashCode(this));
+    this.trackBytes = trackBytes;
+    this.sinks = Preconditions.checkNotNull(sinks).toArray(new MetricsSink[sinks.size()]);
+    this.mbeanServer = mbeanServer;
+
+    final StoreOperation[] operations = StoreOperation.values();
+    this.metrics = new OperationMetrics[operations.length];
+    for (StoreOperation op : operations) {
+      metrics[op.ordinal()] = new OperationMetrics(op);
+    }
+    if (mbeanServer != null) {
+      registerMBeans();
+    }
+  }
+
+  private static List<MetricsSink> loadSinks() {
+    final List<MetricsSink> sinks = new ArrayList<>();
+    for (MetricsSink sink : ServiceLoader.load(MetricsSink.class)) {
+      logger.debug("Loaded metrics sink '{}'.", sink.getClass().getName());
+      sinks.add(sink);
+    }
+    return sinks;
+  }
+
+  private void registerMBeans() {
+    for (OperationMetrics m : metrics) {
+      try {
+        final ObjectName name = new ObjectName(JMX_DOMAIN + ":type=DocumentStore,store="
+            + ObjectName.quote(tag) + ",operation=" + m.getOperation().getMethodName());
+        mbeanServer.registerMBean(m, name);
+        registeredNames.add(name);
+      } catch (JMException e) {
+        logger.warn("Unable to register the metrics of operation '{}' of store '{}'.",
+            m.getOperation().getMethodName(), tag, e);
+      }
+    }
+  }
+
+  private void unregisterMBeans() {
+    for (ObjectName name : registeredNames) {
+      try {
+        mbeanServer.unregisterMBean(name);
+      } catch (JMException e) {
+        logger.debug("Unable to unregister '{}'.", name, e);
+      }
+    }
+    registeredNames.clear();
+  }
+
+  /**
+   * @return the tag of this store in the metrics
+   */
+  public String getTag() {
+    return tag;
+  }
+
+  /**
+   * @return the metrics of the specified operation family
+   */
+  public OperationMetrics getMetrics(final StoreOperation operation) {
+    return metrics[operation.ordinal()];
+  }
+
+  /**
+   * Resets the metrics of all operation families.
+   */
+  public void resetMetrics() {
+    for (OperationMetrics m : metrics) {
+      m.reset();
+    }
+  }
+
+  private void record(final StoreOperation op, final long start,
+      final Throwable failure, final long documents, final long bytes) {
+    final long latency = System.nanoTime() - start;
+    metrics[op.ordinal()].record(latency, failure != null, documents, bytes);
+    for (MetricsSink sink : sinks) {
+      try {
+        sink.operationCompleted(tag, op, latency, failure, documents, bytes);
+      } catch (RuntimeException e) {
+        logger.debug("Metrics sink '{}' failed.", sink.getClass().getName(), e);
+      }
+    }
+  }
+
+  private long sizeOf(final Document document) {
+    return trackBytes && document != null ? Documents.estimateSize(document) : 0;
+  }
+
+  private Document read(final Supplier<Document> call) {
+    final long start = System.nanoTime();
+    try {
+      final Document document = call.get();
+      record(FIND_BY_ID, start, null, document != null ? 1 : 0, sizeOf(document));
+      return document;
+    } catch (Throwable t) {
+      record(FIND_BY_ID, start, t, 0, 0);
+      throw t;
+    }
+  }
+
+  private QueryResult query(final Supplier<DocumentStream> call) {
+    final long start = System.nanoTime();
+    try {
+      final DocumentStream stream = call.get();
+      record(FIND, start, null, 0, 0);
+      return new CountingStream(FIND, stream, true);
+    } catch (Throwable t) {
+      record(FIND, start, t, 0, 0);
+      throw t;
+    }
+  }
+
+  private <T> T write(final StoreOperation op, final Document document, final Supplier<T> call) {
+    final long bytes = sizeOf(document);
+    final long start = System.nanoTime();
+    try {
+      final T result = call.get();
+      record(op, start, null, 1, bytes);
+      return result;
+    } catch (Throwable t) {
+      record(op, start, t, 0, 0);
+      throw t;
+    }
+  }
+
+  private void write(final StoreOperation op, final Document document, final Runnable call) {
+    final long bytes = sizeOf(document);
+    final long start = System.nanoTime();
+    try {
+      call.run();
+      record(op, start, null, 1, bytes);
+    } catch (Throwable t) {
+      record(op, start, t, 0, 0);
+      throw t;
+    }
+  }
+
+  private interface BulkCall {
+    void run(DocumentStream stream);
+  }
+
+  private void writeAll(final StoreOperation op, final DocumentStream stream, final BulkCall call) {
+    final CountingStream counting = new CountingStream(op, stream, false);
+    final long start = System.nanoTime();
+    try {
+      call.run(counting);
+      record(op, start, null, counting.documents, counting.bytes);
+    } catch (Throwable t) {
+      record(op, start, t, counting.documents, counting.bytes);
+      throw t;
+    }
+  }
+
+  /**
+   * Unregisters the metrics from JMX and closes the wrapped store.
+   */
+  @Override
+  public void close() throws StoreException {
+    if (mbeanServer != null) {
+      unregisterMBeans();
+    }
+    super.close();
+  }
+
+  @Override
+  public Document findById(final Value _id, final String... fieldPaths) throws StoreException {
+    return read(() -> store.findById(_id, fieldPaths));
+  }
+
+  @Override
+  public Document findById(final Value _id, final FieldPath... fieldPaths) throws StoreException {
+    return read(() -> store.findById(_id, fieldPaths));
+  }
+
+  @Override
+  public Document findById(final Value _id, final QueryCondition condition) throws StoreException {
+    return read(() -> store.findById(_id, condition));
+  }
+
+  @Override
+  public Document findById(final Value _id, final QueryCondition condition, final String... fieldPaths)
+      throws StoreException {
+    return read(() -> store.findById(_id, condition, fieldPaths));
+  }
+
+  @Override
+  public Document findById(final Value _id, final QueryCondition condition, final FieldPath... fieldPaths)
+      throws StoreException {
+    return read(() -> store.findById(_id, condition, fieldPaths));
+  }
+
+  @Override
+  public DocumentStream findByIds(final Collection<? extends Value> ids, final FieldPath... fieldPaths)
+      throws StoreException {
+    return query(() -> store.findByIds(ids, fieldPaths));
+  }
+
+  @Override
+  public QueryResult find(final Query query) throws StoreException {
+    return query(() -> store.find(query));
+  }
+
+  @Override
+  public DocumentStream findQuery(final Query query) throws StoreException {
+    return query(() -> store.find(query));
+  }
+
+  @Override
+  public DocumentStream findQuery(final String queryJSON) throws StoreException {
+    return query(() -> store.findQuery(queryJSON));
+  }
+
+  @Override
+  public void insertOrReplace(final Value _id, final Document doc) throws StoreException {
+    write(INSERT_OR_REPLACE, doc, () -> store.insertOrReplace(_id, doc));
+  }
+
+  @Override
+  public void update(final Value _id, final DocumentMutation mutation) throws StoreException {
+    write(UPDATE, null, () -> store.update(_id, mutation));
+  }
+
+  @Override
+  public void delete(final Value _id) throws StoreException {
+    write(DELETE, null, () -> store.delete(_id));
+  }
+
+  @Override
+  public void insert(final Value _id, final Document doc) throws StoreException {
+    write(INSERT, doc, () -> store.insert(_id, doc));
+  }
+
+  @Override
+  public void replace(final Value _id, final Document doc) throws StoreException {
+    write(REPLACE, doc, () -> store.replace(_id, doc));
+  }
+
+  @Override
+  public void increment(final Value _id, final String field, final byte inc) throws StoreException {
+    write(INCREMENT, null, () -> store.increment(_id, field, inc));
+  }
+
+  @Override
+  public void increment(final Value _id, final String field, final short inc) throws StoreException {
+    write(INCREMENT, null, () -> store.increment(_id, field, inc));
+  }
+
+  @Override
+  public void increment(final Value _id, final String field, final int inc) throws StoreException {
+    write(INCREMENT, null, () -> store.increment(_id, field, inc));
+  }
+
+  @Override
+  public void increment(final Value _id, final String field, final long inc) throws StoreException {
+    write(INCREMENT, null, () -> store.increment(_id, field, inc));
+  }
+
+  @Override
+  public void increment(final Value _id, final String field, final float inc) throws StoreException {
+    write(INCREMENT, null, () -> store.increment(_id, field, inc));
+  }
+
+  @Override
+  public void increment(final Value _id, final String field, final double inc) throws StoreException {
+    write(INCREMENT, null, () -> store.increment(_id, field, inc));
+  }
+
+  @Override
+  public void increment(final Value _id, final String field, final BigDecimal inc) throws StoreException {
+    write(INCREMENT, null, () -> store.increment(_id, field, inc));
+  }
+
+  @Override
+  public boolean checkAndMutate(final Value _id, final QueryCondition condition, final DocumentMutation mutation)
+      throws StoreException {
+    return write(CHECK_AND_MUTATE, null, () -> store.checkAndUpdate(_id, condition, mutation));
+  }
+
+  @Override
+  public boolean checkAndDelete(final Value _id, final QueryCondition condition) throws StoreException {
+    return write(CHECK_AND_DELETE, null, () -> store.checkAndDelete(_id, condition));
+  }
+
+  @Override
+  public boolean checkAndReplace(final Value _id, final QueryCondition condition, final Document doc)
+      throws StoreException {
+    return write(CHECK_AND_REPLACE, doc, () -> store.checkAndReplace(_id, condition, doc));
+  }
+
+  @Override
+  public void flush() throws StoreException {
+    final long start = System.nanoTime();
+    try {
+      store.flush();
+      record(FLUSH, start, null, 0, 0);
+    } catch (Throwable t) {
+      record(FLUSH, start, t, 0, 0);
+      throw t;
+    }
+  }
+
+  @Override
+  public Document findById(final String id) throws StoreException {
+    return read(() -> store.findById(id));
+  }
+
+  @Override
+  public Document findById(final Value id) throws StoreException {
+    return read(() -> store.findById(id));
+  }
+
+  @Override
+  public Document findById(final String id, final String... paths) throws StoreException {
+    return read(() -> store.findById(id, paths));
+  }
+
+  @Override
+  public Document findById(final String id, final FieldPath... paths) throws StoreException {
+    return read(() -> store.findById(id, paths));
+  }
+
+  @Override
+  public Document findById(final String id, final QueryCondition c) throws StoreException {
+    return read(() -> store.findById(id, c));
+  }
+
+  @Override
+  public Document findById(final String id, final QueryCondition c, final String... paths) throws StoreException {
+    return read(() -> store.findById(id, c, paths));
+  }
+
+  @Override
+  public Document findById(final String id, final QueryCondition c, final FieldPath... paths) throws StoreException {
+    return read(() -> store.findById(id, c, paths));
+  }
+
+  @Override
+  public DocumentStream find() throws StoreException {
+    return query(() -> store.find());
+  }
+
+  @Override
+  public DocumentStream find(final String... paths) throws StoreException {
+    return query(() -> store.find(paths));
+  }
+
+  @Override
+  public DocumentStream find(final FieldPath... paths) throws StoreException {
+    return query(() -> store.find(paths));
+  }
+
+  @Override
+  public DocumentStream find(final QueryCondition c) throws StoreException {
+    return query(() -> store.find(c));
+  }
+
+  @Override
+  public DocumentStream find(final QueryCondition c, final String... paths) throws StoreException {
+    return query(() -> store.find(c, paths));
+  }
+
+  @Override
+  public DocumentStream find(final QueryCondition c, final FieldPath... paths) throws StoreException {
+    return query(() -> store.find(c, paths));
+  }
+
+  @Override
+  public void insertOrReplace(final Document r) throws StoreException {
+    write(INSERT_OR_REPLACE, r, () -> store.insertOrReplace(r));
+  }
+
+  @Override
+  public void insertOrReplace(final String id, final Document r) throws StoreException {
+    write(INSERT_OR_REPLACE, r, () -> store.insertOrReplace(id, r));
+  }
+
+  @Override
+  public void insertOrReplace(final Document r, final FieldPath fieldAsKey) throws StoreException {
+    write(INSERT_OR_REPLACE, r, () -> store.insertOrReplace(r, fieldAsKey));
+  }
+
+  @Override
+  public void insertOrReplace(final Document r, final String fieldAsKey) throws StoreException {
+    write(INSERT_OR_REPLACE, r, () -> store.insertOrReplace(r, fieldAsKey));
+  }
+
+  @Override
+  public void insertOrReplace(final DocumentStream rs) throws MultiOpException {
+    writeAll(INSERT_OR_REPLACE, rs, s -> store.insertOrReplace(s));
+  }
+
+  @Override
+  public void insertOrReplace(final DocumentStream rs, final FieldPath fieldAsKey) throws MultiOpException {
+    writeAll(INSERT_OR_REPLACE, rs, s -> store.insertOrReplace(s, fieldAsKey));
+  }
+
+  @Override
+  public void insertOrReplace(final DocumentStream rs, final String fieldAsKey) throws MultiOpException {
+    writeAll(INSERT_OR_REPLACE, rs, s -> store.insertOrReplace(s, fieldAsKey));
+  }
+
+  @Override
+  public void update(final String id, final DocumentMutation m) throws StoreException {
+    write(UPDATE, null, () -> store.update(id, m));
+  }
+
+  @Override
+  public void delete(final String id) throws StoreException {
+    write(DELETE, null, () -> store.delete(id));
+  }
+
+  @Override
+  public void delete(final Document r) throws StoreException {
+    write(DELETE, null, () -> store.delete(r));
+  }
+
+  @Override
+  public void delete(final Document r, final FieldPath fieldAsKey) throws StoreException {
+    write(DELETE, null, () -> store.delete(r, fieldAsKey));
+  }
+
+  @Override
+  public void delete(final Document r, final String fieldAsKey) throws StoreException {
+    write(DELETE, null, () -> store.delete(r, fieldAsKey));
+  }
+
+  @Override
+  public void delete(final DocumentStream rs) throws MultiOpException {
+    writeAll(DELETE, rs, s -> store.delete(s));
+  }
+
+  @Override
+  public void delete(final DocumentStream rs, final FieldPath fieldAsKey) throws MultiOpException {
+    writeAll(DELETE, rs, s -> store.delete(s, fieldAsKey));
+  }
+
+  @Override
+  public void delete(final DocumentStream rs, final String fieldAsKey) throws MultiOpException {
+    writeAll(DELETE, rs, s -> store.delete(s, fieldAsKey));
+  }
+
+  @Override
+  public void insert(final String id, final Document r) throws StoreException {
+    write(INSERT, r, () -> store.insert(id, r));
+  }
+
+  @Override
+  public void insert(final Document r) throws StoreException {
+    write(INSERT, r, () -> store.insert(r));
+  }
+
+  @Override
+  public void insert(final Document r, final FieldPath fieldAsKey) throws StoreException {
+    write(INSERT, r, () -> store.insert(r, fieldAsKey));
+  }
+
+  @Override
+  public void insert(final Document r, final String fieldAsKey) throws StoreException {
+    write(INSERT, r, () -> store.insert(r, fieldAsKey));
+  }
+
+  @Override
+  public void insert(final DocumentStream rs) throws MultiOpException {
+    writeAll(INSERT, rs, s -> store.insert(s));
+  }
+
+  @Override
+  public void insert(final DocumentStream rs, final FieldPath fieldAsKey) throws MultiOpException {
+    writeAll(INSERT, rs, s -> store.insert(s, fieldAsKey));
+  }
+
+  @Override
+  public void insert(final DocumentStream rs, final String fieldAsKey) throws MultiOpException {
+    writeAll(INSERT, rs, s -> store.insert(s, fieldAsKey));
+  }
+
+  @Override
+  public void replace(final String id, final Document r) throws StoreException {
+    write(REPLACE, r, () -> store.replace(id, r));
+  }
+
+  @Override
+  public void replace(final Document r) throws StoreException {
+    write(REPLACE, r, () -> store.replace(r));
+  }
+
+  @Override
+  public void replace(final Document r, final FieldPath fieldAsKey) throws StoreException {
+    write(REPLACE, r, () -> store.replace(r, fieldAsKey));
+  }
+
+  @Override
+  public void replace(final Document r, final String fieldAsKey) throws StoreException {
+    write(REPLACE, r, () -> store.replace(r, fieldAsKey));
+  }
+
+  @Override
+  public void replace(final DocumentStream rs) throws MultiOpException {
+    writeAll(REPLACE, rs, s -> store.replace(s));
+  }
+
+  @Override
+  public void replace(final DocumentStream rs, final FieldPath fieldAsKey) throws MultiOpException {
+    writeAll(REPLACE, rs, s -> store.replace(s, fieldAsKey));
+  }
+
+  @Override
+  public void replace(final DocumentStream rs, final String fieldAsKey) throws MultiOpException {
+    writeAll(REPLACE, rs, s -> store.replace(s, fieldAsKey));
+  }
+
+  @Override
+  public void increment(final String id, final String field, final byte inc) throws StoreException {
+    write(INCREMENT, null, () -> store.increment(id, field, inc));
+  }
+
+  @Override
+  public void increment(final String id, final String field, final short inc) throws StoreException {
+    write(INCREMENT, null, () -> store.increment(id, field, inc));
+  }
+
+  @Override
+  public void increment(final String id, final String field, final int inc) throws StoreException {
+    write(INCREMENT, null, () -> store.increment(id, field, inc));
+  }
+
+  @Override
+  public void increment(final String id, final String field, final long inc) throws StoreException {
+    write(INCREMENT, null, () -> store.increment(id, field, inc));
+  }
+
+  @Override
+  public void increment(final String id, final String field, final float inc) throws StoreException {
+    write(INCREMENT, null, () -> store.increment(id, field, inc));
+  }
+
+  @Override
+  public void increment(final String id, final String field, final double inc) throws StoreException {
+    write(INCREMENT, null, () -> store.increment(id, field, inc));
+  }
+
+  @Override
+  public void increment(final String id, final String field, final BigDecimal inc) throws StoreException {
+    write(INCREMENT, null, () -> store.increment(id, field, inc));
+  }
+
+  @Override
+  public boolean checkAndMutate(final String id, final QueryCondition condition, final DocumentMutation m)
+      throws StoreException {
+    return write(CHECK_AND_MUTATE, null, () -> store.checkAndMutate(id, condition, m));
+  }
+
+  @Override
+  public boolean checkAndDelete(final String id, final QueryCondition condition) throws StoreException {
+    return write(CHECK_AND_DELETE, null, () -> store.checkAndDelete(id, condition));
+  }
+
+  @Override
+  public boolean checkAndReplace(final String id, final QueryCondition condition, final Document r)
+      throws StoreException {
+    return write(CHECK_AND_REPLACE, r, () -> store.checkAndReplace(id, condition, r));
+  }
+
+  /**
+   * A {@link QueryResult} which counts the documents read from a wrapped stream. The
+   * documents of a query result are added to the metrics as they are read, and
+   * reported to the sinks when the stream is closed; the documents of an input stream
+   * are reported by the bulk call which consumed them.
+   */
+  private final class CountingStream extends QueryResultBase {
+    private final StoreOperation op;
+    private final DocumentStream stream;
+    private final boolean isResult;
+    private long documents;
+    private long bytes;
+
+    CountingStream(final StoreOperation op, final DocumentStream stream, final boolean isResult) {
+      this.op = op;
+      this.stream = Preconditions.checkNotNull(stream);
+      this.isResult = isResult;
+    }
+
+    @Override
+    public Document getQueryPlan() {
+      return stream instanceof QueryResult ? ((QueryResult) stream).getQueryPlan() : super.getQueryPlan();
+    }
+
+    @Override
+    protected Iterator<Document> iteratorDerived() {
+      final Iterator<Document> it = stream.iterator();
+      return new Iterator<Document>() {
+        @Override
+        public boolean hasNext() {
+          return it.hasNext();
+        }
+
+        @Override
+        public Document next() {
+          final Document document = it.next();
+          final long size = sizeOf(document);
+          documents++;
+          bytes += size;
+          if (isResult) {
+            metrics[op.ordinal()].addDocuments(1, size);
+          }
+          return document;
+        }
+      };
+    }
+
+    @Override
+    protected void closeDerived() throws OjaiException {
+      try {
+        stream.close();
+      } finally {
+        if (isResult) {
+          for (MetricsSink sink : sinks) {
+            try {
+              sink.documentsRead(tag, op, documents, bytes);
+            } catch (RuntimeException e) {
+              logger.debug("Metrics sink '{}' failed.", sink.getClass().getName(), e);
+            }
+          }
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,184 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.store.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.ojai.annotation.API;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A lock-free histogram of latencies, in nanoseconds, with log-linear buckets in
+ * the style of an HDR histogram.<p/>
+ *
+ * Values below 64 are recorded exactly; larger values fall in one of the 64
+ * sub-buckets of their power-of-two range, which bounds the relative error of any
+ * reported percentile to under 1.6%. Values above 2<sup>40</sup> ns (about 18 minutes)
+ * are clamped to the last bucket, although the maximum is tracked exactly.<p/>
+ *
+ * Recording is a handful of atomic increments and is safe to call from any number
+ * of threads. Readers take a {@link #snapshot()}, which is not atomic with respect
+ * to concurrent recording but is consistent enough for monitoring.
+ */
+@API.Public
+@API.ThreadSafe
+public final class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 6;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  private static final int MAX_VALUE_BITS = 40;
+  private static final long MAX_TRACKABLE_VALUE = (1L << MAX_VALUE_BITS) - 1;
+  private static final int BUCKET_COUNT = (MAX_VALUE_BITS - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+  private final LongAdder totalCount = new LongAdder();
+  private final LongAdder totalValue = new LongAdder();
+  private final AtomicLong maxValue = new AtomicLong();
+
+  /**
+   * Records a single value.
+   *
+   * @param nanos the latency in nanoseconds; negative values are recorded as zero
+   */
+  public void record(long nanos) {
+    if (nanos < 0) {
+      nanos = 0;
+    }
+    counts.incrementAndGet(indexOf(nanos));
+    totalCount.increment();
+    totalValue.add(nanos);
+    long max;
+    while (nanos > (max = maxValue.get())) {
+      if (maxValue.compareAndSet(max, nanos)) {
+        break;
+      }
+    }
+  }
+
+  /**
+   * Clears all recorded values.
+   */
+  public void reset() {
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      counts.set(i, 0);
+    }
+    totalCount.reset();
+    totalValue.reset();
+    maxValue.set(0);
+  }
+
+  /**
+   * @return the number of recorded values
+   */
+  public long getCount() {
+    return totalCount.sum();
+  }
+
+  /**
+   * Returns a point-in-time copy of this histogram.
+   */
+  public Snapshot snapshot() {
+    final long[] copy = new long[BUCKET_COUNT];
+    long count = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      count += (copy[i] = counts.get(i));
+    }
+    return new Snapshot(copy, count, totalValue.sum(), maxValue.get());
+  }
+
+  static int indexOf(long value) {
+    if (value > MAX_TRACKABLE_VALUE) {
+      value = MAX_TRACKABLE_VALUE;
+    }
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+    final int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+    final int subBucket = (int) (value >>> shift) - SUB_BUCKET_COUNT;
+    return (shift + 1) * SUB_BUCKET_COUNT + subBucket;
+  }
+
+  /**
+   * @return the largest value which falls into the bucket at the specified index
+   */
+  static long highestValueAt(int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+    final int shift = index / SUB_BUCKET_COUNT - 1;
+    final long lowest = (long) (SUB_BUCKET_COUNT + index % SUB_BUCKET_COUNT) << shift;
+    return lowest + (1L << shift) - 1;
+  }
+
+  /**
+   * An immutable copy of the state of a {@link LatencyHistogram}.
+   */
+  @API.Public
+  @API.Immutable
+  public static final class Snapshot {
+    private final long[] counts;
+    private final long count;
+    private final long total;
+    private final long max;
+
+    Snapshot(long[] counts, long count, long total, long max) {
+      this.counts = counts;
+      this.count = count;
+      this.total = total;
+      this.max = max;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public long getMax() {
+      return max;
+    }
+
+    public double getMean() {
+      return count == 0 ? 0 : (double) total / count;
+    }
+
+    /**
+     * Returns the value at or below which the specified percentage of the recorded
+     * values fall, e.g. {@code getValueAtPercentile(99.9)} for the p999 latency.
+     *
+     * @param percentile a number between 0 and 100, inclusive
+     * @return the percentile value in nanoseconds, or 0 if the snapshot is empty
+     */
+    public long getValueAtPercentile(double percentile) {
+      Preconditions.checkArgument(percentile >= 0 && percentile <= 100,
+          "Percentile must be between 0 and 100, found %s", percentile);
+      if (count == 0) {
+        return 0;
+      }
+      final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if (seen >= rank) {
+          return Math.min(highestValueAt(i), max);
+        }
+      }
+      return max;
+    }
+  }
+
+}
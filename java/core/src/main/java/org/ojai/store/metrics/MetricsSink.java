@@ -0,0 +1,64 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.store.metrics;
+
+import org.ojai.annotation.API;
+import org.ojai.annotation.API.Nullable;
+
+/**
+ * A service provider interface for forwarding the measurements of an
+ * {@link InstrumentedStore} to an external metrics system.<p/>
+ *
+ * Implementations can be passed to an {@code InstrumentedStore} explicitly, or
+ * registered in {@code META-INF/services/org.ojai.store.metrics.MetricsSink} to be
+ * discovered with {@link java.util.ServiceLoader}, in which case they must have a
+ * public no-argument constructor.<p/>
+ *
+ * The callback is made on the thread which performed the operation, after it has
+ * completed, and must therefore be thread-safe and cheap.
+ */
+@API.Public
+@API.ThreadSafe
+public interface MetricsSink {
+
+  /**
+   * Called once for each completed store operation.
+   *
+   * @param storeTag the tag of the instrumented store
+   * @param operation the family of the operation
+   * @param latencyNanos the duration of the call in nanoseconds
+   * @param failure the exception thrown by the operation, or {@code null} if it succeeded
+   * @param documents the number of documents read or written by the operation
+   * @param bytes the estimated size of these documents, or 0 if sizes are not tracked
+   */
+  public void operationCompleted(String storeTag, StoreOperation operation,
+      long latencyNanos, @Nullable Throwable failure, long documents, long bytes);
+
+  /**
+   * Called when a {@link org.ojai.DocumentStream} returned by a {@code find()}
+   * operation is closed, with the documents which were read from it. The default
+   * implementation does nothing.
+   *
+   * @param storeTag the tag of the instrumented store
+   * @param operation the family of the operation which returned the stream
+   * @param documents the number of documents read from the stream
+   * @param bytes the estimated size of these documents, or 0 if sizes are not tracked
+   */
+  default public void documentsRead(String storeTag, StoreOperation operation,
+      long documents, long bytes) {
+  }
+
+}
@@ -0,0 +1,152 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.store.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.ojai.annotation.API;
+
+/**
+ * The metrics of one {@link StoreOperation} family of an {@link InstrumentedStore}:
+ * a latency histogram, call and error counts, and the number and estimated size of
+ * the documents read or written.
+ */
+@API.Public
+@API.ThreadSafe
+public final class OperationMetrics implements OperationMetricsMXBean {
+
+  private static final double NANOS_PER_MICRO = TimeUnit.MICROSECONDS.toNanos(1);
+
+  private final StoreOperation operation;
+  private final LatencyHistogram latencies = new LatencyHistogram();
+  private final LongAdder errors = new LongAdder();
+  private final LongAdder documents = new LongAdder();
+  private final LongAdder bytes = new LongAdder();
+
+  OperationMetrics(StoreOperation operation) {
+    this.operation = operation;
+  }
+
+  void record(long latencyNanos, boolean failed, long documentCount, long byteCount) {
+    latencies.record(latencyNanos);
+    if (failed) {
+      errors.increment();
+    }
+    addDocuments(documentCount, byteCount);
+  }
+
+  void addDocuments(long documentCount, long byteCount) {
+    if (documentCount != 0) {
+      documents.add(documentCount);
+    }
+    if (byteCount != 0) {
+      bytes.add(byteCount);
+    }
+  }
+
+  public StoreOperation getOperation() {
+    return operation;
+  }
+
+  /**
+   * @return a point-in-time copy of the latency histogram of this operation
+   */
+  public LatencyHistogram.Snapshot getLatencies() {
+    return latencies.snapshot();
+  }
+
+  @Override
+  public long getCount() {
+    return latencies.getCount();
+  }
+
+  @Override
+  public long getErrorCount() {
+    return errors.sum();
+  }
+
+  @Override
+  public double getErrorRate() {
+    final long count = getCount();
+    return count == 0 ? 0 : (double) getErrorCount() / count;
+  }
+
+  @Override
+  public long getDocumentCount() {
+    return documents.sum();
+  }
+
+  @Override
+  public long getByteCount() {
+    return bytes.sum();
+  }
+
+  @Override
+  public double getMeanMicros() {
+    return latencies.snapshot().getMean() / NANOS_PER_MICRO;
+  }
+
+  @Override
+  public double getP50Micros() {
+    return percentileMicros(50);
+  }
+
+  @Override
+  public double getP90Micros() {
+    return percentileMicros(90);
+  }
+
+  @Override
+  public double getP99Micros() {
+    return percentileMicros(99);
+  }
+
+  @Override
+  public double getP999Micros() {
+    return percentileMicros(99.9);
+  }
+
+  @Override
+  public double getMaxMicros() {
+    return latencies.snapshot().getMax() / NANOS_PER_MICRO;
+  }
+
+  @Override
+  public void reset() {
+    latencies.reset();
+    errors.reset();
+    documents.reset();
+    bytes.reset();
+  }
+
+  private double percentileMicros(double percentile) {
+    return latencies.snapshot().getValueAtPercentile(percentile) / NANOS_PER_MICRO;
+  }
+
+  @Override
+  public String toString() {
+    final LatencyHistogram.Snapshot snapshot = latencies.snapshot();
+    return operation.getMethodName() + "{count=" + snapshot.getCount()
+        + ", errors=" + getErrorCount()
+        + ", documents=" + getDocumentCount()
+        + ", bytes=" + getByteCount()
+        + ", p50=" + snapshot.getValueAtPercentile(50)
+        + "ns, p99=" + snapshot.getValueAtPercentile(99)
+        + "ns, max=" + snapshot.getMax() + "ns}";
+  }
+
+}
@@ -0,0 +1,57 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.store.metrics;
+
+import org.ojai.annotation.API;
+
+/**
+ * The JMX view of the metrics of one {@link StoreOperation} family of an
+ * {@link InstrumentedStore}. Latencies are reported in microseconds.
+ */
+@API.Public
+public interface OperationMetricsMXBean {
+
+  public long getCount();
+
+  public long getErrorCount();
+
+  /**
+   * @return the fraction of calls which failed, between 0 and 1
+   */
+  public double getErrorRate();
+
+  public long getDocumentCount();
+
+  public long getByteCount();
+
+  public double getMeanMicros();
+
+  public double getP50Micros();
+
+  public double getP90Micros();
+
+  public double getP99Micros();
+
+  public double getP999Micros();
+
+  public double getMaxMicros();
+
+  /**
+   * Clears all the counters and the latency histogram.
+   */
+  public void reset();
+
+}
@@ -0,0 +1,66 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.store.metrics;
+
+import org.ojai.annotation.API;
+import org.ojai.store.DocumentStore;
+
+/**
+ * The families of {@link DocumentStore} methods for which metrics are recorded.
+ * All overloads of a method, e.g. {@code findById(String)} and
+ * {@code findById(Value, QueryCondition, FieldPath...)}, belong to the same family.
+ */
+@API.Public
+public enum StoreOperation {
+
+  FIND_BY_ID("findById"),
+
+  FIND("find"),
+
+  INSERT("insert"),
+
+  INSERT_OR_REPLACE("insertOrReplace"),
+
+  REPLACE("replace"),
+
+  UPDATE("update"),
+
+  DELETE("delete"),
+
+  INCREMENT("increment"),
+
+  CHECK_AND_MUTATE("checkAndMutate"),
+
+  CHECK_AND_DELETE("checkAndDelete"),
+
+  CHECK_AND_REPLACE("checkAndReplace"),
+
+  FLUSH("flush");
+
+  private final String methodName;
+
+  private StoreOperation(String methodName) {
+    this.methodName = methodName;
+  }
+
+  /**
+   * Returns the name of the {@link DocumentStore} method of this family.
+   */
+  public String getMethodName() {
+    return methodName;
+  }
+
+}
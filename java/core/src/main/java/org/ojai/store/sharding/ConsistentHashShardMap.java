@@ -0,0 +1,176 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.store.sharding;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.ojai.Value;
+import org.ojai.Value.Type;
+import org.ojai.annotation.API;
+import org.ojai.util.Values;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * A {@link ShardMap} which places each shard at a number of pseudo-random points,
+ * or virtual nodes, of a hash ring, and maps an {@code _id} to the shard owning the
+ * first point at or after the hash of the {@code _id}.<p/>
+ *
+ * Adding a shard with {@link #withShard(int)} only moves the {@code _id}s which now
+ * hash to one of the new shard's points, i.e. about {@code 1/N} of the documents
+ * for {@code N} shards, all of them to the new shard. More virtual nodes spread the
+ * documents more evenly at the cost of a larger ring; with the default of
+ * {@value #DEFAULT_VIRTUAL_NODES}, the shard sizes typically stay within 10% of the mean.
+ */
+@API.Public
+@API.Evolving
+@API.Immutable
+public final class ConsistentHashShardMap implements ShardMap {
+
+  public static final int DEFAULT_VIRTUAL_NODES = 256;
+
+  private static final HashFunction HASH = Hashing.murmur3_128();
+
+  private final int virtualNodes;
+  private final BitSet shards;
+  // the ring, as parallel arrays sorted by point
+  private final long[] points;
+  private final int[] owners;
+
+  /**
+   * Creates a ring of shards {@code 0} to {@code shardCount - 1}, each with
+   * {@link #DEFAULT_VIRTUAL_NODES} virtual nodes.
+   */
+  public ConsistentHashShardMap(final int shardCount) {
+    this(shardCount, DEFAULT_VIRTUAL_NODES);
+  }
+
+  /**
+   * Creates a ring of shards {@code 0} to {@code shardCount - 1}.
+   *
+   * @param shardCount the number of shards
+   * @param virtualNodes the number of points of each shard on the ring
+   */
+  public ConsistentHashShardMap(final int shardCount, final int virtualNodes) {
+    Preconditions.checkArgument(shardCount > 0, "shardCount must be positive, found %s", shardCount);
+    Preconditions.checkArgument(virtualNodes > 0, "virtualNodes must be positive, found %s", virtualNodes);
+    this.virtualNodes = virtualNodes;
+    this.shards = new BitSet();
+    this.shards.set(0, shardCount);
+    this.points = new long[shardCount * virtualNodes];
+    this.owners = new int[points.length];
+    build(points, owners, shards, virtualNodes);
+  }
+
+  private ConsistentHashShardMap(final BitSet shards, final int virtualNodes) {
+    this.virtualNodes = virtualNodes;
+    this.shards = shards;
+    this.points = new long[shards.cardinality() * virtualNodes];
+    this.owners = new int[points.length];
+    build(points, owners, shards, virtualNodes);
+  }
+
+  /**
+   * Returns a new {@code ConsistentHashShardMap} which also includes the specified
+   * shard, typically the index returned by {@link ShardedDocumentStore#addShard}.
+   */
+  public ConsistentHashShardMap withShard(final int shard) {
+    Preconditions.checkArgument(shard >= 0, "shard must not be negative, found %s", shard);
+    Preconditions.checkArgument(!shards.get(shard), "Shard %s is already on the ring", shard);
+    final BitSet newShards = (BitSet) shards.clone();
+    newShards.set(shard);
+    return new ConsistentHashShardMap(newShards, virtualNodes);
+  }
+
+  /**
+   * Returns a new {@code ConsistentHashShardMap} without the specified shard; the
+   * {@code _id}s it owned are spread over the remaining shards.
+   */
+  public ConsistentHashShardMap withoutShard(final int shard) {
+    Preconditions.checkArgument(shards.get(shard), "Shard %s is not on the ring", shard);
+    Preconditions.checkArgument(shards.cardinality() > 1, "Cannot remove the last shard");
+    final BitSet newShards = (BitSet) shards.clone();
+    newShards.clear(shard);
+    return new ConsistentHashShardMap(newShards, virtualNodes);
+  }
+
+  @Override
+  public int getShard(final Value _id) {
+    final long hash = hash(_id);
+    int index = Arrays.binarySearch(points, hash);
+    if (index < 0) {
+      index = -index - 1;
+    }
+    return owners[index == points.length ? 0 : index];
+  }
+
+  @Override
+  public String toString() {
+    return "ConsistentHashShardMap{shards=" + shards + ", virtualNodes=" + virtualNodes + "}";
+  }
+
+  private static void build(final long[] points, final int[] owners, final BitSet shards,
+      final int virtualNodes) {
+    final long[][] ring = new long[points.length][];
+    int i = 0;
+    for (int shard = shards.nextSetBit(0); shard >= 0; shard = shards.nextSetBit(shard + 1)) {
+      for (int node = 0; node < virtualNodes; node++) {
+        ring[i++] = new long[] {HASH.newHasher().putInt(shard).putInt(node).hash().asLong(), shard};
+      }
+    }
+    // ties are broken by the shard index, so that the ring does not depend on insertion order
+    Arrays.sort(ring, (a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+    for (i = 0; i < ring.length; i++) {
+      points[i] = ring[i][0];
+      owners[i] = (int) ring[i][1];
+    }
+  }
+
+  /**
+   * Hashes an {@code _id} such that equal {@code _id}s of the same type, and equal
+   * integral {@code _id}s of any type, have the same hash.
+   */
+  static long hash(final Value _id) {
+    switch (_id.getType()) {
+    case BYTE:
+    case SHORT:
+    case INT:
+    case LONG:
+      return HASH.newHasher().putByte(Type.LONG.getCode()).putLong(_id.getLong()).hash().asLong();
+    default:
+      break;
+    }
+    final Hasher hasher = HASH.newHasher().putByte(_id.getType().getCode());
+    switch (_id.getType()) {
+    case STRING:
+      hasher.putString(_id.getString(), StandardCharsets.UTF_8);
+      break;
+    case BINARY:
+      hasher.putBytes(_id.getBinary().duplicate());
+      break;
+    default:
+      hasher.putString(Values.asJsonString(_id), StandardCharsets.UTF_8);
+    }
+    return hasher.hash().asLong();
+  }
+
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.store.sharding;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.ojai.Value;
+import org.ojai.annotation.API;
+import org.ojai.annotation.API.NonNullable;
+import org.ojai.util.KeyRange;
+import org.ojai.util.Values;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A {@link ShardMap} which assigns contiguous ranges of {@code _id}s to shards, in
+ * the order of {@link Values#compare(Value, Value)}.<p/>
+ *
+ * The map starts with a single shard owning every {@code _id}, and each call to
+ * {@link #withRange(Value, int)} splits off the range starting at a lower bound, e.g.
+ * with the string values {@code g} and {@code p}:
+ * <pre>
+ *   ShardMap map = new RangeShardMap(0)                    // [-inf, "g") -> 0
+ *       .withRange(JsonValueBuilder.initFrom("g"), 1)      // ["g", "p")  -> 1
+ *       .withRange(JsonValueBuilder.initFrom("p"), 2);     // ["p", +inf) -> 2
+ * </pre>
+ * Unlike hashing, a range map keeps neighbouring {@code _id}s together, so that a
+ * scan of an {@code _id} range touches few shards, but it must be split by hand to
+ * avoid hot spots with monotonically increasing {@code _id}s.
+ */
+@API.Public
+@API.Evolving
+@API.Immutable
+public final class RangeShardMap implements ShardMap {
+
+  private final int firstShard;
+  private final TreeMap<Value, Integer> ranges;
+
+  /**
+   * @param firstShard the shard owning the {@code _id}s below the lowest bound
+   */
+  public RangeShardMap(final int firstShard) {
+    this(firstShard, new TreeMap<Value, Integer>(Values::compare));
+  }
+
+  private RangeShardMap(final int firstShard, final TreeMap<Value, Integer> ranges) {
+    Preconditions.checkArgument(firstShard >= 0, "shard must not be negative, found %s", firstShard);
+    this.firstShard = firstShard;
+    this.ranges = ranges;
+  }
+
+  /**
+   * Returns a new {@code RangeShardMap} in which the specified shard owns the
+   * {@code _id}s from {@code lowerBound}, inclusive, up to the next higher bound.
+   */
+  public RangeShardMap withRange(@NonNullable final Value lowerBound, final int shard) {
+    Preconditions.checkNotNull(lowerBound);
+    Preconditions.checkArgument(shard >= 0, "shard must not be negative, found %s", shard);
+    final TreeMap<Value, Integer> newRanges = new TreeMap<>(ranges);
+    newRanges.put(lowerBound, shard);
+    return new RangeShardMap(firstShard, newRanges);
+  }
+
+  @Override
+  public int getShard(final Value _id) {
+    final Map.Entry<Value, Integer> range = ranges.floorEntry(_id);
+    return range == null ? firstShard : range.getValue();
+  }
+
+  @Override
+  public BitSet getShards(@NonNullable final List<KeyRange> idRanges, final int shardCount) {
+    final BitSet shards = new BitSet(shardCount);
+    for (KeyRange range : idRanges) {
+      final Value lower = range.getLower();
+      final Value upper = range.getUpper();
+      shards.set(lower == null ? firstShard : getShard(lower));
+      // every range of the map which starts within the _id range
+      final SortedMap<Value, Integer> starts;
+      if (lower == null && upper == null) {
+        starts = ranges;
+      } else if (lower == null) {
+        starts = ranges.headMap(upper, range.isUpperInclusive());
+      } else if (upper == null) {
+        starts = ranges.tailMap(lower, false);
+      } else if (Values.compare(lower, upper) >= 0) {
+        continue;
+      } else {
+        starts = ranges.subMap(lower, false, upper, range.isUpperInclusive());
+      }
+      for (int shard : starts.values()) {
+        shards.set(shard);
+      }
+    }
+    return shards;
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder sb = new StringBuilder("RangeShardMap{").append(firstShard);
+    for (Map.Entry<Value, Integer> range : ranges.entrySet()) {
+      sb.append(", ").append(Values.asJsonString(range.getKey())).append("->").append(range.getValue());
+    }
+    return sb.append('}').toString();
+  }
+
+}
@@ -0,0 +1,66 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.store.sharding;
+
+import java.util.BitSet;
+import java.util.List;
+
+import org.ojai.Value;
+import org.ojai.annotation.API;
+import org.ojai.annotation.API.NonNullable;
+import org.ojai.util.ConditionRanges;
+import org.ojai.util.KeyRange;
+
+/**
+ * Maps a document {@code _id} to the index of the shard which owns it.<p/>
+ *
+ * Implementations must be immutable and deterministic: the same {@code _id} is always
+ * mapped to the same shard by the same {@code ShardMap}. A layout change is made by
+ * installing a new {@code ShardMap} in the {@link ShardedDocumentStore}.
+ */
+@API.Public
+@API.Evolving
+@API.ThreadSafe
+public interface ShardMap {
+
+  /**
+   * @return the index of the shard which owns the specified {@code _id}
+   */
+  int getShard(@NonNullable Value _id);
+
+  /**
+   * Returns the shards which may own an {@code _id} in one of the specified ranges, e.g.
+   * the ranges of {@code _id} extracted from a query condition by {@link ConditionRanges}.
+   * The default implementation routes the ranges of a single {@code _id}, and returns
+   * every shard if any range contains more.
+   *
+   * @param ranges the ranges of {@code _id}
+   * @param shardCount the number of shards
+   * @return the indexes of the shards
+   */
+  default BitSet getShards(@NonNullable List<KeyRange> ranges, int shardCount) {
+    final BitSet shards = new BitSet(shardCount);
+    for (KeyRange range : ranges) {
+      if (!range.isSingleton()) {
+        shards.set(0, shardCount);
+        break;
+      }
+      shards.set(getShard(range.getLower()));
+    }
+    return shards;
+  }
+
+}
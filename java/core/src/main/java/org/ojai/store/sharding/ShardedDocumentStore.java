@@ -0,0 +1,988 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.store.sharding;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+
+import org.ojai.Document;
+import org.ojai.DocumentConstants;
+import org.ojai.DocumentStream;
+import org.ojai.FieldPath;
+import org.ojai.Value;
+import org.ojai.annotation.API;
+import org.ojai.annotation.API.NonNullable;
+import org.ojai.base.QueryResultBase;
+import org.ojai.exceptions.OjaiException;
+import org.ojai.json.Json;
+import org.ojai.json.JsonOptions;
+import org.ojai.json.impl.JsonValueBuilder;
+import org.ojai.store.DocumentMutation;
+import org.ojai.store.DocumentStore;
+import org.ojai.store.Driver;
+import org.ojai.store.Query;
+import org.ojai.store.QueryCondition;
+import org.ojai.store.QueryResult;
+import org.ojai.store.SortOrder;
+import org.ojai.store.exceptions.DocumentExistsException;
+import org.ojai.store.exceptions.FailedOp;
+import org.ojai.store.exceptions.MultiOpException;
+import org.ojai.store.exceptions.StoreException;
+import org.ojai.util.ConditionRanges;
+import org.ojai.util.DocumentStreams;
+import org.ojai.util.KeyRange;
+import org.ojai.util.SortKey;
+import org.ojai.util.Values;
+import org.ojai.util.impl.DaemonThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
+
+/**
+ * A {@link DocumentStore} which spreads one logical table over several backing
+ * stores, or shards, by {@code _id}.<p/>
+ *
+ * Every operation on a single {@code _id} is routed to the shard chosen by the
+ * {@link ShardMap}, e.g. a {@link ConsistentHashShardMap} or a {@link RangeShardMap}.
+ * Bulk operations on a {@link DocumentStream} route each document separately and
+ * report the documents which failed in a {@link MultiOpException}.<p/>
+ *
+ * A query is sent in parallel to every shard which may own an {@code _id} in the ranges
+ * of {@code _id} of its condition, as extracted by {@link ConditionRanges}, and the
+ * shard results are merged lazily with {@link DocumentStreams#merge}: in the query's {@code orderBy} order if
+ * it has one, or shard by shard otherwise. The offset and limit are applied to the merged result, so each shard
+ * is asked for at most {@code offset + limit} documents. If the projection does not
+ * include the sort fields, they are added to the shard queries and removed from the
+ * returned documents. Query options and timeouts which are not part of the JSON form
+ * of the {@link Query} are not propagated to the shards.<p/>
+ *
+ * Shards are added with {@link #addShard(DocumentStore)} and the layout is changed
+ * with {@link #updateShardMap(ShardMap)}, after which {@link #rebalance()} moves the
+ * documents which are on the wrong shard. Until the rebalance completes, a lookup
+ * which misses on the new owner of an {@code _id} falls back to its previous owner,
+ * and a write first moves the document to its new owner, but a query may return a
+ * document which is being moved twice. None of these operations is atomic across
+ * shards, and concurrent writers of a document which is being moved may race.<p/>
+ *
+ * Tracking writes is not supported, since a writes context can not span stores.
+ */
+@API.Public
+@API.Evolving
+@API.ThreadSafe
+@SuppressWarnings("deprecation")
+public class ShardedDocumentStore implements DocumentStore {
+
+  private static final Logger logger = LoggerFactory.getLogger(ShardedDocumentStore.class);
+
+  private final Driver driver;
+  private final Executor executor;
+  private final Object layoutLock = new Object();
+  private final Object rebalanceLock = new Object();
+  private volatile Layout layout;
+
+  /**
+   * Creates a {@code ShardedDocumentStore} which queries the shards from a shared
+   * pool of daemon threads.
+   *
+   * @param shards the backing stores; shard {@code i} is {@code shards.get(i)}
+   * @param shardMap the {@link ShardMap} to route the {@code _id}s with
+   * @param driver the {@link Driver} used to create the shard queries
+   */
+  public ShardedDocumentStore(@NonNullable final List<? extends DocumentStore> shards,
+      @NonNullable final ShardMap shardMap, @NonNullable final Driver driver) {
+    this(shards, shardMap, driver, DefaultExecutorHolder.EXECUTOR);
+  }
+
+  /**
+   * @param shards the backing stores; shard {@code i} is {@code shards.get(i)}
+   * @param shardMap the {@link ShardMap} to route the {@code _id}s with
+   * @param driver the {@link Driver} used to create the shard queries
+   * @param executor the {@link Executor} to query the shards on
+   */
+  public ShardedDocumentStore(@NonNullable final List<? extends DocumentStore> shards,
+      @NonNullable final ShardMap shardMap, @NonNullable final Driver driver,
+      @NonNullable final Executor executor) {
+    Preconditions.checkArgument(!shards.isEmpty(), "At least one shard is required");
+    this.driver = Preconditions.checkNotNull(driver);
+    this.executor = Preconditions.checkNotNull(executor);
+    this.layout = new Layout(ImmutableList.copyOf(shards), Preconditions.checkNotNull(shardMap), null);
+  }
+
+  /**
+   * @return the number of shards
+   */
+  public int getShardCount() {
+    return layout.shards.size();
+  }
+
+  /**
+   * @return the shard at the specified index
+   */
+  public DocumentStore getShard(final int index) {
+    return layout.shards.get(index);
+  }
+
+  /**
+   * @return the current {@link ShardMap}
+   */
+  public ShardMap getShardMap() {
+    return layout.map;
+  }
+
+  /**
+   * @return the index of the shard which owns the specified {@code _id}
+   */
+  public int getShardIndex(@NonNullable final Value _id) {
+    final Layout l = layout;
+    return l.indexOf(l.map, _id);
+  }
+
+  /**
+   * @return {@code true} if the shard map was updated and {@link #rebalance()} has not
+   *         completed since
+   */
+  public boolean isRebalancePending() {
+    return layout.previousMap != null;
+  }
+
+  /**
+   * Adds a shard. No {@code _id} is routed to the new shard until a {@link ShardMap}
+   * which includes it is installed with {@link #updateShardMap(ShardMap)}.
+   *
+   * @return the index of the new shard
+   */
+  public int addShard(@NonNullable final DocumentStore shard) {
+    Preconditions.checkNotNull(shard);
+    synchronized (layoutLock) {
+      final Layout l = layout;
+      layout = new Layout(ImmutableList.<DocumentStore>builder().addAll(l.shards).add(shard).build(),
+          l.map, l.previousMap);
+      return l.shards.size();
+    }
+  }
+
+  /**
+   * Routes the {@code _id}s with the specified {@link ShardMap} from now on. The
+   * documents placed with the previous map are moved by {@link #rebalance()}, or
+   * individually when they are next written.
+   *
+   * @throws IllegalStateException if the previous update has not been rebalanced yet
+   */
+  public void updateShardMap(@NonNullable final ShardMap shardMap) {
+    Preconditions.checkNotNull(shardMap);
+    synchronized (layoutLock) {
+      final Layout l = layout;
+      Preconditions.checkState(l.previousMap == null,
+          "The previous shard map update must be rebalanced before the next one");
+      layout = new Layout(l.shards, shardMap, l.map);
+    }
+  }
+
+  /**
+   * Moves every document which is not on the shard its {@code _id} is mapped to by the
+   * current {@link ShardMap}. Each shard is scanned once; a document is first inserted
+   * in its new shard, unless a newer version was already written there, and then
+   * deleted from the old one.
+   *
+   * @return the number of documents moved
+   */
+  public long rebalance() throws StoreException {
+    synchronized (rebalanceLock) {
+      final Layout l = layout;
+      long moved = 0;
+      for (int i = 0; i < l.shards.size(); i++) {
+        final DocumentStore shard = l.shards.get(i);
+        final List<Value> misplaced = new ArrayList<>();
+        try (DocumentStream documents = shard.find()) {
+          for (Document doc : documents) {
+            final Value _id = doc.getId();
+            final int owner = l.indexOf(l.map, _id);
+            if (owner != i) {
+              copy(_id, doc, l.shards.get(owner));
+              misplaced.add(_id);
+            }
+          }
+        }
+        for (Value _id : misplaced) {
+          shard.delete(_id);
+        }
+        moved += misplaced.size();
+        logger.debug("Moved {} documents off shard {}", misplaced.size(), i);
+      }
+      synchronized (layoutLock) {
+        if (layout.map == l.map) {
+          layout = new Layout(layout.shards, l.map, null);
+        }
+      }
+      logger.info("Rebalanced {} shards, {} documents moved", l.shards.size(), moved);
+      return moved;
+    }
+  }
+
+  private static void copy(final Value _id, final Document doc, final DocumentStore owner) {
+    try {
+      owner.insert(_id, doc);
+    } catch (DocumentExistsException e) {
+      // the document was written since the shard map was updated, the owner's copy is newer
+    }
+  }
+
+  /*
+   * Routing
+   */
+
+  private static final class Layout {
+    final List<DocumentStore> shards;
+    final ShardMap map;
+    final ShardMap previousMap;
+
+    Layout(final List<DocumentStore> shards, final ShardMap map, final ShardMap previousMap) {
+      this.shards = shards;
+      this.map = map;
+      this.previousMap = previousMap;
+    }
+
+    int indexOf(final ShardMap shardMap, final Value _id) {
+      final int index = shardMap.getShard(_id);
+      if (index < 0 || index >= shards.size()) {
+        throw new StoreException("The shard map routes " + Values.asJsonString(_id)
+            + " to shard " + index + " but there are " + shards.size() + " shards");
+      }
+      return index;
+    }
+  }
+
+  private interface Lookup {
+    Document find(DocumentStore shard);
+  }
+
+  private Document read(final Value _id, final Lookup lookup) {
+    Preconditions.checkNotNull(_id);
+    final Layout l = layout;
+    final int owner = l.indexOf(l.map, _id);
+    Document doc = lookup.find(l.shards.get(owner));
+    if (doc == null && l.previousMap != null) {
+      final int previous = l.indexOf(l.previousMap, _id);
+      if (previous != owner) {
+        doc = lookup.find(l.shards.get(previous));
+      }
+    }
+    return doc;
+  }
+
+  /**
+   * Returns the shard to write the specified {@code _id} to, after moving the document
+   * from its previous owner if a rebalance is pending.
+   */
+  private DocumentStore writeShard(final Value _id) {
+    Preconditions.checkNotNull(_id);
+    final Layout l = layout;
+    final DocumentStore owner = l.shards.get(l.indexOf(l.map, _id));
+    if (l.previousMap != null) {
+      final DocumentStore previous = l.shards.get(l.indexOf(l.previousMap, _id));
+      if (previous != owner) {
+        final Document doc = previous.findById(_id);
+        if (doc != null) {
+          copy(_id, doc, owner);
+          previous.delete(_id);
+        }
+      }
+    }
+    return owner;
+  }
+
+  private static Value id(final String _id) {
+    return JsonValueBuilder.initFrom(_id);
+  }
+
+  private static Value idOf(final Document doc) {
+    return idOf(doc.getId(), DocumentConstants.ID_KEY);
+  }
+
+  private static Value idOf(final Document doc, final FieldPath fieldAsKey) {
+    return idOf(doc.getValue(fieldAsKey), fieldAsKey.asPathString());
+  }
+
+  private static Value idOf(final Document doc, final String fieldAsKey) {
+    return idOf(doc.getValue(fieldAsKey), fieldAsKey);
+  }
+
+  private static Value idOf(final Value _id, final String field) {
+    if (_id == null) {
+      throw new StoreException("The document has no '" + field + "' field to route it by");
+    }
+    return _id;
+  }
+
+  private interface DocumentOp {
+    void apply(Document doc);
+  }
+
+  private static void forEach(final DocumentStream rs, final DocumentOp op) throws MultiOpException {
+    final List<FailedOp> failed = new ArrayList<>();
+    for (Document doc : rs) {
+      try {
+        op.apply(doc);
+      } catch (OjaiException e) {
+        failed.add(new FailedOp(doc, e));
+      }
+    }
+    if (!failed.isEmpty()) {
+      throw new MultiOpException(failed);
+    }
+  }
+
+  /*
+   * Queries
+   */
+
+  @Override
+  public QueryResult find(@NonNullable final Query query) throws StoreException {
+    final Layout l = layout;
+    final ScatterPlan plan = new ScatterPlan(query);
+    final List<DocumentStore> shards = new ArrayList<>();
+    if (plan.idRanges == null || l.previousMap != null) {
+      shards.addAll(l.shards);
+    } else {
+      final BitSet targets = l.map.getShards(plan.idRanges, l.shards.size());
+      for (int i = targets.nextSetBit(0); i >= 0; i = targets.nextSetBit(i + 1)) {
+        shards.add(l.shards.get(i));
+      }
+    }
+    final List<CompletableFuture<QueryResult>> futures = new ArrayList<>(shards.size());
+    for (DocumentStore shard : shards) {
+      futures.add(shards.size() == 1
+          ? CompletableFuture.completedFuture(shard.find(driver.newQuery(plan.shardQuery).build()))
+          : CompletableFuture.supplyAsync(() -> shard.find(driver.newQuery(plan.shardQuery).build()), executor));
+    }
+
+    final List<QueryResult> results = new ArrayList<>(shards.size());
+    RuntimeException failure = null;
+    for (CompletableFuture<QueryResult> future : futures) {
+      try {
+        results.add(future.join());
+      } catch (CompletionException e) {
+        if (failure == null) {
+          failure = e.getCause() instanceof RuntimeException
+              ? (RuntimeException) e.getCause() : new StoreException(e.getCause());
+        }
+      }
+    }
+    if (failure != null) {
+      for (QueryResult result : results) {
+        closeQuietly(result);
+      }
+      throw failure;
+    }
+    return new MergedResult(results, plan);
+  }
+
+  private static void closeQuietly(final DocumentStream stream) {
+    try {
+      stream.close();
+    } catch (RuntimeException e) {
+      logger.warn("Failed to close a shard's query result", e);
+    }
+  }
+
+  /**
+   * The merge order, offset, limit and shard query of a sharded query, as parsed from
+   * the JSON form of the {@link Query}.
+   */
+  private static final class ScatterPlan {
+    final List<SortKey> sortKeys = new ArrayList<>();
+    final List<FieldPath> addedFields = new ArrayList<>();
+    final long offset;
+    final long limit;
+    final String shardQuery;
+    // the ranges of _id which may match the condition, or null if it does not constrain _id
+    final List<KeyRange> idRanges;
+
+    @SuppressWarnings("unchecked")
+    ScatterPlan(final Query query) {
+      final Map<String, Object> q = Json.newDocument(query.asJsonString()).asMap();
+
+      final Object where = q.get(Query.WHERE);
+      List<KeyRange> ranges = null;
+      if (where instanceof Map) {
+        final ConditionRanges conditionRanges = ConditionRanges.analyze(
+            Json.newDocument((Map<String, Object>) where).asJsonString(JsonOptions.WITH_TAGS));
+        final List<KeyRange> id = conditionRanges.getRanges(DocumentConstants.ID_FIELD);
+        ranges = id.equals(Collections.singletonList(KeyRange.all())) ? null : id;
+      }
+      idRanges = ranges;
+
+      final Object orderBy = q.get(Query.ORDERBY);
+      if (orderBy instanceof List) {
+        for (Object order : (List<Object>) orderBy) {
+          parseOrder(order);
+        }
+      } else if (orderBy != null) {
+        parseOrder(orderBy);
+      }
+
+      final Object offsetValue = q.remove(Query.OFFSET);
+      offset = offsetValue == null ? 0 : ((Number) offsetValue).longValue();
+      final Object limitValue = q.get(Query.LIMIT);
+      limit = limitValue == null ? -1 : ((Number) limitValue).longValue();
+      if (limitValue != null) {
+        // each shard may contribute all of the first offset + limit documents
+        q.put(Query.LIMIT, limit > Long.MAX_VALUE - offset ? Long.MAX_VALUE : offset + limit);
+      }
+
+      final Object select = q.get(Query.SELECT);
+      if (select instanceof List && !sortKeys.isEmpty()) {
+        final List<Object> fields = new ArrayList<>((List<Object>) select);
+        for (SortKey sortKey : sortKeys) {
+          if (!isProjected(sortKey.getFieldPath(), fields)) {
+            fields.add(sortKey.getFieldPath().asPathString());
+            addedFields.add(sortKey.getFieldPath());
+          }
+        }
+        q.put(Query.SELECT, fields);
+      }
+      shardQuery = Json.newDocument(q).asJsonString(JsonOptions.WITH_TAGS);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void parseOrder(final Object order) {
+      if (order instanceof String) {
+        sortKeys.add(SortKey.asc((String) order));
+      } else if (order instanceof Map) {
+        for (Map.Entry<String, Object> e : ((Map<String, Object>) order).entrySet()) {
+          sortKeys.add(SortKey.of(e.getKey(),
+              "desc".equalsIgnoreCase(String.valueOf(e.getValue())) ? SortOrder.DESC : SortOrder.ASC));
+        }
+      } else {
+        throw new StoreException("Unrecognized " + Query.ORDERBY + " clause: " + order);
+      }
+    }
+
+    private static boolean isProjected(final FieldPath field, final List<Object> select) {
+      for (Object selected : select) {
+        if (field.isAtOrBelow(FieldPath.parseFrom(String.valueOf(selected)))) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  private static final class MergedResult extends QueryResultBase {
+    private final List<QueryResult> results;
+    private final ScatterPlan plan;
+    private final DocumentStream merged;
+
+    MergedResult(final List<QueryResult> results, final ScatterPlan plan) {
+      this.results = results;
+      this.plan = plan;
+      // without sort keys, the merge returns the shard results one after the other
+      this.merged = DocumentStreams.merge(results, plan.sortKeys, plan.offset, plan.limit);
+    }
+
+    @Override
+    protected Iterator<Document> iteratorDerived() {
+      final Iterator<Document> iterator = merged.iterator();
+      if (plan.addedFields.isEmpty()) {
+        return iterator;
+      }
+      return Iterators.transform(iterator, doc -> {
+        for (FieldPath field : plan.addedFields) {
+          doc.delete(field);
+        }
+        return doc;
+      });
+    }
+
+    @Override
+    protected void closeDerived() {
+      merged.close();
+    }
+
+    @Override
+    public Document getQueryPlan() {
+      final List<Object> plans = new ArrayList<>(results.size());
+      for (QueryResult result : results) {
+        // an empty plan keeps the plans in the order of the shards
+        final Document plan = result.getQueryPlan();
+        plans.add(plan != null ? plan.asMap() : Collections.emptyMap());
+      }
+      return Json.newDocument().set("shards", plans);
+    }
+  }
+
+  @Override
+  public DocumentStream find() throws StoreException {
+    return find(driver.newQuery().build());
+  }
+
+  @Override
+  public DocumentStream find(final String... paths) throws StoreException {
+    return find(driver.newQuery().select(paths).build());
+  }
+
+  @Override
+  public DocumentStream find(final FieldPath... paths) throws StoreException {
+    return find(driver.newQuery().select(paths).build());
+  }
+
+  @Override
+  public DocumentStream find(final QueryCondition c) throws StoreException {
+    return find(driver.newQuery().where(c).build());
+  }
+
+  @Override
+  public DocumentStream find(final QueryCondition c, final String... paths) throws StoreException {
+    return find(driver.newQuery().where(c).select(paths).build());
+  }
+
+  @Override
+  public DocumentStream find(final QueryCondition c, final FieldPath... paths) throws StoreException {
+    return find(driver.newQuery().where(c).select(paths).build());
+  }
+
+  @Override
+  public DocumentStream findQuery(final Query query) throws StoreException {
+    return find(query);
+  }
+
+  @Override
+  public DocumentStream findQuery(final String queryJSON) throws StoreException {
+    return find(driver.newQuery(queryJSON).build());
+  }
+
+  /*
+   * Store-wide operations
+   */
+
+  @Override
+  public boolean isReadOnly() {
+    for (DocumentStore shard : layout.shards) {
+      if (shard.isReadOnly()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public void flush() throws StoreException {
+    for (DocumentStore shard : layout.shards) {
+      shard.flush();
+    }
+  }
+
+  @Override
+  public void close() throws StoreException {
+    StoreException failure = null;
+    for (DocumentStore shard : layout.shards) {
+      try {
+        shard.close();
+      } catch (StoreException e) {
+        if (failure == null) {
+          failure = e;
+        } else {
+          failure.addSuppressed(e);
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  @Override
+  public void beginTrackingWrites() throws StoreException {
+    throw new UnsupportedOperationException("Tracking writes is not supported across shards");
+  }
+
+  @Override
+  public void beginTrackingWrites(final String previousWritesContext) throws StoreException {
+    throw new UnsupportedOperationException("Tracking writes is not supported across shards");
+  }
+
+  @Override
+  public String endTrackingWrites() throws StoreException {
+    throw new UnsupportedOperationException("Tracking writes is not supported across shards");
+  }
+
+  @Override
+  public void clearTrackedWrites() throws StoreException {
+    throw new UnsupportedOperationException("Tracking writes is not supported across shards");
+  }
+
+  /*
+   * Point reads
+   */
+
+  @Override
+  public Document findById(final Value _id) throws StoreException {
+    return read(_id, shard -> shard.findById(_id));
+  }
+
+  @Override
+  public Document findById(final Value _id, final String... fieldPaths) throws StoreException {
+    return read(_id, shard -> shard.findById(_id, fieldPaths));
+  }
+
+  @Override
+  public Document findById(final Value _id, final FieldPath... fieldPaths) throws StoreException {
+    return read(_id, shard -> shard.findById(_id, fieldPaths));
+  }
+
+  @Override
+  public Document findById(final Value _id, final QueryCondition condition) throws StoreException {
+    return read(_id, shard -> shard.findById(_id, condition));
+  }
+
+  @Override
+  public Document findById(final Value _id, final QueryCondition condition, final String... fieldPaths)
+      throws StoreException {
+    return read(_id, shard -> shard.findById(_id, condition, fieldPaths));
+  }
+
+  @Override
+  public Document findById(final Value _id, final QueryCondition condition, final FieldPath... fieldPaths)
+      throws StoreException {
+    return read(_id, shard -> shard.findById(_id, condition, fieldPaths));
+  }
+
+  @Override
+  public Document findById(final String id) throws StoreException {
+    return findById(id(id));
+  }
+
+  @Override
+  public Document findById(final String id, final String... paths) throws StoreException {
+    return findById(id(id), paths);
+  }
+
+  @Override
+  public Document findById(final String id, final FieldPath... paths) throws StoreException {
+    return findById(id(id), paths);
+  }
+
+  @Override
+  public Document findById(final String id, final QueryCondition c) throws StoreException {
+    return findById(id(id), c);
+  }
+
+  @Override
+  public Document findById(final String id, final QueryCondition c, final String... paths) throws StoreException {
+    return findById(id(id), c, paths);
+  }
+
+  @Override
+  public Document findById(final String id, final QueryCondition c, final FieldPath... paths)
+      throws StoreException {
+    return findById(id(id), c, paths);
+  }
+
+  /*
+   * Point writes
+   */
+
+  @Override
+  public void insertOrReplace(final Value _id, final Document doc) throws StoreException {
+    writeShard(_id).insertOrReplace(_id, doc);
+  }
+
+  @Override
+  public void insertOrReplace(final Document r) throws StoreException {
+    writeShard(idOf(r)).insertOrReplace(r);
+  }
+
+  @Override
+  public void insertOrReplace(final String id, final Document r) throws StoreException {
+    insertOrReplace(id(id), r);
+  }
+
+  @Override
+  public void insertOrReplace(final Document r, final FieldPath fieldAsKey) throws StoreException {
+    writeShard(idOf(r, fieldAsKey)).insertOrReplace(r, fieldAsKey);
+  }
+
+  @Override
+  public void insertOrReplace(final Document r, final String fieldAsKey) throws StoreException {
+    writeShard(idOf(r, fieldAsKey)).insertOrReplace(r, fieldAsKey);
+  }
+
+  @Override
+  public void insertOrReplace(final DocumentStream rs) throws MultiOpException {
+    forEach(rs, doc -> insertOrReplace(doc));
+  }
+
+  @Override
+  public void insertOrReplace(final DocumentStream rs, final FieldPath fieldAsKey) throws MultiOpException {
+    forEach(rs, doc -> insertOrReplace(doc, fieldAsKey));
+  }
+
+  @Override
+  public void insertOrReplace(final DocumentStream rs, final String fieldAsKey) throws MultiOpException {
+    forEach(rs, doc -> insertOrReplace(doc, fieldAsKey));
+  }
+
+  @Override
+  public void update(final Value _id, final DocumentMutation mutation) throws StoreException {
+    writeShard(_id).update(_id, mutation);
+  }
+
+  @Override
+  public void update(final String id, final DocumentMutation m) throws StoreException {
+    update(id(id), m);
+  }
+
+  @Override
+  public void delete(final Value _id) throws StoreException {
+    writeShard(_id).delete(_id);
+  }
+
+  @Override
+  public void delete(final String id) throws StoreException {
+    delete(id(id));
+  }
+
+  @Override
+  public void delete(final Document r) throws StoreException {
+    writeShard(idOf(r)).delete(r);
+  }
+
+  @Override
+  public void delete(final Document r, final FieldPath fieldAsKey) throws StoreException {
+    writeShard(idOf(r, fieldAsKey)).delete(r, fieldAsKey);
+  }
+
+  @Override
+  public void delete(final Document r, final String fieldAsKey) throws StoreException {
+    writeShard(idOf(r, fieldAsKey)).delete(r, fieldAsKey);
+  }
+
+  @Override
+  public void delete(final DocumentStream rs) throws MultiOpException {
+    forEach(rs, doc -> delete(doc));
+  }
+
+  @Override
+  public void delete(final DocumentStream rs, final FieldPath fieldAsKey) throws MultiOpException {
+    forEach(rs, doc -> delete(doc, fieldAsKey));
+  }
+
+  @Override
+  public void delete(final DocumentStream rs, final String fieldAsKey) throws MultiOpException {
+    forEach(rs, doc -> delete(doc, fieldAsKey));
+  }
+
+  @Override
+  public void insert(final Value _id, final Document doc) throws StoreException {
+    writeShard(_id).insert(_id, doc);
+  }
+
+  @Override
+  public void insert(final String id, final Document r) throws StoreException {
+    insert(id(id), r);
+  }
+
+  @Override
+  public void insert(final Document r) throws StoreException {
+    writeShard(idOf(r)).insert(r);
+  }
+
+  @Override
+  public void insert(final Document r, final FieldPath fieldAsKey) throws StoreException {
+    writeShard(idOf(r, fieldAsKey)).insert(r, fieldAsKey);
+  }
+
+  @Override
+  public void insert(final Document r, final String fieldAsKey) throws StoreException {
+    writeShard(idOf(r, fieldAsKey)).insert(r, fieldAsKey);
+  }
+
+  @Override
+  public void insert(final DocumentStream rs) throws MultiOpException {
+    forEach(rs, doc -> insert(doc));
+  }
+
+  @Override
+  public void insert(final DocumentStream rs, final FieldPath fieldAsKey) throws MultiOpException {
+    forEach(rs, doc -> insert(doc, fieldAsKey));
+  }
+
+  @Override
+  public void insert(final DocumentStream rs, final String fieldAsKey) throws MultiOpException {
+    forEach(rs, doc -> insert(doc, fieldAsKey));
+  }
+
+  @Override
+  public void replace(final Value _id, final Document doc) throws StoreException {
+    writeShard(_id).replace(_id, doc);
+  }
+
+  @Override
+  public void replace(final String id, final Document r) throws StoreException {
+    replace(id(id), r);
+  }
+
+  @Override
+  public void replace(final Document r) throws StoreException {
+    writeShard(idOf(r)).replace(r);
+  }
+
+  @Override
+  public void replace(final Document r, final FieldPath fieldAsKey) throws StoreException {
+    writeShard(idOf(r, fieldAsKey)).replace(r, fieldAsKey);
+  }
+
+  @Override
+  public void replace(final Document r, final String fieldAsKey) throws StoreException {
+    writeShard(idOf(r, fieldAsKey)).replace(r, fieldAsKey);
+  }
+
+  @Override
+  public void replace(final DocumentStream rs) throws MultiOpException {
+    forEach(rs, doc -> replace(doc));
+  }
+
+  @Override
+  public void replace(final DocumentStream rs, final FieldPath fieldAsKey) throws MultiOpException {
+    forEach(rs, doc -> replace(doc, fieldAsKey));
+  }
+
+  @Override
+  public void replace(final DocumentStream rs, final String fieldAsKey) throws MultiOpException {
+    forEach(rs, doc -> replace(doc, fieldAsKey));
+  }
+
+  @Override
+  public void increment(final Value _id, final String field, final byte inc) throws StoreException {
+    writeShard(_id).increment(_id, field, inc);
+  }
+
+  @Override
+  public void increment(final Value _id, final String field, final short inc) throws StoreException {
+    writeShard(_id).increment(_id, field, inc);
+  }
+
+  @Override
+  public void increment(final Value _id, final String field, final int inc) throws StoreException {
+    writeShard(_id).increment(_id, field, inc);
+  }
+
+  @Override
+  public void increment(final Value _id, final String field, final long inc) throws StoreException {
+    writeShard(_id).increment(_id, field, inc);
+  }
+
+  @Override
+  public void increment(final Value _id, final String field, final float inc) throws StoreException {
+    writeShard(_id).increment(_id, field, inc);
+  }
+
+  @Override
+  public void increment(final Value _id, final String field, final double inc) throws StoreException {
+    writeShard(_id).increment(_id, field, inc);
+  }
+
+  @Override
+  public void increment(final Value _id, final String field, final BigDecimal inc) throws StoreException {
+    writeShard(_id).increment(_id, field, inc);
+  }
+
+  @Override
+  public void increment(final String id, final String field, final byte inc) throws StoreException {
+    increment(id(id), field, inc);
+  }
+
+  @Override
+  public void increment(final String id, final String field, final short inc) throws StoreException {
+    increment(id(id), field, inc);
+  }
+
+  @Override
+  public void increment(final String id, final String field, final int inc) throws StoreException {
+    increment(id(id), field, inc);
+  }
+
+  @Override
+  public void increment(final String id, final String field, final long inc) throws StoreException {
+    increment(id(id), field, inc);
+  }
+
+  @Override
+  public void increment(final String id, final String field, final float inc) throws StoreException {
+    increment(id(id), field, inc);
+  }
+
+  @Override
+  public void increment(final String id, final String field, final double inc) throws StoreException {
+    increment(id(id), field, inc);
+  }
+
+  @Override
+  public void increment(final String id, final String field, final BigDecimal inc) throws StoreException {
+    increment(id(id), field, inc);
+  }
+
+  @Override
+  public boolean checkAndMutate(final Value _id, final QueryCondition condition, final DocumentMutation mutation)
+      throws StoreException {
+    return writeShard(_id).checkAndMutate(_id, condition, mutation);
+  }
+
+  @Override
+  public boolean checkAndMutate(final String id, final QueryCondition condition, final DocumentMutation m)
+      throws StoreException {
+    return checkAndMutate(id(id), condition, m);
+  }
+
+  @Override
+  public boolean checkAndDelete(final Value _id, final QueryCondition condition) throws StoreException {
+    return writeShard(_id).checkAndDelete(_id, condition);
+  }
+
+  @Override
+  public boolean checkAndDelete(final String id, final QueryCondition condition) throws StoreException {
+    return checkAndDelete(id(id), condition);
+  }
+
+  @Override
+  public boolean checkAndReplace(final Value _id, final QueryCondition condition, final Document doc)
+      throws StoreException {
+    return writeShard(_id).checkAndReplace(_id, condition, doc);
+  }
+
+  @Override
+  public boolean checkAndReplace(final String id, final QueryCondition condition, final Document r)
+      throws StoreException {
+    return checkAndReplace(id(id), condition, r);
+  }
+
+  private static final class DefaultExecutorHolder {
+    static final ExecutorService EXECUTOR = DaemonThreadFactory.newCachedThreadPool("ojai-shard-query");
+  }
+
+}
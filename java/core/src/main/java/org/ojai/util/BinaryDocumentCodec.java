@@ -0,0 +1,337 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ojai.Document;
+import org.ojai.DocumentReader;
+import org.ojai.DocumentReader.EventType;
+import org.ojai.Value;
+import org.ojai.annotation.API;
+import org.ojai.annotation.API.NonNullable;
+import org.ojai.exceptions.DecodingException;
+import org.ojai.exceptions.EncodingException;
+import org.ojai.json.Json;
+import org.ojai.json.impl.JsonValueBuilder;
+import org.ojai.types.ODate;
+import org.ojai.types.OInterval;
+import org.ojai.types.OTime;
+import org.ojai.types.OTimestamp;
+
+/**
+ * A compact, self-describing binary encoding of {@link Document}s and {@link Value}s,
+ * for temporary storage such as the runs spilled by {@link DocumentSorter}.<p/>
+ *
+ * Each value is written as its one-byte {@link Value.Type} code followed by its
+ * payload. Integral numbers, dates and lengths are written as zig-zag varints, so that
+ * small values take one or two bytes, and maps and arrays are written as their
+ * elements followed by an end marker, so that a document can be encoded in a single
+ * pass over its {@link DocumentReader}. Map entries carry their field name between the
+ * type code and the payload. The format is not versioned and must not be used for
+ * durable storage.
+ */
+@API.Public
+@API.Evolving
+public final class BinaryDocumentCodec {
+
+  private static final int END = 0;
+
+  private BinaryDocumentCodec() {}
+
+  /**
+   * Writes the specified document to a {@link DataOutput}.
+   */
+  public static void write(@NonNullable final Document document, @NonNullable final DataOutput out)
+      throws IOException {
+    final DocumentReader reader = document.asReader();
+    write(reader, reader.next(), null, out);
+  }
+
+  /**
+   * Writes the specified value to a {@link DataOutput}.
+   */
+  public static void writeValue(@NonNullable final Value value, @NonNullable final DataOutput out)
+      throws IOException {
+    final DocumentReader reader = value.asReader();
+    write(reader, reader.next(), null, out);
+  }
+
+  /**
+   * Reads a document written by {@link #write(Document, DataOutput)}.
+   *
+   * @throws DecodingException if the next value is not a document
+   */
+  @SuppressWarnings("unchecked")
+  public static Document read(@NonNullable final DataInput in) throws IOException {
+    final int tag = in.readUnsignedByte();
+    if (tag != Value.TYPE_CODE_MAP) {
+      throw new DecodingException("Expected a document, found type code " + tag);
+    }
+    return Json.newDocument((Map<String, Object>) readPayload(tag, in));
+  }
+
+  /**
+   * Reads a value written by {@link #writeValue(Value, DataOutput)}.
+   */
+  public static Value readValue(@NonNullable final DataInput in) throws IOException {
+    return JsonValueBuilder.initFromObject(readPayload(in.readUnsignedByte(), in));
+  }
+
+  /**
+   * @return the encoded form of the specified document
+   */
+  public static byte[] encode(@NonNullable final Document document) {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try {
+      write(document, new DataOutputStream(bytes));
+    } catch (IOException e) {
+      throw new EncodingException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * @return the document encoded in the specified bytes
+   */
+  public static Document decode(@NonNullable final byte[] bytes) {
+    try {
+      return read(new DataInputStream(new ByteArrayInputStream(bytes)));
+    } catch (IOException e) {
+      throw new DecodingException(e);
+    }
+  }
+
+  /*
+   * Encoding
+   */
+
+  private static void write(final DocumentReader reader, final EventType event, final String fieldName,
+      final DataOutput out) throws IOException {
+    final Value.Type type = typeOf(event);
+    out.writeByte(type.getCode());
+    if (fieldName != null) {
+      writeString(fieldName, out);
+    }
+    switch (type) {
+    case NULL:
+      break;
+    case BOOLEAN:
+      out.writeBoolean(reader.getBoolean());
+      break;
+    case STRING:
+      writeString(reader.getString(), out);
+      break;
+    case BYTE:
+      out.writeByte(reader.getByte());
+      break;
+    case SHORT:
+      writeVarLong(reader.getShort(), out);
+      break;
+    case INT:
+      writeVarLong(reader.getInt(), out);
+      break;
+    case LONG:
+      writeVarLong(reader.getLong(), out);
+      break;
+    case FLOAT:
+      out.writeFloat(reader.getFloat());
+      break;
+    case DOUBLE:
+      out.writeDouble(reader.getDouble());
+      break;
+    case DECIMAL:
+      final BigDecimal decimal = reader.getDecimal();
+      writeVarLong(decimal.scale(), out);
+      writeBytes(decimal.unscaledValue().toByteArray(), out);
+      break;
+    case DATE:
+      writeVarLong(reader.getDateInt(), out);
+      break;
+    case TIME:
+      writeVarLong(reader.getTimeInt(), out);
+      break;
+    case TIMESTAMP:
+      writeVarLong(reader.getTimestampLong(), out);
+      break;
+    case INTERVAL:
+      final OInterval interval = reader.getInterval();
+      writeVarLong(interval.getYears(), out);
+      writeVarLong(interval.getMonths(), out);
+      writeVarLong(interval.getDays(), out);
+      writeVarLong(interval.getSeconds(), out);
+      writeVarLong(interval.getMilliseconds(), out);
+      break;
+    case BINARY:
+      final ByteBuffer binary = reader.getBinary().duplicate();
+      final byte[] data = new byte[binary.remaining()];
+      binary.get(data);
+      writeBytes(data, out);
+      break;
+    case MAP:
+      EventType next;
+      while ((next = reader.next()) != EventType.END_MAP) {
+        write(reader, next, reader.getFieldName(), out);
+      }
+      out.writeByte(END);
+      break;
+    case ARRAY:
+      while ((next = reader.next()) != EventType.END_ARRAY) {
+        write(reader, next, null, out);
+      }
+      out.writeByte(END);
+      break;
+    default:
+      throw new EncodingException("Unsupported type " + type);
+    }
+  }
+
+  private static Value.Type typeOf(final EventType event) {
+    switch (event) {
+    case START_MAP:
+      return Value.Type.MAP;
+    case START_ARRAY:
+      return Value.Type.ARRAY;
+    case END_MAP:
+    case END_ARRAY:
+      throw new EncodingException("Unexpected event " + event);
+    default:
+      return Value.Type.valueOf(event.name());
+    }
+  }
+
+  private static void writeString(final String s, final DataOutput out) throws IOException {
+    writeBytes(s.getBytes(StandardCharsets.UTF_8), out);
+  }
+
+  private static void writeBytes(final byte[] bytes, final DataOutput out) throws IOException {
+    writeVarLong(bytes.length, out);
+    out.write(bytes);
+  }
+
+  /**
+   * Writes a zig-zag encoded varint.
+   */
+  static void writeVarLong(final long value, final DataOutput out) throws IOException {
+    long v = (value << 1) ^ (value >> 63);
+    while ((v & ~0x7FL) != 0) {
+      out.writeByte((int) ((v & 0x7F) | 0x80));
+      v >>>= 7;
+    }
+    out.writeByte((int) v);
+  }
+
+  /*
+   * Decoding
+   */
+
+  private static Object readPayload(final int tag, final DataInput in) throws IOException {
+    switch (tag) {
+    case Value.TYPE_CODE_NULL:
+      return null;
+    case Value.TYPE_CODE_BOOLEAN:
+      return in.readBoolean();
+    case Value.TYPE_CODE_STRING:
+      return readString(in);
+    case Value.TYPE_CODE_BYTE:
+      return in.readByte();
+    case Value.TYPE_CODE_SHORT:
+      return (short) readVarLong(in);
+    case Value.TYPE_CODE_INT:
+      return (int) readVarLong(in);
+    case Value.TYPE_CODE_LONG:
+      return readVarLong(in);
+    case Value.TYPE_CODE_FLOAT:
+      return in.readFloat();
+    case Value.TYPE_CODE_DOUBLE:
+      return in.readDouble();
+    case Value.TYPE_CODE_DECIMAL:
+      final int scale = (int) readVarLong(in);
+      return new BigDecimal(new BigInteger(readBytes(in)), scale);
+    case Value.TYPE_CODE_DATE:
+      return ODate.fromDaysSinceEpoch((int) readVarLong(in));
+    case Value.TYPE_CODE_TIME:
+      return OTime.fromMillisOfDay((int) readVarLong(in));
+    case Value.TYPE_CODE_TIMESTAMP:
+      return new OTimestamp(readVarLong(in));
+    case Value.TYPE_CODE_INTERVAL:
+      return new OInterval((int) readVarLong(in), (int) readVarLong(in), (int) readVarLong(in),
+          (int) readVarLong(in), (int) readVarLong(in));
+    case Value.TYPE_CODE_BINARY:
+      return ByteBuffer.wrap(readBytes(in));
+    case Value.TYPE_CODE_MAP:
+      final Map<String, Object> map = new LinkedHashMap<>();
+      int next;
+      while ((next = in.readUnsignedByte()) != END) {
+        final String fieldName = readString(in);
+        map.put(fieldName, readPayload(next, in));
+      }
+      return map;
+    case Value.TYPE_CODE_ARRAY:
+      final List<Object> list = new ArrayList<>();
+      while ((next = in.readUnsignedByte()) != END) {
+        list.add(readPayload(next, in));
+      }
+      return list;
+    default:
+      throw new DecodingException("Unknown type code " + tag);
+    }
+  }
+
+  private static String readString(final DataInput in) throws IOException {
+    return new String(readBytes(in), StandardCharsets.UTF_8);
+  }
+
+  private static byte[] readBytes(final DataInput in) throws IOException {
+    final long length = readVarLong(in);
+    if (length < 0 || length > Integer.MAX_VALUE) {
+      throw new DecodingException("Invalid length " + length);
+    }
+    final byte[] bytes = new byte[(int) length];
+    in.readFully(bytes);
+    return bytes;
+  }
+
+  /**
+   * Reads a zig-zag encoded varint.
+   */
+  static long readVarLong(final DataInput in) throws IOException {
+    long v = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      final int b = in.readUnsignedByte();
+      v |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return (v >>> 1) ^ -(v & 1);
+      }
+    }
+    throw new DecodingException("Malformed varint");
+  }
+
+}
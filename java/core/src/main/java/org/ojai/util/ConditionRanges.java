@@ -0,0 +1,523 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.util;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ojai.Document;
+import org.ojai.FieldPath;
+import org.ojai.Value;
+import org.ojai.Value.Type;
+import org.ojai.annotation.API;
+import org.ojai.annotation.API.NonNullable;
+import org.ojai.json.Json;
+import org.ojai.json.impl.JsonValueBuilder;
+import org.ojai.store.QueryCondition;
+import org.ojai.types.ODate;
+import org.ojai.types.OInterval;
+import org.ojai.types.OTime;
+import org.ojai.types.OTimestamp;
+
+import com.google.common.base.Joiner;
+
+/**
+ * The ranges of values which the fields of a document may take for the document to
+ * match a {@link QueryCondition}, as extracted from the JSON form of the condition,
+ * and the residual predicate which the ranges do not capture.<p/>
+ *
+ * For each field, the ranges are a normalized union of {@link KeyRange}s: a document
+ * whose value of the field is outside all of them can not match the condition, so a
+ * range-partitioned reader or a sharded router can skip the partitions which do not
+ * overlap the ranges of their key field. The ranges are derived from comparisons,
+ * {@code in}, {@code notIn}, {@code between}, {@code exists}, {@code notExists},
+ * {@code typeOf}, and the literal prefixes of {@code like} patterns; they are
+ * intersected across {@code and} blocks and united across {@code or} blocks. A
+ * comparison only matches values of the same type family, e.g. {@code a < 5} matches
+ * numbers, so its range stops at the bounds of that family.<p/>
+ *
+ * The top-level conjuncts of the condition whose ranges are exact are removed from the
+ * {@linkplain #getResidual() residual}, so that the condition is equivalent to the
+ * ranges of all the fields combined with the residual.
+ */
+@API.Public
+@API.Evolving
+@API.Immutable
+public final class ConditionRanges {
+
+  private static final String AND = "$and";
+  private static final String OR = "$or";
+
+  private static final Value NULL = JsonValueBuilder.initFromNull();
+  private static final Value MIN_STRING = JsonValueBuilder.initFrom("");
+  private static final Value MIN_NUMBER = JsonValueBuilder.initFrom(Double.NEGATIVE_INFINITY);
+  private static final Value MAX_NUMBER = JsonValueBuilder.initFrom(Double.POSITIVE_INFINITY);
+
+  private final Map<FieldPath, List<KeyRange>> ranges;
+  private final String residual;
+
+  private ConditionRanges(final Map<FieldPath, List<KeyRange>> ranges, final String residual) {
+    this.ranges = Collections.unmodifiableMap(ranges);
+    this.residual = residual;
+  }
+
+  /**
+   * Analyses a built condition.
+   */
+  public static ConditionRanges analyze(@NonNullable final QueryCondition condition) {
+    return analyze(condition.asJsonString());
+  }
+
+  /**
+   * Analyses the OJAI JSON form of a condition, e.g.
+   * <code>{"$and":[{"$ge":{"_id":"k1"}},{"$lt":{"_id":"k5"}}]}</code>.
+   */
+  public static ConditionRanges analyze(@NonNullable final String conditionJson) {
+    final List<Conjunct> conjuncts = new ArrayList<>();
+    flatten(Json.newDocument(conditionJson), conjuncts);
+
+    final Map<FieldPath, List<KeyRange>> ranges = new LinkedHashMap<>();
+    final List<String> residual = new ArrayList<>();
+    for (Conjunct conjunct : conjuncts) {
+      for (Map.Entry<FieldPath, List<KeyRange>> field : conjunct.constraint.ranges.entrySet()) {
+        ranges.merge(field.getKey(), field.getValue(), KeyRange::intersect);
+      }
+      if (!conjunct.constraint.exact) {
+        residual.add(conjunct.json);
+      }
+    }
+    return new ConditionRanges(ranges, residual.isEmpty() ? null
+        : residual.size() == 1 ? residual.get(0) : "{\"" + AND + "\":[" + Joiner.on(',').join(residual) + "]}");
+  }
+
+  /**
+   * @return the fields constrained by the condition
+   */
+  public Iterable<FieldPath> getFields() {
+    return ranges.keySet();
+  }
+
+  /**
+   * @return the ranges of the specified field, or a list of {@link KeyRange#all()} if
+   *         the condition does not constrain it
+   */
+  public List<KeyRange> getRanges(@NonNullable final FieldPath field) {
+    final List<KeyRange> fieldRanges = ranges.get(field);
+    return fieldRanges != null ? fieldRanges : Collections.singletonList(KeyRange.all());
+  }
+
+  public List<KeyRange> getRanges(@NonNullable final String field) {
+    return getRanges(FieldPath.parseFrom(field));
+  }
+
+  /**
+   * @return {@code true} if the value of the specified field, or {@code null} if it is
+   *         missing, is in one of the ranges of the field
+   */
+  public boolean mayMatch(@NonNullable final FieldPath field, final Value value) {
+    for (KeyRange range : getRanges(field)) {
+      if (range.contains(value)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return {@code true} if no document can match the condition, because the ranges of
+   *         one of its fields are empty
+   */
+  public boolean isUnsatisfiable() {
+    for (List<KeyRange> fieldRanges : ranges.values()) {
+      if (fieldRanges.isEmpty()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return the JSON form of the part of the condition not captured by the ranges, or
+   *         {@code null} if the ranges capture the whole condition
+   */
+  public String getResidual() {
+    return residual;
+  }
+
+  @Override
+  public String toString() {
+    return "ranges=" + ranges + ", residual=" + residual;
+  }
+
+  /*
+   * Analysis
+   */
+
+  /**
+   * The ranges implied by a condition, which are exact if a document matches the
+   * condition if, and only if, its fields are in the ranges.
+   */
+  private static final class Constraint {
+    static final Constraint NONE = new Constraint(Collections.<FieldPath, List<KeyRange>>emptyMap(), false);
+
+    final Map<FieldPath, List<KeyRange>> ranges;
+    final boolean exact;
+
+    Constraint(final Map<FieldPath, List<KeyRange>> ranges, final boolean exact) {
+      this.ranges = ranges;
+      this.exact = exact;
+    }
+
+    static Constraint of(final FieldPath field, final List<KeyRange> ranges, final boolean exact) {
+      return new Constraint(Collections.singletonMap(field, KeyRange.union(ranges)), exact);
+    }
+  }
+
+  private static final class Conjunct {
+    final String json;
+    final Constraint constraint;
+
+    Conjunct(final String json, final Constraint constraint) {
+      this.json = json;
+      this.constraint = constraint;
+    }
+  }
+
+  /**
+   * Splits a condition into its top-level conjuncts, with one field per leaf.
+   */
+  private static void flatten(final Document node, final List<Conjunct> conjuncts) {
+    for (Map.Entry<String, Value> entry : node) {
+      final String tag = entry.getKey();
+      final Value operand = entry.getValue();
+      if (tag.equals(AND)) {
+        for (Value child : elements(operand)) {
+          flatten(asDocument(child), conjuncts);
+        }
+      } else if (operand.getType() == Type.MAP && !tag.equals(OR)) {
+        for (Map.Entry<String, Value> field : asDocument(operand)) {
+          final String json = "{" + quote(tag) + ":{" + quote(field.getKey()) + ":"
+              + Values.asJsonString(field.getValue()) + "}}";
+          conjuncts.add(new Conjunct(json, leaf(tag, FieldPath.parseFrom(field.getKey()), field.getValue())));
+        }
+      } else {
+        conjuncts.add(new Conjunct("{" + quote(tag) + ":" + Values.asJsonString(operand) + "}",
+            analyze(tag, operand)));
+      }
+    }
+  }
+
+  private static Constraint analyze(final Document node) {
+    Constraint result = null;
+    for (Map.Entry<String, Value> entry : node) {
+      final Constraint constraint = analyze(entry.getKey(), entry.getValue());
+      result = result == null ? constraint : and(result, constraint);
+    }
+    return result == null ? new Constraint(Collections.<FieldPath, List<KeyRange>>emptyMap(), true) : result;
+  }
+
+  private static Constraint analyze(final String tag, final Value operand) {
+    switch (tag) {
+    case AND:
+    case OR:
+      Constraint result = null;
+      for (Value child : elements(operand)) {
+        final Constraint constraint = analyze(asDocument(child));
+        result = result == null ? constraint : tag.equals(AND) ? and(result, constraint) : or(result, constraint);
+      }
+      return result == null ? Constraint.NONE : result;
+    case "$exists":
+      return Constraint.of(FieldPath.parseFrom(operand.getString()),
+          Collections.singletonList(KeyRange.of(NULL, true, null, false)), true);
+    case "$notexists":
+      return Constraint.of(FieldPath.parseFrom(operand.getString()),
+          Collections.singletonList(KeyRange.missing()), true);
+    default:
+      if (operand.getType() != Type.MAP) {
+        return Constraint.NONE;
+      }
+      Constraint leaves = null;
+      for (Map.Entry<String, Value> field : asDocument(operand)) {
+        final Constraint constraint = leaf(tag, FieldPath.parseFrom(field.getKey()), field.getValue());
+        leaves = leaves == null ? constraint : and(leaves, constraint);
+      }
+      return leaves == null ? Constraint.NONE : leaves;
+    }
+  }
+
+  private static Constraint and(final Constraint c1, final Constraint c2) {
+    final Map<FieldPath, List<KeyRange>> ranges = new LinkedHashMap<>(c1.ranges);
+    for (Map.Entry<FieldPath, List<KeyRange>> field : c2.ranges.entrySet()) {
+      ranges.merge(field.getKey(), field.getValue(), KeyRange::intersect);
+    }
+    return new Constraint(ranges, c1.exact && c2.exact);
+  }
+
+  private static Constraint or(final Constraint c1, final Constraint c2) {
+    // only the fields constrained by both sides are constrained by their union
+    final Map<FieldPath, List<KeyRange>> ranges = new LinkedHashMap<>();
+    for (Map.Entry<FieldPath, List<KeyRange>> field : c1.ranges.entrySet()) {
+      final List<KeyRange> other = c2.ranges.get(field.getKey());
+      if (other != null) {
+        final List<KeyRange> union = new ArrayList<>(field.getValue());
+        union.addAll(other);
+        ranges.put(field.getKey(), KeyRange.union(union));
+      }
+    }
+    // a union of exact ranges of one and the same field is exact
+    final boolean exact = c1.exact && c2.exact && c1.ranges.size() == 1 && c2.ranges.size() == 1
+        && ranges.size() == 1;
+    return new Constraint(ranges, exact);
+  }
+
+  private static Constraint leaf(final String tag, final FieldPath field, final Value operand) {
+    switch (tag) {
+    case "$eq":
+      return comparable(operand) ? Constraint.of(field, Collections.singletonList(KeyRange.singleton(operand)), true)
+          : Constraint.NONE;
+    case "$ne":
+      return comparable(operand) ? Constraint.of(field, excluding(Collections.singletonList(operand)), true)
+          : Constraint.NONE;
+    case "$lt":
+    case "$le":
+    case "$gt":
+    case "$ge":
+      return comparison(tag, field, operand);
+    case "$between":
+      final List<Value> bounds = elements(operand);
+      if (bounds.size() != 2 || !comparable(bounds.get(0)) || !comparable(bounds.get(1))) {
+        return Constraint.NONE;
+      }
+      return Constraint.of(field, Collections.singletonList(KeyRange.of(bounds.get(0), true, bounds.get(1), true)),
+          sameFamily(bounds.get(0), bounds.get(1)) && exactBounds(bounds.get(0)));
+    case "$in":
+    case "$notin":
+      final List<Value> values = elements(operand);
+      for (Value value : values) {
+        if (!comparable(value)) {
+          return Constraint.NONE;
+        }
+      }
+      if (tag.equals("$notin")) {
+        return Constraint.of(field, excluding(values), true);
+      }
+      final List<KeyRange> singletons = new ArrayList<>(values.size());
+      for (Value value : values) {
+        singletons.add(KeyRange.singleton(value));
+      }
+      return Constraint.of(field, singletons, true);
+    case "$like":
+      return like(field, operand);
+    case "$matches":
+      return Constraint.of(field, Collections.singletonList(family(Type.STRING)), false);
+    case "$typeof":
+      final Type type = Type.valueOf(operand.getString().toUpperCase());
+      final KeyRange range = family(type);
+      return range == null ? Constraint.NONE
+          : Constraint.of(field, Collections.singletonList(range), !type.isNumeric() && exactBounds(type));
+    default:
+      return Constraint.NONE;
+    }
+  }
+
+  private static Constraint comparison(final String tag, final FieldPath field, final Value operand) {
+    final KeyRange family = family(operand.getType());
+    if (family == null || !comparable(operand)) {
+      return Constraint.NONE;
+    }
+    final KeyRange range;
+    switch (tag) {
+    case "$lt":
+      range = KeyRange.of(family.getLower(), family.isLowerInclusive(), operand, false);
+      break;
+    case "$le":
+      range = KeyRange.of(family.getLower(), family.isLowerInclusive(), operand, true);
+      break;
+    case "$gt":
+      range = KeyRange.of(operand, false, family.getUpper(), family.isUpperInclusive());
+      break;
+    default:
+      range = KeyRange.of(operand, true, family.getUpper(), family.isUpperInclusive());
+    }
+    return Constraint.of(field, Collections.singletonList(range), exactBounds(operand));
+  }
+
+  /**
+   * @return the range of a {@code like} pattern's literal prefix, which is exact if the
+   *         pattern is a literal or a literal followed by a single {@code %}
+   */
+  private static Constraint like(final FieldPath field, final Value operand) {
+    final String pattern;
+    final char escape;
+    if (operand.getType() == Type.ARRAY) {
+      final List<Value> args = elements(operand);
+      pattern = args.get(0).getString();
+      final String escapeString = args.size() > 1 && args.get(1).getType() == Type.STRING ? args.get(1).getString() : "";
+      escape = escapeString.isEmpty() ? 0 : escapeString.charAt(0);
+    } else if (operand.getType() == Type.STRING) {
+      pattern = operand.getString();
+      escape = 0;
+    } else {
+      return Constraint.NONE;
+    }
+
+    final StringBuilder prefix = new StringBuilder();
+    int i = 0;
+    while (i < pattern.length()) {
+      final char c = pattern.charAt(i);
+      if (escape != 0 && c == escape && i + 1 < pattern.length()) {
+        prefix.append(pattern.charAt(i + 1));
+        i += 2;
+      } else if (c == '%' || c == '_') {
+        break;
+      } else {
+        prefix.append(c);
+        i++;
+      }
+    }
+    final String literal = prefix.toString();
+    if (i == pattern.length()) {
+      return Constraint.of(field, Collections.singletonList(KeyRange.singleton(JsonValueBuilder.initFrom(literal))),
+          true);
+    }
+    final boolean exact = i == pattern.length() - 1 && pattern.charAt(i) == '%';
+    final KeyRange strings = family(Type.STRING);
+    final String successor = successor(literal);
+    final KeyRange range = KeyRange.of(JsonValueBuilder.initFrom(literal), true,
+        successor == null ? strings.getUpper() : JsonValueBuilder.initFrom(successor), false);
+    return Constraint.of(field, Collections.singletonList(range), exact);
+  }
+
+  /**
+   * @return the smallest string greater than all the strings starting with the
+   *         specified prefix, or {@code null} if there is none
+   */
+  private static String successor(final String prefix) {
+    int end = prefix.length();
+    while (end > 0 && prefix.charAt(end - 1) == Character.MAX_VALUE) {
+      end--;
+    }
+    if (end == 0) {
+      return null;
+    }
+    return prefix.substring(0, end - 1) + (char) (prefix.charAt(end - 1) + 1);
+  }
+
+  /**
+   * @return the ranges of all the values but the specified ones, including the
+   *         missing value
+   */
+  private static List<KeyRange> excluding(final List<Value> values) {
+    final List<Value> sorted = new ArrayList<>(values);
+    sorted.sort(Values::compare);
+    final List<KeyRange> ranges = new ArrayList<>(sorted.size() + 1);
+    Value lower = null;
+    for (Value value : sorted) {
+      ranges.add(KeyRange.of(lower, false, value, false));
+      lower = value;
+    }
+    ranges.add(KeyRange.of(lower, false, null, false));
+    return ranges;
+  }
+
+  /**
+   * @return {@code true} for the scalar values whose order is the order of the
+   *         comparison operators
+   */
+  private static boolean comparable(final Value value) {
+    final Type type = value.getType();
+    return type != Type.MAP && type != Type.ARRAY
+        && !(type.isNumeric() && Double.isNaN(Values.asDouble(value)));
+  }
+
+  private static boolean sameFamily(final Value v1, final Value v2) {
+    return v1.getType() == v2.getType() || (v1.getType().isNumeric() && v2.getType().isNumeric());
+  }
+
+  /**
+   * @return {@code true} if the family of the value has an upper bound, i.e. if the
+   *         ranges of comparisons to it exclude the values of other types
+   */
+  private static boolean exactBounds(final Value value) {
+    return exactBounds(value.getType());
+  }
+
+  private static boolean exactBounds(final Type type) {
+    return family(type) != null && type != Type.BINARY;
+  }
+
+  /**
+   * @return the range of the values of the family of the specified type, as ordered by
+   *         {@link Values#compare}, or {@code null} for maps and arrays
+   */
+  private static KeyRange family(final Type type) {
+    if (type.isNumeric()) {
+      return KeyRange.of(MIN_NUMBER, true, MAX_NUMBER, true);
+    }
+    switch (type) {
+    case NULL:
+      return KeyRange.singleton(NULL);
+    case BOOLEAN:
+      return KeyRange.of(JsonValueBuilder.initFrom(false), true, JsonValueBuilder.initFrom(true), true);
+    case STRING:
+      // the strings sort just before the numbers
+      return KeyRange.of(MIN_STRING, true, MIN_NUMBER, false);
+    case DATE:
+      // ODate compares by subtracting day counts, which must not overflow
+      return KeyRange.of(JsonValueBuilder.initFrom(ODate.fromDaysSinceEpoch(Integer.MIN_VALUE / 2)), true,
+          JsonValueBuilder.initFrom(ODate.fromDaysSinceEpoch(Integer.MAX_VALUE / 2)), true);
+    case TIME:
+      return KeyRange.of(JsonValueBuilder.initFrom(OTime.fromMillisOfDay(0)), true,
+          JsonValueBuilder.initFrom(OTime.fromMillisOfDay(24 * 60 * 60 * 1000 - 1)), true);
+    case TIMESTAMP:
+      return KeyRange.of(JsonValueBuilder.initFrom(new OTimestamp(Long.MIN_VALUE)), true,
+          JsonValueBuilder.initFrom(new OTimestamp(Long.MAX_VALUE)), true);
+    case INTERVAL:
+      return KeyRange.of(JsonValueBuilder.initFrom(new OInterval(Long.MIN_VALUE)), true,
+          JsonValueBuilder.initFrom(new OInterval(Long.MAX_VALUE)), true);
+    case BINARY:
+      // the binary values are not bounded above, short of the first map
+      return KeyRange.of(JsonValueBuilder.initFrom(ByteBuffer.allocate(0)), true, null, false);
+    default:
+      return null;
+    }
+  }
+
+  private static List<Value> elements(final Value array) {
+    if (array.getType() != Type.ARRAY) {
+      return Collections.singletonList(array);
+    }
+    final List<Value> elements = new ArrayList<>();
+    for (Iterator<Object> it = array.getList().iterator(); it.hasNext();) {
+      elements.add(JsonValueBuilder.initFromObject(it.next()));
+    }
+    return elements;
+  }
+
+  private static Document asDocument(final Value value) {
+    return value instanceof Document ? (Document) value : Json.newDocument(value.getMap());
+  }
+
+  private static String quote(final String s) {
+    return Values.asJsonString(JsonValueBuilder.initFrom(s));
+  }
+
+}
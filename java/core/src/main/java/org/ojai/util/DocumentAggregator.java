@@ -0,0 +1,930 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.ojai.Document;
+import org.ojai.DocumentStream;
+import org.ojai.FieldPath;
+import org.ojai.Value;
+import org.ojai.Value.Type;
+import org.ojai.annotation.API;
+import org.ojai.annotation.API.NonNullable;
+import org.ojai.base.DocumentStreamBase;
+import org.ojai.exceptions.OjaiException;
+import org.ojai.json.Json;
+import org.ojai.json.impl.JsonValueBuilder;
+import org.ojai.util.impl.DaemonThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.primitives.UnsignedBytes;
+
+/**
+ * Groups the documents of a {@link DocumentStream} by the values of one or more fields
+ * and computes aggregates of each group, e.g.
+ * <pre>
+ *   DocumentStream totals = new DocumentAggregator("country", "city")
+ *       .count("orders")
+ *       .sum("revenue", "amount")
+ *       .max("latest", "date")
+ *       .aggregate(orders);
+ * </pre>
+ * returns one document per (country, city) pair with the group fields and the
+ * {@code orders}, {@code revenue} and {@code latest} fields.<p/>
+ *
+ * The aggregation is hashed on the binary encoding of the group values. Integral group
+ * values are grouped, and returned, as {@code LONG}s and floating point values as
+ * {@code DOUBLE}s, but integral and floating point values, like values of any other
+ * different types, form different groups. A missing field forms its own group, in
+ * which the field is absent from the result. The aggregate state of each function is
+ * kept in primitive arrays indexed by group: {@code COUNT} and integral {@code SUM}s
+ * in {@code long}s, floating point {@code SUM}s in {@code double}s. A {@code SUM} is
+ * promoted to {@code DOUBLE} if it includes a floating point value, and to
+ * {@code DECIMAL} if it includes a decimal or overflows; an {@code AVG} is the quotient
+ * of such a sum. {@code SUM} and {@code AVG} ignore non-numeric values, and all
+ * functions but {@code COUNT} of documents ignore missing and null values. The
+ * aggregate of a group without any such value is null.<p/>
+ *
+ * With a parallelism above one, the input is read in batches by the calling thread and
+ * aggregated by as many workers, each into its own table, and the partial tables are
+ * combined at the end. When the estimated size of a table exceeds its share of the
+ * memory budget, its partial aggregates are sorted by group and spilled to a
+ * {@link SpillFile}, and the runs are merged and combined group by group once the
+ * input is exhausted. The result is in no particular order.
+ */
+@API.Public
+@API.Evolving
+@API.NotThreadSafe
+public class DocumentAggregator {
+
+  private static final Logger logger = LoggerFactory.getLogger(DocumentAggregator.class);
+
+  public static final long DEFAULT_MEMORY_BUDGET = 64L * 1024 * 1024;
+
+  private static final int BATCH_SIZE = 1024;
+
+  // the estimated bookkeeping overhead of a group and of an aggregate in a group
+  private static final int GROUP_OVERHEAD = 96;
+  private static final int AGGREGATE_OVERHEAD = 16;
+
+  private static final String SPILL_KEY = "k";
+  private static final String SPILL_STATE = "s";
+
+  /**
+   * The aggregate functions.
+   */
+  public enum Function {
+    /**
+     * The number of documents, or of non-null values of a field.
+     */
+    COUNT,
+    /**
+     * The sum of the numeric values of a field.
+     */
+    SUM,
+    /**
+     * The smallest value of a field, in the order of {@link Values#compare}.
+     */
+    MIN,
+    /**
+     * The largest value of a field, in the order of {@link Values#compare}.
+     */
+    MAX,
+    /**
+     * The average of the numeric values of a field, as a {@code DOUBLE}, or as a
+     * {@code DECIMAL} if their sum is one.
+     */
+    AVG
+  }
+
+  private static final class Aggregate {
+    final FieldPath output;
+    final Function function;
+    final FieldPath input;
+
+    Aggregate(final FieldPath output, final Function function, final FieldPath input) {
+      this.output = output;
+      this.function = function;
+      this.input = input;
+    }
+  }
+
+  private final FieldPath[] groupBy;
+  private final List<Aggregate> aggregates = new ArrayList<>();
+  private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+  private File spillDirectory;
+  private int parallelism = 1;
+  private Executor executor;
+  private long spilledRuns;
+
+  /**
+   * @param groupBy the fields to group by; with no fields, the whole input is one group
+   */
+  public DocumentAggregator(@NonNullable final String... groupBy) {
+    this.groupBy = new FieldPath[groupBy.length];
+    for (int i = 0; i < groupBy.length; i++) {
+      this.groupBy[i] = FieldPath.parseFrom(groupBy[i]);
+    }
+  }
+
+  /**
+   * @param groupBy the fields to group by; with no fields, the whole input is one group
+   */
+  public DocumentAggregator(@NonNullable final FieldPath... groupBy) {
+    this.groupBy = groupBy.clone();
+  }
+
+  /**
+   * Adds an aggregate to compute.
+   *
+   * @param output the field of the result documents to store the aggregate in
+   * @param function the aggregate function
+   * @param input the field to aggregate, or {@code null} to count documents
+   */
+  public DocumentAggregator add(@NonNullable final FieldPath output, @NonNullable final Function function,
+      final FieldPath input) {
+    Preconditions.checkNotNull(output);
+    Preconditions.checkNotNull(function);
+    Preconditions.checkArgument(input != null || function == Function.COUNT,
+        "%s requires an input field", function);
+    aggregates.add(new Aggregate(output, function, input));
+    return this;
+  }
+
+  public DocumentAggregator count(@NonNullable final String output) {
+    return add(FieldPath.parseFrom(output), Function.COUNT, null);
+  }
+
+  public DocumentAggregator count(@NonNullable final String output, @NonNullable final String input) {
+    return add(FieldPath.parseFrom(output), Function.COUNT, FieldPath.parseFrom(input));
+  }
+
+  public DocumentAggregator sum(@NonNullable final String output, @NonNullable final String input) {
+    return add(FieldPath.parseFrom(output), Function.SUM, FieldPath.parseFrom(input));
+  }
+
+  public DocumentAggregator min(@NonNullable final String output, @NonNullable final String input) {
+    return add(FieldPath.parseFrom(output), Function.MIN, FieldPath.parseFrom(input));
+  }
+
+  public DocumentAggregator max(@NonNullable final String output, @NonNullable final String input) {
+    return add(FieldPath.parseFrom(output), Function.MAX, FieldPath.parseFrom(input));
+  }
+
+  public DocumentAggregator avg(@NonNullable final String output, @NonNullable final String input) {
+    return add(FieldPath.parseFrom(output), Function.AVG, FieldPath.parseFrom(input));
+  }
+
+  /**
+   * Sets the maximum estimated size, in bytes, of the aggregation tables held in memory.
+   */
+  public DocumentAggregator setMemoryBudget(final long memoryBudget) {
+    Preconditions.checkArgument(memoryBudget > 0, "memoryBudget must be positive, found %s", memoryBudget);
+    this.memoryBudget = memoryBudget;
+    return this;
+  }
+
+  /**
+   * Sets the directory to write the spill files to; by default, the spill files are
+   * created in the default temporary-file directory.
+   */
+  public DocumentAggregator setSpillDirectory(final File spillDirectory) {
+    this.spillDirectory = spillDirectory;
+    return this;
+  }
+
+  /**
+   * Sets the number of threads which aggregate the input, and optionally the
+   * {@link Executor} to run them on; by default, a shared pool of daemon threads.
+   */
+  public DocumentAggregator setParallelism(final int parallelism, final Executor executor) {
+    Preconditions.checkArgument(parallelism > 0, "parallelism must be positive, found %s", parallelism);
+    this.parallelism = parallelism;
+    this.executor = executor;
+    return this;
+  }
+
+  /**
+   * @return the number of runs of partial aggregates spilled by this aggregator
+   */
+  public long getSpilledRunCount() {
+    return spilledRuns;
+  }
+
+  /**
+   * Aggregates the specified stream, which is consumed and closed before this method
+   * returns. The returned stream must be closed to delete any remaining spill files.
+   */
+  public DocumentStream aggregate(@NonNullable final DocumentStream input) {
+    Preconditions.checkState(!aggregates.isEmpty() || groupBy.length > 0, "Nothing to aggregate");
+    final List<Partial> partials = new ArrayList<>(parallelism);
+    for (int i = 0; i < parallelism; i++) {
+      partials.add(new Partial(memoryBudget / parallelism));
+    }
+    try {
+      try (DocumentStream in = input) {
+        if (parallelism == 1) {
+          for (Document document : in) {
+            partials.get(0).add(document);
+          }
+        } else {
+          aggregateInParallel(in.iterator(), partials);
+        }
+      }
+      return combine(partials);
+    } catch (IOException e) {
+      discard(partials);
+      throw new OjaiException("Failed to spill partial aggregates", e);
+    } catch (RuntimeException | Error e) {
+      discard(partials);
+      throw e;
+    }
+  }
+
+  private void aggregateInParallel(final Iterator<Document> input, final List<Partial> partials)
+      throws IOException {
+    final List<Document> end = Collections.emptyList();
+    final BlockingQueue<List<Document>> queue = new ArrayBlockingQueue<>(2 * partials.size());
+    final List<CompletableFuture<Void>> workers = new ArrayList<>(partials.size());
+    final Executor workerExecutor = executor != null ? executor : DefaultExecutorHolder.EXECUTOR;
+    for (Partial partial : partials) {
+      workers.add(CompletableFuture.runAsync(() -> {
+        try {
+          List<Document> batch;
+          while ((batch = queue.take()) != end) {
+            for (Document document : batch) {
+              partial.add(document);
+            }
+          }
+        } catch (IOException e) {
+          throw new CompletionException(e);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new CompletionException(e);
+        }
+      }, workerExecutor));
+    }
+    final CompletableFuture<Void> done = CompletableFuture.allOf(workers.toArray(new CompletableFuture<?>[0]));
+
+    boolean finished = false;
+    try {
+      List<Document> batch = new ArrayList<>(BATCH_SIZE);
+      while (input.hasNext()) {
+        batch.add(input.next());
+        if (batch.size() == BATCH_SIZE || !input.hasNext()) {
+          offer(queue, batch, done);
+          batch = new ArrayList<>(BATCH_SIZE);
+        }
+      }
+      for (int i = 0; i < partials.size(); i++) {
+        offer(queue, end, done);
+      }
+      finished = true;
+      done.join();
+    } catch (CompletionException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      throw cause instanceof RuntimeException ? (RuntimeException) cause : new OjaiException(cause);
+    } finally {
+      if (!finished) {
+        // stop the workers which are still running
+        queue.clear();
+        for (int i = 0; i < partials.size(); i++) {
+          queue.offer(end);
+        }
+      }
+    }
+  }
+
+  private static void offer(final BlockingQueue<List<Document>> queue, final List<Document> batch,
+      final CompletableFuture<Void> workers) {
+    try {
+      while (!queue.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+        if (workers.isCompletedExceptionally()) {
+          workers.join();
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new OjaiException(e);
+    }
+  }
+
+  private DocumentStream combine(final List<Partial> partials) throws IOException {
+    boolean spilled = false;
+    long bytes = 0;
+    for (Partial partial : partials) {
+      spilled |= !partial.runs.isEmpty();
+      bytes += partial.table.estimatedBytes;
+    }
+    if (!spilled && bytes <= memoryBudget) {
+      final GroupTable combined = partials.get(0).table;
+      for (int i = 1; i < partials.size(); i++) {
+        combined.mergeTable(partials.get(i).table);
+      }
+      return new TableStream(combined);
+    }
+
+    final List<SpillFile> runs = new ArrayList<>();
+    for (Partial partial : partials) {
+      partial.spill();
+      runs.addAll(partial.runs);
+      partial.runs.clear();
+    }
+    final List<DocumentStream> sources = new ArrayList<>(runs.size());
+    try {
+      for (SpillFile run : runs) {
+        sources.add(run.read());
+      }
+    } catch (IOException | RuntimeException e) {
+      for (SpillFile run : runs) {
+        run.close();
+      }
+      throw e;
+    }
+    final Comparator<Document> byKey = (d1, d2) -> UnsignedBytes.lexicographicalComparator()
+        .compare(keyOf(d1), keyOf(d2));
+    return new MergedRunStream(DocumentStreams.merge(sources, byKey, 0, -1));
+  }
+
+  private static void discard(final List<Partial> partials) {
+    for (Partial partial : partials) {
+      for (SpillFile run : partial.runs) {
+        run.close();
+      }
+    }
+  }
+
+  private static byte[] keyOf(final Document spilled) {
+    final ByteBuffer key = spilled.getBinary(SPILL_KEY);
+    final byte[] bytes = new byte[key.remaining()];
+    key.duplicate().get(bytes);
+    return bytes;
+  }
+
+  /**
+   * The table and spilled runs of one worker.
+   */
+  private final class Partial {
+    final long budget;
+    final List<SpillFile> runs = new ArrayList<>();
+    GroupTable table = new GroupTable();
+
+    Partial(final long budget) {
+      this.budget = budget;
+    }
+
+    void add(final Document document) throws IOException {
+      table.add(document);
+      if (table.estimatedBytes > budget) {
+        spill();
+      }
+    }
+
+    void spill() throws IOException {
+      if (table.size() == 0) {
+        return;
+      }
+      final SpillFile run = SpillFile.create(spillDirectory);
+      runs.add(run);
+      table.spillTo(run);
+      synchronized (DocumentAggregator.this) {
+        spilledRuns++;
+      }
+      logger.debug("Spilled {} groups, {} bytes", table.size(), run.getSize());
+      table = new GroupTable();
+    }
+  }
+
+  /*
+   * Hash table
+   */
+
+  /**
+   * A hash table from the encoded group values to a group index, and the aggregate
+   * state of each group in columns indexed by group.
+   */
+  private final class GroupTable {
+    final Map<ByteBuffer, Integer> index = new HashMap<>();
+    final List<byte[]> keys = new ArrayList<>();
+    final Column[] columns = new Column[aggregates.size()];
+    final ByteArrayOutputStream keyBytes = new ByteArrayOutputStream();
+    final DataOutputStream keyOut = new DataOutputStream(keyBytes);
+    long estimatedBytes;
+
+    GroupTable() {
+      for (int i = 0; i < columns.length; i++) {
+        columns[i] = newColumn(aggregates.get(i));
+      }
+    }
+
+    int size() {
+      return keys.size();
+    }
+
+    void add(final Document document) throws IOException {
+      keyBytes.reset();
+      for (FieldPath field : groupBy) {
+        final Value value = document.getValue(field);
+        if (value == null) {
+          keyOut.writeByte(0);
+        } else {
+          keyOut.writeByte(1);
+          switch (value.getType()) {
+          case BYTE:
+          case SHORT:
+          case INT:
+            BinaryDocumentCodec.writeValue(JsonValueBuilder.initFrom(value.getLong()), keyOut);
+            break;
+          case FLOAT:
+            BinaryDocumentCodec.writeValue(JsonValueBuilder.initFrom(value.getDouble()), keyOut);
+            break;
+          default:
+            BinaryDocumentCodec.writeValue(value, keyOut);
+          }
+        }
+      }
+      final int group = groupOf(keyBytes.toByteArray());
+      for (int i = 0; i < columns.length; i++) {
+        final FieldPath input = aggregates.get(i).input;
+        columns[i].add(group, input == null ? null : document.getValue(input));
+      }
+    }
+
+    int groupOf(final byte[] key) {
+      final Integer existing = index.get(ByteBuffer.wrap(key));
+      if (existing != null) {
+        return existing;
+      }
+      final int group = keys.size();
+      keys.add(key);
+      index.put(ByteBuffer.wrap(key), group);
+      for (Column column : columns) {
+        column.grow(group + 1);
+      }
+      estimatedBytes += key.length + GROUP_OVERHEAD + columns.length * AGGREGATE_OVERHEAD;
+      return group;
+    }
+
+    void mergeTable(final GroupTable other) {
+      for (int g = 0; g < other.size(); g++) {
+        final int group = groupOf(other.keys.get(g));
+        for (int i = 0; i < columns.length; i++) {
+          columns[i].mergeState(group, other.columns[i].state(g));
+        }
+      }
+    }
+
+    void mergeSpilled(final Document spilled) {
+      final int group = groupOf(keyOf(spilled));
+      final List<Object> states = spilled.getList(SPILL_STATE);
+      for (int i = 0; i < columns.length; i++) {
+        columns[i].mergeState(group, JsonValueBuilder.initFromObject(states.get(i)));
+      }
+    }
+
+    void spillTo(final SpillFile run) throws IOException {
+      final Integer[] order = new Integer[keys.size()];
+      for (int g = 0; g < order.length; g++) {
+        order[g] = g;
+      }
+      final Comparator<byte[]> unsigned = UnsignedBytes.lexicographicalComparator();
+      Arrays.sort(order, (g1, g2) -> unsigned.compare(keys.get(g1), keys.get(g2)));
+      for (int g : order) {
+        final List<Object> states = new ArrayList<>(columns.length);
+        for (Column column : columns) {
+          states.add(column.state(g).getObject());
+        }
+        run.write(Json.newDocument()
+            .set(SPILL_KEY, ByteBuffer.wrap(keys.get(g)))
+            .set(SPILL_STATE, states));
+      }
+    }
+
+    Document result(final int group) {
+      final Document result = Json.newDocument();
+      try {
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(keys.get(group)));
+        for (FieldPath field : groupBy) {
+          if (in.readByte() != 0) {
+            result.set(field, BinaryDocumentCodec.readValue(in));
+          }
+        }
+      } catch (IOException e) {
+        throw new OjaiException(e);
+      }
+      for (int i = 0; i < columns.length; i++) {
+        result.set(aggregates.get(i).output, columns[i].result(group));
+      }
+      return result;
+    }
+  }
+
+  private final class TableStream extends DocumentStreamBase {
+    private final GroupTable table;
+
+    TableStream(final GroupTable table) {
+      this.table = table;
+    }
+
+    @Override
+    protected Iterator<Document> iteratorDerived() {
+      return new Iterator<Document>() {
+        private int next;
+
+        @Override
+        public boolean hasNext() {
+          return next < table.size();
+        }
+
+        @Override
+        public Document next() {
+          if (!hasNext()) {
+            throw new NoSuchElementException();
+          }
+          return table.result(next++);
+        }
+      };
+    }
+  }
+
+  /**
+   * Combines the consecutive partial aggregates of each group from runs merged in
+   * group order.
+   */
+  private final class MergedRunStream extends DocumentStreamBase {
+    private final DocumentStream merged;
+
+    MergedRunStream(final DocumentStream merged) {
+      this.merged = merged;
+    }
+
+    @Override
+    protected Iterator<Document> iteratorDerived() {
+      final Iterator<Document> it = merged.iterator();
+      return new Iterator<Document>() {
+        private Document pending;
+
+        @Override
+        public boolean hasNext() {
+          return pending != null || it.hasNext();
+        }
+
+        @Override
+        public Document next() {
+          if (!hasNext()) {
+            throw new NoSuchElementException();
+          }
+          final GroupTable table = new GroupTable();
+          final Document first = pending != null ? pending : it.next();
+          final byte[] key = keyOf(first);
+          table.mergeSpilled(first);
+          pending = null;
+          while (it.hasNext()) {
+            final Document spilled = it.next();
+            if (!Arrays.equals(key, keyOf(spilled))) {
+              pending = spilled;
+              break;
+            }
+            table.mergeSpilled(spilled);
+          }
+          return table.result(0);
+        }
+      };
+    }
+
+    @Override
+    protected void closeDerived() {
+      merged.close();
+    }
+  }
+
+  /*
+   * Aggregate state
+   */
+
+  private static Column newColumn(final Aggregate aggregate) {
+    switch (aggregate.function) {
+    case COUNT:
+      return new CountColumn(aggregate.input == null);
+    case SUM:
+      return new SumColumn();
+    case MIN:
+      return new ExtremeColumn(1);
+    case MAX:
+      return new ExtremeColumn(-1);
+    case AVG:
+      return new AvgColumn();
+    default:
+      throw new IllegalArgumentException(aggregate.function.name());
+    }
+  }
+
+  private static final Value NULL = JsonValueBuilder.initFromNull();
+
+  private static boolean isPresent(final Value value) {
+    return value != null && value.getType() != Type.NULL;
+  }
+
+  private static boolean isIntegral(final Type type) {
+    return type == Type.BYTE || type == Type.SHORT || type == Type.INT || type == Type.LONG;
+  }
+
+  /**
+   * The state of one aggregate for every group of a table.
+   */
+  private static abstract class Column {
+    /**
+     * Ensures that the column has room for the specified number of groups.
+     */
+    abstract void grow(int groups);
+
+    /**
+     * Adds an input value, which is {@code null} if the field is missing.
+     */
+    abstract void add(int group, Value value);
+
+    /**
+     * @return the partial state of a group, as a value for spilling
+     */
+    abstract Value state(int group);
+
+    abstract void mergeState(int group, Value state);
+
+    abstract Value result(int group);
+
+    static int capacity(final int current, final int groups) {
+      return current >= groups ? current : Math.max(groups, Math.max(16, current * 2));
+    }
+  }
+
+  private static final class CountColumn extends Column {
+    private final boolean documents;
+    private long[] counts = new long[0];
+
+    CountColumn(final boolean documents) {
+      this.documents = documents;
+    }
+
+    @Override
+    void grow(final int groups) {
+      counts = Arrays.copyOf(counts, capacity(counts.length, groups));
+    }
+
+    @Override
+    void add(final int group, final Value value) {
+      if (documents || isPresent(value)) {
+        counts[group]++;
+      }
+    }
+
+    @Override
+    Value state(final int group) {
+      return JsonValueBuilder.initFrom(counts[group]);
+    }
+
+    @Override
+    void mergeState(final int group, final Value state) {
+      counts[group] += state.getLong();
+    }
+
+    @Override
+    Value result(final int group) {
+      return state(group);
+    }
+  }
+
+  private static final class SumColumn extends Column {
+    private static final byte NONE = 0;
+    private static final byte LONG = 1;
+    private static final byte DOUBLE = 2;
+    private static final byte DECIMAL = 3;
+
+    private byte[] kinds = new byte[0];
+    private long[] longs = new long[0];
+    private double[] doubles = new double[0];
+    private BigDecimal[] decimals;
+
+    @Override
+    void grow(final int groups) {
+      final int capacity = capacity(kinds.length, groups);
+      kinds = Arrays.copyOf(kinds, capacity);
+      longs = Arrays.copyOf(longs, capacity);
+      doubles = Arrays.copyOf(doubles, capacity);
+      if (decimals != null) {
+        decimals = Arrays.copyOf(decimals, capacity);
+      }
+    }
+
+    @Override
+    void add(final int group, final Value value) {
+      if (!isPresent(value) || !value.getType().isNumeric()) {
+        return;
+      }
+      final Type type = value.getType();
+      if (isIntegral(type) && kinds[group] <= LONG) {
+        try {
+          longs[group] = Math.addExact(longs[group], value.getLong());
+          kinds[group] = LONG;
+          return;
+        } catch (ArithmeticException e) {
+          toDecimal(group);
+        }
+      } else if ((type == Type.FLOAT || type == Type.DOUBLE) && kinds[group] <= DOUBLE) {
+        if (kinds[group] == LONG) {
+          doubles[group] = longs[group];
+        }
+        doubles[group] += value.getDouble();
+        kinds[group] = DOUBLE;
+        return;
+      } else if (isIntegral(type) && kinds[group] == DOUBLE) {
+        doubles[group] += value.getLong();
+        return;
+      }
+      if (kinds[group] != DECIMAL) {
+        toDecimal(group);
+      }
+      decimals[group] = decimals[group].add(Values.asDecimal(value));
+    }
+
+    private void toDecimal(final int group) {
+      if (decimals == null) {
+        decimals = new BigDecimal[kinds.length];
+      }
+      switch (kinds[group]) {
+      case LONG:
+        decimals[group] = BigDecimal.valueOf(longs[group]);
+        break;
+      case DOUBLE:
+        decimals[group] = BigDecimal.valueOf(doubles[group]);
+        break;
+      default:
+        decimals[group] = BigDecimal.ZERO;
+      }
+      kinds[group] = DECIMAL;
+    }
+
+    @Override
+    Value state(final int group) {
+      switch (kinds[group]) {
+      case LONG:
+        return JsonValueBuilder.initFrom(longs[group]);
+      case DOUBLE:
+        return JsonValueBuilder.initFrom(doubles[group]);
+      case DECIMAL:
+        return JsonValueBuilder.initFrom(decimals[group]);
+      default:
+        return NULL;
+      }
+    }
+
+    @Override
+    void mergeState(final int group, final Value state) {
+      add(group, state);
+    }
+
+    @Override
+    Value result(final int group) {
+      return state(group);
+    }
+  }
+
+  /**
+   * A {@link SumColumn} and the number of values of each group.
+   */
+  private static final class AvgColumn extends Column {
+    private final SumColumn sums = new SumColumn();
+    private long[] counts = new long[0];
+
+    @Override
+    void grow(final int groups) {
+      sums.grow(groups);
+      counts = Arrays.copyOf(counts, capacity(counts.length, groups));
+    }
+
+    @Override
+    void add(final int group, final Value value) {
+      if (isPresent(value) && value.getType().isNumeric()) {
+        sums.add(group, value);
+        counts[group]++;
+      }
+    }
+
+    @Override
+    Value state(final int group) {
+      return JsonValueBuilder.initFromObject(Arrays.asList(sums.state(group).getObject(), counts[group]));
+    }
+
+    @Override
+    void mergeState(final int group, final Value state) {
+      final List<Object> sumAndCount = state.getList();
+      sums.mergeState(group, JsonValueBuilder.initFromObject(sumAndCount.get(0)));
+      counts[group] += ((Number) sumAndCount.get(1)).longValue();
+    }
+
+    @Override
+    Value result(final int group) {
+      return counts[group] == 0 ? NULL : average(sums.result(group), counts[group]);
+    }
+  }
+
+  /**
+   * @return the quotient of a sum, as computed by a {@link SumColumn}, and a count
+   */
+  private static Value average(final Value sum, final long count) {
+    switch (sum.getType()) {
+    case LONG:
+      // exact, then rounded once, as a long sum may not fit in a double
+      return JsonValueBuilder.initFrom(BigDecimal.valueOf(sum.getLong())
+          .divide(BigDecimal.valueOf(count), MathContext.DECIMAL128).doubleValue());
+    case DOUBLE:
+      return JsonValueBuilder.initFrom(sum.getDouble() / count);
+    default:
+      return JsonValueBuilder.initFrom(sum.getDecimal().divide(BigDecimal.valueOf(count), MathContext.DECIMAL128));
+    }
+  }
+
+  private static final class ExtremeColumn extends Column {
+    // 1 for the minimum, -1 for the maximum
+    private final int sign;
+    private Value[] values = new Value[0];
+
+    ExtremeColumn(final int sign) {
+      this.sign = sign;
+    }
+
+    @Override
+    void grow(final int groups) {
+      values = Arrays.copyOf(values, capacity(values.length, groups));
+    }
+
+    @Override
+    void add(final int group, final Value value) {
+      if (isPresent(value) && (values[group] == null || sign * Values.compare(value, values[group]) < 0)) {
+        values[group] = value;
+      }
+    }
+
+    @Override
+    Value state(final int group) {
+      return values[group] == null ? NULL : values[group];
+    }
+
+    @Override
+    void mergeState(final int group, final Value state) {
+      add(group, state);
+    }
+
+    @Override
+    Value result(final int group) {
+      return state(group);
+    }
+  }
+
+  private static final class DefaultExecutorHolder {
+    static final ExecutorService EXECUTOR = DaemonThreadFactory.newCachedThreadPool("ojai-aggregate");
+  }
+
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.util;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.ojai.Document;
+import org.ojai.FieldPath;
+import org.ojai.annotation.API;
+import org.ojai.annotation.API.NonNullable;
+import org.ojai.store.SortOrder;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * A {@link Comparator} which orders {@link Document}s by a list of {@link SortKey}s,
+ * comparing the values of each key with {@link Values#compare(org.ojai.Value, org.ojai.Value)}.
+ * A document which does not have a sort field sorts before those which do in
+ * ascending order, and after them in descending order.
+ */
+@API.Public
+@API.Immutable
+public final class DocumentComparator implements Comparator<Document> {
+
+  private final List<SortKey> sortKeys;
+  private final FieldPath[] fieldPaths;
+  private final boolean[] descending;
+
+  public DocumentComparator(@NonNullable final List<SortKey> sortKeys) {
+    this.sortKeys = ImmutableList.copyOf(sortKeys);
+    this.fieldPaths = new FieldPath[sortKeys.size()];
+    this.descending = new boolean[sortKeys.size()];
+    for (int i = 0; i < fieldPaths.length; i++) {
+      fieldPaths[i] = this.sortKeys.get(i).getFieldPath();
+      descending[i] = this.sortKeys.get(i).getOrder() == SortOrder.DESC;
+    }
+  }
+
+  public static DocumentComparator of(@NonNullable final SortKey... sortKeys) {
+    return new DocumentComparator(Arrays.asList(sortKeys));
+  }
+
+  public List<SortKey> getSortKeys() {
+    return sortKeys;
+  }
+
+  @Override
+  public int compare(final Document d1, final Document d2) {
+    for (int i = 0; i < fieldPaths.length; i++) {
+      final int cmp = Values.compare(d1.getValue(fieldPaths[i]), d2.getValue(fieldPaths[i]));
+      if (cmp != 0) {
+        return descending[i] ? -cmp : cmp;
+      }
+    }
+    return 0;
+  }
+
+  @Override
+  public String toString() {
+    return "DocumentComparator" + sortKeys;
+  }
+
+}
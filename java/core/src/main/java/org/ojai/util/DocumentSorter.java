@@ -0,0 +1,320 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.ojai.Document;
+import org.ojai.DocumentStream;
+import org.ojai.annotation.API;
+import org.ojai.annotation.API.NonNullable;
+import org.ojai.exceptions.OjaiException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+/**
+ * Sorts a {@link DocumentStream} within a bounded amount of memory.<p/>
+ *
+ * Documents are buffered until their estimated size, as computed by
+ * {@link Documents#estimateSize(Document)}, exceeds the memory budget; the buffer is
+ * then sorted and written to a {@link SpillFile} as a sorted run. Once the input is
+ * exhausted, the runs and the last buffer are merged lazily with
+ * {@link DocumentStreams#merge}, at most {@code mergeFactor} at a time; if there are
+ * more runs, groups of them are first merged into longer runs.<p/>
+ *
+ * When a limit is set, the sorter keeps only the best {@code offset + limit}
+ * documents in a bounded heap, and never spills unless they exceed the budget
+ * themselves. The sort is stable: documents which compare equal are returned in
+ * their input order.<p/>
+ *
+ * Note that the estimated size of a document is that of its serialized form, and the
+ * heap occupied by a buffered document is typically several times larger.
+ */
+@API.Public
+@API.Evolving
+@API.NotThreadSafe
+public class DocumentSorter {
+
+  private static final Logger logger = LoggerFactory.getLogger(DocumentSorter.class);
+
+  public static final long DEFAULT_MEMORY_BUDGET = 64L * 1024 * 1024;
+
+  public static final int DEFAULT_MERGE_FACTOR = 64;
+
+  // the estimated bookkeeping overhead of a buffered document
+  private static final int ENTRY_OVERHEAD = 32;
+
+  private final Comparator<? super Document> comparator;
+  private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+  private int mergeFactor = DEFAULT_MERGE_FACTOR;
+  private File spillDirectory;
+  private long offset;
+  private long limit = -1;
+  private long spilledRuns;
+  private long spilledBytes;
+
+  public DocumentSorter(@NonNullable final List<SortKey> sortKeys) {
+    this(new DocumentComparator(sortKeys));
+  }
+
+  public DocumentSorter(@NonNullable final Comparator<? super Document> comparator) {
+    this.comparator = Preconditions.checkNotNull(comparator);
+  }
+
+  /**
+   * Sets the maximum estimated size, in bytes, of the documents held in memory.
+   */
+  public DocumentSorter setMemoryBudget(final long memoryBudget) {
+    Preconditions.checkArgument(memoryBudget > 0, "memoryBudget must be positive, found %s", memoryBudget);
+    this.memoryBudget = memoryBudget;
+    return this;
+  }
+
+  /**
+   * Sets the maximum number of runs merged at once, which bounds the number of open
+   * spill files.
+   */
+  public DocumentSorter setMergeFactor(final int mergeFactor) {
+    Preconditions.checkArgument(mergeFactor >= 2, "mergeFactor must be at least 2, found %s", mergeFactor);
+    this.mergeFactor = mergeFactor;
+    return this;
+  }
+
+  /**
+   * Sets the directory to write the spill files to; by default, the spill files are
+   * created in the default temporary-file directory.
+   */
+  public DocumentSorter setSpillDirectory(final File spillDirectory) {
+    this.spillDirectory = spillDirectory;
+    return this;
+  }
+
+  /**
+   * Sets the number of leading sorted documents to skip.
+   */
+  public DocumentSorter setOffset(final long offset) {
+    Preconditions.checkArgument(offset >= 0, "offset must not be negative, found %s", offset);
+    this.offset = offset;
+    return this;
+  }
+
+  /**
+   * Sets the maximum number of sorted documents to return, or a negative number for
+   * no limit.
+   */
+  public DocumentSorter setLimit(final long limit) {
+    this.limit = limit;
+    return this;
+  }
+
+  /**
+   * @return the number of sorted runs spilled by this sorter
+   */
+  public long getSpilledRunCount() {
+    return spilledRuns;
+  }
+
+  /**
+   * @return the number of bytes spilled by this sorter, including intermediate merges
+   */
+  public long getSpilledBytes() {
+    return spilledBytes;
+  }
+
+  /**
+   * Sorts the specified stream, which is consumed and closed before this method
+   * returns. The returned stream must be closed to delete any remaining spill files.
+   */
+  public DocumentStream sort(@NonNullable final DocumentStream input) {
+    try (DocumentStream in = input) {
+      return sort(in.iterator());
+    }
+  }
+
+  /**
+   * Sorts the documents of the specified iterator, which is exhausted before this
+   * method returns. The returned stream must be closed to delete any remaining
+   * spill files.
+   */
+  public DocumentStream sort(@NonNullable final Iterator<Document> input) {
+    final Sort sort = new Sort();
+    try {
+      return sort.run(input);
+    } catch (IOException e) {
+      sort.discard();
+      throw new OjaiException("Failed to spill sorted documents", e);
+    } catch (RuntimeException | Error e) {
+      sort.discard();
+      throw e;
+    }
+  }
+
+  private static final class Entry {
+    final Document document;
+    final long sequence;
+    final long size;
+
+    Entry(final Document document, final long sequence, final long size) {
+      this.document = document;
+      this.sequence = sequence;
+      this.size = size;
+    }
+  }
+
+  /**
+   * The state of a single sort.
+   */
+  private final class Sort {
+    private final Comparator<Entry> order = (e1, e2) -> {
+      final int cmp = comparator.compare(e1.document, e2.document);
+      return cmp != 0 ? cmp : Long.compare(e1.sequence, e2.sequence);
+    };
+    // the number of documents any run needs to retain, or -1 if unlimited
+    private final long keep = limit < 0 ? -1 : (limit > Long.MAX_VALUE - offset ? Long.MAX_VALUE : offset + limit);
+    private final List<SpillFile> runs = new ArrayList<>();
+    private List<Entry> buffer = new ArrayList<>();
+    private PriorityQueue<Entry> topK;
+    private long bufferedBytes;
+
+    DocumentStream run(final Iterator<Document> input) throws IOException {
+      if (keep == 0) {
+        while (input.hasNext()) {
+          input.next();
+        }
+        return new EmptyDocumentStream();
+      }
+      if (keep > 0 && keep < Integer.MAX_VALUE) {
+        // a max-heap of the best documents, whose head is the first to be evicted
+        topK = new PriorityQueue<>((int) Math.min(keep, 1024), Collections.reverseOrder(order));
+      }
+
+      long sequence = 0;
+      while (input.hasNext()) {
+        final Document document = input.next();
+        final Entry entry = new Entry(document, sequence++, Documents.estimateSize(document) + ENTRY_OVERHEAD);
+        if (topK != null) {
+          offerTopK(entry);
+        } else {
+          buffer.add(entry);
+          bufferedBytes += entry.size;
+          if (bufferedBytes > memoryBudget) {
+            spill();
+          }
+        }
+      }
+      if (topK != null) {
+        buffer = new ArrayList<>(topK);
+        topK = null;
+      }
+
+      buffer.sort(order);
+      final List<Document> last = Lists.transform(truncate(buffer), e -> e.document);
+      if (runs.isEmpty()) {
+        return DocumentStreams.merge(Collections.singletonList(DocumentStreams.of(last)),
+            Collections.<SortKey>emptyList(), offset, limit);
+      }
+
+      while (runs.size() >= mergeFactor) {
+        mergeRuns();
+      }
+      final List<DocumentStream> sources = new ArrayList<>(runs.size() + 1);
+      for (SpillFile run : runs) {
+        sources.add(run.read());
+      }
+      sources.add(DocumentStreams.of(last));
+      runs.clear();
+      // ties are resolved in the order of the sources, i.e. the input order
+      return DocumentStreams.merge(sources, comparator, offset, limit);
+    }
+
+    private void offerTopK(final Entry entry) throws IOException {
+      if (topK.size() < keep) {
+        topK.add(entry);
+        bufferedBytes += entry.size;
+      } else if (order.compare(entry, topK.peek()) < 0) {
+        bufferedBytes -= topK.poll().size;
+        topK.add(entry);
+        bufferedBytes += entry.size;
+      } else {
+        return;
+      }
+      if (bufferedBytes > memoryBudget) {
+        // the best documents do not fit, fall back to spilling sorted runs
+        logger.debug("Top {} documents exceed the memory budget, spilling", keep);
+        buffer = new ArrayList<>(topK);
+        topK = null;
+        spill();
+      }
+    }
+
+    private List<Entry> truncate(final List<Entry> sorted) {
+      return keep >= 0 && keep < sorted.size() ? sorted.subList(0, (int) keep) : sorted;
+    }
+
+    private void spill() throws IOException {
+      buffer.sort(order);
+      final SpillFile run = SpillFile.create(spillDirectory);
+      runs.add(run);
+      for (Entry entry : truncate(buffer)) {
+        run.write(entry.document);
+      }
+      spilledRuns++;
+      spilledBytes += run.getSize();
+      logger.debug("Spilled a run of {} documents, {} bytes", run.getDocumentCount(), run.getSize());
+      buffer = new ArrayList<>();
+      bufferedBytes = 0;
+    }
+
+    /**
+     * Merges the first {@code mergeFactor} runs into one, which keeps the runs in input
+     * order.
+     */
+    private void mergeRuns() throws IOException {
+      final List<SpillFile> group = new ArrayList<>(runs.subList(0, mergeFactor));
+      final List<DocumentStream> sources = new ArrayList<>(group.size());
+      final SpillFile merged = SpillFile.create(spillDirectory);
+      runs.removeAll(group);
+      runs.add(0, merged);
+      for (SpillFile run : group) {
+        sources.add(run.read());
+      }
+      try (DocumentStream stream = DocumentStreams.merge(sources, comparator, 0, keep)) {
+        for (Document document : stream) {
+          merged.write(document);
+        }
+      }
+      spilledBytes += merged.getSize();
+    }
+
+    void discard() {
+      for (SpillFile run : runs) {
+        run.close();
+      }
+      runs.clear();
+    }
+  }
+
+}
@@ -0,0 +1,212 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.util;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import org.ojai.Document;
+import org.ojai.DocumentStream;
+import org.ojai.annotation.API;
+import org.ojai.annotation.API.NonNullable;
+import org.ojai.base.DocumentStreamBase;
+import org.ojai.exceptions.OjaiException;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Utilities for combining {@link DocumentStream}s.
+ */
+@API.Public
+@API.Evolving
+public class DocumentStreams {
+
+  /**
+   * Returns a {@link DocumentStream} of the documents of an {@link Iterable}, such as
+   * a {@code List}.
+   */
+  public static DocumentStream of(@NonNullable final Iterable<Document> documents) {
+    Preconditions.checkNotNull(documents);
+    return new DocumentStreamBase() {
+      @Override
+      protected Iterator<Document> iteratorDerived() {
+        return documents.iterator();
+      }
+    };
+  }
+
+  /**
+   * Merges {@link DocumentStream}s which are each sorted by the specified keys into a
+   * single sorted {@code DocumentStream}.
+   *
+   * @see #merge(List, Comparator, long, long)
+   */
+  public static DocumentStream merge(@NonNullable final List<? extends DocumentStream> sources,
+      @NonNullable final List<SortKey> sortKeys) {
+    return merge(sources, new DocumentComparator(sortKeys), 0, -1);
+  }
+
+  /**
+   * Merges {@link DocumentStream}s which are each sorted by the specified keys into a
+   * single sorted {@code DocumentStream}, skipping the first {@code offset} documents
+   * and returning at most {@code limit}.
+   *
+   * @see #merge(List, Comparator, long, long)
+   */
+  public static DocumentStream merge(@NonNullable final List<? extends DocumentStream> sources,
+      @NonNullable final List<SortKey> sortKeys, final long offset, final long limit) {
+    return merge(sources, new DocumentComparator(sortKeys), offset, limit);
+  }
+
+  /**
+   * Merges {@link DocumentStream}s which are each sorted by the specified comparator
+   * into a single sorted {@code DocumentStream}.<p/>
+   *
+   * The merge keeps the current document of each source in a heap and pulls the next
+   * document of a source only when its current one is returned, so it holds one
+   * document per source irrespective of the size of the result. Documents which
+   * compare equal are returned in the order of their sources, so that an empty list
+   * of sort keys concatenates the sources.<p/>
+   *
+   * A source is closed as soon as it is exhausted, and all sources are closed once
+   * {@code limit} documents have been returned or when the merged stream is closed.
+   *
+   * @param sources the sorted streams to merge
+   * @param comparator the order of the sources
+   * @param offset the number of leading documents to skip
+   * @param limit the maximum number of documents to return, or a negative number for
+   *        no limit
+   */
+  public static DocumentStream merge(@NonNullable final List<? extends DocumentStream> sources,
+      @NonNullable final Comparator<? super Document> comparator, final long offset, final long limit) {
+    Preconditions.checkArgument(offset >= 0, "offset must not be negative, found %s", offset);
+    return new MergedStream(new ArrayList<DocumentStream>(sources),
+        Preconditions.checkNotNull(comparator), offset, limit < 0 ? Long.MAX_VALUE : limit);
+  }
+
+  private static final class Head {
+    final int source;
+    final Iterator<Document> iterator;
+    Document document;
+
+    Head(final int source, final Iterator<Document> iterator) {
+      this.source = source;
+      this.iterator = iterator;
+    }
+  }
+
+  private static final class MergedStream extends DocumentStreamBase {
+    private final List<DocumentStream> sources;
+    private final boolean[] closed;
+    private final Comparator<? super Document> comparator;
+    private final long offset;
+    private final long limit;
+
+    MergedStream(final List<DocumentStream> sources, final Comparator<? super Document> comparator,
+        final long offset, final long limit) {
+      this.sources = sources;
+      this.closed = new boolean[sources.size()];
+      this.comparator = comparator;
+      this.offset = offset;
+      this.limit = limit;
+    }
+
+    @Override
+    protected Iterator<Document> iteratorDerived() {
+      return new Iterator<Document>() {
+        private PriorityQueue<Head> heap;
+        private long returned;
+
+        @Override
+        public boolean hasNext() {
+          if (heap == null) {
+            heap = new PriorityQueue<>(Math.max(1, sources.size()), (h1, h2) -> {
+              final int cmp = comparator.compare(h1.document, h2.document);
+              return cmp != 0 ? cmp : Integer.compare(h1.source, h2.source);
+            });
+            for (int i = 0; i < sources.size(); i++) {
+              advance(new Head(i, sources.get(i).iterator()));
+            }
+            for (long skipped = 0; skipped < offset && !heap.isEmpty(); skipped++) {
+              advance(heap.poll());
+            }
+          }
+          if (returned >= limit) {
+            closeSources();
+            return false;
+          }
+          return !heap.isEmpty();
+        }
+
+        @Override
+        public Document next() {
+          if (!hasNext()) {
+            throw new NoSuchElementException();
+          }
+          final Head head = heap.poll();
+          final Document document = head.document;
+          advance(head);
+          returned++;
+          return document;
+        }
+
+        private void advance(final Head head) {
+          if (head.iterator.hasNext()) {
+            head.document = head.iterator.next();
+            heap.add(head);
+          } else {
+            closeSource(head.source);
+          }
+        }
+      };
+    }
+
+    private void closeSource(final int source) {
+      if (!closed[source]) {
+        closed[source] = true;
+        sources.get(source).close();
+      }
+    }
+
+    private void closeSources() {
+      OjaiException failure = null;
+      for (int i = 0; i < sources.size(); i++) {
+        try {
+          closeSource(i);
+        } catch (OjaiException e) {
+          if (failure == null) {
+            failure = e;
+          } else {
+            failure.addSuppressed(e);
+          }
+        }
+      }
+      if (failure != null) {
+        throw failure;
+      }
+    }
+
+    @Override
+    protected void closeDerived() {
+      closeSources();
+    }
+  }
+
+}
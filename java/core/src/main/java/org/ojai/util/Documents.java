@@ -102,6 +102,72 @@ public class Documents {
     JsonUtils.addToMap(reader, builder);
   }
 
+  /**
+   * Returns an estimate of the serialized size, in bytes, of the specified document.<p/>
+   * The estimate counts the field names, the encoded width of each scalar value and a
+   * single byte of type information per value. It is meant for accounting purposes,
+   * e.g. memory budgets and throughput metrics, and does not match any particular
+   * wire or storage format.
+   *
+   * @param document the {@link Document} to estimate the size of
+   * @return the estimated size in bytes
+   */
+  public static long estimateSize(@NonNullable Document document) {
+    return estimateSize(document.asReader());
+  }
+
+  /**
+   * Returns an estimate of the serialized size, in bytes, of the remaining
+   * events of the specified {@link DocumentReader}, consuming them.
+   *
+   * @see #estimateSize(Document)
+   */
+  public static long estimateSize(@NonNullable DocumentReader reader) {
+    long size = 0;
+    DocumentReader.EventType event;
+    while ((event = reader.next()) != null) {
+      size += 1;
+      if (reader.inMap() && event != DocumentReader.EventType.END_MAP
+          && event != DocumentReader.EventType.END_ARRAY) {
+        final String fieldName = reader.getFieldName();
+        size += fieldName == null ? 0 : fieldName.length();
+      }
+      switch (event) {
+      case BOOLEAN:
+      case BYTE:
+        size += 1;
+        break;
+      case SHORT:
+        size += 2;
+        break;
+      case INT:
+      case FLOAT:
+      case DATE:
+      case TIME:
+        size += 4;
+        break;
+      case LONG:
+      case DOUBLE:
+      case TIMESTAMP:
+      case INTERVAL:
+        size += 8;
+        break;
+      case DECIMAL:
+        size += 4 + reader.getDecimalValueAsBytes().remaining();
+        break;
+      case STRING:
+        size += reader.getString().length();
+        break;
+      case BINARY:
+        size += reader.getBinary().remaining();
+        break;
+      default:
+        break;
+      }
+    }
+    return size;
+  }
+
   /**
    * Returns the value at the specified fieldPath as a {@link ByteBuffer} object or
    * the specified {@code defaultValue} if the specified {@code FieldPath} does not
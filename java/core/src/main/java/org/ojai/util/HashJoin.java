@@ -0,0 +1,581 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.ojai.Document;
+import org.ojai.DocumentStream;
+import org.ojai.FieldPath;
+import org.ojai.Value;
+import org.ojai.annotation.API;
+import org.ojai.annotation.API.NonNullable;
+import org.ojai.base.DocumentStreamBase;
+import org.ojai.exceptions.OjaiException;
+import org.ojai.json.Json;
+import org.ojai.json.impl.JsonValueBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.Hashing;
+
+/**
+ * Joins two {@link DocumentStream}s on the values of one or more fields with a hash
+ * join.<p/>
+ *
+ * The right stream is the build side: it is read first into a hash table keyed by
+ * the encoded values of the right key fields, in which the documents are kept in their
+ * {@link BinaryDocumentCodec} form to save memory, or not at all for a
+ * {@link Type#SEMI SEMI} or {@link Type#ANTI ANTI} join. The left stream is then
+ * streamed through the table lazily, so the right stream should be the smaller one.
+ * Matching documents are combined by a {@link Merger}, by default {@link #OVERLAY}.<p/>
+ *
+ * If the estimated size of the build side exceeds the memory budget, the join becomes
+ * a grace hash join: both sides are partitioned by the hash of their keys into
+ * {@link SpillFile}s, and the pairs of partitions are joined one at a time, partitioning
+ * them again with a different hash if a build partition still does not fit.<p/>
+ *
+ * Integral key values are compared as {@code LONG}s and floating point values as
+ * {@code DOUBLE}s, but integral and floating point values, like values of any other
+ * different types, never match. As in SQL, a document with a missing or null key field
+ * does not match any document. The order of the result is unspecified.
+ */
+@API.Public
+@API.Evolving
+@API.NotThreadSafe
+public class HashJoin {
+
+  private static final Logger logger = LoggerFactory.getLogger(HashJoin.class);
+
+  public static final long DEFAULT_MEMORY_BUDGET = 64L * 1024 * 1024;
+
+  public static final int DEFAULT_PARTITION_COUNT = 32;
+
+  // partitioning stops after this many levels, in case of a single key too large to fit
+  private static final int MAX_DEPTH = 4;
+
+  // the estimated bookkeeping overhead of an entry of the hash table
+  private static final int ENTRY_OVERHEAD = 64;
+
+  /**
+   * The join types.
+   */
+  public enum Type {
+    /**
+     * Each pair of matching left and right documents.
+     */
+    INNER,
+    /**
+     * Each pair of matching documents, and each left document without a match.
+     */
+    LEFT_OUTER,
+    /**
+     * Each left document which has at least one match, once.
+     */
+    SEMI,
+    /**
+     * Each left document which does not have a match.
+     */
+    ANTI
+  }
+
+  /**
+   * Combines a pair of matching documents into a result document.
+   */
+  @FunctionalInterface
+  public interface Merger {
+    /**
+     * @param left the left document, which may be combined with several right documents
+     *        and must not be modified
+     * @param right the right document, or {@code null} for a left document without a
+     *        match in a {@link Type#LEFT_OUTER LEFT_OUTER} join
+     */
+    Document merge(Document left, Document right);
+  }
+
+  /**
+   * A {@link Merger} which adds the top-level fields of the right document which the
+   * left document does not have to a copy of the left document.
+   */
+  public static final Merger OVERLAY = (left, right) -> {
+    if (right == null) {
+      return left;
+    }
+    final Map<String, Object> merged = new LinkedHashMap<>(left.asMap());
+    for (Map.Entry<String, Object> field : right.asMap().entrySet()) {
+      merged.putIfAbsent(field.getKey(), field.getValue());
+    }
+    return Json.newDocument(merged);
+  };
+
+  /**
+   * Returns a {@link Merger} which sets the specified field of a copy of the left
+   * document to the right document.
+   */
+  public static Merger nest(@NonNullable final String field) {
+    final FieldPath path = FieldPath.parseFrom(field);
+    return (left, right) -> right == null ? left : Json.newDocument(left.asMap()).set(path, right);
+  }
+
+  private final Type type;
+  private final FieldPath[] leftKeys;
+  private final FieldPath[] rightKeys;
+  private Merger merger = OVERLAY;
+  private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+  private int partitionCount = DEFAULT_PARTITION_COUNT;
+  private File spillDirectory;
+  private long spilledPartitions;
+
+  public HashJoin(@NonNullable final Type type, @NonNullable final String leftKey,
+      @NonNullable final String rightKey) {
+    this(type, Collections.singletonList(FieldPath.parseFrom(leftKey)),
+        Collections.singletonList(FieldPath.parseFrom(rightKey)));
+  }
+
+  /**
+   * @param type the join type
+   * @param leftKeys the key fields of the left documents
+   * @param rightKeys the key fields of the right documents, in the same order
+   */
+  public HashJoin(@NonNullable final Type type, @NonNullable final List<FieldPath> leftKeys,
+      @NonNullable final List<FieldPath> rightKeys) {
+    Preconditions.checkArgument(!leftKeys.isEmpty() && leftKeys.size() == rightKeys.size(),
+        "The left and right keys must have the same, non-zero, number of fields");
+    this.type = Preconditions.checkNotNull(type);
+    this.leftKeys = leftKeys.toArray(new FieldPath[0]);
+    this.rightKeys = rightKeys.toArray(new FieldPath[0]);
+  }
+
+  public HashJoin setMerger(@NonNullable final Merger merger) {
+    this.merger = Preconditions.checkNotNull(merger);
+    return this;
+  }
+
+  /**
+   * Sets the maximum estimated size, in bytes, of the build side held in memory.
+   */
+  public HashJoin setMemoryBudget(final long memoryBudget) {
+    Preconditions.checkArgument(memoryBudget > 0, "memoryBudget must be positive, found %s", memoryBudget);
+    this.memoryBudget = memoryBudget;
+    return this;
+  }
+
+  /**
+   * Sets the number of partitions each side is split into when the build side does not
+   * fit in memory.
+   */
+  public HashJoin setPartitionCount(final int partitionCount) {
+    Preconditions.checkArgument(partitionCount >= 2, "partitionCount must be at least 2, found %s",
+        partitionCount);
+    this.partitionCount = partitionCount;
+    return this;
+  }
+
+  /**
+   * Sets the directory to write the spill files to; by default, the spill files are
+   * created in the default temporary-file directory.
+   */
+  public HashJoin setSpillDirectory(final File spillDirectory) {
+    this.spillDirectory = spillDirectory;
+    return this;
+  }
+
+  /**
+   * @return the number of pairs of partitions spilled by this join
+   */
+  public long getSpilledPartitionCount() {
+    return spilledPartitions;
+  }
+
+  /**
+   * Joins two streams. The right stream is consumed and closed before this method
+   * returns; the left stream is consumed as the result is read, unless the right stream
+   * does not fit in memory, and is closed with the result.
+   */
+  public DocumentStream join(@NonNullable final DocumentStream left, @NonNullable final DocumentStream right) {
+    try {
+      return join(left, right, 0);
+    } catch (IOException e) {
+      throw new OjaiException("Failed to spill a join partition", e);
+    }
+  }
+
+  private DocumentStream join(final DocumentStream left, final DocumentStream right, final int depth)
+      throws IOException {
+    final BuildTable table = new BuildTable();
+    List<SpillFile> rightPartitions = null;
+    try (DocumentStream r = right) {
+      final Iterator<Document> it = r.iterator();
+      while (it.hasNext()) {
+        final Document document = it.next();
+        if (rightPartitions != null) {
+          write(rightPartitions, rightKeys, document, depth);
+        } else if (table.add(document) && table.estimatedBytes > memoryBudget && depth < MAX_DEPTH) {
+          logger.debug("The build side exceeds the memory budget, partitioning at depth {}", depth);
+          rightPartitions = newPartitions();
+          table.spillTo(rightPartitions, depth);
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      discard(rightPartitions);
+      left.close();
+      throw e;
+    }
+    if (rightPartitions == null) {
+      return new ProbeStream(left, table);
+    }
+
+    // the left documents which can not match are kept aside for LEFT_OUTER and ANTI joins
+    final List<SpillFile> leftPartitions = newPartitions();
+    final SpillFile unmatched = SpillFile.create(spillDirectory);
+    try (DocumentStream l = left) {
+      for (Document document : l) {
+        final byte[] key = keyOf(document, leftKeys);
+        if (key != null) {
+          leftPartitions.get(partitionOf(key, depth)).write(document);
+        } else if (type == Type.LEFT_OUTER || type == Type.ANTI) {
+          unmatched.write(document);
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      discard(rightPartitions);
+      discard(leftPartitions);
+      unmatched.close();
+      throw e;
+    }
+    spilledPartitions += partitionCount;
+    return new PartitionedStream(leftPartitions, rightPartitions, unmatched, depth);
+  }
+
+  private List<SpillFile> newPartitions() throws IOException {
+    final List<SpillFile> partitions = new ArrayList<>(partitionCount);
+    try {
+      for (int i = 0; i < partitionCount; i++) {
+        partitions.add(SpillFile.create(spillDirectory));
+      }
+    } catch (IOException e) {
+      discard(partitions);
+      throw e;
+    }
+    return partitions;
+  }
+
+  private static void discard(final List<SpillFile> partitions) {
+    if (partitions != null) {
+      for (SpillFile partition : partitions) {
+        partition.close();
+      }
+    }
+  }
+
+  private void write(final List<SpillFile> partitions, final FieldPath[] keys, final Document document,
+      final int depth) throws IOException {
+    final byte[] key = keyOf(document, keys);
+    if (key != null) {
+      partitions.get(partitionOf(key, depth)).write(document);
+    }
+  }
+
+  private int partitionOf(final byte[] key, final int depth) {
+    return Math.floorMod(Hashing.murmur3_32_fixed(depth).hashBytes(key).asInt(), partitionCount);
+  }
+
+  /**
+   * @return the encoded key values of the document, or {@code null} if one is missing
+   */
+  private static byte[] keyOf(final Document document, final FieldPath[] keys) {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream(bytes);
+    try {
+      for (FieldPath field : keys) {
+        final Value value = document.getValue(field);
+        if (value == null || value.getType() == Value.Type.NULL) {
+          return null;
+        }
+        switch (value.getType()) {
+        case BYTE:
+        case SHORT:
+        case INT:
+          BinaryDocumentCodec.writeValue(JsonValueBuilder.initFrom(value.getLong()), out);
+          break;
+        case FLOAT:
+          BinaryDocumentCodec.writeValue(JsonValueBuilder.initFrom(value.getDouble()), out);
+          break;
+        default:
+          BinaryDocumentCodec.writeValue(value, out);
+        }
+      }
+    } catch (IOException e) {
+      throw new OjaiException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * The build side of an in-memory join.
+   */
+  private final class BuildTable {
+    // the encoded right documents by key, as a byte[] or a List<byte[]>
+    final Map<ByteBuffer, Object> documents = new HashMap<>();
+    final Set<ByteBuffer> keys = new HashSet<>();
+    final boolean keysOnly = type == Type.SEMI || type == Type.ANTI;
+    long estimatedBytes;
+
+    /**
+     * @return {@code false} if the document has no key and was ignored
+     */
+    @SuppressWarnings("unchecked")
+    boolean add(final Document document) {
+      final byte[] key = keyOf(document, rightKeys);
+      if (key == null) {
+        return false;
+      }
+      final ByteBuffer k = ByteBuffer.wrap(key);
+      if (keysOnly) {
+        if (keys.add(k)) {
+          estimatedBytes += key.length + ENTRY_OVERHEAD;
+        }
+        return true;
+      }
+      final byte[] encoded = BinaryDocumentCodec.encode(document);
+      final Object existing = documents.get(k);
+      if (existing == null) {
+        documents.put(k, encoded);
+        estimatedBytes += key.length + ENTRY_OVERHEAD;
+      } else if (existing instanceof byte[]) {
+        documents.put(k, new ArrayList<>(Arrays.asList((byte[]) existing, encoded)));
+      } else {
+        ((List<byte[]>) existing).add(encoded);
+      }
+      estimatedBytes += encoded.length;
+      return true;
+    }
+
+    boolean contains(final byte[] key) {
+      return keysOnly ? keys.contains(ByteBuffer.wrap(key)) : documents.containsKey(ByteBuffer.wrap(key));
+    }
+
+    @SuppressWarnings("unchecked")
+    List<byte[]> get(final byte[] key) {
+      final Object matches = documents.get(ByteBuffer.wrap(key));
+      if (matches == null) {
+        return Collections.emptyList();
+      }
+      return matches instanceof byte[] ? Collections.singletonList((byte[]) matches) : (List<byte[]>) matches;
+    }
+
+    @SuppressWarnings("unchecked")
+    void spillTo(final List<SpillFile> partitions, final int depth) throws IOException {
+      if (keysOnly) {
+        // the keys are enough to partition the build side of a SEMI or ANTI join
+        for (ByteBuffer key : keys) {
+          final DataInputStream in = new DataInputStream(new ByteArrayInputStream(key.array()));
+          final Document document = Json.newDocument();
+          for (FieldPath field : rightKeys) {
+            document.set(field, BinaryDocumentCodec.readValue(in));
+          }
+          partitions.get(partitionOf(key.array(), depth)).write(document);
+        }
+      } else {
+        for (Map.Entry<ByteBuffer, Object> e : documents.entrySet()) {
+          final SpillFile partition = partitions.get(partitionOf(e.getKey().array(), depth));
+          for (byte[] encoded : e.getValue() instanceof byte[]
+              ? Collections.singletonList((byte[]) e.getValue()) : (List<byte[]>) e.getValue()) {
+            partition.write(BinaryDocumentCodec.decode(encoded));
+          }
+        }
+      }
+      documents.clear();
+      keys.clear();
+    }
+  }
+
+  /**
+   * Streams the left documents through an in-memory build table.
+   */
+  private final class ProbeStream extends DocumentStreamBase {
+    private final DocumentStream left;
+    private final BuildTable table;
+
+    ProbeStream(final DocumentStream left, final BuildTable table) {
+      this.left = left;
+      this.table = table;
+    }
+
+    @Override
+    protected Iterator<Document> iteratorDerived() {
+      final Iterator<Document> it = left.iterator();
+      return new Iterator<Document>() {
+        private Document current;
+        private Iterator<byte[]> matches = Collections.emptyIterator();
+        private Document next;
+
+        @Override
+        public boolean hasNext() {
+          while (next == null) {
+            if (matches.hasNext()) {
+              next = merger.merge(current, BinaryDocumentCodec.decode(matches.next()));
+            } else if (it.hasNext()) {
+              probe(it.next());
+            } else {
+              return false;
+            }
+          }
+          return true;
+        }
+
+        private void probe(final Document document) {
+          final byte[] key = keyOf(document, leftKeys);
+          switch (type) {
+          case SEMI:
+            next = key != null && table.contains(key) ? document : null;
+            break;
+          case ANTI:
+            next = key == null || !table.contains(key) ? document : null;
+            break;
+          default:
+            final List<byte[]> found = key == null ? Collections.<byte[]>emptyList() : table.get(key);
+            if (!found.isEmpty()) {
+              current = document;
+              matches = found.iterator();
+            } else if (type == Type.LEFT_OUTER) {
+              next = merger.merge(document, null);
+            }
+          }
+        }
+
+        @Override
+        public Document next() {
+          if (!hasNext()) {
+            throw new NoSuchElementException();
+          }
+          final Document result = next;
+          next = null;
+          return result;
+        }
+      };
+    }
+
+    @Override
+    protected void closeDerived() {
+      left.close();
+    }
+  }
+
+  /**
+   * Joins pairs of spilled partitions one after the other.
+   */
+  private final class PartitionedStream extends DocumentStreamBase {
+    private final List<SpillFile> leftPartitions;
+    private final List<SpillFile> rightPartitions;
+    private final SpillFile unmatched;
+    private final int depth;
+    private DocumentStream current;
+    private int nextPartition;
+
+    PartitionedStream(final List<SpillFile> leftPartitions, final List<SpillFile> rightPartitions,
+        final SpillFile unmatched, final int depth) {
+      this.leftPartitions = leftPartitions;
+      this.rightPartitions = rightPartitions;
+      this.unmatched = unmatched;
+      this.depth = depth;
+    }
+
+    @Override
+    protected Iterator<Document> iteratorDerived() {
+      return new Iterator<Document>() {
+        private Iterator<Document> it = Collections.emptyIterator();
+
+        @Override
+        public boolean hasNext() {
+          while (!it.hasNext()) {
+            if (current != null) {
+              current.close();
+              current = null;
+            }
+            if (nextPartition > partitionCount) {
+              return false;
+            }
+            try {
+              current = nextPartition == partitionCount
+                  ? unmatched.read()
+                  : join(leftPartitions.get(nextPartition).read(), rightPartitions.get(nextPartition).read(),
+                      depth + 1);
+            } catch (IOException e) {
+              throw new OjaiException("Failed to read a join partition", e);
+            }
+            it = current.iterator();
+            if (nextPartition++ == partitionCount && type == Type.LEFT_OUTER) {
+              // the left documents without a key, merged as by the ProbeStream
+              final Iterator<Document> unmatchedDocuments = it;
+              it = new Iterator<Document>() {
+                @Override
+                public boolean hasNext() {
+                  return unmatchedDocuments.hasNext();
+                }
+
+                @Override
+                public Document next() {
+                  return merger.merge(unmatchedDocuments.next(), null);
+                }
+              };
+            }
+          }
+          return true;
+        }
+
+        @Override
+        public Document next() {
+          if (!hasNext()) {
+            throw new NoSuchElementException();
+          }
+          return it.next();
+        }
+      };
+    }
+
+    @Override
+    protected void closeDerived() {
+      if (current != null) {
+        current.close();
+      }
+      for (int i = nextPartition; i < partitionCount; i++) {
+        leftPartitions.get(i).close();
+        rightPartitions.get(i).close();
+      }
+      unmatched.close();
+    }
+  }
+
+}
@@ -0,0 +1,253 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+import org.ojai.Value;
+import org.ojai.annotation.API;
+import org.ojai.annotation.API.NonNullable;
+import org.ojai.annotation.API.Nullable;
+import org.ojai.json.impl.JsonValueBuilder;
+
+/**
+ * A range of values in the order of {@link Values#compare}, between a lower and an upper
+ * bound, each of which is inclusive or exclusive.<p/>
+ *
+ * A {@code null} bound is unbounded. As a missing value sorts before every value, a
+ * range without a lower bound also contains the missing value, and the range
+ * {@code [null, null]} of {@link #all()} contains all values and the missing one.
+ * Conversely, {@link #missing()} contains the missing value only.
+ */
+@API.Public
+@API.Evolving
+@API.Immutable
+public final class KeyRange {
+
+  private static final KeyRange ALL = new KeyRange(null, false, null, false);
+
+  private static final KeyRange MISSING = new KeyRange(null, false, JsonValueBuilder.initFromNull(), false);
+
+  private final Value lower;
+  private final boolean lowerInclusive;
+  private final Value upper;
+  private final boolean upperInclusive;
+
+  private KeyRange(final Value lower, final boolean lowerInclusive, final Value upper,
+      final boolean upperInclusive) {
+    this.lower = lower;
+    this.lowerInclusive = lower != null && lowerInclusive;
+    this.upper = upper;
+    this.upperInclusive = upper != null && upperInclusive;
+  }
+
+  /**
+   * @return the range of all values, including the missing value
+   */
+  public static KeyRange all() {
+    return ALL;
+  }
+
+  /**
+   * @return the range which contains only the missing value
+   */
+  public static KeyRange missing() {
+    return MISSING;
+  }
+
+  public static KeyRange singleton(@NonNullable final Value value) {
+    return new KeyRange(Objects.requireNonNull(value), true, value, true);
+  }
+
+  /**
+   * @param lower the lower bound, or {@code null} if the range is unbounded below
+   * @param upper the upper bound, or {@code null} if the range is unbounded above
+   */
+  public static KeyRange of(@Nullable final Value lower, final boolean lowerInclusive, @Nullable final Value upper,
+      final boolean upperInclusive) {
+    return new KeyRange(lower, lowerInclusive, upper, upperInclusive);
+  }
+
+  public Value getLower() {
+    return lower;
+  }
+
+  public boolean isLowerInclusive() {
+    return lowerInclusive;
+  }
+
+  public Value getUpper() {
+    return upper;
+  }
+
+  public boolean isUpperInclusive() {
+    return upperInclusive;
+  }
+
+  /**
+   * @return {@code true} if this range contains a single value
+   */
+  public boolean isSingleton() {
+    return lowerInclusive && upperInclusive && Values.compare(lower, upper) == 0;
+  }
+
+  /**
+   * @return {@code true} if this range does not contain any value
+   */
+  public boolean isEmpty() {
+    if (lower == null || upper == null) {
+      return false;
+    }
+    final int cmp = Values.compare(lower, upper);
+    return cmp > 0 || (cmp == 0 && !(lowerInclusive && upperInclusive));
+  }
+
+  /**
+   * @param value a value, or {@code null} for the missing value
+   */
+  public boolean contains(@Nullable final Value value) {
+    if (lower != null) {
+      final int cmp = Values.compare(value, lower);
+      if (cmp < 0 || (cmp == 0 && !lowerInclusive)) {
+        return false;
+      }
+    }
+    if (upper != null) {
+      final int cmp = Values.compare(value, upper);
+      if (cmp > 0 || (cmp == 0 && !upperInclusive)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return the intersection of this range and another, which may be empty
+   */
+  public KeyRange intersect(@NonNullable final KeyRange other) {
+    final boolean otherLower = compareLower(other, this) > 0;
+    final boolean otherUpper = compareUpper(other, this) < 0;
+    if (!otherLower && !otherUpper) {
+      return this;
+    }
+    return new KeyRange(otherLower ? other.lower : lower, otherLower ? other.lowerInclusive : lowerInclusive,
+        otherUpper ? other.upper : upper, otherUpper ? other.upperInclusive : upperInclusive);
+  }
+
+  /**
+   * Normalizes a union of ranges into a list of non-empty, disjoint and non-adjacent
+   * ranges sorted by their lower bound.
+   */
+  public static List<KeyRange> union(@NonNullable final List<KeyRange> ranges) {
+    final List<KeyRange> sorted = new ArrayList<>(ranges.size());
+    for (KeyRange range : ranges) {
+      if (!range.isEmpty()) {
+        sorted.add(range);
+      }
+    }
+    Collections.sort(sorted, KeyRange::compareLower);
+    final List<KeyRange> union = new ArrayList<>(sorted.size());
+    KeyRange current = null;
+    for (KeyRange range : sorted) {
+      if (current == null) {
+        current = range;
+      } else if (current.touches(range)) {
+        if (compareUpper(range, current) > 0) {
+          current = new KeyRange(current.lower, current.lowerInclusive, range.upper, range.upperInclusive);
+        }
+      } else {
+        union.add(current);
+        current = range;
+      }
+    }
+    if (current != null) {
+      union.add(current);
+    }
+    return Collections.unmodifiableList(union);
+  }
+
+  /**
+   * @return the normalized intersection of two unions of ranges
+   */
+  public static List<KeyRange> intersect(@NonNullable final List<KeyRange> ranges1,
+      @NonNullable final List<KeyRange> ranges2) {
+    final List<KeyRange> intersection = new ArrayList<>();
+    for (KeyRange r1 : ranges1) {
+      for (KeyRange r2 : ranges2) {
+        final KeyRange r = r1.intersect(r2);
+        if (!r.isEmpty()) {
+          intersection.add(r);
+        }
+      }
+    }
+    return union(intersection);
+  }
+
+  /**
+   * @return {@code true} if the range, which does not start before this one, overlaps
+   *         or is adjacent to this one
+   */
+  private boolean touches(final KeyRange next) {
+    if (upper == null || next.lower == null) {
+      return true;
+    }
+    final int cmp = Values.compare(next.lower, upper);
+    return cmp < 0 || (cmp == 0 && (upperInclusive || next.lowerInclusive));
+  }
+
+  private static int compareLower(final KeyRange r1, final KeyRange r2) {
+    if (r1.lower == null || r2.lower == null) {
+      return r1.lower == null ? (r2.lower == null ? 0 : -1) : 1;
+    }
+    final int cmp = Values.compare(r1.lower, r2.lower);
+    return cmp != 0 ? cmp : Boolean.compare(!r1.lowerInclusive, !r2.lowerInclusive);
+  }
+
+  private static int compareUpper(final KeyRange r1, final KeyRange r2) {
+    if (r1.upper == null || r2.upper == null) {
+      return r1.upper == null ? (r2.upper == null ? 0 : 1) : -1;
+    }
+    final int cmp = Values.compare(r1.upper, r2.upper);
+    return cmp != 0 ? cmp : Boolean.compare(r1.upperInclusive, r2.upperInclusive);
+  }
+
+  @Override
+  public boolean equals(final Object obj) {
+    if (this == obj) {
+      return true;
+    } else if (!(obj instanceof KeyRange)) {
+      return false;
+    }
+    final KeyRange other = (KeyRange) obj;
+    return compareLower(this, other) == 0 && compareUpper(this, other) == 0;
+  }
+
+  @Override
+  public int hashCode() {
+    // equal bounds may be values of different numeric types
+    return Objects.hash(lower == null, lowerInclusive, upper == null, upperInclusive);
+  }
+
+  @Override
+  public String toString() {
+    return (lowerInclusive ? "[" : "(") + (lower == null ? "-inf" : Values.asJsonString(lower)) + ", "
+        + (upper == null ? "+inf" : Values.asJsonString(upper)) + (upperInclusive ? "]" : ")");
+  }
+
+}
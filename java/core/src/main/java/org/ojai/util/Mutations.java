@@ -0,0 +1,469 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.util;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ojai.FieldPath;
+import org.ojai.Value;
+import org.ojai.Value.Type;
+import org.ojai.annotation.API;
+import org.ojai.annotation.API.NonNullable;
+import org.ojai.json.impl.JsonValueBuilder;
+import org.ojai.store.DocumentMutation;
+import org.ojai.store.MutationOp;
+import org.ojai.store.exceptions.IllegalMutationException;
+
+/**
+ * Utilities to compose and compact {@link DocumentMutation}s.<p/>
+ *
+ * Composing two mutations produces a single mutation which, applied to a document,
+ * has the same effect as applying the first and then the second, whenever both would
+ * have succeeded. Operations on the same field are folded into one, e.g. a
+ * {@code set()} followed by an {@code increment()} becomes a {@code set()} of the
+ * incremented value, and operations overridden by a later {@code setOrReplace()} or
+ * {@code delete()} of the same field or of one of its ancestors are dropped.<p/>
+ *
+ * Combinations whose result depends on the stored document, or which the store might
+ * apply differently, are rejected with an {@link IllegalMutationException}, for
+ * instance an {@code increment()} of a field set to a string, an {@code append()}
+ * after a {@code delete()}, fractional increments of a field of unknown type, or an
+ * operation on a descendant of a field modified by the other mutation.<p/>
+ *
+ * The composed operations are written to a target mutation, obtained from the
+ * {@link org.ojai.store.Driver} of the store the mutation will be applied to.
+ */
+@API.Public
+@API.Evolving
+public final class Mutations {
+
+  private Mutations() {}
+
+  /**
+   * Writes to {@code target} a mutation equivalent to applying {@code first} and then
+   * {@code second} to a document.
+   *
+   * @return the target mutation
+   * @throws IllegalMutationException if the mutations can not be safely composed
+   */
+  public static <M extends DocumentMutation> M compose(@NonNullable DocumentMutation first,
+      @NonNullable DocumentMutation second, @NonNullable M target) throws IllegalMutationException {
+    final Map<FieldPath, MutationOp> ops = new LinkedHashMap<>();
+    addAll(ops, first);
+    addAll(ops, second);
+    return writeTo(ops.values(), target);
+  }
+
+  /**
+   * Writes to {@code target} a mutation equivalent to {@code mutation}, with at most one
+   * operation per field and without the operations overridden by later ones.
+   *
+   * @return the target mutation
+   * @throws IllegalMutationException if the operations of the mutation can not be
+   *         safely combined
+   */
+  public static <M extends DocumentMutation> M compact(@NonNullable DocumentMutation mutation,
+      @NonNullable M target) throws IllegalMutationException {
+    final Map<FieldPath, MutationOp> ops = new LinkedHashMap<>();
+    addAll(ops, mutation);
+    return writeTo(ops.values(), target);
+  }
+
+  /**
+   * @return {@code true} if {@code first} and {@code second} can be composed with
+   *         {@link #compose(DocumentMutation, DocumentMutation, DocumentMutation)}
+   */
+  public static boolean isComposable(@NonNullable DocumentMutation first, @NonNullable DocumentMutation second) {
+    try {
+      final Map<FieldPath, MutationOp> ops = new LinkedHashMap<>();
+      addAll(ops, first);
+      addAll(ops, second);
+      return true;
+    } catch (IllegalMutationException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Returns an estimate of the serialized size, in bytes, of the specified mutation:
+   * the sum of the sizes of the paths and values of its operations.
+   *
+   * @see Documents#estimateSize(org.ojai.Document)
+   */
+  public static long estimateSize(@NonNullable DocumentMutation mutation) {
+    long size = 0;
+    for (MutationOp op : mutation) {
+      size += estimateSize(op);
+    }
+    return size;
+  }
+
+  /**
+   * Returns an estimate of the serialized size, in bytes, of the specified operation.
+   */
+  public static long estimateSize(@NonNullable MutationOp op) {
+    long size = 1 + op.getFieldPath().asPathString().length();
+    if (op.getOpValue() != null) {
+      size += Documents.estimateSize(op.getOpValue().asReader());
+    }
+    return size;
+  }
+
+  private static void addAll(final Map<FieldPath, MutationOp> ops, final DocumentMutation mutation) {
+    for (MutationOp op : mutation) {
+      add(ops, op);
+    }
+  }
+
+  /**
+   * Adds an operation to a set of operations on non-overlapping fields, combining it
+   * with an operation on the same field or dropping those it overrides.
+   */
+  private static void add(final Map<FieldPath, MutationOp> ops, final MutationOp op) {
+    final FieldPath path = op.getFieldPath();
+    final MutationOp existing = ops.get(path);
+    if (existing != null) {
+      ops.put(path, combine(existing, op));
+      return;
+    }
+
+    for (Iterator<MutationOp> it = ops.values().iterator(); it.hasNext();) {
+      final FieldPath other = it.next().getFieldPath();
+      if (other.isAtOrBelow(path)) {
+        if (!overridesDescendants(op)) {
+          throw reject(op, "a descendant of it was modified earlier");
+        }
+        it.remove();
+      } else if (path.isAtOrBelow(other)) {
+        throw reject(op, "an ancestor of it was modified earlier");
+      }
+    }
+    ops.put(path, op);
+  }
+
+  private static boolean overridesDescendants(final MutationOp op) {
+    switch (op.getType()) {
+    case SET_OR_REPLACE:
+    case DELETE:
+      return true;
+    case SET:
+      // the ancestor is a map, which may only be set to another map
+      return op.getOpValue().getType() == Type.MAP;
+    default:
+      return false;
+    }
+  }
+
+  /**
+   * Returns a single operation equivalent to {@code a} followed by {@code b}, on the
+   * same field.
+   */
+  private static MutationOp combine(final MutationOp a, final MutationOp b) {
+    final MutationOp.Type aType = a.getType();
+    final Value v = a.getOpValue();
+    final Value w = b.getOpValue();
+    switch (b.getType()) {
+    case SET_OR_REPLACE:
+    case DELETE:
+      return b;
+
+    case SET:
+      switch (aType) {
+      case DELETE:
+        return op(MutationOp.Type.SET_OR_REPLACE, b.getFieldPath(), w);
+      case SET:
+      case SET_OR_REPLACE:
+      case APPEND:
+      case MERGE:
+        if (kindOf(v) == kindOf(w)) {
+          return op(aType == MutationOp.Type.SET_OR_REPLACE ? aType : MutationOp.Type.SET, b.getFieldPath(), w);
+        }
+        break;
+      case INCREMENT:
+        if (kindOf(w) == Kind.SCALAR) {
+          return b;
+        }
+        break;
+      }
+      break;
+
+    case INCREMENT:
+      switch (aType) {
+      case DELETE:
+        return op(MutationOp.Type.SET_OR_REPLACE, b.getFieldPath(), w);
+      case SET:
+      case SET_OR_REPLACE:
+        if (isNumeric(v)) {
+          return op(aType, b.getFieldPath(), increment(v, w));
+        }
+        break;
+      case INCREMENT:
+        if (isIntegral(v) && isIntegral(w)) {
+          return op(aType, b.getFieldPath(), addIncrements(v, w));
+        }
+        break;
+      default:
+        break;
+      }
+      break;
+
+    case APPEND:
+      if ((aType == MutationOp.Type.SET || aType == MutationOp.Type.SET_OR_REPLACE
+          || aType == MutationOp.Type.APPEND) && v.getType() == w.getType()) {
+        final Value concatenated = concat(v, w);
+        if (concatenated != null) {
+          return op(aType, b.getFieldPath(), concatenated);
+        }
+      }
+      break;
+
+    case MERGE:
+      if ((aType == MutationOp.Type.SET || aType == MutationOp.Type.SET_OR_REPLACE
+          || aType == MutationOp.Type.MERGE) && v.getType() == Type.MAP && w.getType() == Type.MAP) {
+        final Value merged = overlay(v, w);
+        if (merged != null) {
+          return op(aType, b.getFieldPath(), merged);
+        }
+      }
+      break;
+    }
+    throw reject(b, "it can not be combined with the earlier " + aType + " operation");
+  }
+
+  private enum Kind { SCALAR, MAP, ARRAY }
+
+  private static Kind kindOf(final Value value) {
+    switch (value.getType()) {
+    case MAP:
+      return Kind.MAP;
+    case ARRAY:
+      return Kind.ARRAY;
+    default:
+      return Kind.SCALAR;
+    }
+  }
+
+  private static boolean isNumeric(final Value value) {
+    return value.getType().isNumeric();
+  }
+
+  /**
+   * @return {@code true} if the value is a number without a fractional part
+   */
+  private static boolean isIntegral(final Value value) {
+    switch (value.getType()) {
+    case BYTE:
+    case SHORT:
+    case INT:
+    case LONG:
+      return true;
+    case FLOAT:
+    case DOUBLE:
+    case DECIMAL:
+      final BigDecimal decimal = Values.asDecimal(value);
+      return decimal.signum() == 0 || decimal.stripTrailingZeros().scale() <= 0;
+    default:
+      return false;
+    }
+  }
+
+  /**
+   * Returns {@code base + inc} with the type of {@code base}, truncating any fractional
+   * part as the store would, or fails if the result is out of the range of the type.
+   */
+  private static Value increment(final Value base, final Value inc) {
+    final Type type = base.getType();
+    switch (type) {
+    case FLOAT:
+      return JsonValueBuilder.initFrom((float) (base.getFloat() + Values.asDouble(inc)));
+    case DOUBLE:
+      return JsonValueBuilder.initFrom(base.getDouble() + Values.asDouble(inc));
+    case DECIMAL:
+      return JsonValueBuilder.initFrom(base.getDecimal().add(Values.asDecimal(inc)));
+    default:
+      break;
+    }
+
+    final BigDecimal sum = Values.asDecimal(base).add(Values.asDecimal(inc)).setScale(0, RoundingMode.DOWN);
+    final Value value = toIntegral(sum, type);
+    if (value == null) {
+      throw new IllegalMutationException("The sum " + sum + " overflows the type " + type);
+    }
+    return value;
+  }
+
+  /**
+   * Returns the sum of two integral increments with the type of the first one, or as a
+   * {@code LONG} or {@code DECIMAL} if it is out of the range of that type. An existing
+   * field keeps its own type when incremented, while a missing one would have been
+   * created with the type of the first increment and overflowed by the second.
+   */
+  private static Value addIncrements(final Value first, final Value second) {
+    final Type type = first.getType();
+    if (type == Type.FLOAT || type == Type.DOUBLE || type == Type.DECIMAL) {
+      return increment(first, second);
+    }
+    final BigDecimal sum = Values.asDecimal(first).add(Values.asDecimal(second)).setScale(0, RoundingMode.DOWN);
+    Value value = toIntegral(sum, type);
+    if (value == null) {
+      value = toIntegral(sum, Type.LONG);
+    }
+    return value != null ? value : JsonValueBuilder.initFrom(sum);
+  }
+
+  /**
+   * @return an integral number as a value of the specified integral type, or
+   *         {@code null} if it is out of the range of the type
+   */
+  private static Value toIntegral(final BigDecimal number, final Type type) {
+    try {
+      switch (type) {
+      case BYTE:
+        return JsonValueBuilder.initFrom(number.byteValueExact());
+      case SHORT:
+        return JsonValueBuilder.initFrom(number.shortValueExact());
+      case INT:
+        return JsonValueBuilder.initFrom(number.intValueExact());
+      default:
+        return JsonValueBuilder.initFrom(number.longValueExact());
+      }
+    } catch (ArithmeticException e) {
+      return null;
+    }
+  }
+
+  private static Value concat(final Value v, final Value w) {
+    switch (v.getType()) {
+    case ARRAY:
+      final List<Object> list = new ArrayList<>(v.getList());
+      list.addAll(w.getList());
+      return JsonValueBuilder.initFromObject(list);
+    case STRING:
+      return JsonValueBuilder.initFrom(v.getString() + w.getString());
+    case BINARY:
+      final ByteBuffer first = v.getBinary().duplicate();
+      final ByteBuffer second = w.getBinary().duplicate();
+      final ByteBuffer bytes = ByteBuffer.allocate(first.remaining() + second.remaining());
+      bytes.put(first).put(second).flip();
+      return JsonValueBuilder.initFrom(bytes);
+    default:
+      return null;
+    }
+  }
+
+  /**
+   * Overlays the fields of the map {@code w} on the map {@code v}, or returns
+   * {@code null} if a field is a map in both, as a merge might combine them.
+   */
+  private static Value overlay(final Value v, final Value w) {
+    final Map<String, Object> base = v.getMap();
+    final Map<String, Object> merged = new LinkedHashMap<>(base);
+    for (Map.Entry<String, Object> e : w.getMap().entrySet()) {
+      if (e.getValue() instanceof Map && base.get(e.getKey()) instanceof Map) {
+        return null;
+      }
+      merged.put(e.getKey(), e.getValue());
+    }
+    return JsonValueBuilder.initFrom(merged);
+  }
+
+  private static MutationOp op(final MutationOp.Type type, final FieldPath path, final Value value) {
+    final MutationOp op = new MutationOp();
+    op.setType(type);
+    op.setFieldPath(path);
+    if (value != null) {
+      op.setOpValue(value);
+    }
+    return op;
+  }
+
+  private static IllegalMutationException reject(final MutationOp op, final String reason) {
+    return new IllegalMutationException("Can not compose the " + op.getType() + " operation on '"
+        + op.getFieldPath().asPathString() + "' because " + reason);
+  }
+
+  private static <M extends DocumentMutation> M writeTo(final Iterable<MutationOp> ops, final M target) {
+    for (MutationOp op : ops) {
+      final FieldPath path = op.getFieldPath();
+      final Value value = op.getOpValue();
+      switch (op.getType()) {
+      case SET:
+        target.set(path, value);
+        break;
+      case SET_OR_REPLACE:
+        target.setOrReplace(path, value);
+        break;
+      case DELETE:
+        target.delete(path);
+        break;
+      case INCREMENT:
+        writeIncrement(target, path, value);
+        break;
+      case APPEND:
+        switch (value.getType()) {
+        case ARRAY:
+          target.append(path, value.getList());
+          break;
+        case STRING:
+          target.append(path, value.getString());
+          break;
+        default:
+          target.append(path, value.getBinary());
+          break;
+        }
+        break;
+      case MERGE:
+        target.merge(path, value.getMap());
+        break;
+      }
+    }
+    return target;
+  }
+
+  private static void writeIncrement(final DocumentMutation target, final FieldPath path, final Value inc) {
+    switch (inc.getType()) {
+    case BYTE:
+      target.increment(path, inc.getByte());
+      break;
+    case SHORT:
+      target.increment(path, inc.getShort());
+      break;
+    case INT:
+      target.increment(path, inc.getInt());
+      break;
+    case LONG:
+      target.increment(path, inc.getLong());
+      break;
+    case FLOAT:
+      target.increment(path, inc.getFloat());
+      break;
+    case DOUBLE:
+      target.increment(path, inc.getDouble());
+      break;
+    default:
+      target.increment(path, inc.getDecimal());
+      break;
+    }
+  }
+
+}
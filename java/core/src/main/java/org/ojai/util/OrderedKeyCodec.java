@@ -0,0 +1,590 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.util;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.ojai.Document;
+import org.ojai.FieldPath;
+import org.ojai.Value;
+import org.ojai.annotation.API;
+import org.ojai.annotation.API.NonNullable;
+import org.ojai.exceptions.DecodingException;
+import org.ojai.json.Json;
+import org.ojai.json.impl.JsonValueBuilder;
+import org.ojai.store.SortOrder;
+import org.ojai.types.ODate;
+import org.ojai.types.OInterval;
+import org.ojai.types.OTime;
+import org.ojai.types.OTimestamp;
+
+import com.google.common.base.Preconditions;
+import com.google.common.primitives.UnsignedBytes;
+
+/**
+ * Encodes {@link Value}s, and composite keys of several values, into byte arrays whose
+ * unsigned lexicographic order is the order of {@link Values#compare}, so that sorting,
+ * indexing and range partitioning can compare keys with a plain byte comparison.<p/>
+ *
+ * Each value is encoded as a tag byte, which orders the types, followed by a
+ * self-delimiting payload:
+ * <ul>
+ * <li>all the numeric types share one encoding, ordered by numeric value: the sign,
+ * then the decimal exponent and the decimal digits of the exact value, two digits per
+ * byte. Negative numbers have their magnitude inverted. The infinities and NaN are
+ * ordered below, respectively above all the finite numbers, and NaN above infinity;
+ * </li>
+ * <li>strings are encoded by UTF-16 code unit, which preserves the order of
+ * {@link String#compareTo}, in one byte for ASCII characters, and terminated by two zero
+ * bytes. Binary values escape their zero bytes and are terminated by {@code 0x00 0x01};
+ * </li>
+ * <li>dates, times, timestamps and intervals are encoded as their day or millisecond
+ * counts in big-endian order with the sign bit flipped;</li>
+ * <li>arrays are encoded element by element and terminated by a zero byte, and maps
+ * as the string of their extended JSON representation.</li>
+ * </ul>
+ *
+ * The components of a composite key are concatenated; a component in
+ * {@link SortOrder#DESC descending} order has all its bytes inverted. A missing
+ * component, i.e. a {@code null} value, sorts before every value, as in
+ * {@link DocumentComparator}.<p/>
+ *
+ * Decoding is exact except for the numeric types, which are decoded to the first of
+ * {@code LONG}, {@code DOUBLE} or {@code DECIMAL} which represents the number exactly,
+ * and for {@code -0.0}, which is encoded as zero.
+ */
+@API.Public
+@API.Evolving
+@API.Immutable
+public final class OrderedKeyCodec {
+
+  private static final int END = 0x00;
+  private static final int MISSING = 0x01;
+  private static final int NULL = 0x02;
+  private static final int FALSE = 0x03;
+  private static final int TRUE = 0x04;
+  private static final int STRING = 0x05;
+  private static final int NEGATIVE_INFINITY = 0x06;
+  private static final int NEGATIVE = 0x07;
+  private static final int ZERO = 0x08;
+  private static final int POSITIVE = 0x09;
+  private static final int POSITIVE_INFINITY = 0x0A;
+  private static final int NAN = 0x0B;
+  private static final int DATE = 0x0C;
+  private static final int TIME = 0x0D;
+  private static final int TIMESTAMP = 0x0E;
+  private static final int INTERVAL = 0x0F;
+  private static final int BINARY = 0x10;
+  private static final int MAP = 0x11;
+  private static final int ARRAY = 0x12;
+
+  private static final BigDecimal MIN_LONG = BigDecimal.valueOf(Long.MIN_VALUE);
+  private static final BigDecimal MAX_LONG = BigDecimal.valueOf(Long.MAX_VALUE);
+
+  private final List<SortKey> sortKeys;
+  private final FieldPath[] fields;
+  private final boolean[] descending;
+
+  /**
+   * Creates a codec of composite keys made of the values of the specified fields.
+   */
+  public OrderedKeyCodec(@NonNullable final List<SortKey> sortKeys) {
+    Preconditions.checkArgument(!sortKeys.isEmpty(), "At least one sort key is required");
+    this.sortKeys = Collections.unmodifiableList(new ArrayList<>(sortKeys));
+    this.fields = new FieldPath[sortKeys.size()];
+    this.descending = new boolean[sortKeys.size()];
+    for (int i = 0; i < fields.length; i++) {
+      fields[i] = sortKeys.get(i).getFieldPath();
+      descending[i] = sortKeys.get(i).getOrder() == SortOrder.DESC;
+    }
+  }
+
+  public static OrderedKeyCodec of(@NonNullable final SortKey... sortKeys) {
+    return new OrderedKeyCodec(Arrays.asList(sortKeys));
+  }
+
+  public List<SortKey> getSortKeys() {
+    return sortKeys;
+  }
+
+  /**
+   * @return the key of the specified document, whose byte order is the order of a
+   *         {@link DocumentComparator} with the same sort keys
+   */
+  public byte[] encode(@NonNullable final Document document) {
+    final Output out = new Output();
+    for (int i = 0; i < fields.length; i++) {
+      out.writeComponent(document.getValue(fields[i]), descending[i]);
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * @return the key made of the specified values, one per sort key, any of which may
+   *         be {@code null}
+   */
+  public byte[] encode(@NonNullable final Value... values) {
+    Preconditions.checkArgument(values.length == fields.length, "Expected %s values, found %s",
+        fields.length, values.length);
+    final Output out = new Output();
+    for (int i = 0; i < fields.length; i++) {
+      out.writeComponent(values[i], descending[i]);
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * @return the values of a key, one per sort key, with {@code null} for the missing
+   *         ones
+   */
+  public List<Value> decode(@NonNullable final byte[] key) {
+    final Input in = new Input(key);
+    final List<Value> values = new ArrayList<>(fields.length);
+    for (int i = 0; i < fields.length; i++) {
+      values.add(in.readComponent(descending[i]));
+    }
+    in.checkEnd();
+    return values;
+  }
+
+  /**
+   * @return the key of a single value in ascending order
+   */
+  public static byte[] encodeValue(final Value value) {
+    return encodeValue(value, SortOrder.ASC);
+  }
+
+  /**
+   * @return the key of a single value, or of a missing value if it is {@code null}
+   */
+  public static byte[] encodeValue(final Value value, @NonNullable final SortOrder order) {
+    final Output out = new Output();
+    out.writeComponent(value, order == SortOrder.DESC);
+    return out.toByteArray();
+  }
+
+  /**
+   * @return the value of a key returned by {@link #encodeValue(Value)}
+   */
+  public static Value decodeValue(@NonNullable final byte[] key) {
+    return decodeValue(key, SortOrder.ASC);
+  }
+
+  /**
+   * @return the value of a key returned by {@link #encodeValue(Value, SortOrder)}
+   */
+  public static Value decodeValue(@NonNullable final byte[] key, @NonNullable final SortOrder order) {
+    final Input in = new Input(key);
+    final Value value = in.readComponent(order == SortOrder.DESC);
+    in.checkEnd();
+    return value;
+  }
+
+  /**
+   * @return the comparator of encoded keys, which compares them as unsigned bytes
+   */
+  public static Comparator<byte[]> comparator() {
+    return UnsignedBytes.lexicographicalComparator();
+  }
+
+  private static boolean isIntegral(final Value.Type type) {
+    return type == Value.Type.BYTE || type == Value.Type.SHORT || type == Value.Type.INT
+        || type == Value.Type.LONG;
+  }
+
+  /**
+   * A growable byte array.
+   */
+  private static final class Output {
+    private byte[] buffer = new byte[32];
+    private int length;
+
+    void write(final int b) {
+      if (length == buffer.length) {
+        buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+      }
+      buffer[length++] = (byte) b;
+    }
+
+    void writeInt(final int i) {
+      final int flipped = i ^ Integer.MIN_VALUE;
+      write(flipped >>> 24);
+      write(flipped >>> 16);
+      write(flipped >>> 8);
+      write(flipped);
+    }
+
+    void writeLong(final long l) {
+      final long flipped = l ^ Long.MIN_VALUE;
+      for (int shift = 56; shift >= 0; shift -= 8) {
+        write((int) (flipped >>> shift));
+      }
+    }
+
+    void invert(final int from) {
+      for (int i = from; i < length; i++) {
+        buffer[i] = (byte) ~buffer[i];
+      }
+    }
+
+    byte[] toByteArray() {
+      return Arrays.copyOf(buffer, length);
+    }
+
+    void writeComponent(final Value value, final boolean descending) {
+      final int start = length;
+      if (value == null) {
+        write(MISSING);
+      } else {
+        writeValue(value);
+      }
+      if (descending) {
+        invert(start);
+      }
+    }
+
+    void writeValue(final Value value) {
+      final Value.Type type = value.getType();
+      switch (type) {
+      case NULL:
+        write(NULL);
+        break;
+      case BOOLEAN:
+        write(value.getBoolean() ? TRUE : FALSE);
+        break;
+      case STRING:
+        write(STRING);
+        writeString(value.getString());
+        break;
+      case BYTE:
+      case SHORT:
+      case INT:
+      case LONG:
+        writeLongNumber(Values.asLong(value));
+        break;
+      case FLOAT:
+      case DOUBLE:
+        writeDoubleNumber(Values.asDouble(value));
+        break;
+      case DECIMAL:
+        writeDecimalNumber(value.getDecimal());
+        break;
+      case DATE:
+        write(DATE);
+        writeInt(value.getDate().toDaysSinceEpoch());
+        break;
+      case TIME:
+        write(TIME);
+        writeInt(value.getTime().toTimeInMillis());
+        break;
+      case TIMESTAMP:
+        write(TIMESTAMP);
+        writeLong(value.getTimestamp().getMillis());
+        break;
+      case INTERVAL:
+        write(INTERVAL);
+        writeLong(value.getInterval().getTimeInMillis());
+        break;
+      case BINARY:
+        write(BINARY);
+        writeBinary(value.getBinary());
+        break;
+      case MAP:
+        write(MAP);
+        writeString(Values.asJsonString(value));
+        break;
+      case ARRAY:
+        write(ARRAY);
+        for (Object element : value.getList()) {
+          writeValue(element instanceof Value ? (Value) element : JsonValueBuilder.initFromObject(element));
+        }
+        write(END);
+        break;
+      default:
+        throw new IllegalArgumentException("Unsupported type " + type);
+      }
+    }
+
+    /**
+     * Writes the UTF-16 code units of a string: 0x0001-0x007F in one byte, 0x0080-0x3FFF
+     * in two bytes starting with 0x80-0xBF, and 0x4000-0xFFFF in three bytes starting
+     * with 0xC0. 0x0000 is written as {@code 0x00 0x01}, and the string is terminated
+     * by {@code 0x00 0x00}.
+     */
+    void writeString(final String s) {
+      for (int i = 0; i < s.length(); i++) {
+        final char c = s.charAt(i);
+        if (c == 0) {
+          write(0x00);
+          write(0x01);
+        } else if (c < 0x80) {
+          write(c);
+        } else if (c < 0x4000) {
+          write(0x80 | (c >>> 8));
+          write(c);
+        } else {
+          write(0xC0);
+          write(c >>> 8);
+          write(c);
+        }
+      }
+      write(0x00);
+      write(0x00);
+    }
+
+    void writeBinary(final ByteBuffer binary) {
+      for (int i = binary.position(); i < binary.limit(); i++) {
+        final int b = binary.get(i) & 0xff;
+        write(b);
+        if (b == 0) {
+          write(0xFF);
+        }
+      }
+      write(0x00);
+      write(0x01);
+    }
+
+    void writeLongNumber(final long l) {
+      if (l == 0) {
+        write(ZERO);
+        return;
+      }
+      // the digits of the magnitude, without the sign of Long.MIN_VALUE
+      final String digits = l < 0 ? Long.toString(l).substring(1) : Long.toString(l);
+      write(l < 0 ? NEGATIVE : POSITIVE);
+      writeMagnitude(digits, digits.length(), l < 0);
+    }
+
+    void writeDoubleNumber(final double d) {
+      if (Double.isNaN(d)) {
+        write(NAN);
+      } else if (Double.isInfinite(d)) {
+        write(d > 0 ? POSITIVE_INFINITY : NEGATIVE_INFINITY);
+      } else if (d == (long) d && d != 0x1p63) {
+        writeLongNumber((long) d);
+      } else {
+        writeDecimalNumber(new BigDecimal(d));
+      }
+    }
+
+    void writeDecimalNumber(final BigDecimal decimal) {
+      final int signum = decimal.signum();
+      if (signum == 0) {
+        write(ZERO);
+        return;
+      }
+      final BigDecimal stripped = decimal.stripTrailingZeros();
+      final String digits = stripped.unscaledValue().abs().toString();
+      final long exponent = (long) digits.length() - stripped.scale();
+      Preconditions.checkArgument(exponent >= Integer.MIN_VALUE && exponent <= Integer.MAX_VALUE,
+          "The exponent of %s is out of range", decimal);
+      write(signum < 0 ? NEGATIVE : POSITIVE);
+      writeMagnitude(digits, (int) exponent, signum < 0);
+    }
+
+    /**
+     * Writes the magnitude {@code 0.digits * 10^exponent} as the exponent, then the
+     * digits two by two as bytes 0x01-0x64, then a zero byte. Trailing zero digits are
+     * dropped, so that a shorter sequence of digits is a smaller magnitude.
+     */
+    void writeMagnitude(final String digits, final int exponent, final boolean negative) {
+      final int start = length;
+      int end = digits.length();
+      while (digits.charAt(end - 1) == '0') {
+        end--;
+      }
+      writeInt(exponent);
+      for (int i = 0; i < end; i += 2) {
+        final int high = digits.charAt(i) - '0';
+        final int low = i + 1 < end ? digits.charAt(i + 1) - '0' : 0;
+        write(10 * high + low + 1);
+      }
+      write(END);
+      if (negative) {
+        invert(start);
+      }
+    }
+  }
+
+  /**
+   * Reads an encoded key, inverting the bytes of descending components.
+   */
+  private static final class Input {
+    private final byte[] key;
+    private int position;
+    private int mask;
+
+    Input(final byte[] key) {
+      this.key = key;
+    }
+
+    int read() {
+      if (position >= key.length) {
+        throw new DecodingException("Unexpected end of key at offset " + position);
+      }
+      return (key[position++] ^ mask) & 0xff;
+    }
+
+    int peek() {
+      final int b = read();
+      position--;
+      return b;
+    }
+
+    int readInt() {
+      int i = 0;
+      for (int n = 0; n < 4; n++) {
+        i = (i << 8) | read();
+      }
+      return i ^ Integer.MIN_VALUE;
+    }
+
+    long readLong() {
+      long l = 0;
+      for (int n = 0; n < 8; n++) {
+        l = (l << 8) | read();
+      }
+      return l ^ Long.MIN_VALUE;
+    }
+
+    void checkEnd() {
+      if (position != key.length) {
+        throw new DecodingException((key.length - position) + " extra bytes at the end of the key");
+      }
+    }
+
+    Value readComponent(final boolean descending) {
+      mask = descending ? 0xff : 0;
+      if (peek() == MISSING) {
+        position++;
+        return null;
+      }
+      return readValue();
+    }
+
+    Value readValue() {
+      final int tag = read();
+      switch (tag) {
+      case NULL:
+        return JsonValueBuilder.initFromNull();
+      case FALSE:
+        return JsonValueBuilder.initFrom(false);
+      case TRUE:
+        return JsonValueBuilder.initFrom(true);
+      case STRING:
+        return JsonValueBuilder.initFrom(readString());
+      case NEGATIVE_INFINITY:
+        return JsonValueBuilder.initFrom(Double.NEGATIVE_INFINITY);
+      case NEGATIVE:
+        return readNumber(true);
+      case ZERO:
+        return JsonValueBuilder.initFrom(0L);
+      case POSITIVE:
+        return readNumber(false);
+      case POSITIVE_INFINITY:
+        return JsonValueBuilder.initFrom(Double.POSITIVE_INFINITY);
+      case NAN:
+        return JsonValueBuilder.initFrom(Double.NaN);
+      case DATE:
+        return JsonValueBuilder.initFrom(ODate.fromDaysSinceEpoch(readInt()));
+      case TIME:
+        return JsonValueBuilder.initFrom(OTime.fromMillisOfDay(readInt()));
+      case TIMESTAMP:
+        return JsonValueBuilder.initFrom(new OTimestamp(readLong()));
+      case INTERVAL:
+        return JsonValueBuilder.initFrom(new OInterval(readLong()));
+      case BINARY:
+        return JsonValueBuilder.initFrom(readBinary());
+      case MAP:
+        return JsonValueBuilder.initFrom(Json.newDocument(readString()));
+      case ARRAY:
+        final List<Object> elements = new ArrayList<>();
+        while (peek() != END) {
+          elements.add(readValue());
+        }
+        position++;
+        return JsonValueBuilder.initFrom(elements);
+      default:
+        throw new DecodingException("Invalid tag " + tag + " at offset " + (position - 1));
+      }
+    }
+
+    String readString() {
+      final StringBuilder sb = new StringBuilder();
+      while (true) {
+        final int b = read();
+        if (b == 0x00) {
+          if (read() == 0x00) {
+            return sb.toString();
+          }
+          sb.append('\0');
+        } else if (b < 0x80) {
+          sb.append((char) b);
+        } else if (b < 0xC0) {
+          sb.append((char) (((b & 0x3F) << 8) | read()));
+        } else {
+          sb.append((char) ((read() << 8) | read()));
+        }
+      }
+    }
+
+    ByteBuffer readBinary() {
+      final Output bytes = new Output();
+      while (true) {
+        final int b = read();
+        if (b == 0x00 && read() == 0x01) {
+          return ByteBuffer.wrap(bytes.toByteArray());
+        }
+        bytes.write(b);
+      }
+    }
+
+    Value readNumber(final boolean negative) {
+      final int outer = mask;
+      if (negative) {
+        mask ^= 0xff;
+      }
+      final int exponent = readInt();
+      final StringBuilder digits = new StringBuilder();
+      int b;
+      while ((b = read()) != END) {
+        digits.append((char) ('0' + (b - 1) / 10)).append((char) ('0' + (b - 1) % 10));
+      }
+      mask = outer;
+      BigDecimal decimal = new BigDecimal(new BigInteger(digits.toString()), digits.length() - exponent);
+      if (negative) {
+        decimal = decimal.negate();
+      }
+      decimal = decimal.stripTrailingZeros();
+      if (decimal.scale() <= 0 && decimal.compareTo(MIN_LONG) >= 0 && decimal.compareTo(MAX_LONG) <= 0) {
+        return JsonValueBuilder.initFrom(decimal.longValueExact());
+      }
+      final double d = decimal.doubleValue();
+      if (!Double.isInfinite(d) && new BigDecimal(d).compareTo(decimal) == 0) {
+        return JsonValueBuilder.initFrom(d);
+      }
+      return JsonValueBuilder.initFrom(decimal);
+    }
+  }
+
+}
@@ -0,0 +1,374 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.util;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.ojai.Document;
+import org.ojai.DocumentStream;
+import org.ojai.annotation.API;
+import org.ojai.annotation.API.NonNullable;
+import org.ojai.base.DocumentStreamBase;
+import org.ojai.exceptions.OjaiException;
+import org.ojai.util.impl.DaemonThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+
+/**
+ * A {@link DocumentStream} which reads ahead of its consumer, so that the I/O and
+ * parsing of a source stream, such as a {@link org.ojai.store.QueryResult QueryResult},
+ * overlap with the processing of the documents already read.<p/>
+ *
+ * Once the iterator of the stream is requested, a background task reads the source
+ * stream into a bounded ring buffer, until it holds {@link #setDepth(int) depth}
+ * documents or documents whose estimated size, as computed by
+ * {@link Documents#estimateSize(Document)}, exceeds the {@link #setMaxBytes(long)
+ * byte budget}; a single document larger than the budget is still buffered alone. A
+ * failure of the source is rethrown by the iterator after the documents read before
+ * it.<p/>
+ *
+ * The source stream is only accessed by the background task, which closes it once
+ * it is exhausted, fails, or this stream is closed. {@link #close()} waits for the
+ * task to finish reading the current document.<p/>
+ *
+ * The stall counters tell which side is the bottleneck: the consumer stalls when the
+ * buffer is empty, the producer when it is full.
+ */
+@API.Public
+@API.Evolving
+@API.NotThreadSafe
+public class PrefetchingDocumentStream extends DocumentStreamBase {
+
+  private static final Logger logger = LoggerFactory.getLogger(PrefetchingDocumentStream.class);
+
+  public static final int DEFAULT_DEPTH = 1024;
+
+  public static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
+
+  private final DocumentStream source;
+  private int depth = DEFAULT_DEPTH;
+  private long maxBytes = DEFAULT_MAX_BYTES;
+  private Executor executor;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = lock.newCondition();
+  private final Condition notFull = lock.newCondition();
+  private final CountDownLatch finished = new CountDownLatch(1);
+
+  // the ring buffer, guarded by the lock
+  private Document[] documents;
+  private long[] sizes;
+  private int head;
+  private int count;
+  private long bufferedBytes;
+  private boolean exhausted;
+  private Throwable failure;
+  private boolean closed;
+  private boolean started;
+
+  // the metrics, written under the lock
+  private volatile long prefetchedCount;
+  private volatile long peakBufferedBytes;
+  private volatile long consumerStallCount;
+  private volatile long consumerStallNanos;
+  private volatile long producerStallCount;
+  private volatile long producerStallNanos;
+
+  public PrefetchingDocumentStream(@NonNullable final DocumentStream source) {
+    this.source = Preconditions.checkNotNull(source);
+  }
+
+  /**
+   * Sets the maximum number of documents read ahead.
+   */
+  public PrefetchingDocumentStream setDepth(final int depth) {
+    Preconditions.checkArgument(depth > 0, "depth must be positive, found %s", depth);
+    Preconditions.checkState(!isUsed, "The stream is already in use");
+    this.depth = depth;
+    return this;
+  }
+
+  /**
+   * Sets the maximum estimated size, in bytes, of the documents read ahead.
+   */
+  public PrefetchingDocumentStream setMaxBytes(final long maxBytes) {
+    Preconditions.checkArgument(maxBytes > 0, "maxBytes must be positive, found %s", maxBytes);
+    Preconditions.checkState(!isUsed, "The stream is already in use");
+    this.maxBytes = maxBytes;
+    return this;
+  }
+
+  /**
+   * Sets the executor to run the read-ahead task on; by default, it runs on a
+   * daemon thread of a shared pool. The task occupies its thread until the source
+   * stream is exhausted or this stream is closed.
+   */
+  public PrefetchingDocumentStream setExecutor(final Executor executor) {
+    Preconditions.checkState(!isUsed, "The stream is already in use");
+    this.executor = executor;
+    return this;
+  }
+
+  /**
+   * @return the number of documents read from the source stream so far
+   */
+  public long getPrefetchedCount() {
+    return prefetchedCount;
+  }
+
+  /**
+   * @return the number of documents currently read ahead
+   */
+  public int getBufferedCount() {
+    lock.lock();
+    try {
+      return count;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the largest estimated size, in bytes, of the documents read ahead at once
+   */
+  public long getPeakBufferedBytes() {
+    return peakBufferedBytes;
+  }
+
+  /**
+   * @return the number of times the consumer waited for a document to be read
+   */
+  public long getConsumerStallCount() {
+    return consumerStallCount;
+  }
+
+  /**
+   * @return the total time, in nanoseconds, the consumer waited for documents to be read
+   */
+  public long getConsumerStallNanos() {
+    return consumerStallNanos;
+  }
+
+  /**
+   * @return the number of times the background task waited for the buffer to drain
+   */
+  public long getProducerStallCount() {
+    return producerStallCount;
+  }
+
+  /**
+   * @return the total time, in nanoseconds, the background task waited for the buffer
+   *         to drain
+   */
+  public long getProducerStallNanos() {
+    return producerStallNanos;
+  }
+
+  @Override
+  protected Iterator<Document> iteratorDerived() {
+    documents = new Document[depth];
+    sizes = new long[depth];
+    started = true;
+    try {
+      (executor != null ? executor : DefaultExecutorHolder.EXECUTOR).execute(this::prefetch);
+    } catch (RejectedExecutionException e) {
+      failure = e;
+      exhausted = true;
+      finished.countDown();
+      source.close();
+    }
+
+    return new Iterator<Document>() {
+      @Override
+      public boolean hasNext() {
+        lock.lock();
+        try {
+          if (count == 0 && !exhausted && !closed) {
+            consumerStallCount++;
+            final long start = System.nanoTime();
+            while (count == 0 && !exhausted && !closed) {
+              notEmpty.await();
+            }
+            consumerStallNanos += System.nanoTime() - start;
+          }
+          if (count > 0) {
+            return true;
+          } else if (failure != null) {
+            final Throwable t = failure;
+            failure = null; // reported once
+            Throwables.throwIfUnchecked(t);
+            throw new OjaiException(t);
+          }
+          return false;
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new OjaiException(e);
+        } finally {
+          lock.unlock();
+        }
+      }
+
+      @Override
+      public Document next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        lock.lock();
+        try {
+          final Document document = documents[head];
+          documents[head] = null;
+          bufferedBytes -= sizes[head];
+          head = (head + 1) % documents.length;
+          count--;
+          notFull.signal();
+          return document;
+        } finally {
+          lock.unlock();
+        }
+      }
+    };
+  }
+
+  /**
+   * The background task, reading the source stream into the ring buffer.
+   */
+  private void prefetch() {
+    try {
+      final Iterator<Document> it = source.iterator();
+      while (!isStopped() && it.hasNext()) {
+        final Document document = it.next();
+        if (!offer(document, Documents.estimateSize(document))) {
+          break;
+        }
+      }
+    } catch (Throwable t) {
+      lock.lock();
+      try {
+        failure = t;
+      } finally {
+        lock.unlock();
+      }
+      if (t instanceof InterruptedException) {
+        // the pool thread was interrupted, e.g. by shutdownNow()
+        Thread.currentThread().interrupt();
+      }
+    } finally {
+      try {
+        source.close();
+      } catch (RuntimeException e) {
+        logger.debug("Failed to close the source stream", e);
+      }
+      lock.lock();
+      try {
+        exhausted = true;
+        notEmpty.signalAll();
+      } finally {
+        lock.unlock();
+      }
+      finished.countDown();
+    }
+  }
+
+  private boolean isStopped() {
+    lock.lock();
+    try {
+      return closed;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Appends a document to the ring buffer, waiting for room.
+   *
+   * @return {@code false} if the stream was closed
+   */
+  private boolean offer(final Document document, final long size) throws InterruptedException {
+    lock.lock();
+    try {
+      if (isFull(size) && !closed) {
+        producerStallCount++;
+        final long start = System.nanoTime();
+        while (isFull(size) && !closed) {
+          notFull.await();
+        }
+        producerStallNanos += System.nanoTime() - start;
+      }
+      if (closed) {
+        return false;
+      }
+      final int tail = (head + count) % documents.length;
+      documents[tail] = document;
+      sizes[tail] = size;
+      count++;
+      bufferedBytes += size;
+      prefetchedCount++;
+      if (bufferedBytes > peakBufferedBytes) {
+        peakBufferedBytes = bufferedBytes;
+      }
+      notEmpty.signal();
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private boolean isFull(final long size) {
+    return count == documents.length || (count > 0 && bufferedBytes + size > maxBytes);
+  }
+
+  @Override
+  protected void closeDerived() {
+    if (!started) {
+      source.close();
+      return;
+    }
+    lock.lock();
+    try {
+      closed = true;
+      for (int i = 0; i < documents.length; i++) {
+        documents[i] = null;
+      }
+      count = 0;
+      bufferedBytes = 0;
+      notFull.signalAll();
+      notEmpty.signalAll();
+    } finally {
+      lock.unlock();
+    }
+    try {
+      finished.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new OjaiException(e);
+    }
+  }
+
+  private static final class DefaultExecutorHolder {
+    static final ExecutorService EXECUTOR = DaemonThreadFactory.newCachedThreadPool("ojai-prefetch");
+  }
+
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.util;
+
+import java.util.Objects;
+
+import org.ojai.FieldPath;
+import org.ojai.annotation.API;
+import org.ojai.annotation.API.NonNullable;
+import org.ojai.store.SortOrder;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A field to sort {@link org.ojai.Document}s by, and the direction to sort it in.
+ *
+ * @see DocumentComparator
+ */
+@API.Public
+@API.Immutable
+public final class SortKey {
+
+  private final FieldPath fieldPath;
+  private final SortOrder order;
+
+  private SortKey(final FieldPath fieldPath, final SortOrder order) {
+    this.fieldPath = Preconditions.checkNotNull(fieldPath);
+    this.order = Preconditions.checkNotNull(order);
+  }
+
+  public static SortKey of(@NonNullable final FieldPath fieldPath, @NonNullable final SortOrder order) {
+    return new SortKey(fieldPath, order);
+  }
+
+  public static SortKey of(@NonNullable final String fieldPath, @NonNullable final SortOrder order) {
+    return new SortKey(FieldPath.parseFrom(fieldPath), order);
+  }
+
+  public static SortKey asc(@NonNullable final String fieldPath) {
+    return of(fieldPath, SortOrder.ASC);
+  }
+
+  public static SortKey desc(@NonNullable final String fieldPath) {
+    return of(fieldPath, SortOrder.DESC);
+  }
+
+  public FieldPath getFieldPath() {
+    return fieldPath;
+  }
+
+  public SortOrder getOrder() {
+    return order;
+  }
+
+  @Override
+  public boolean equals(final Object obj) {
+    if (this == obj) {
+      return true;
+    } else if (!(obj instanceof SortKey)) {
+      return false;
+    }
+    final SortKey other = (SortKey) obj;
+    return fieldPath.equals(other.fieldPath) && order == other.order;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(fieldPath, order);
+  }
+
+  @Override
+  public String toString() {
+    return fieldPath.asPathString() + " " + order;
+  }
+
+}
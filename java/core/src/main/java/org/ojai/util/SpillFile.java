@@ -0,0 +1,193 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.ojai.Document;
+import org.ojai.DocumentStream;
+import org.ojai.annotation.API;
+import org.ojai.annotation.API.NonNullable;
+import org.ojai.base.DocumentStreamBase;
+import org.ojai.exceptions.DecodingException;
+import org.ojai.exceptions.OjaiException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.CountingOutputStream;
+
+/**
+ * A temporary file of {@link Document}s in the {@link BinaryDocumentCodec} format,
+ * written once and then read back once as a {@link DocumentStream}.<p/>
+ *
+ * The file is deleted when the stream returned by {@link #read()} is closed, or when
+ * the {@code SpillFile} is closed without having been read.
+ */
+@API.Public
+@API.Evolving
+@API.NotThreadSafe
+public final class SpillFile implements Closeable {
+
+  private static final Logger logger = LoggerFactory.getLogger(SpillFile.class);
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final File file;
+  private final CountingOutputStream counter;
+  private final DataOutputStream out;
+  private long documentCount;
+  private boolean finished;
+  private boolean read;
+
+  private SpillFile(final File file) throws IOException {
+    this.file = file;
+    this.counter = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+    this.out = new DataOutputStream(counter);
+  }
+
+  /**
+   * Creates a new, empty spill file.
+   *
+   * @param directory the directory to create the file in, or {@code null} for the
+   *        default temporary-file directory
+   */
+  public static SpillFile create(final File directory) throws IOException {
+    return new SpillFile(File.createTempFile("ojai-spill-", ".bin", directory));
+  }
+
+  /**
+   * Appends a document to this file.
+   */
+  public void write(@NonNullable final Document document) throws IOException {
+    Preconditions.checkState(!finished, "The spill file has already been read");
+    BinaryDocumentCodec.write(document, out);
+    documentCount++;
+  }
+
+  /**
+   * @return the number of documents written
+   */
+  public long getDocumentCount() {
+    return documentCount;
+  }
+
+  /**
+   * @return the number of bytes written
+   */
+  public long getSize() {
+    return counter.getCount();
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * Finishes writing and returns a {@link DocumentStream} of the documents of this file,
+   * in the order they were written. Closing the stream deletes the file.
+   */
+  public DocumentStream read() throws IOException {
+    Preconditions.checkState(!read, "The spill file has already been read");
+    finish();
+    read = true;
+    return new SpillStream(new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE)));
+  }
+
+  private void finish() throws IOException {
+    if (!finished) {
+      finished = true;
+      out.close();
+    }
+  }
+
+  /**
+   * Deletes this file, unless it is being read.
+   */
+  @Override
+  public void close() {
+    try {
+      finish();
+    } catch (IOException e) {
+      logger.warn("Failed to close spill file {}", file, e);
+    }
+    if (!read) {
+      delete();
+    }
+  }
+
+  private void delete() {
+    if (!file.delete() && file.exists()) {
+      logger.warn("Failed to delete spill file {}", file);
+    }
+  }
+
+  private final class SpillStream extends DocumentStreamBase {
+    private final DataInputStream in;
+
+    SpillStream(final DataInputStream in) {
+      this.in = in;
+    }
+
+    @Override
+    protected Iterator<Document> iteratorDerived() {
+      return new Iterator<Document>() {
+        private long remaining = documentCount;
+
+        @Override
+        public boolean hasNext() {
+          return remaining > 0;
+        }
+
+        @Override
+        public Document next() {
+          if (remaining == 0) {
+            throw new NoSuchElementException();
+          }
+          try {
+            final Document document = BinaryDocumentCodec.read(in);
+            remaining--;
+            return document;
+          } catch (IOException e) {
+            throw new DecodingException("Failed to read spill file " + file, e);
+          }
+        }
+      };
+    }
+
+    @Override
+    protected void closeDerived() {
+      try {
+        in.close();
+      } catch (IOException e) {
+        throw new OjaiException(e);
+      } finally {
+        delete();
+      }
+    }
+  }
+
+}
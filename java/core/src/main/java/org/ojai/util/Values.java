@@ -17,13 +17,16 @@ package org.ojai.util;
 
 import java.math.BigDecimal;
 import java.nio.ByteBuffer;
+import java.util.List;
 
 import org.ojai.Value;
+import org.ojai.Value.Type;
 import org.ojai.annotation.API;
 import org.ojai.annotation.API.NonNullable;
 import org.ojai.exceptions.TypeException;
 import org.ojai.json.Json;
 import org.ojai.json.JsonOptions;
+import org.ojai.json.impl.JsonValueBuilder;
 
 import com.google.common.base.Preconditions;
 import com.google.common.io.BaseEncoding;
@@ -248,4 +251,97 @@ public class Values {
     return Json.toJsonString(value.asReader(), JsonOptions.WITH_TAGS);
   }
 
+  /**
+   * Compares two values in the natural order of OJAI values.<p/>
+   *
+   * Numeric values are compared by their numeric value irrespective of their type,
+   * with NaN above positive infinity, and values of other types compare by their
+   * type code when the types differ.
+   * Strings compare lexicographically, binary values as unsigned bytes, arrays
+   * element by element and maps by their extended JSON representation. A
+   * {@code null} reference, i.e. a missing field, sorts before every value.
+   *
+   * @return a negative integer, zero, or a positive integer as the first value
+   *         is less than, equal to, or greater than the second
+   */
+  public static int compare(Value v1, Value v2) {
+    if (v1 == null || v2 == null) {
+      return v1 == v2 ? 0 : (v1 == null ? -1 : 1);
+    }
+    final Type t1 = v1.getType();
+    final Type t2 = v2.getType();
+    if (t1.isNumeric() && t2.isNumeric()) {
+      if (isIntegral(t1) && isIntegral(t2)) {
+        return Long.compare(v1.getLong(), v2.getLong());
+      } else if (t1 != Type.DECIMAL && t2 != Type.DECIMAL && !(isIntegral(t1) || isIntegral(t2))) {
+        return Double.compare(v1.getDouble(), v2.getDouble());
+      } else if (!isFinite(v1) || !isFinite(v2)) {
+        // the infinities and NaN have no decimal value, and bound every other number
+        return Double.compare(asDouble(v1), asDouble(v2));
+      }
+      return asDecimal(v1).compareTo(asDecimal(v2));
+    } else if (t1 != t2) {
+      return Integer.compare(t1.getCode(), t2.getCode());
+    }
+
+    switch (t1) {
+    case NULL:
+      return 0;
+    case BOOLEAN:
+      return Boolean.compare(v1.getBoolean(), v2.getBoolean());
+    case STRING:
+      return v1.getString().compareTo(v2.getString());
+    case DATE:
+      return v1.getDate().compareTo(v2.getDate());
+    case TIME:
+      return v1.getTime().compareTo(v2.getTime());
+    case TIMESTAMP:
+      return v1.getTimestamp().compareTo(v2.getTimestamp());
+    case INTERVAL:
+      return Long.compare(v1.getInterval().getTimeInMillis(), v2.getInterval().getTimeInMillis());
+    case BINARY:
+      return compareUnsigned(v1.getBinary(), v2.getBinary());
+    case ARRAY:
+      final List<Object> l1 = v1.getList();
+      final List<Object> l2 = v2.getList();
+      final int n = Math.min(l1.size(), l2.size());
+      for (int i = 0; i < n; i++) {
+        final int cmp = compare(JsonValueBuilder.initFromObject(l1.get(i)),
+            JsonValueBuilder.initFromObject(l2.get(i)));
+        if (cmp != 0) {
+          return cmp;
+        }
+      }
+      return Integer.compare(l1.size(), l2.size());
+    default:
+      return asJsonString(v1).compareTo(asJsonString(v2));
+    }
+  }
+
+  private static boolean isFinite(Value value) {
+    final Type type = value.getType();
+    if (type != Type.FLOAT && type != Type.DOUBLE) {
+      return true;
+    }
+    final double d = asDouble(value);
+    return !(Double.isNaN(d) || Double.isInfinite(d));
+  }
+
+  private static boolean isIntegral(Type type) {
+    return type == Type.BYTE || type == Type.SHORT || type == Type.INT || type == Type.LONG;
+  }
+
+  private static int compareUnsigned(ByteBuffer b1, ByteBuffer b2) {
+    final int p1 = b1.position();
+    final int p2 = b2.position();
+    final int n = Math.min(b1.remaining(), b2.remaining());
+    for (int i = 0; i < n; i++) {
+      final int cmp = Integer.compare(b1.get(p1 + i) & 0xff, b2.get(p2 + i) & 0xff);
+      if (cmp != 0) {
+        return cmp;
+      }
+    }
+    return Integer.compare(b1.remaining(), b2.remaining());
+  }
+
 }
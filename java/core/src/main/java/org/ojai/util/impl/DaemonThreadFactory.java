@@ -0,0 +1,56 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.util.impl;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.ojai.annotation.API;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A {@link ThreadFactory} of daemon threads named after a prefix and a sequence
+ * number, e.g. {@code ojai-prefetch-1}, so that the background threads of OJAI never
+ * keep a JVM alive.
+ */
+@API.Internal
+public final class DaemonThreadFactory implements ThreadFactory {
+
+  private final String prefix;
+  private final AtomicInteger count = new AtomicInteger();
+
+  public DaemonThreadFactory(final String prefix) {
+    this.prefix = Preconditions.checkNotNull(prefix);
+  }
+
+  /**
+   * @return a cached thread pool of daemon threads named after the prefix
+   */
+  public static ExecutorService newCachedThreadPool(final String prefix) {
+    return Executors.newCachedThreadPool(new DaemonThreadFactory(prefix));
+  }
+
+  @Override
+  public Thread newThread(final Runnable r) {
+    final Thread thread = new Thread(r, prefix + "-" + count.incrementAndGet());
+    thread.setDaemon(true);
+    return thread;
+  }
+
+}
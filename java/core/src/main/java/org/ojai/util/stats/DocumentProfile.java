@@ -0,0 +1,275 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.util.stats;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.ojai.Document;
+import org.ojai.FieldPath;
+import org.ojai.FieldSegment.IndexSegment;
+import org.ojai.FieldSegment.NameSegment;
+import org.ojai.Value;
+import org.ojai.annotation.API;
+import org.ojai.annotation.API.NonNullable;
+import org.ojai.json.Json;
+import org.ojai.json.impl.JsonValueBuilder;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * The statistics of the fields of a set of documents, as collected by a
+ * {@link DocumentProfiler}.<p/>
+ *
+ * Unless the profiler is restricted to a list of fields, every field is profiled: the
+ * fields of nested documents as {@code "a.b"}, and the elements of arrays as
+ * {@code "a[]"}, in addition to the map or array itself. Profiles collected from
+ * partitions of the input with the same profiler are combined with {@link #merge}.
+ */
+@API.Public
+@API.Evolving
+@API.NotThreadSafe
+public final class DocumentProfile {
+
+  private final DocumentProfiler profiler;
+  private final Node root = new Node(null);
+  // the profiled fields, if the profiler is restricted to a list of fields
+  private final Map<FieldPath, FieldStatistics> selected;
+  private long scannedCount;
+  private long documentCount;
+  private int fieldCount;
+  private boolean truncated;
+
+  DocumentProfile(final DocumentProfiler profiler) {
+    this.profiler = profiler;
+    if (profiler.getFields().isEmpty()) {
+      selected = null;
+    } else {
+      selected = new LinkedHashMap<>();
+      for (FieldPath field : profiler.getFields()) {
+        selected.put(field, profiler.newStatistics(field));
+      }
+    }
+  }
+
+  /**
+   * @return the number of documents read, including those left out of the sample
+   */
+  public long getScannedCount() {
+    return scannedCount;
+  }
+
+  /**
+   * @return the number of documents profiled
+   */
+  public long getDocumentCount() {
+    return documentCount;
+  }
+
+  /**
+   * @return {@code true} if some fields were not profiled because the number of fields
+   *         reached the limit of the profiler
+   */
+  public boolean isTruncated() {
+    return truncated;
+  }
+
+  /**
+   * @return the statistics of the specified field, or {@code null} if it was not found
+   */
+  public FieldStatistics getField(@NonNullable final String fieldPath) {
+    return getField(FieldPath.parseFrom(fieldPath));
+  }
+
+  /**
+   * @return the statistics of the specified field, or {@code null} if it was not found
+   */
+  public FieldStatistics getField(@NonNullable final FieldPath fieldPath) {
+    final FieldStatistics statistics = getFields().get(fieldPath);
+    return statistics == null || statistics.getCount() == 0 ? null : statistics;
+  }
+
+  /**
+   * @return the statistics of every profiled field, sorted by field path
+   */
+  public Map<FieldPath, FieldStatistics> getFields() {
+    if (selected != null) {
+      return Collections.unmodifiableMap(selected);
+    }
+    final Map<FieldPath, FieldStatistics> fields = new TreeMap<>();
+    collect(root, fields);
+    return Collections.unmodifiableMap(fields);
+  }
+
+  private static void collect(final Node node, final Map<FieldPath, FieldStatistics> fields) {
+    if (node.statistics != null) {
+      fields.put(node.statistics.getFieldPath(), node.statistics);
+    }
+    for (Node child : node.children.values()) {
+      collect(child, fields);
+    }
+    if (node.elements != null) {
+      collect(node.elements, fields);
+    }
+  }
+
+  void scanned() {
+    scannedCount++;
+  }
+
+  void add(final Document document) {
+    documentCount++;
+    if (selected != null) {
+      for (Map.Entry<FieldPath, FieldStatistics> field : selected.entrySet()) {
+        final Value value = document.getValue(field.getKey());
+        if (value != null) {
+          field.getValue().add(value);
+        }
+      }
+    } else {
+      addFields(root, document.iterator(), 1);
+    }
+  }
+
+  private void addFields(final Node parent, final Iterator<Map.Entry<String, Value>> fields, final int depth) {
+    while (fields.hasNext()) {
+      final Map.Entry<String, Value> field = fields.next();
+      final Node node = parent.child(field.getKey());
+      if (node != null) {
+        addValue(node, field.getValue(), depth);
+      }
+    }
+  }
+
+  private void addValue(final Node node, final Value value, final int depth) {
+    node.statistics.add(value);
+    if (depth >= profiler.getMaxDepth()) {
+      return;
+    }
+    switch (value.getType()) {
+    case MAP:
+      final Document map = value instanceof Document ? (Document) value : Json.newDocument(value.getMap());
+      addFields(node, map.iterator(), depth + 1);
+      break;
+    case ARRAY:
+      final Node elements = node.elements();
+      if (elements != null) {
+        for (Object element : value.getList()) {
+          addValue(elements, element instanceof Value ? (Value) element : JsonValueBuilder.initFromObject(element),
+              depth + 1);
+        }
+      }
+      break;
+    default:
+    }
+  }
+
+  /**
+   * Merges a profile collected by the same profiler into this one.
+   */
+  public void merge(@NonNullable final DocumentProfile other) {
+    Preconditions.checkArgument(other.profiler == profiler, "Can not merge profiles of different profilers");
+    scannedCount += other.scannedCount;
+    documentCount += other.documentCount;
+    truncated |= other.truncated;
+    if (selected != null) {
+      for (Map.Entry<FieldPath, FieldStatistics> field : selected.entrySet()) {
+        field.getValue().merge(other.selected.get(field.getKey()));
+      }
+    } else {
+      mergeNode(root, other.root);
+    }
+  }
+
+  private void mergeNode(final Node node, final Node other) {
+    if (other.statistics != null) {
+      node.statistics.merge(other.statistics);
+    }
+    for (Map.Entry<String, Node> child : other.children.entrySet()) {
+      final Node merged = node.child(child.getKey());
+      if (merged != null) {
+        mergeNode(merged, child.getValue());
+      }
+    }
+    if (other.elements != null) {
+      final Node elements = node.elements();
+      if (elements != null) {
+        mergeNode(elements, other.elements);
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder sb = new StringBuilder("documents=").append(documentCount);
+    for (FieldStatistics field : getFields().values()) {
+      sb.append('\n').append(field);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * A node of the tree of fields, which caches the path of each field.
+   */
+  private final class Node {
+    final FieldPath path;
+    final FieldStatistics statistics;
+    final Map<String, Node> children = new HashMap<>();
+    Node elements;
+
+    Node(final FieldPath path) {
+      this.path = path;
+      this.statistics = path == null ? null : profiler.newStatistics(path);
+    }
+
+    /**
+     * @return the node of the specified child field, or {@code null} if the profile
+     *         has reached its limit of fields
+     */
+    Node child(final String name) {
+      Node child = children.get(name);
+      if (child == null) {
+        final NameSegment segment = new NameSegment(name, null, false);
+        child = newNode(path == null ? new FieldPath(segment) : path.cloneWithNewChild(segment));
+        if (child != null) {
+          children.put(name, child);
+        }
+      }
+      return child;
+    }
+
+    Node elements() {
+      if (elements == null) {
+        elements = newNode(path.cloneWithNewChild(new IndexSegment(-1, null)));
+      }
+      return elements;
+    }
+
+    private Node newNode(final FieldPath childPath) {
+      if (fieldCount >= profiler.getMaxFields()) {
+        truncated = true;
+        return null;
+      }
+      fieldCount++;
+      return new Node(childPath);
+    }
+  }
+
+}
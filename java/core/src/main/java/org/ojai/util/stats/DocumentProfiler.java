@@ -0,0 +1,263 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.util.stats;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+
+import org.ojai.Document;
+import org.ojai.DocumentStream;
+import org.ojai.FieldPath;
+import org.ojai.annotation.API;
+import org.ojai.annotation.API.NonNullable;
+import org.ojai.exceptions.OjaiException;
+import org.ojai.util.impl.DaemonThreadFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Profiles the fields of a {@link DocumentStream} in a single pass: for each field, the
+ * number of values of each type, the number of nulls, the estimated number of distinct
+ * values ({@link HyperLogLog}), the estimated quantiles of the numeric values
+ * ({@link KllSketch}), the most frequent values ({@link SpaceSaving}) and the minimum and
+ * maximum.<p/>
+ *
+ * All the statistics are mergeable: the partitions of a collection, e.g. the streams of
+ * the tablets or shards of a table, are profiled in parallel by
+ * {@link #profile(List, Executor)}, and profiles collected separately by the same
+ * profiler are combined with {@link DocumentProfile#merge}.<p/>
+ *
+ * To profile a large collection quickly, the profiler can look at a random sample of
+ * the documents with {@link #setSampleRate}, or at the first documents of each stream
+ * only with {@link #setMaxDocuments}. The counts of a sampled profile are those of the
+ * sample, while {@link DocumentProfile#getScannedCount()} is the number of documents
+ * read.<p/>
+ *
+ * A profiler must not be reconfigured while it is in use.
+ */
+@API.Public
+@API.Evolving
+public class DocumentProfiler {
+
+  public static final int DEFAULT_MAX_FIELDS = 1024;
+
+  public static final int DEFAULT_MAX_DEPTH = 16;
+
+  private int precision = HyperLogLog.DEFAULT_PRECISION;
+  private int quantileK = KllSketch.DEFAULT_K;
+  private int topCapacity = SpaceSaving.DEFAULT_CAPACITY;
+  private List<FieldPath> fields = Collections.emptyList();
+  private int maxFields = DEFAULT_MAX_FIELDS;
+  private int maxDepth = DEFAULT_MAX_DEPTH;
+  private double sampleRate = 1;
+  private long seed = 0;
+  private long maxDocuments = -1;
+
+  /**
+   * Sets the precision of the distinct counts; see {@link HyperLogLog}.
+   */
+  public DocumentProfiler setDistinctPrecision(final int precision) {
+    Preconditions.checkArgument(precision >= HyperLogLog.MIN_PRECISION && precision <= HyperLogLog.MAX_PRECISION,
+        "precision must be between %s and %s, found %s", HyperLogLog.MIN_PRECISION, HyperLogLog.MAX_PRECISION,
+        precision);
+    this.precision = precision;
+    return this;
+  }
+
+  /**
+   * Sets the {@code k} parameter of the quantile sketches; see {@link KllSketch}.
+   */
+  public DocumentProfiler setQuantileAccuracy(final int k) {
+    Preconditions.checkArgument(k >= 8, "k must be at least 8, found %s", k);
+    this.quantileK = k;
+    return this;
+  }
+
+  /**
+   * Sets the number of values of each field monitored for the most frequent values;
+   * see {@link SpaceSaving}.
+   */
+  public DocumentProfiler setTopValueCapacity(final int capacity) {
+    Preconditions.checkArgument(capacity > 0, "capacity must be positive, found %s", capacity);
+    this.topCapacity = capacity;
+    return this;
+  }
+
+  /**
+   * Restricts the profile to the specified fields; by default, every field is profiled.
+   */
+  public DocumentProfiler setFields(@NonNullable final String... fields) {
+    final FieldPath[] paths = new FieldPath[fields.length];
+    for (int i = 0; i < fields.length; i++) {
+      paths[i] = FieldPath.parseFrom(fields[i]);
+    }
+    return setFields(paths);
+  }
+
+  /**
+   * Restricts the profile to the specified fields; by default, every field is profiled.
+   */
+  public DocumentProfiler setFields(@NonNullable final FieldPath... fields) {
+    this.fields = Collections.unmodifiableList(new ArrayList<>(Arrays.asList(fields)));
+    return this;
+  }
+
+  /**
+   * Sets the maximum number of fields profiled, which bounds the memory used by a
+   * profile of documents with many distinct field names.
+   */
+  public DocumentProfiler setMaxFields(final int maxFields) {
+    Preconditions.checkArgument(maxFields > 0, "maxFields must be positive, found %s", maxFields);
+    this.maxFields = maxFields;
+    return this;
+  }
+
+  /**
+   * Sets the maximum nesting level of the fields profiled; {@code 1} profiles the
+   * top-level fields only.
+   */
+  public DocumentProfiler setMaxDepth(final int maxDepth) {
+    Preconditions.checkArgument(maxDepth > 0, "maxDepth must be positive, found %s", maxDepth);
+    this.maxDepth = maxDepth;
+    return this;
+  }
+
+  /**
+   * Profiles a random sample of the documents, each of which is included with the
+   * specified probability.
+   *
+   * @param sampleRate a number greater than 0 and at most 1
+   * @param seed the seed of the random sample; the partitions of a parallel profile use
+   *        consecutive seeds
+   */
+  public DocumentProfiler setSampleRate(final double sampleRate, final long seed) {
+    Preconditions.checkArgument(sampleRate > 0 && sampleRate <= 1,
+        "sampleRate must be greater than 0 and at most 1, found %s", sampleRate);
+    this.sampleRate = sampleRate;
+    this.seed = seed;
+    return this;
+  }
+
+  /**
+   * Stops reading each stream after the specified number of documents; by default, the
+   * streams are read to the end.
+   */
+  public DocumentProfiler setMaxDocuments(final long maxDocuments) {
+    Preconditions.checkArgument(maxDocuments > 0, "maxDocuments must be positive, found %s", maxDocuments);
+    this.maxDocuments = maxDocuments;
+    return this;
+  }
+
+  public List<FieldPath> getFields() {
+    return fields;
+  }
+
+  public int getMaxFields() {
+    return maxFields;
+  }
+
+  public int getMaxDepth() {
+    return maxDepth;
+  }
+
+  /**
+   * @return an empty profile, to profile documents from several sources and merge
+   */
+  public DocumentProfile newProfile() {
+    return new DocumentProfile(this);
+  }
+
+  /**
+   * Profiles a stream, which is closed before this method returns.
+   */
+  public DocumentProfile profile(@NonNullable final DocumentStream stream) {
+    return profile(stream, 0);
+  }
+
+  /**
+   * Profiles the specified partitions of a collection in parallel on a shared pool of
+   * daemon threads, and merges their profiles.
+   */
+  public DocumentProfile profile(@NonNullable final List<? extends DocumentStream> partitions) {
+    return profile(partitions, DefaultExecutorHolder.EXECUTOR);
+  }
+
+  /**
+   * Profiles the specified partitions of a collection in parallel on the specified
+   * executor, and merges their profiles. All the streams are closed before this method
+   * returns.
+   */
+  public DocumentProfile profile(@NonNullable final List<? extends DocumentStream> partitions,
+      @NonNullable final Executor executor) {
+    final List<CompletableFuture<DocumentProfile>> futures = new ArrayList<>(partitions.size());
+    for (int i = 0; i < partitions.size(); i++) {
+      final DocumentStream partition = partitions.get(i);
+      final int index = i;
+      try {
+        futures.add(CompletableFuture.supplyAsync(() -> profile(partition, index), executor));
+      } catch (RuntimeException e) {
+        // the partitions which were not submitted are closed here
+        for (DocumentStream rest : partitions.subList(i, partitions.size())) {
+          rest.close();
+        }
+        throw e;
+      }
+    }
+    final DocumentProfile profile = newProfile();
+    try {
+      for (CompletableFuture<DocumentProfile> future : futures) {
+        profile.merge(future.join());
+      }
+    } catch (CompletionException e) {
+      final Throwable cause = e.getCause();
+      throw cause instanceof RuntimeException ? (RuntimeException) cause : new OjaiException(cause);
+    }
+    return profile;
+  }
+
+  private DocumentProfile profile(final DocumentStream stream, final int partition) {
+    final DocumentProfile profile = newProfile();
+    final Random random = sampleRate < 1 ? new Random(seed + partition) : null;
+    try (DocumentStream s = stream) {
+      for (Document document : s) {
+        if (maxDocuments >= 0 && profile.getScannedCount() >= maxDocuments) {
+          break;
+        }
+        profile.scanned();
+        if (random == null || random.nextDouble() < sampleRate) {
+          profile.add(document);
+        }
+      }
+    }
+    return profile;
+  }
+
+  FieldStatistics newStatistics(final FieldPath field) {
+    return new FieldStatistics(field, precision, quantileK, topCapacity);
+  }
+
+  private static final class DefaultExecutorHolder {
+    static final ExecutorService EXECUTOR = DaemonThreadFactory.newCachedThreadPool("ojai-profile");
+  }
+
+}
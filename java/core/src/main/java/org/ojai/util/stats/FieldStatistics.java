@@ -0,0 +1,218 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.util.stats;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ojai.FieldPath;
+import org.ojai.Value;
+import org.ojai.Value.Type;
+import org.ojai.annotation.API;
+import org.ojai.util.Values;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * The statistics of the values of one field, as collected by a {@link DocumentProfiler}.
+ * <p/>
+ *
+ * Every value of the field is counted by type. The distinct count, the most frequent
+ * values and the minimum and maximum cover the non-null scalar values; the quantiles
+ * cover the numeric values. The distinct count does not distinguish the integral types,
+ * e.g. {@code INT} 1 and {@code LONG} 1 are counted once, nor {@code FLOAT} from
+ * {@code DOUBLE}. The most frequent values are reported in their JSON form, e.g.
+ * {@code "\"red\""} or {@code "1"}.
+ */
+@API.Public
+@API.Evolving
+@API.NotThreadSafe
+public final class FieldStatistics {
+
+  private static final HashFunction HASH = Hashing.murmur3_128();
+
+  private final FieldPath fieldPath;
+  private final long[] typeCounts = new long[Value.TYPE_CODE_ARRAY + 1];
+  private final HyperLogLog distinct;
+  private final KllSketch quantiles;
+  private final SpaceSaving<String> topValues;
+  private long count;
+  private Value min;
+  private Value max;
+
+  FieldStatistics(final FieldPath fieldPath, final int precision, final int quantileK, final int topCapacity) {
+    this.fieldPath = fieldPath;
+    this.distinct = new HyperLogLog(precision);
+    this.quantiles = new KllSketch(quantileK);
+    this.topValues = new SpaceSaving<>(topCapacity);
+  }
+
+  void add(final Value value) {
+    final Type type = value.getType();
+    count++;
+    typeCounts[type.getCode()]++;
+    if (type == Type.NULL || type == Type.MAP || type == Type.ARRAY) {
+      return;
+    }
+    distinct.add(hash(value));
+    topValues.add(Values.asJsonString(value));
+    if (type.isNumeric()) {
+      quantiles.update(Values.asDouble(value));
+    }
+    if (min == null || Values.compare(value, min) < 0) {
+      min = value;
+    }
+    if (max == null || Values.compare(value, max) > 0) {
+      max = value;
+    }
+  }
+
+  void merge(final FieldStatistics other) {
+    Preconditions.checkArgument(fieldPath.equals(other.fieldPath),
+        "Can not merge the statistics of %s and %s", fieldPath, other.fieldPath);
+    count += other.count;
+    for (int i = 0; i < typeCounts.length; i++) {
+      typeCounts[i] += other.typeCounts[i];
+    }
+    distinct.merge(other.distinct);
+    quantiles.merge(other.quantiles);
+    topValues.merge(other.topValues);
+    if (other.min != null && (min == null || Values.compare(other.min, min) < 0)) {
+      min = other.min;
+    }
+    if (other.max != null && (max == null || Values.compare(other.max, max) > 0)) {
+      max = other.max;
+    }
+  }
+
+  public FieldPath getFieldPath() {
+    return fieldPath;
+  }
+
+  /**
+   * @return the number of values of this field, including nulls
+   */
+  public long getCount() {
+    return count;
+  }
+
+  public long getNullCount() {
+    return typeCounts[Value.TYPE_CODE_NULL];
+  }
+
+  public long getTypeCount(final Type type) {
+    return typeCounts[type.getCode()];
+  }
+
+  /**
+   * @return the number of values of each type found in this field
+   */
+  public Map<Type, Long> getTypeHistogram() {
+    final Map<Type, Long> histogram = new EnumMap<>(Type.class);
+    for (int i = 0; i < typeCounts.length; i++) {
+      if (typeCounts[i] > 0) {
+        histogram.put(Type.valueOf(i), typeCounts[i]);
+      }
+    }
+    return Collections.unmodifiableMap(histogram);
+  }
+
+  /**
+   * @return the estimated number of distinct non-null scalar values
+   */
+  public long getDistinctCount() {
+    return distinct.estimate();
+  }
+
+  /**
+   * @return the number of numeric values
+   */
+  public long getNumericCount() {
+    return quantiles.getCount();
+  }
+
+  /**
+   * Returns the estimated quantile of the numeric values, e.g. {@code getQuantile(0.99)}
+   * for the 99th percentile.
+   *
+   * @param fraction a number between 0 and 1, inclusive
+   * @return the estimated quantile, or NaN if there were no numeric values
+   */
+  public double getQuantile(final double fraction) {
+    return quantiles.getQuantile(fraction);
+  }
+
+  /**
+   * Returns up to {@code k} of the most frequent non-null scalar values, in their JSON
+   * form, most frequent first.
+   */
+  public List<SpaceSaving.Entry<String>> getTopValues(final int k) {
+    return topValues.getTop(k);
+  }
+
+  /**
+   * @return the smallest non-null scalar value, in the order of {@link Values#compare},
+   *         or {@code null} if there were none
+   */
+  public Value getMin() {
+    return min;
+  }
+
+  /**
+   * @return the largest non-null scalar value, in the order of {@link Values#compare},
+   *         or {@code null} if there were none
+   */
+  public Value getMax() {
+    return max;
+  }
+
+  @Override
+  public String toString() {
+    return fieldPath + ": count=" + count + ", types=" + getTypeHistogram() + ", distinct=" + getDistinctCount();
+  }
+
+  static long hash(final Value value) {
+    final Hasher hasher = HASH.newHasher();
+    switch (value.getType()) {
+    case BYTE:
+    case SHORT:
+    case INT:
+    case LONG:
+      hasher.putByte(Value.TYPE_CODE_LONG).putLong(Values.asLong(value));
+      break;
+    case FLOAT:
+    case DOUBLE:
+      hasher.putByte(Value.TYPE_CODE_DOUBLE).putDouble(Values.asDouble(value));
+      break;
+    case STRING:
+      hasher.putByte(Value.TYPE_CODE_STRING).putString(value.getString(), StandardCharsets.UTF_8);
+      break;
+    case BINARY:
+      hasher.putByte(Value.TYPE_CODE_BINARY).putBytes(value.getBinary().duplicate());
+      break;
+    default:
+      hasher.putByte(value.getType().getCode()).putString(Values.asJsonString(value), StandardCharsets.UTF_8);
+    }
+    return hasher.hash().asLong();
+  }
+
+}
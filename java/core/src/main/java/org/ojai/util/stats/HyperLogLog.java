@@ -0,0 +1,121 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.util.stats;
+
+import org.ojai.annotation.API;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A HyperLogLog sketch which estimates the number of distinct 64-bit hashes added to
+ * it.<p/>
+ *
+ * A sketch of precision {@code p} has 2<sup>p</sup> one-byte registers and a standard
+ * error of about {@code 1.04 / sqrt(2^p)}, e.g. 1.6% for the default precision of
+ * {@value #DEFAULT_PRECISION}. Small cardinalities are estimated with linear counting,
+ * which makes them nearly exact. Two sketches of the same precision are merged by
+ * taking the maximum of each register, so a sketch computed over partitions of the
+ * input is identical to one computed over the whole input.
+ */
+@API.Public
+@API.Evolving
+@API.NotThreadSafe
+public final class HyperLogLog {
+
+  public static final int DEFAULT_PRECISION = 12;
+
+  public static final int MIN_PRECISION = 4;
+
+  public static final int MAX_PRECISION = 18;
+
+  private final int precision;
+  private final byte[] registers;
+
+  public HyperLogLog() {
+    this(DEFAULT_PRECISION);
+  }
+
+  public HyperLogLog(final int precision) {
+    Preconditions.checkArgument(precision >= MIN_PRECISION && precision <= MAX_PRECISION,
+        "precision must be between %s and %s, found %s", MIN_PRECISION, MAX_PRECISION, precision);
+    this.precision = precision;
+    this.registers = new byte[1 << precision];
+  }
+
+  public int getPrecision() {
+    return precision;
+  }
+
+  /**
+   * Adds a hash, which should be uniformly distributed over all 64 bits.
+   */
+  public void add(final long hash) {
+    final int index = (int) (hash >>> (64 - precision));
+    // the bit set below the remaining bits bounds the rank to 64 - precision + 1
+    final int rank = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+    if (rank > registers[index]) {
+      registers[index] = (byte) rank;
+    }
+  }
+
+  /**
+   * Merges another sketch of the same precision into this one.
+   */
+  public void merge(final HyperLogLog other) {
+    Preconditions.checkArgument(other.precision == precision,
+        "Can not merge sketches of precision %s and %s", precision, other.precision);
+    for (int i = 0; i < registers.length; i++) {
+      if (other.registers[i] > registers[i]) {
+        registers[i] = other.registers[i];
+      }
+    }
+  }
+
+  /**
+   * @return the estimated number of distinct hashes added to this sketch
+   */
+  public long estimate() {
+    final int m = registers.length;
+    double sum = 0;
+    int zeros = 0;
+    for (byte register : registers) {
+      sum += 1.0 / (1L << register);
+      if (register == 0) {
+        zeros++;
+      }
+    }
+    final double alpha;
+    switch (m) {
+    case 16:
+      alpha = 0.673;
+      break;
+    case 32:
+      alpha = 0.697;
+      break;
+    case 64:
+      alpha = 0.709;
+      break;
+    default:
+      alpha = 0.7213 / (1 + 1.079 / m);
+    }
+    final double estimate = alpha * m * m / sum;
+    if (estimate <= 2.5 * m && zeros > 0) {
+      return Math.round(m * Math.log((double) m / zeros));
+    }
+    return Math.round(estimate);
+  }
+
+}
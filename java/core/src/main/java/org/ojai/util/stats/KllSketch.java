@@ -0,0 +1,274 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.util.stats;
+
+import java.util.Arrays;
+
+import org.ojai.annotation.API;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A KLL quantile sketch of {@code double} values.<p/>
+ *
+ * The sketch keeps a hierarchy of compactors: values enter level 0, and when the
+ * sketch is full, a level is sorted and every other value, starting at random at the
+ * first or the second, is promoted to the next level with twice the weight. The
+ * capacity of a level decreases geometrically from the top level, which holds
+ * {@code k} values, so the sketch retains {@code O(k)} values for any input size. With
+ * the default {@code k} of {@value #DEFAULT_K}, the rank error of a quantile is
+ * typically well under 1%. Sketches with the same {@code k} are merged by
+ * concatenating their levels and compacting again.<p/>
+ *
+ * The minimum and maximum are tracked exactly, and NaNs are ignored.
+ */
+@API.Public
+@API.Evolving
+@API.NotThreadSafe
+public final class KllSketch {
+
+  public static final int DEFAULT_K = 200;
+
+  private static final double CAPACITY_DECAY = 2.0 / 3.0;
+
+  private static final int MIN_CAPACITY = 2;
+
+  private final int k;
+  private double[][] levels = new double[0][];
+  private int[] sizes = new int[0];
+  private int retained;
+  private int maxRetained;
+  private long count;
+  private double min = Double.NaN;
+  private double max = Double.NaN;
+  private long random = 0x9E3779B97F4A7C15L;
+
+  public KllSketch() {
+    this(DEFAULT_K);
+  }
+
+  public KllSketch(final int k) {
+    Preconditions.checkArgument(k >= 8, "k must be at least 8, found %s", k);
+    this.k = k;
+    grow();
+  }
+
+  public int getK() {
+    return k;
+  }
+
+  /**
+   * @return the number of values added to this sketch
+   */
+  public long getCount() {
+    return count;
+  }
+
+  /**
+   * @return the smallest value added to this sketch, or NaN if it is empty
+   */
+  public double getMin() {
+    return min;
+  }
+
+  /**
+   * @return the largest value added to this sketch, or NaN if it is empty
+   */
+  public double getMax() {
+    return max;
+  }
+
+  public void update(final double value) {
+    if (Double.isNaN(value)) {
+      return;
+    }
+    append(0, value);
+    count++;
+    updateBounds(value, value);
+    while (retained >= maxRetained) {
+      compress();
+    }
+  }
+
+  /**
+   * Merges another sketch with the same {@code k} into this one.
+   */
+  public void merge(final KllSketch other) {
+    Preconditions.checkArgument(other.k == k, "Can not merge sketches with k %s and %s", k, other.k);
+    if (other.count == 0) {
+      return;
+    }
+    while (levels.length < other.levels.length) {
+      grow();
+    }
+    for (int level = 0; level < other.levels.length; level++) {
+      for (int i = 0; i < other.sizes[level]; i++) {
+        append(level, other.levels[level][i]);
+      }
+    }
+    count += other.count;
+    updateBounds(other.min, other.max);
+    while (retained >= maxRetained) {
+      compress();
+    }
+  }
+
+  /**
+   * Returns the estimated value at the specified rank, e.g. {@code getQuantile(0.5)}
+   * for the median.
+   *
+   * @param fraction a number between 0 and 1, inclusive
+   * @return the estimated quantile, or NaN if the sketch is empty
+   */
+  public double getQuantile(final double fraction) {
+    Preconditions.checkArgument(fraction >= 0 && fraction <= 1,
+        "fraction must be between 0 and 1, found %s", fraction);
+    if (count == 0) {
+      return Double.NaN;
+    } else if (fraction == 0) {
+      return min;
+    } else if (fraction == 1) {
+      return max;
+    }
+    final WeightedValue[] weighted = sortedWeightedValues();
+    long total = 0;
+    for (WeightedValue w : weighted) {
+      total += w.weight;
+    }
+    final double target = fraction * total;
+    long seen = 0;
+    for (WeightedValue w : weighted) {
+      seen += w.weight;
+      if (seen >= target) {
+        return w.value;
+      }
+    }
+    return max;
+  }
+
+  /**
+   * @return the estimated fraction of the values which are less than or equal to the
+   *         specified value, or NaN if the sketch is empty
+   */
+  public double getRank(final double value) {
+    if (count == 0) {
+      return Double.NaN;
+    }
+    long below = 0;
+    long total = 0;
+    for (int level = 0; level < levels.length; level++) {
+      final long weight = 1L << level;
+      for (int i = 0; i < sizes[level]; i++) {
+        total += weight;
+        if (levels[level][i] <= value) {
+          below += weight;
+        }
+      }
+    }
+    return (double) below / total;
+  }
+
+  private WeightedValue[] sortedWeightedValues() {
+    final WeightedValue[] weighted = new WeightedValue[retained];
+    int n = 0;
+    for (int level = 0; level < levels.length; level++) {
+      for (int i = 0; i < sizes[level]; i++) {
+        weighted[n++] = new WeightedValue(levels[level][i], 1L << level);
+      }
+    }
+    Arrays.sort(weighted, (w1, w2) -> Double.compare(w1.value, w2.value));
+    return weighted;
+  }
+
+  private void updateBounds(final double low, final double high) {
+    if (Double.isNaN(min) || low < min) {
+      min = low;
+    }
+    if (Double.isNaN(max) || high > max) {
+      max = high;
+    }
+  }
+
+  private int capacity(final int level) {
+    final int depth = levels.length - level - 1;
+    return Math.max(MIN_CAPACITY, (int) Math.ceil(k * Math.pow(CAPACITY_DECAY, depth)));
+  }
+
+  private void grow() {
+    levels = Arrays.copyOf(levels, levels.length + 1);
+    sizes = Arrays.copyOf(sizes, sizes.length + 1);
+    levels[levels.length - 1] = new double[MIN_CAPACITY];
+    maxRetained = 0;
+    for (int level = 0; level < levels.length; level++) {
+      maxRetained += capacity(level);
+    }
+  }
+
+  private void append(final int level, final double value) {
+    if (sizes[level] == levels[level].length) {
+      levels[level] = Arrays.copyOf(levels[level], 2 * levels[level].length);
+    }
+    levels[level][sizes[level]++] = value;
+    retained++;
+  }
+
+  /**
+   * Compacts the lowest level which is at its capacity.
+   */
+  private void compress() {
+    for (int level = 0; level < levels.length; level++) {
+      if (sizes[level] >= capacity(level)) {
+        if (level + 1 == levels.length) {
+          grow();
+        }
+        compact(level);
+        return;
+      }
+    }
+  }
+
+  private void compact(final int level) {
+    final double[] values = levels[level];
+    final int size = sizes[level];
+    Arrays.sort(values, 0, size);
+    // with an odd number of values, the smallest one stays at this level
+    final int first = size & 1;
+    for (int i = first + (nextBit() ? 1 : 0); i < size; i += 2) {
+      append(level + 1, values[i]);
+    }
+    sizes[level] = first;
+    retained -= size - first;
+  }
+
+  private boolean nextBit() {
+    // xorshift64
+    random ^= random << 13;
+    random ^= random >>> 7;
+    random ^= random << 17;
+    return (random & 1) != 0;
+  }
+
+  private static final class WeightedValue {
+    final double value;
+    final long weight;
+
+    WeightedValue(final double value, final long weight) {
+      this.value = value;
+      this.weight = weight;
+    }
+  }
+
+}
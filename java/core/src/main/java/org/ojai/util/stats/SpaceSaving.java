@@ -0,0 +1,246 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.util.stats;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ojai.annotation.API;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A Space-Saving sketch of the most frequent items of a stream.<p/>
+ *
+ * The sketch monitors at most {@code capacity} items. An item which is not monitored
+ * when the sketch is full replaces the item with the smallest count, and inherits that
+ * count as its overestimation error. The count of any item is therefore overestimated
+ * by at most {@code N / capacity}, and every item more frequent than that is monitored.
+ * Monitoring a few times more items than the number of heavy hitters wanted makes the
+ * top of the list reliable.<p/>
+ *
+ * The counters are kept in an indexed min-heap, so each update takes
+ * {@code O(log capacity)}. Sketches are merged as described by Agarwal et al. in
+ * "Mergeable Summaries", by adding the counts of the items monitored by both and the
+ * minimum count of the other sketch to the items monitored by one only.
+ *
+ * @param <T> the type of the items, which must implement {@code equals()} and
+ *        {@code hashCode()}
+ */
+@API.Public
+@API.Evolving
+@API.NotThreadSafe
+public final class SpaceSaving<T> {
+
+  public static final int DEFAULT_CAPACITY = 64;
+
+  private final int capacity;
+  private final Map<T, Counter<T>> counters;
+  private Counter<T>[] heap;
+  private int size;
+  private long total;
+
+  public SpaceSaving() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  @SuppressWarnings("unchecked")
+  public SpaceSaving(final int capacity) {
+    Preconditions.checkArgument(capacity > 0, "capacity must be positive, found %s", capacity);
+    this.capacity = capacity;
+    this.counters = new HashMap<>();
+    this.heap = (Counter<T>[]) new Counter<?>[Math.min(capacity, 16)];
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * @return the number of items added to this sketch
+   */
+  public long getTotal() {
+    return total;
+  }
+
+  public void add(final T item) {
+    add(item, 1);
+  }
+
+  public void add(final T item, final long count) {
+    Preconditions.checkArgument(count > 0, "count must be positive, found %s", count);
+    total += count;
+    final Counter<T> counter = counters.get(item);
+    if (counter != null) {
+      counter.count += count;
+      siftDown(counter.index);
+    } else if (size < capacity) {
+      push(new Counter<>(item, count, 0));
+    } else {
+      // replace the least frequent item
+      final Counter<T> min = heap[0];
+      counters.remove(min.item);
+      min.item = item;
+      min.error = min.count;
+      min.count += count;
+      counters.put(item, min);
+      siftDown(0);
+    }
+  }
+
+  /**
+   * Merges another sketch into this one. The capacity of this sketch is kept.
+   */
+  public void merge(final SpaceSaving<T> other) {
+    final long thisMin = size == capacity ? heap[0].count : 0;
+    final long otherMin = other.size == other.capacity ? other.heap[0].count : 0;
+    final List<Counter<T>> merged = new ArrayList<>(size + other.size);
+    for (int i = 0; i < size; i++) {
+      final Counter<T> counter = heap[i];
+      final Counter<T> match = other.counters.get(counter.item);
+      merged.add(match != null
+          ? new Counter<>(counter.item, counter.count + match.count, counter.error + match.error)
+          : new Counter<>(counter.item, counter.count + otherMin, counter.error + otherMin));
+    }
+    for (int i = 0; i < other.size; i++) {
+      final Counter<T> counter = other.heap[i];
+      if (!counters.containsKey(counter.item)) {
+        merged.add(new Counter<>(counter.item, counter.count + thisMin, counter.error + thisMin));
+      }
+    }
+    merged.sort((c1, c2) -> Long.compare(c2.count, c1.count));
+
+    counters.clear();
+    Arrays.fill(heap, 0, size, null);
+    size = 0;
+    for (Counter<T> counter : merged.subList(0, Math.min(capacity, merged.size()))) {
+      push(counter);
+    }
+    total += other.total;
+  }
+
+  /**
+   * Returns up to {@code k} of the monitored items, most frequent first.
+   */
+  public List<Entry<T>> getTop(final int k) {
+    final List<Entry<T>> entries = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      entries.add(new Entry<>(heap[i].item, heap[i].count, heap[i].error));
+    }
+    entries.sort((e1, e2) -> Long.compare(e2.getCount(), e1.getCount()));
+    return Collections.unmodifiableList(entries.subList(0, Math.min(k, entries.size())));
+  }
+
+  private void push(final Counter<T> counter) {
+    if (size == heap.length) {
+      heap = Arrays.copyOf(heap, Math.min(capacity, 2 * heap.length));
+    }
+    counters.put(counter.item, counter);
+    heap[size] = counter;
+    counter.index = size++;
+    siftUp(counter.index);
+  }
+
+  private void siftUp(int index) {
+    final Counter<T> counter = heap[index];
+    while (index > 0) {
+      final int parent = (index - 1) >>> 1;
+      if (heap[parent].count <= counter.count) {
+        break;
+      }
+      place(heap[parent], index);
+      index = parent;
+    }
+    place(counter, index);
+  }
+
+  private void siftDown(int index) {
+    final Counter<T> counter = heap[index];
+    while (true) {
+      int child = 2 * index + 1;
+      if (child >= size) {
+        break;
+      }
+      if (child + 1 < size && heap[child + 1].count < heap[child].count) {
+        child++;
+      }
+      if (counter.count <= heap[child].count) {
+        break;
+      }
+      place(heap[child], index);
+      index = child;
+    }
+    place(counter, index);
+  }
+
+  private void place(final Counter<T> counter, final int index) {
+    heap[index] = counter;
+    counter.index = index;
+  }
+
+  private static final class Counter<T> {
+    T item;
+    long count;
+    long error;
+    int index;
+
+    Counter(final T item, final long count, final long error) {
+      this.item = item;
+      this.count = count;
+      this.error = error;
+    }
+  }
+
+  /**
+   * A monitored item, with its estimated count. The true count of the item is between
+   * {@code getCount() - getError()} and {@code getCount()}.
+   */
+  @API.Public
+  @API.Immutable
+  public static final class Entry<T> {
+    private final T item;
+    private final long count;
+    private final long error;
+
+    Entry(final T item, final long count, final long error) {
+      this.item = item;
+      this.count = count;
+      this.error = error;
+    }
+
+    public T getItem() {
+      return item;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public long getError() {
+      return error;
+    }
+
+    @Override
+    public String toString() {
+      return item + "=" + count + (error > 0 ? " (error " + error + ")" : "");
+    }
+  }
+
+}
@@ -0,0 +1,175 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.reactive;
+
+import java.util.concurrent.Flow;
+
+import org.ojai.annotation.API;
+import org.ojai.annotation.API.NonNullable;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Converts the {@link Publisher}s and {@link Subscriber}s of this package to and from
+ * their {@link Flow} counterparts, by delegating each method, including those of the
+ * {@link Subscription}s passed between them. Converting an adapter back returns the
+ * object it adapts. Reactive Streams, from version 1.0.3, bridges {@code Flow} to
+ * {@code org.reactivestreams} with its own {@code FlowAdapters}.<p/>
+ *
+ * This class requires Java 9, and is only found in the versioned section of the
+ * multi-release OJAI jar.
+ */
+@API.Public
+@API.Evolving
+public final class FlowAdapters {
+
+  private FlowAdapters() {}
+
+  public static <T> Flow.Publisher<T> toFlowPublisher(@NonNullable Publisher<T> publisher) {
+    Preconditions.checkNotNull(publisher);
+    if (publisher instanceof PublisherFromFlow) {
+      return ((PublisherFromFlow<T>) publisher).flow;
+    }
+    return new FlowPublisher<>(publisher);
+  }
+
+  public static <T> Publisher<T> fromFlowPublisher(@NonNullable Flow.Publisher<T> publisher) {
+    Preconditions.checkNotNull(publisher);
+    if (publisher instanceof FlowPublisher) {
+      return ((FlowPublisher<T>) publisher).publisher;
+    }
+    return new PublisherFromFlow<>(publisher);
+  }
+
+  public static <T> Flow.Subscriber<T> toFlowSubscriber(@NonNullable Subscriber<T> subscriber) {
+    Preconditions.checkNotNull(subscriber);
+    if (subscriber instanceof SubscriberFromFlow) {
+      return ((SubscriberFromFlow<T>) subscriber).flow;
+    }
+    return new FlowSubscriber<>(subscriber);
+  }
+
+  public static <T> Subscriber<T> fromFlowSubscriber(@NonNullable Flow.Subscriber<T> subscriber) {
+    Preconditions.checkNotNull(subscriber);
+    if (subscriber instanceof FlowSubscriber) {
+      return ((FlowSubscriber<T>) subscriber).subscriber;
+    }
+    return new SubscriberFromFlow<>(subscriber);
+  }
+
+  private static final class FlowPublisher<T> implements Flow.Publisher<T> {
+    final Publisher<T> publisher;
+
+    FlowPublisher(Publisher<T> publisher) {
+      this.publisher = publisher;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super T> subscriber) {
+      publisher.subscribe(fromFlowSubscriber(subscriber));
+    }
+  }
+
+  private static final class PublisherFromFlow<T> implements Publisher<T> {
+    final Flow.Publisher<T> flow;
+
+    PublisherFromFlow(Flow.Publisher<T> flow) {
+      this.flow = flow;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super T> subscriber) {
+      flow.subscribe(toFlowSubscriber(subscriber));
+    }
+  }
+
+  private static final class FlowSubscriber<T> implements Flow.Subscriber<T> {
+    final Subscriber<T> subscriber;
+
+    FlowSubscriber(Subscriber<T> subscriber) {
+      this.subscriber = subscriber;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      subscriber.onSubscribe(new Subscription() {
+        @Override
+        public void request(long n) {
+          subscription.request(n);
+        }
+
+        @Override
+        public void cancel() {
+          subscription.cancel();
+        }
+      });
+    }
+
+    @Override
+    public void onNext(T item) {
+      subscriber.onNext(item);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      subscriber.onError(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+      subscriber.onComplete();
+    }
+  }
+
+  private static final class SubscriberFromFlow<T> implements Subscriber<T> {
+    final Flow.Subscriber<T> flow;
+
+    SubscriberFromFlow(Flow.Subscriber<T> flow) {
+      this.flow = flow;
+    }
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+      flow.onSubscribe(new Flow.Subscription() {
+        @Override
+        public void request(long n) {
+          subscription.request(n);
+        }
+
+        @Override
+        public void cancel() {
+          subscription.cancel();
+        }
+      });
+    }
+
+    @Override
+    public void onNext(T item) {
+      flow.onNext(item);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      flow.onError(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+      flow.onComplete();
+    }
+  }
+
+}
@@ -0,0 +1,203 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.tests.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.ojai.Document;
+import org.ojai.DocumentListener;
+import org.ojai.DocumentReader;
+import org.ojai.DocumentStream;
+import org.ojai.FieldPath;
+import org.ojai.Value.Type;
+import org.ojai.exceptions.DecodingException;
+import org.ojai.json.Json;
+import org.ojai.json.JsonDocumentFeeder;
+import org.ojai.tests.BaseTest;
+
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+
+public class TestJsonDocumentFeeder extends BaseTest {
+
+  private static final String[] FILES = {"business.json", "multidocument.json", "manydocs.json",
+      "manymiscdocs.json", "complex.json", "hybridFormat.json", "test.json", "nodocs.json"};
+
+  private static class Collector implements DocumentListener {
+    final List<Document> documents = new ArrayList<>();
+    int stopAfter = Integer.MAX_VALUE;
+    Exception failure;
+    boolean eos;
+
+    @Override
+    public boolean documentArrived(Document document) {
+      documents.add(document);
+      return documents.size() < stopAfter;
+    }
+
+    @Override
+    public void failed(Exception e) {
+      failure = e;
+    }
+
+    @Override
+    public void eos() {
+      eos = true;
+    }
+  }
+
+  private byte[] load(String file) throws Exception {
+    try (InputStream in = getJsonStream("org/ojai/test/data/" + file)) {
+      return ByteStreams.toByteArray(in);
+    }
+  }
+
+  private static List<String> parse(byte[] bytes) {
+    final List<String> documents = new ArrayList<>();
+    try (DocumentStream stream = Json.newDocumentStream(new java.io.ByteArrayInputStream(bytes))) {
+      for (Document document : stream) {
+        documents.add(document.asJsonString());
+      }
+    }
+    return documents;
+  }
+
+  private static List<String> asJsonStrings(List<Document> documents) {
+    final List<String> strings = new ArrayList<>();
+    for (Document document : documents) {
+      strings.add(document.asJsonString());
+    }
+    return strings;
+  }
+
+  @Test
+  public void testChunkedInputMatchesDocumentStream() throws Exception {
+    for (String file : FILES) {
+      final byte[] bytes = load(file);
+      final List<String> expected = parse(bytes);
+      for (int chunk : new int[] {1, 7, 100, bytes.length + 1}) {
+        final Collector collector = new Collector();
+        final JsonDocumentFeeder feeder = Json.newDocumentFeeder(collector);
+        for (int offset = 0; offset < bytes.length; offset += chunk) {
+          assertTrue(feeder.feed(bytes, offset, Math.min(chunk, bytes.length - offset)));
+        }
+        feeder.close();
+        assertNull(file, collector.failure);
+        assertTrue(collector.eos);
+        assertEquals(file + " in chunks of " + chunk, expected, asJsonStrings(collector.documents));
+        assertEquals(expected.size(), feeder.getDocumentCount());
+        assertEquals(bytes.length, feeder.getByteCount());
+      }
+    }
+  }
+
+  @Test
+  public void testDocumentsArriveAsSoonAsTheyEnd() {
+    final Collector collector = new Collector();
+    final JsonDocumentFeeder feeder = new JsonDocumentFeeder(collector);
+    feeder.feed("[{\"a\": 1, \"b\": {\"$numberLong\"".getBytes());
+    assertTrue(collector.documents.isEmpty());
+    feeder.feed(ByteBuffer.wrap(": 2}}, {\"c\": [1, 2]".getBytes()));
+    assertEquals(1, collector.documents.size());
+    assertEquals(Type.LONG, collector.documents.get(0).getValue("b").getType());
+
+    final ByteBuffer direct = ByteBuffer.allocateDirect(16);
+    direct.put("}]".getBytes()).flip();
+    assertTrue(feeder.feed(direct));
+    assertEquals(0, direct.remaining());
+    assertEquals(2, collector.documents.size());
+    assertFalse(collector.eos);
+    feeder.close();
+    assertTrue(collector.eos);
+    assertFalse(feeder.feed("{}".getBytes()));
+  }
+
+  @Test
+  public void testListenerStops() {
+    final Collector collector = new Collector();
+    collector.stopAfter = 2;
+    final JsonDocumentFeeder feeder = new JsonDocumentFeeder(collector);
+    assertFalse(feeder.feed("{\"a\":1}{\"a\":2}{\"a\":3}".getBytes()));
+    assertEquals(2, collector.documents.size());
+    assertTrue(collector.eos);
+    assertTrue(feeder.isDone());
+  }
+
+  @Test
+  public void testFailures() {
+    Collector collector = new Collector();
+    JsonDocumentFeeder feeder = new JsonDocumentFeeder(collector);
+    assertTrue(feeder.feed("{\"a\":1} {\"a\":".getBytes()));
+    feeder.close();
+    assertEquals(1, collector.documents.size());
+    assertTrue(collector.failure instanceof DecodingException);
+    assertFalse(collector.eos);
+
+    collector = new Collector();
+    feeder = new JsonDocumentFeeder(collector);
+    assertFalse(feeder.feed("{\"a\":1} \"x\"".getBytes()));
+    assertTrue(collector.failure instanceof DecodingException);
+
+    collector = new Collector();
+    feeder = new JsonDocumentFeeder(collector);
+    assertFalse(feeder.feed("{\"a\":}".getBytes()));
+    assertTrue(collector.failure instanceof DecodingException);
+  }
+
+  @Test
+  public void testReaderListenerAndTypeMap() {
+    final List<DocumentReader> readers = new ArrayList<>();
+    final JsonDocumentFeeder feeder = new JsonDocumentFeeder(new JsonDocumentFeeder.ReaderListener() {
+      @Override
+      public boolean readerArrived(DocumentReader reader) {
+        readers.add(reader);
+        return true;
+      }
+
+      @Override
+      public void failed(Exception e) {
+        throw new AssertionError(e);
+      }
+
+      @Override
+      public void eos() {}
+    });
+    feeder.feed("{\"a\": 1} {\"b\": \"x\"}".getBytes());
+    feeder.close();
+    assertEquals(2, readers.size());
+    assertEquals("{\"b\":\"x\"}", Json.toJsonString(readers.get(1)));
+    assertEquals("{\"a\":1}", Json.toJsonString(readers.get(0)));
+
+    final Map<FieldPath, Type> types = Maps.newHashMap();
+    types.put(FieldPath.parseFrom("t"), Type.TIME);
+    final Collector collector = new Collector();
+    final JsonDocumentFeeder typed = new JsonDocumentFeeder(collector, types);
+    typed.feed("{\"t\": \"10:20:30\"}".getBytes());
+    assertNotNull(collector.documents.get(0).getTime("t"));
+  }
+
+}
@@ -196,4 +196,26 @@ public class TestValues extends BaseTest {
     expectException(TYPE_EXCEPTION, () -> { Values.asNumber(document.getValue("map.map")); });
   }
 
+  @Test
+  public void testCompare() {
+    assertEquals(0, Values.compare(JsonValueBuilder.initFrom(1), JsonValueBuilder.initFrom(1.0d)));
+    assertTrue(Values.compare(JsonValueBuilder.initFrom(2L), JsonValueBuilder.initFrom(2.5f)) < 0);
+    assertTrue(Values.compare(JsonValueBuilder.initFrom(Long.MAX_VALUE),
+        JsonValueBuilder.initFrom(Long.MAX_VALUE - 1)) > 0);
+    assertTrue(Values.compare(JsonValueBuilder.initFrom("abc"), JsonValueBuilder.initFrom("abd")) < 0);
+    assertTrue(Values.compare(null, JsonValueBuilder.initFrom("a")) < 0);
+    assertTrue(Values.compare(JsonValueBuilder.initFrom(ByteBuffer.wrap(new byte[] {(byte) 0x80})),
+        JsonValueBuilder.initFrom(ByteBuffer.wrap(new byte[] {0x7f}))) > 0);
+
+    final Document document = Json.newDocument("{\"a\":[1,2,3],\"b\":[1,2],\"c\":[1,2,3,4]}");
+    assertTrue(Values.compare(document.getValue("b"), document.getValue("a")) < 0);
+    assertTrue(Values.compare(document.getValue("a"), document.getValue("c")) < 0);
+
+    // values of different non-numeric types are ordered by type code
+    final Value bool = JsonValueBuilder.initFrom(true);
+    final Value string = JsonValueBuilder.initFrom("x");
+    assertEquals(Integer.signum(Integer.compare(bool.getType().getCode(), string.getType().getCode())),
+        Integer.signum(Values.compare(bool, string)));
+  }
+
 }
@@ -0,0 +1,241 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.tests.reactive;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.ojai.Document;
+import org.ojai.DocumentStream;
+import org.ojai.base.DocumentStreamBase;
+import org.ojai.json.Json;
+import org.ojai.reactive.DocumentStoreSubscriber;
+import org.ojai.reactive.DocumentStreamPublisher;
+import org.ojai.reactive.Subscriber;
+import org.ojai.reactive.Subscription;
+import org.ojai.store.exceptions.StoreException;
+import org.ojai.tests.BaseTest;
+import org.ojai.tests.store.InMemoryDocumentStore;
+import org.ojai.tests.store.InMemoryDriver;
+
+public class TestDocumentStreamPublisher extends BaseTest {
+
+  /**
+   * A stream of {@code count} documents which records how many were read.
+   */
+  private static class CountingStream extends DocumentStreamBase {
+    final int count;
+    int read;
+    boolean closed;
+
+    CountingStream(int count) {
+      this.count = count;
+    }
+
+    @Override
+    protected Iterator<Document> iteratorDerived() {
+      return new Iterator<Document>() {
+        @Override
+        public boolean hasNext() {
+          return read < count;
+        }
+
+        @Override
+        public Document next() {
+          if (read == count) {
+            throw new NoSuchElementException();
+          }
+          return Json.newDocument().setId("id" + read++).set("n", read);
+        }
+      };
+    }
+
+    @Override
+    protected void closeDerived() {
+      closed = true;
+    }
+  }
+
+  private static class Recorder implements Subscriber<Document> {
+    final List<Document> documents = new ArrayList<>();
+    final CountDownLatch terminated = new CountDownLatch(1);
+    Subscription subscription;
+    Throwable error;
+    boolean completed;
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+      this.subscription = subscription;
+    }
+
+    @Override
+    public void onNext(Document item) {
+      documents.add(item);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      error = throwable;
+      terminated.countDown();
+    }
+
+    @Override
+    public void onComplete() {
+      completed = true;
+      terminated.countDown();
+    }
+  }
+
+  @Test
+  public void testDemandDrivesTheStream() {
+    final CountingStream stream = new CountingStream(10);
+    final Recorder recorder = new Recorder();
+    new DocumentStreamPublisher(stream).subscribe(recorder);
+    assertEquals(0, stream.read);
+
+    recorder.subscription.request(3);
+    assertEquals(3, recorder.documents.size());
+    assertEquals(3, stream.read);
+    recorder.subscription.request(4);
+    assertEquals(7, stream.read);
+    recorder.subscription.request(Long.MAX_VALUE);
+    assertEquals(10, recorder.documents.size());
+    assertTrue(recorder.completed);
+    assertTrue(stream.closed);
+    assertEquals("id9", recorder.documents.get(9).getIdString());
+  }
+
+  @Test
+  public void testCancellationClosesTheStream() {
+    final CountingStream stream = new CountingStream(10);
+    final Recorder recorder = new Recorder() {
+      @Override
+      public void onNext(Document item) {
+        super.onNext(item);
+        if (documents.size() == 2) {
+          subscription.cancel();
+        }
+      }
+    };
+    new DocumentStreamPublisher(stream).subscribe(recorder);
+    recorder.subscription.request(5);
+    assertEquals(2, recorder.documents.size());
+    assertTrue(stream.closed);
+    assertFalse(recorder.completed);
+    recorder.subscription.request(5);
+    assertEquals(2, recorder.documents.size());
+
+    final CountingStream unread = new CountingStream(10);
+    final Recorder idle = new Recorder();
+    new DocumentStreamPublisher(unread).subscribe(idle);
+    idle.subscription.cancel();
+    assertTrue(unread.closed);
+    assertEquals(0, unread.read);
+  }
+
+  @Test
+  public void testProtocolViolations() {
+    final DocumentStreamPublisher publisher = new DocumentStreamPublisher(new CountingStream(3));
+    final Recorder first = new Recorder();
+    publisher.subscribe(first);
+    final Recorder second = new Recorder();
+    publisher.subscribe(second);
+    assertTrue(second.error instanceof IllegalStateException);
+
+    first.subscription.request(0);
+    assertTrue(first.error instanceof IllegalArgumentException);
+    assertTrue(first.documents.isEmpty());
+  }
+
+  @Test
+  public void testParsingFollowsDemand() {
+    final StringBuilder json = new StringBuilder();
+    for (int i = 0; i < 5; i++) {
+      json.append("{\"_id\": \"").append(i).append("\"} ");
+    }
+    json.append("{\"broken\": ");
+    final DocumentStream stream = Json.newDocumentStream(new ByteArrayInputStream(json.toString().getBytes()));
+    final Recorder recorder = new Recorder();
+    new DocumentStreamPublisher(stream).subscribe(recorder);
+    recorder.subscription.request(5);
+    assertEquals(5, recorder.documents.size());
+    assertNull("the truncated document is not parsed yet", recorder.error);
+    recorder.subscription.request(1);
+    assertTrue(recorder.error != null);
+  }
+
+  @Test
+  public void testStoreSubscriberBatchesWrites() throws Exception {
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      final InMemoryDocumentStore store = new InMemoryDocumentStore();
+      final DocumentStoreSubscriber subscriber = new DocumentStoreSubscriber(store, 16);
+      new DocumentStreamPublisher(new CountingStream(100), executor).subscribe(subscriber);
+      assertEquals(100L, (long) subscriber.getCompletion().get(10, TimeUnit.SECONDS));
+      assertEquals(100, store.size());
+      assertEquals(7, subscriber.getBatchCount());
+
+      // a query is run for each subscriber
+      final InMemoryDocumentStore copy = new InMemoryDocumentStore();
+      final DocumentStoreSubscriber copier = new DocumentStoreSubscriber(copy, 64);
+      DocumentStreamPublisher.find(store, InMemoryDriver.INSTANCE.newQuery(), executor).subscribe(copier);
+      assertEquals(100L, (long) copier.getCompletion().get(10, TimeUnit.SECONDS));
+      assertEquals(store.documents().toString(), copy.documents().toString());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testStoreSubscriberFailure() throws Exception {
+    final CountingStream stream = new CountingStream(100);
+    final InMemoryDocumentStore store = new InMemoryDocumentStore() {
+      @Override
+      public void insertOrReplace(DocumentStream documents) {
+        if (size() >= 20) {
+          throw new StoreException("store is full");
+        }
+        super.insertOrReplace(documents);
+      }
+    };
+    final DocumentStoreSubscriber subscriber = new DocumentStoreSubscriber(store, 10);
+    new DocumentStreamPublisher(stream).subscribe(subscriber);
+    try {
+      subscriber.getCompletion().get();
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof StoreException);
+    }
+    assertTrue(subscriber.getCompletion().isCompletedExceptionally());
+    assertEquals(20, subscriber.getWrittenCount());
+    assertTrue(stream.closed);
+    assertEquals(30, stream.read);
+  }
+
+}
@@ -0,0 +1,830 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.tests.store;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import org.ojai.Document;
+import org.ojai.DocumentStream;
+import org.ojai.FieldPath;
+import org.ojai.Value;
+import org.ojai.Value.Type;
+import org.ojai.base.QueryResultBase;
+import org.ojai.json.Json;
+import org.ojai.json.JsonOptions;
+import org.ojai.json.impl.JsonValueBuilder;
+import org.ojai.store.DocumentMutation;
+import org.ojai.store.DocumentStore;
+import org.ojai.store.MutationOp;
+import org.ojai.store.Query;
+import org.ojai.store.QueryCondition;
+import org.ojai.store.QueryResult;
+import org.ojai.store.exceptions.DocumentExistsException;
+import org.ojai.store.exceptions.DocumentNotFoundException;
+import org.ojai.store.exceptions.FailedOp;
+import org.ojai.store.exceptions.MultiOpException;
+import org.ojai.store.exceptions.StoreException;
+import org.ojai.util.Values;
+
+/**
+ * A thread-safe, in-memory stand-in for a {@link DocumentStore}, used to test the
+ * store decorators and utilities. Conditions and queries are evaluated from their
+ * OJAI JSON representation, as produced by the objects of {@link InMemoryDriver}.
+ */
+public class InMemoryDocumentStore implements DocumentStore {
+
+  private final ConcurrentSkipListMap<String, Document> documents = new ConcurrentSkipListMap<>();
+  private final Map<String, AtomicLong> callCounts = new ConcurrentHashMap<>();
+  private volatile long latencyMillis;
+  private volatile boolean closed;
+
+  /**
+   * Makes every subsequent call sleep for the specified duration before executing.
+   */
+  public InMemoryDocumentStore setLatencyMillis(long latencyMillis) {
+    this.latencyMillis = latencyMillis;
+    return this;
+  }
+
+  /**
+   * @return the number of times the named method was invoked on this store
+   */
+  public long getCallCount(String method) {
+    final AtomicLong count = callCounts.get(method);
+    return count == null ? 0 : count.get();
+  }
+
+  public int size() {
+    return documents.size();
+  }
+
+  public boolean isClosed() {
+    return closed;
+  }
+
+  /**
+   * @return the stored Documents in the order of their "_id"
+   */
+  public List<Document> documents() {
+    return new ArrayList<>(documents.values());
+  }
+
+  private void call(String method) {
+    callCounts.computeIfAbsent(method, k -> new AtomicLong()).incrementAndGet();
+    if (latencyMillis > 0) {
+      try {
+        Thread.sleep(latencyMillis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new StoreException(e);
+      }
+    }
+  }
+
+  private static String key(Value _id) {
+    return _id.asJsonString(JsonOptions.WITH_TAGS);
+  }
+
+  private static Value id(String _id) {
+    return JsonValueBuilder.initFrom(_id);
+  }
+
+  private static Document copy(Document doc) {
+    return Json.newDocument(doc.asMap());
+  }
+
+  private static Document project(Document doc, FieldPath... fieldPaths) {
+    if (fieldPaths == null || fieldPaths.length == 0) {
+      return copy(doc);
+    }
+    final Document projected = Json.newDocument();
+    for (FieldPath fieldPath : fieldPaths) {
+      final Value value = doc.getValue(fieldPath);
+      if (value != null) {
+        projected.set(fieldPath, value);
+      }
+    }
+    return projected;
+  }
+
+  private static FieldPath[] paths(String... fieldPaths) {
+    final FieldPath[] paths = new FieldPath[fieldPaths.length];
+    for (int i = 0; i < paths.length; i++) {
+      paths[i] = FieldPath.parseFrom(fieldPaths[i]);
+    }
+    return paths;
+  }
+
+  /*
+   * Condition evaluation
+   */
+
+  public static boolean matches(QueryCondition condition, Document doc) {
+    return condition == null || evaluate(Json.newDocument(condition.asJsonString()).asMap(), doc);
+  }
+
+  @SuppressWarnings("unchecked")
+  static boolean evaluate(Map<String, Object> node, Document doc) {
+    for (Map.Entry<String, Object> e : node.entrySet()) {
+      final String tag = e.getKey();
+      final Object operand = e.getValue();
+      switch (tag) {
+      case "$and":
+        for (Object child : (List<Object>) operand) {
+          if (!evaluate((Map<String, Object>) child, doc)) {
+            return false;
+          }
+        }
+        break;
+      case "$or":
+        boolean any = false;
+        for (Object child : (List<Object>) operand) {
+          any |= evaluate((Map<String, Object>) child, doc);
+        }
+        if (!any) {
+          return false;
+        }
+        break;
+      case "$exists":
+        if (doc.getValue((String) operand) == null) {
+          return false;
+        }
+        break;
+      case "$notexists":
+        if (doc.getValue((String) operand) != null) {
+          return false;
+        }
+        break;
+      default:
+        for (Map.Entry<String, Object> f : ((Map<String, Object>) operand).entrySet()) {
+          if (!evaluateField(tag, doc.getValue(f.getKey()), f.getValue())) {
+            return false;
+          }
+        }
+      }
+    }
+    return true;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static boolean evaluateField(String tag, Value value, Object operand) {
+    switch (tag) {
+    case "$in":
+    case "$notin":
+      boolean found = false;
+      for (Object o : (List<Object>) operand) {
+        found |= value != null && compare(value, o) == 0;
+      }
+      return found == tag.equals("$in");
+    case "$like":
+    case "$notlike":
+      final String like = operand instanceof List ? (String) ((List<Object>) operand).get(0) : (String) operand;
+      final String regex = Pattern.quote(like).replace("%", "\\E.*\\Q").replace("_", "\\E.\\Q");
+      return (value != null && value.getType() == Type.STRING
+          && value.getString().matches(regex)) == tag.equals("$like");
+    case "$matches":
+    case "$notmatches":
+      return (value != null && value.getType() == Type.STRING
+          && Pattern.compile((String) operand).matcher(value.getString()).find()) == tag.equals("$matches");
+    default:
+      if (value == null) {
+        return tag.equals("$ne");
+      }
+      final int cmp = compare(value, operand);
+      switch (tag) {
+      case "$eq": return cmp == 0;
+      case "$ne": return cmp != 0;
+      case "$lt": return cmp < 0;
+      case "$le": return cmp <= 0;
+      case "$gt": return cmp > 0;
+      case "$ge": return cmp >= 0;
+      default: throw new UnsupportedOperationException(tag);
+      }
+    }
+  }
+
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  static int compare(Value value, Object operand) {
+    final Value other = JsonValueBuilder.initFromObject(operand);
+    if (value.getType().isNumeric() && other.getType().isNumeric()) {
+      return Values.asDecimal(value).compareTo(Values.asDecimal(other));
+    } else if (value.getType() != other.getType()) {
+      return Integer.compare(value.getType().getCode(), other.getType().getCode());
+    }
+    final Object o1 = value.getObject();
+    final Object o2 = other.getObject();
+    if (o1 instanceof Comparable) {
+      return ((Comparable) o1).compareTo(o2);
+    }
+    return o1.equals(o2) ? 0 : 1;
+  }
+
+  /*
+   * Mutation application
+   */
+
+  public static void apply(Document doc, DocumentMutation mutation) {
+    for (MutationOp op : mutation) {
+      final FieldPath path = op.getFieldPath();
+      final Value existing = doc.getValue(path);
+      switch (op.getType()) {
+      case SET:
+      case SET_OR_REPLACE:
+        doc.set(path, op.getOpValue());
+        break;
+      case DELETE:
+        doc.delete(path);
+        break;
+      case INCREMENT:
+        doc.set(path, existing == null ? op.getOpValue() : add(existing, op.getOpValue()));
+        break;
+      case APPEND:
+        if (existing != null && existing.getType() == Type.STRING) {
+          doc.set(path, existing.getString() + op.getOpValue().getString());
+        } else {
+          final List<Object> list = existing == null ? new ArrayList<>() : new ArrayList<>(existing.getList());
+          list.addAll(op.getOpValue().getList());
+          doc.set(path, list);
+        }
+        break;
+      case MERGE:
+        final Map<String, Object> map = existing == null
+            ? new java.util.LinkedHashMap<>() : new java.util.LinkedHashMap<>(existing.getMap());
+        map.putAll(op.getOpValue().getMap());
+        doc.set(path, map);
+        break;
+      }
+    }
+  }
+
+  private static Value add(Value v1, Value v2) {
+    switch (v1.getType()) {
+    case BYTE: return JsonValueBuilder.initFrom((byte) (v1.getByte() + Values.asByte(v2)));
+    case SHORT: return JsonValueBuilder.initFrom((short) (v1.getShort() + Values.asShort(v2)));
+    case INT: return JsonValueBuilder.initFrom(v1.getInt() + Values.asInt(v2));
+    case LONG: return JsonValueBuilder.initFrom(v1.getLong() + Values.asLong(v2));
+    case FLOAT: return JsonValueBuilder.initFrom(v1.getFloat() + Values.asFloat(v2));
+    case DOUBLE: return JsonValueBuilder.initFrom(v1.getDouble() + Values.asDouble(v2));
+    case DECIMAL: return JsonValueBuilder.initFrom(v1.getDecimal().add(Values.asDecimal(v2)));
+    default: throw new StoreException("Can not increment a field of type " + v1.getType());
+    }
+  }
+
+  /*
+   * DocumentStore
+   */
+
+  @Override
+  public boolean isReadOnly() {
+    return false;
+  }
+
+  @Override
+  public void flush() throws StoreException {
+    call("flush");
+  }
+
+  @Override
+  public void beginTrackingWrites() throws StoreException {}
+
+  @Override
+  public void beginTrackingWrites(String previousWritesContext) throws StoreException {}
+
+  @Override
+  public String endTrackingWrites() throws StoreException {
+    return "";
+  }
+
+  @Override
+  public void clearTrackedWrites() throws StoreException {}
+
+  @Override
+  public Document findById(Value _id, QueryCondition condition, FieldPath... fieldPaths) throws StoreException {
+    call("findById");
+    final Document doc = documents.get(key(_id));
+    return doc == null || !matches(condition, doc) ? null : project(doc, fieldPaths);
+  }
+
+  @Override
+  public Document findById(String _id) throws StoreException {
+    return findById(id(_id), (QueryCondition) null);
+  }
+
+  @Override
+  public Document findById(Value _id) throws StoreException {
+    return findById(_id, (QueryCondition) null);
+  }
+
+  @Override
+  public Document findById(String _id, String... fieldPaths) throws StoreException {
+    return findById(id(_id), null, paths(fieldPaths));
+  }
+
+  @Override
+  public Document findById(String _id, FieldPath... fieldPaths) throws StoreException {
+    return findById(id(_id), null, fieldPaths);
+  }
+
+  @Override
+  public Document findById(Value _id, String... fieldPaths) throws StoreException {
+    return findById(_id, null, paths(fieldPaths));
+  }
+
+  @Override
+  public Document findById(Value _id, FieldPath... fieldPaths) throws StoreException {
+    return findById(_id, null, fieldPaths);
+  }
+
+  @Override
+  public Document findById(String _id, QueryCondition condition) throws StoreException {
+    return findById(id(_id), condition, new FieldPath[0]);
+  }
+
+  @Override
+  public Document findById(Value _id, QueryCondition condition) throws StoreException {
+    return findById(_id, condition, new FieldPath[0]);
+  }
+
+  @Override
+  public Document findById(String _id, QueryCondition condition, String... fieldPaths) throws StoreException {
+    return findById(id(_id), condition, paths(fieldPaths));
+  }
+
+  @Override
+  public Document findById(String _id, QueryCondition condition, FieldPath... fieldPaths) throws StoreException {
+    return findById(id(_id), condition, fieldPaths);
+  }
+
+  @Override
+  public Document findById(Value _id, QueryCondition condition, String... fieldPaths) throws StoreException {
+    return findById(_id, condition, paths(fieldPaths));
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public QueryResult find(Query query) throws StoreException {
+    call("find");
+    final Map<String, Object> q = Json.newDocument(query.asJsonString()).asMap();
+    final Map<String, Object> where = (Map<String, Object>) q.get(Query.WHERE);
+    List<Document> result = new ArrayList<>();
+    for (Document doc : documents.values()) {
+      if (where == null || evaluate(where, doc)) {
+        result.add(doc);
+      }
+    }
+    final List<Object> orderBy = (List<Object>) q.get(Query.ORDERBY);
+    if (orderBy != null) {
+      result.sort((d1, d2) -> {
+        for (Object o : orderBy) {
+          final Map.Entry<String, Object> e = ((Map<String, Object>) o).entrySet().iterator().next();
+          final Value v1 = d1.getValue(e.getKey());
+          final Value v2 = d2.getValue(e.getKey());
+          int cmp = v1 == null ? (v2 == null ? 0 : -1) : (v2 == null ? 1 : compare(v1, v2));
+          if (cmp != 0) {
+            return "desc".equalsIgnoreCase((String) e.getValue()) ? -cmp : cmp;
+          }
+        }
+        return 0;
+      });
+    }
+    final int offset = q.containsKey(Query.OFFSET) ? ((Number) q.get(Query.OFFSET)).intValue() : 0;
+    final long limit = q.containsKey(Query.LIMIT) ? ((Number) q.get(Query.LIMIT)).longValue() : Long.MAX_VALUE;
+    result = result.subList(Math.min(offset, result.size()), (int) Math.min(result.size(), offset + limit));
+    final List<Object> select = (List<Object>) q.get(Query.SELECT);
+    final List<Document> projected = new ArrayList<>(result.size());
+    for (Document doc : result) {
+      projected.add(select == null ? copy(doc) : project(doc, paths(select.toArray(new String[0]))));
+    }
+    return new ListQueryResult(projected);
+  }
+
+  private static class ListQueryResult extends QueryResultBase {
+    private final List<Document> documents;
+
+    ListQueryResult(List<Document> documents) {
+      this.documents = documents;
+    }
+
+    @Override
+    protected Iterator<Document> iteratorDerived() {
+      return documents.iterator();
+    }
+  }
+
+  @Override
+  public DocumentStream find() throws StoreException {
+    return find(InMemoryDriver.INSTANCE.newQuery());
+  }
+
+  @Override
+  public DocumentStream findQuery(Query query) throws StoreException {
+    return find(query);
+  }
+
+  @Override
+  public DocumentStream findQuery(String queryJSON) throws StoreException {
+    return find(InMemoryDriver.INSTANCE.newQuery(queryJSON));
+  }
+
+  @Override
+  public DocumentStream find(String... fieldPaths) throws StoreException {
+    return find(InMemoryDriver.INSTANCE.newQuery().select(fieldPaths));
+  }
+
+  @Override
+  public DocumentStream find(FieldPath... fieldPaths) throws StoreException {
+    return find(InMemoryDriver.INSTANCE.newQuery().select(fieldPaths));
+  }
+
+  @Override
+  public DocumentStream find(QueryCondition condition) throws StoreException {
+    return find(InMemoryDriver.INSTANCE.newQuery().where(condition));
+  }
+
+  @Override
+  public DocumentStream find(QueryCondition condition, String... fieldPaths) throws StoreException {
+    return find(InMemoryDriver.INSTANCE.newQuery().where(condition).select(fieldPaths));
+  }
+
+  @Override
+  public DocumentStream find(QueryCondition condition, FieldPath... fieldPaths) throws StoreException {
+    return find(InMemoryDriver.INSTANCE.newQuery().where(condition).select(fieldPaths));
+  }
+
+  @Override
+  public void insertOrReplace(Value _id, Document doc) throws StoreException {
+    call("insertOrReplace");
+    documents.put(key(_id), copy(doc).setId(_id));
+  }
+
+  @Override
+  public void insertOrReplace(Document doc) throws StoreException {
+    insertOrReplace(doc.getId(), doc);
+  }
+
+  @Override
+  public void insertOrReplace(String _id, Document r) throws StoreException {
+    insertOrReplace(id(_id), r);
+  }
+
+  @Override
+  public void insertOrReplace(Document doc, FieldPath fieldAsKey) throws StoreException {
+    insertOrReplace(doc.getValue(fieldAsKey), doc);
+  }
+
+  @Override
+  public void insertOrReplace(Document doc, String fieldAsKey) throws StoreException {
+    insertOrReplace(doc, FieldPath.parseFrom(fieldAsKey));
+  }
+
+  @Override
+  public void insertOrReplace(DocumentStream stream) throws MultiOpException {
+    insertOrReplace(stream, FieldPath.parseFrom("_id"));
+  }
+
+  @Override
+  public void insertOrReplace(DocumentStream stream, FieldPath fieldAsKey) throws MultiOpException {
+    forEach(stream, doc -> insertOrReplace(doc, fieldAsKey));
+  }
+
+  @Override
+  public void insertOrReplace(DocumentStream stream, String fieldAsKey) throws MultiOpException {
+    insertOrReplace(stream, FieldPath.parseFrom(fieldAsKey));
+  }
+
+  private interface DocumentOp {
+    void apply(Document doc);
+  }
+
+  private static void forEach(DocumentStream stream, DocumentOp op) throws MultiOpException {
+    final List<FailedOp> failed = new ArrayList<>();
+    for (Document doc : stream) {
+      try {
+        op.apply(doc);
+      } catch (Exception e) {
+        failed.add(new FailedOp(doc, e));
+      }
+    }
+    if (!failed.isEmpty()) {
+      throw new MultiOpException(failed);
+    }
+  }
+
+  @Override
+  public void update(Value _id, DocumentMutation mutation) throws StoreException {
+    call("update");
+    documents.compute(key(_id), (k, doc) -> {
+      final Document updated = doc == null ? Json.newDocument().setId(_id) : copy(doc);
+      apply(updated, mutation);
+      return updated;
+    });
+  }
+
+  @Override
+  public void update(String _id, DocumentMutation mutation) throws StoreException {
+    update(id(_id), mutation);
+  }
+
+  @Override
+  public void delete(Value _id) throws StoreException {
+    call("delete");
+    documents.remove(key(_id));
+  }
+
+  @Override
+  public void delete(String _id) throws StoreException {
+    delete(id(_id));
+  }
+
+  @Override
+  public void delete(Document doc) throws StoreException {
+    delete(doc.getId());
+  }
+
+  @Override
+  public void delete(Document doc, FieldPath fieldAsKey) throws StoreException {
+    delete(doc.getValue(fieldAsKey));
+  }
+
+  @Override
+  public void delete(Document doc, String fieldAsKey) throws StoreException {
+    delete(doc, FieldPath.parseFrom(fieldAsKey));
+  }
+
+  @Override
+  public void delete(DocumentStream stream) throws MultiOpException {
+    forEach(stream, doc -> delete(doc));
+  }
+
+  @Override
+  public void delete(DocumentStream stream, FieldPath fieldAsKey) throws MultiOpException {
+    forEach(stream, doc -> delete(doc, fieldAsKey));
+  }
+
+  @Override
+  public void delete(DocumentStream stream, String fieldAsKey) throws MultiOpException {
+    delete(stream, FieldPath.parseFrom(fieldAsKey));
+  }
+
+  @Override
+  public void insert(Value _id, Document doc) throws StoreException {
+    call("insert");
+    if (documents.putIfAbsent(key(_id), copy(doc).setId(_id)) != null) {
+      throw new DocumentExistsException(key(_id));
+    }
+  }
+
+  @Override
+  public void insert(String _id, Document doc) throws StoreException {
+    insert(id(_id), doc);
+  }
+
+  @Override
+  public void insert(Document doc) throws StoreException {
+    insert(doc.getId(), doc);
+  }
+
+  @Override
+  public void insert(Document doc, FieldPath fieldAsKey) throws StoreException {
+    insert(doc.getValue(fieldAsKey), doc);
+  }
+
+  @Override
+  public void insert(Document doc, String fieldAsKey) throws StoreException {
+    insert(doc, FieldPath.parseFrom(fieldAsKey));
+  }
+
+  @Override
+  public void insert(DocumentStream stream) throws MultiOpException {
+    forEach(stream, doc -> insert(doc));
+  }
+
+  @Override
+  public void insert(DocumentStream stream, FieldPath fieldAsKey) throws MultiOpException {
+    forEach(stream, doc -> insert(doc, fieldAsKey));
+  }
+
+  @Override
+  public void insert(DocumentStream stream, String fieldAsKey) throws MultiOpException {
+    insert(stream, FieldPath.parseFrom(fieldAsKey));
+  }
+
+  @Override
+  public void replace(Value _id, Document doc) throws StoreException {
+    call("replace");
+    if (documents.replace(key(_id), copy(doc).setId(_id)) == null) {
+      throw new DocumentNotFoundException(key(_id));
+    }
+  }
+
+  @Override
+  public void replace(String _id, Document doc) throws StoreException {
+    replace(id(_id), doc);
+  }
+
+  @Override
+  public void replace(Document doc) throws StoreException {
+    replace(doc.getId(), doc);
+  }
+
+  @Override
+  public void replace(Document doc, FieldPath fieldAsKey) throws StoreException {
+    replace(doc.getValue(fieldAsKey), doc);
+  }
+
+  @Override
+  public void replace(Document doc, String fieldAsKey) throws StoreException {
+    replace(doc, FieldPath.parseFrom(fieldAsKey));
+  }
+
+  @Override
+  public void replace(DocumentStream stream) throws MultiOpException {
+    forEach(stream, doc -> replace(doc));
+  }
+
+  @Override
+  public void replace(DocumentStream stream, FieldPath fieldAsKey) throws MultiOpException {
+    forEach(stream, doc -> replace(doc, fieldAsKey));
+  }
+
+  @Override
+  public void replace(DocumentStream stream, String fieldAsKey) throws MultiOpException {
+    replace(stream, FieldPath.parseFrom(fieldAsKey));
+  }
+
+  private void incrementExact(Value _id, String field, Object inc) {
+    call("increment");
+    documents.compute(key(_id), (k, doc) -> {
+      final Document updated = doc == null ? Json.newDocument().setId(_id) : copy(doc);
+      final Value existing = updated.getValue(field);
+      final Value delta = JsonValueBuilder.initFromObject(inc);
+      updated.set(field, existing == null ? delta : add(existing, delta));
+      return updated;
+    });
+  }
+
+  @Override
+  public void increment(Value _id, String field, byte inc) throws StoreException {
+    incrementExact(_id, field, inc);
+  }
+
+  @Override
+  public void increment(Value _id, String field, short inc) throws StoreException {
+    incrementExact(_id, field, inc);
+  }
+
+  @Override
+  public void increment(Value _id, String field, int inc) throws StoreException {
+    incrementExact(_id, field, inc);
+  }
+
+  @Override
+  public void increment(Value _id, String field, long inc) throws StoreException {
+    incrementExact(_id, field, inc);
+  }
+
+  @Override
+  public void increment(Value _id, String field, float inc) throws StoreException {
+    incrementExact(_id, field, inc);
+  }
+
+  @Override
+  public void increment(Value _id, String field, double inc) throws StoreException {
+    incrementExact(_id, field, inc);
+  }
+
+  @Override
+  public void increment(Value _id, String field, BigDecimal inc) throws StoreException {
+    incrementExact(_id, field, inc);
+  }
+
+  @Override
+  public void increment(String _id, String field, byte inc) throws StoreException {
+    increment(id(_id), field, inc);
+  }
+
+  @Override
+  public void increment(String _id, String field, short inc) throws StoreException {
+    increment(id(_id), field, inc);
+  }
+
+  @Override
+  public void increment(String _id, String field, int inc) throws StoreException {
+    increment(id(_id), field, inc);
+  }
+
+  @Override
+  public void increment(String _id, String field, long inc) throws StoreException {
+    increment(id(_id), field, inc);
+  }
+
+  @Override
+  public void increment(String _id, String field, float inc) throws StoreException {
+    increment(id(_id), field, inc);
+  }
+
+  @Override
+  public void increment(String _id, String field, double inc) throws StoreException {
+    increment(id(_id), field, inc);
+  }
+
+  @Override
+  public void increment(String _id, String field, BigDecimal inc) throws StoreException {
+    increment(id(_id), field, inc);
+  }
+
+  @Override
+  @Deprecated
+  public boolean checkAndMutate(Value _id, QueryCondition condition, DocumentMutation mutation)
+      throws StoreException {
+    call("checkAndMutate");
+    final boolean[] applied = new boolean[1];
+    documents.computeIfPresent(key(_id), (k, doc) -> {
+      if (!matches(condition, doc)) {
+        return doc;
+      }
+      final Document updated = copy(doc);
+      apply(updated, mutation);
+      applied[0] = true;
+      return updated;
+    });
+    return applied[0];
+  }
+
+  @Override
+  @Deprecated
+  public boolean checkAndMutate(String _id, QueryCondition condition, DocumentMutation mutation)
+      throws StoreException {
+    return checkAndMutate(id(_id), condition, mutation);
+  }
+
+  @Override
+  public boolean checkAndDelete(Value _id, QueryCondition condition) throws StoreException {
+    call("checkAndDelete");
+    final boolean[] deleted = new boolean[1];
+    documents.computeIfPresent(key(_id), (k, doc) -> {
+      deleted[0] = matches(condition, doc);
+      return deleted[0] ? null : doc;
+    });
+    return deleted[0];
+  }
+
+  @Override
+  public boolean checkAndDelete(String _id, QueryCondition condition) throws StoreException {
+    return checkAndDelete(id(_id), condition);
+  }
+
+  @Override
+  public boolean checkAndReplace(Value _id, QueryCondition condition, Document doc) throws StoreException {
+    call("checkAndReplace");
+    final boolean[] replaced = new boolean[1];
+    documents.computeIfPresent(key(_id), (k, existing) -> {
+      replaced[0] = matches(condition, existing);
+      return replaced[0] ? copy(doc).setId(_id) : existing;
+    });
+    return replaced[0];
+  }
+
+  @Override
+  public boolean checkAndReplace(String _id, QueryCondition condition, Document doc) throws StoreException {
+    return checkAndReplace(id(_id), condition, doc);
+  }
+
+  @Override
+  public void close() throws StoreException {
+    closed = true;
+  }
+
+  /**
+   * Loads the specified Documents, keyed by their "_id", into this store.
+   */
+  public InMemoryDocumentStore load(Collection<Document> docs) {
+    for (Document doc : docs) {
+      documents.put(key(doc.getId()), copy(doc));
+    }
+    return this;
+  }
+
+}
@@ -0,0 +1,357 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.tests.store;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.ojai.Document;
+import org.ojai.FieldPath;
+import org.ojai.Value;
+import org.ojai.json.Json;
+import org.ojai.json.JsonOptions;
+import org.ojai.json.impl.JsonValueBuilder;
+import org.ojai.json.impl.store.JsonDriver;
+import org.ojai.store.DocumentMutation;
+import org.ojai.store.MutationOp;
+import org.ojai.store.Query;
+import org.ojai.store.QueryCondition;
+import org.ojai.store.QueryCondition.Op;
+import org.ojai.store.SortOrder;
+
+/**
+ * A test Driver which, unlike {@link JsonDriver}, can create {@link DocumentMutation},
+ * {@link QueryCondition} and {@link Query} objects. These are light-weight proxies
+ * which record their content in the OJAI JSON representation, which is all the
+ * {@link InMemoryDocumentStore} and the utilities under test need to introspect them.
+ */
+public class InMemoryDriver extends JsonDriver {
+
+  public static final InMemoryDriver INSTANCE = new InMemoryDriver();
+
+  @Override
+  public DocumentMutation newMutation() {
+    return (DocumentMutation) newProxy(DocumentMutation.class, new MutationHandler());
+  }
+
+  @Override
+  public QueryCondition newCondition() {
+    return (QueryCondition) newProxy(QueryCondition.class, new ConditionHandler());
+  }
+
+  @Override
+  public Query newQuery() {
+    return (Query) newProxy(Query.class, new QueryHandler());
+  }
+
+  @Override
+  public Query newQuery(String queryJson) {
+    final QueryHandler handler = new QueryHandler();
+    handler.query.putAll(Json.newDocument(queryJson).asMap());
+    return (Query) newProxy(Query.class, handler);
+  }
+
+  @Override
+  public String getName() {
+    return "memory";
+  }
+
+  private static Object newProxy(Class<?> iface, InvocationHandler handler) {
+    return Proxy.newProxyInstance(InMemoryDriver.class.getClassLoader(), new Class<?>[] {iface}, handler);
+  }
+
+  private static FieldPath path(Object path) {
+    return path instanceof FieldPath ? (FieldPath) path : FieldPath.parseFrom((String) path);
+  }
+
+  private static String toJson(Object object) {
+    return JsonValueBuilder.initFromObject(object).asJsonString(JsonOptions.WITH_TAGS);
+  }
+
+  /**
+   * Records mutation operations as a list of {@link MutationOp}.
+   */
+  private static class MutationHandler implements InvocationHandler {
+    private final List<MutationOp> ops = new ArrayList<>();
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      switch (method.getName()) {
+      case "iterator":
+        return Collections.unmodifiableList(ops).iterator();
+      case "forEach":
+        ops.forEach((Consumer<MutationOp>) args[0]);
+        return null;
+      case "spliterator":
+        return ops.spliterator();
+      case "empty":
+        ops.clear();
+        return proxy;
+      case "size":
+        return ops.size();
+      case "isEmpty":
+        return ops.isEmpty();
+      case "isReadOnly":
+        return false;
+      case "hashCode":
+        return System.identityHashCode(proxy);
+      case "equals":
+        return proxy == args[0];
+      case "toString":
+      case "asJsonString":
+        final List<Object> list = new ArrayList<>();
+        for (MutationOp op : ops) {
+          final Map<String, Object> m = new LinkedHashMap<>();
+          m.put(op.getType().name(), op.getFieldPath().asPathString());
+          if (op.getOpValue() != null) {
+            m.put("value", op.getOpValue());
+          }
+          list.add(m);
+        }
+        return toJson(list);
+      case "setNull":
+        return add(proxy, MutationOp.Type.SET, args[0], JsonValueBuilder.initFromNull());
+      case "setOrReplaceNull":
+        return add(proxy, MutationOp.Type.SET_OR_REPLACE, args[0], JsonValueBuilder.initFromNull());
+      case "set":
+        return add(proxy, MutationOp.Type.SET, args[0], value(args));
+      case "setOrReplace":
+        return add(proxy, MutationOp.Type.SET_OR_REPLACE, args[0], value(args));
+      case "append":
+        return add(proxy, MutationOp.Type.APPEND, args[0], value(args));
+      case "merge":
+        return add(proxy, MutationOp.Type.MERGE, args[0], value(args));
+      case "increment":
+        return add(proxy, MutationOp.Type.INCREMENT, args[0], value(args));
+      case "delete":
+        return add(proxy, MutationOp.Type.DELETE, args[0], null);
+      default:
+        throw new UnsupportedOperationException(method.toString());
+      }
+    }
+
+    private Value value(Object[] args) {
+      if (args.length == 4) { // append(path, byte[], offset, len)
+        return JsonValueBuilder.initFrom(
+            java.nio.ByteBuffer.wrap((byte[]) args[1], (Integer) args[2], (Integer) args[3]));
+      }
+      return JsonValueBuilder.initFromObject(args[1]);
+    }
+
+    private Object add(Object proxy, MutationOp.Type type, Object path, Value value) {
+      final MutationOp op = new MutationOp();
+      op.setType(type);
+      op.setFieldPath(path(path));
+      if (value != null) {
+        op.setOpValue(value);
+      }
+      ops.add(op);
+      return proxy;
+    }
+  }
+
+  /**
+   * Builds the OJAI JSON representation of a condition.
+   */
+  private static class ConditionHandler implements InvocationHandler {
+    private final Deque<Object[]> blocks = new ArrayDeque<>(); // {tag, path, children}
+    private Object built;
+
+    ConditionHandler() {
+      blocks.push(new Object[] {"$and", null, new ArrayList<Object>()});
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      switch (method.getName()) {
+      case "and":
+        blocks.push(new Object[] {"$and", null, new ArrayList<Object>()});
+        return proxy;
+      case "or":
+        blocks.push(new Object[] {"$or", null, new ArrayList<Object>()});
+        return proxy;
+      case "elementAnd":
+        blocks.push(new Object[] {"$elementAnd", path(args[0]), new ArrayList<Object>()});
+        return proxy;
+      case "close":
+        final Object[] block = blocks.pop();
+        children().add(blockToMap(block));
+        return proxy;
+      case "build":
+        while (blocks.size() > 1) {
+          final Object[] b = blocks.pop();
+          children().add(blockToMap(b));
+        }
+        final List<Object> root = children();
+        built = root.size() == 1 ? root.get(0) : blockToMap(blocks.peek());
+        return proxy;
+      case "isBuilt":
+        return built != null;
+      case "isEmpty":
+        return built == null && blocks.size() == 1 && children().isEmpty();
+      case "hashCode":
+        return System.identityHashCode(proxy);
+      case "toString":
+      case "asJsonString":
+        return toJson(built != null ? built : Collections.emptyMap());
+      case "condition":
+        children().add(Json.newDocument(((QueryCondition) args[0]).asJsonString()).asMap());
+        return proxy;
+      case "exists":
+        return leaf(proxy, "$exists", path(args[0]).asPathString());
+      case "notExists":
+        return leaf(proxy, "$notexists", path(args[0]).asPathString());
+      case "in":
+        return fieldLeaf(proxy, "$in", args[0], args[1]);
+      case "notIn":
+        return fieldLeaf(proxy, "$notin", args[0], args[1]);
+      case "typeOf":
+        return fieldLeaf(proxy, "$typeof", args[0], ((Value.Type) args[1]).name().toLowerCase());
+      case "notTypeOf":
+        return fieldLeaf(proxy, "$nottypeof", args[0], ((Value.Type) args[1]).name().toLowerCase());
+      case "matches":
+        return fieldLeaf(proxy, "$matches", args[0], args[1]);
+      case "notMatches":
+        return fieldLeaf(proxy, "$notmatches", args[0], args[1]);
+      case "like":
+        return fieldLeaf(proxy, "$like", args[0],
+            args.length == 2 ? args[1] : Arrays.asList(args[1], String.valueOf(args[2])));
+      case "notLike":
+        return fieldLeaf(proxy, "$notlike", args[0],
+            args.length == 2 ? args[1] : Arrays.asList(args[1], String.valueOf(args[2])));
+      case "is":
+        return fieldLeaf(proxy, ((Op) args[1]).getTagName(), args[0], args[2]);
+      case "equals":
+        if (args.length == 1) {
+          return proxy == args[0];
+        }
+        return fieldLeaf(proxy, "$eq", args[0], args[1]);
+      case "notEquals":
+        return fieldLeaf(proxy, "$ne", args[0], args[1]);
+      case "sizeOf":
+        return fieldLeaf(proxy, "$sizeof", args[0],
+            Collections.singletonMap(((Op) args[1]).getTagName(), args[2]));
+      default:
+        throw new UnsupportedOperationException(method.toString());
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Object> children() {
+      return (List<Object>) blocks.peek()[2];
+    }
+
+    private Object blockToMap(Object[] block) {
+      if (block[1] != null) {
+        return Collections.singletonMap(block[0],
+            Collections.singletonMap(((FieldPath) block[1]).asPathString(), block[2]));
+      }
+      return Collections.singletonMap(block[0], block[2]);
+    }
+
+    private Object leaf(Object proxy, String tag, Object operand) {
+      children().add(Collections.singletonMap(tag, operand));
+      return proxy;
+    }
+
+    private Object fieldLeaf(Object proxy, String tag, Object path, Object operand) {
+      return leaf(proxy, tag, Collections.singletonMap(path(path).asPathString(), operand));
+    }
+  }
+
+  /**
+   * Builds the OJAI JSON representation of a query.
+   */
+  private static class QueryHandler implements InvocationHandler {
+    private final Map<String, Object> query = new LinkedHashMap<>();
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      switch (method.getName()) {
+      case "select":
+        final List<Object> select = (List<Object>) query.computeIfAbsent(Query.SELECT, k -> new ArrayList<>());
+        for (Object field : (Object[]) args[0]) {
+          select.add(path(field).asPathString());
+        }
+        return proxy;
+      case "where":
+        query.put(Query.WHERE, Json.newDocument(args[0] instanceof QueryCondition
+            ? ((QueryCondition) args[0]).asJsonString() : (String) args[0]).asMap());
+        return proxy;
+      case "orderBy":
+        final List<Object> orderBy = (List<Object>) query.computeIfAbsent(Query.ORDERBY, k -> new ArrayList<>());
+        if (args.length == 2 && !(args[0] instanceof Object[])) {
+          final String order = args[1] instanceof SortOrder
+              ? ((SortOrder) args[1]).name() : ((String) args[1]).toUpperCase();
+          orderBy.add(Collections.singletonMap(path(args[0]).asPathString(), order.toLowerCase()));
+        } else {
+          for (Object field : (Object[]) args[0]) {
+            orderBy.add(Collections.singletonMap(path(field).asPathString(), "asc"));
+          }
+        }
+        return proxy;
+      case "offset":
+        query.put(Query.OFFSET, args[0]);
+        return proxy;
+      case "limit":
+        query.put(Query.LIMIT, args[0]);
+        return proxy;
+      case "setOption":
+        query.put((String) args[0], args[1]);
+        return proxy;
+      case "getOption":
+        return query.get(args[0]);
+      case "setTimeout":
+      case "waitForTrackedWrites":
+      case "setOptions":
+      case "build":
+        return proxy;
+      case "isBuilt":
+        return true;
+      case "hashCode":
+        return System.identityHashCode(proxy);
+      case "equals":
+        return proxy == args[0];
+      case "toString":
+      case "asJsonString":
+        return toJson(query);
+      default:
+        throw new UnsupportedOperationException(method.toString());
+      }
+    }
+  }
+
+  /**
+   * Convenience method to build a Document from a JSON string in tests.
+   */
+  public static Document doc(String json) {
+    return Json.newDocument(json);
+  }
+
+}
@@ -0,0 +1,217 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.tests.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ojai.Document;
+import org.ojai.FieldPath;
+import org.ojai.Value;
+import org.ojai.json.Json;
+import org.ojai.json.impl.JsonValueBuilder;
+import org.ojai.store.AsyncDocumentStore;
+import org.ojai.store.DocumentMutation;
+import org.ojai.store.DocumentStore;
+import org.ojai.store.OpListener;
+import org.ojai.store.Query;
+import org.ojai.store.QueryCondition;
+import org.ojai.store.QueryCondition.Op;
+import org.ojai.store.QueryResult;
+import org.ojai.store.base.AsyncStoreAdapter;
+import org.ojai.store.base.ForwardingStore;
+import org.ojai.store.exceptions.DocumentNotFoundException;
+import org.ojai.tests.BaseTest;
+
+public class TestAsyncStoreAdapter extends BaseTest {
+
+  private ExecutorService executor;
+  private InMemoryDocumentStore store;
+
+  @Before
+  public void setUp() {
+    executor = Executors.newFixedThreadPool(4);
+    store = new InMemoryDocumentStore();
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  private static Value id(String id) {
+    return JsonValueBuilder.initFrom(id);
+  }
+
+  @Test
+  public void testBasicOperations() throws Exception {
+    final AsyncDocumentStore async = AsyncStoreAdapter.wrap(store, executor, 16);
+    async.insertOrReplaceAsync(Json.newDocument().setId("k1").set("count", 1)).get();
+    async.insertOrReplaceAsync(id("k2"), Json.newDocument().set("count", 2)).get();
+    assertEquals(2, store.size());
+
+    assertEquals(1, async.findByIdAsync(id("k1")).get().getInt("count"));
+    assertNull(async.findByIdAsync(id("k3")).get());
+
+    async.updateAsync(id("k1"), InMemoryDriver.INSTANCE.newMutation().set("count", 10)).get();
+    assertEquals(10, store.findById("k1").getInt("count"));
+
+    final boolean applied = async.checkAndMutateAsync(id("k2"),
+        InMemoryDriver.INSTANCE.newCondition().is("count", Op.GREATER, 5).build(),
+        InMemoryDriver.INSTANCE.newMutation().set("count", 0)).get();
+    assertFalse(applied);
+    assertEquals(2, store.findById("k2").getInt("count"));
+
+    final List<Document> docs = new ArrayList<>();
+    async.findAsync(InMemoryDriver.INSTANCE.newQuery().build()).thenAccept(r -> {
+      for (Document d : r) {
+        docs.add(d);
+      }
+      r.close();
+    }).get();
+    assertEquals(2, docs.size());
+
+    async.close();
+    assertTrue(store.isClosed());
+  }
+
+  @Test
+  public void testOpListenerBridge() throws Exception {
+    final AsyncDocumentStore async = AsyncStoreAdapter.wrap(store, executor, 16);
+    store.insertOrReplace("k1", Json.newDocument().set("a", "b"));
+
+    final CountDownLatch latch = new CountDownLatch(2);
+    final List<Object> outcomes = new ArrayList<>();
+    final OpListener listener = new OpListener() {
+      @Override
+      public synchronized void onSuccess(Document document) {
+        outcomes.add(document.getString("a"));
+        latch.countDown();
+      }
+
+      @Override
+      public synchronized void onFailure(Exception e) {
+        outcomes.add(e.getClass());
+        latch.countDown();
+      }
+    };
+    async.findByIdAsync(id("k1"), listener);
+    async.findByIdAsync(id("missing"), listener);
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+    assertTrue(outcomes.contains("b"));
+    assertTrue(outcomes.contains(DocumentNotFoundException.class));
+  }
+
+  @Test
+  public void testInFlightLimit() throws Exception {
+    store.setLatencyMillis(200);
+    final AsyncStoreAdapter async = new AsyncStoreAdapter(store, executor, 2);
+    final CompletableFuture<Document> f1 = async.findByIdAsync(id("k1"));
+    final CompletableFuture<Document> f2 = async.findByIdAsync(id("k2"));
+    final CompletableFuture<Document> f3 = async.findByIdAsync(id("k3"));
+    assertEquals(2, async.getInFlightCount());
+    try {
+      f3.get();
+      fail("Expected the third operation to be rejected");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof RejectedExecutionException);
+    }
+    f1.get();
+    f2.get();
+    assertEquals(0, async.getInFlightCount());
+    assertNull(async.findByIdAsync(id("k4")).get());
+  }
+
+  @Test
+  public void testNativeAsyncStore() {
+    // a store which natively implements AsyncDocumentStore is not wrapped again
+    final NativeAsyncStore nativeAsync = new NativeAsyncStore(store, executor);
+    assertSame(nativeAsync, AsyncStoreAdapter.wrap(nativeAsync, executor, 16));
+    assertTrue(AsyncStoreAdapter.wrap(store, executor, 16) instanceof AsyncStoreAdapter);
+  }
+
+  private static class NativeAsyncStore extends ForwardingStore implements AsyncDocumentStore {
+    private final AsyncDocumentStore delegate;
+
+    NativeAsyncStore(DocumentStore store, ExecutorService executor) {
+      super(store);
+      delegate = new AsyncStoreAdapter(store, executor, 1);
+    }
+
+    @Override
+    public DocumentStore getStore() {
+      return this;
+    }
+
+    @Override
+    public CompletableFuture<Document> findByIdAsync(Value _id) {
+      return delegate.findByIdAsync(_id);
+    }
+
+    @Override
+    public CompletableFuture<Document> findByIdAsync(Value _id, FieldPath... fieldPaths) {
+      return delegate.findByIdAsync(_id, fieldPaths);
+    }
+
+    @Override
+    public CompletableFuture<Document> findByIdAsync(Value _id, QueryCondition c, FieldPath... fieldPaths) {
+      return delegate.findByIdAsync(_id, c, fieldPaths);
+    }
+
+    @Override
+    public CompletableFuture<QueryResult> findAsync(Query query) {
+      return delegate.findAsync(query);
+    }
+
+    @Override
+    public CompletableFuture<Void> insertOrReplaceAsync(Document doc) {
+      return delegate.insertOrReplaceAsync(doc);
+    }
+
+    @Override
+    public CompletableFuture<Void> insertOrReplaceAsync(Value _id, Document doc) {
+      return delegate.insertOrReplaceAsync(_id, doc);
+    }
+
+    @Override
+    public CompletableFuture<Void> updateAsync(Value _id, DocumentMutation mutation) {
+      return delegate.updateAsync(_id, mutation);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> checkAndMutateAsync(Value _id, QueryCondition c, DocumentMutation m) {
+      return delegate.checkAndMutateAsync(_id, c, m);
+    }
+  }
+
+}
@@ -0,0 +1,235 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.tests.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.ojai.Document;
+import org.ojai.Value.Type;
+import org.ojai.exceptions.DecodingException;
+import org.ojai.exceptions.RangeException;
+import org.ojai.exceptions.TypeException;
+import org.ojai.json.Json;
+import org.ojai.store.cdc.BinaryChangeDataRecord;
+import org.ojai.store.cdc.BinaryChangeDataWriter;
+import org.ojai.store.cdc.ChangeDataApplier;
+import org.ojai.store.cdc.ChangeDataGenerator;
+import org.ojai.store.cdc.ChangeDataReader;
+import org.ojai.store.cdc.ChangeDataRecord;
+import org.ojai.store.cdc.ChangeEvent;
+import org.ojai.store.cdc.ChangeLog;
+import org.ojai.store.cdc.SyntheticChangeFeed;
+import org.ojai.tests.BaseTest;
+import org.ojai.types.ODate;
+import org.ojai.types.OInterval;
+import org.ojai.types.OTime;
+import org.ojai.types.OTimestamp;
+import org.ojai.util.Documents;
+
+public class TestBinaryChangeData extends BaseTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static void assertReplicated(ChangeDataGenerator generator, ChangeDataApplier applier) {
+    assertEquals(generator.size(), applier.size());
+    for (Document doc : applier.getDocuments()) {
+      final Document expected = generator.get(doc.getId());
+      assertTrue(doc + " != " + expected, Documents.equals(expected, doc));
+    }
+  }
+
+  @Test
+  public void testRoundTrip() {
+    final SyntheticChangeFeed feed = new SyntheticChangeFeed(11).setKeyCount(200).setLimit(10000);
+    final BinaryChangeDataWriter writer = new BinaryChangeDataWriter(16);
+    final BinaryChangeDataRecord binary = new BinaryChangeDataRecord();
+    final ChangeDataApplier applier = new ChangeDataApplier();
+    while (feed.hasNext()) {
+      final ChangeDataRecord record = feed.next();
+      final ByteBuffer encoded = writer.write(record);
+      binary.wrap(encoded, encoded.position(), encoded.remaining());
+      assertEquals(record.getType(), binary.getType());
+      assertEquals(record.getOpTimestamp(), binary.getOpTimestamp());
+      assertEquals(record.getServerTimestamp(), binary.getServerTimestamp());
+      assertEquals(record.toString(), binary.toString());
+      assertTrue(feed.getCount() % 2 == 0 ? applier.apply(binary) : applier.applyFromReader(binary));
+    }
+    assertReplicated(feed.getGenerator(), applier);
+  }
+
+  @Test
+  public void testScalarTypes() {
+    final ChangeDataGenerator generator = new ChangeDataGenerator(() -> 5);
+    final Document doc = Json.newDocument().setId(ByteBuffer.wrap(new byte[] {1, 2}))
+        .set("bool", true)
+        .set("byte", (byte) -3)
+        .set("short", (short) 300)
+        .set("int", 70000)
+        .set("long", 1L << 40)
+        .set("float", 1.5f)
+        .set("double", -2.25)
+        .set("decimal", new BigDecimal("-12345.678"))
+        .set("wide", new BigDecimal("123456789012345678901234567890.5"))
+        .set("date", ODate.parse("2018-06-01"))
+        .set("time", OTime.parse("12:34:56.789"))
+        .set("timestamp", new OTimestamp(1527811200000L))
+        .set("interval", new OInterval(86400000L))
+        .set("binary", ByteBuffer.wrap(new byte[] {9, 8, 7}))
+        .set("string", "héllo")
+        .setNull("null");
+    final ChangeDataRecord insert = BinaryChangeDataRecord.of(new BinaryChangeDataWriter().encode(
+        generator.insert(doc)));
+    final byte[] bytes = new BinaryChangeDataWriter().encode(generator.update(doc.getId(),
+        InMemoryDriver.INSTANCE.newMutation().set("m.n", 1).delete("x")));
+    final BinaryChangeDataRecord record = BinaryChangeDataRecord.of(bytes);
+    assertEquals(0, record.getId().getBinary().compareTo(ByteBuffer.wrap(new byte[] {1, 2})));
+
+    final ChangeDataApplier applier = new ChangeDataApplier();
+    assertTrue(applier.apply(insert));
+    assertTrue(applier.applyFromReader(record));
+    assertTrue(Documents.equals(generator.get(doc.getId()), applier.get(doc.getId())));
+
+    final ChangeDataReader reader = insert.getReader();
+    assertSame(reader, insert.getReader());
+    assertEquals(ChangeEvent.START_MAP, reader.next());
+    int nodes = 0;
+    while (reader.hasNext()) {
+      if (reader.next() != ChangeEvent.NODE) {
+        continue;
+      }
+      nodes++;
+      final String name = reader.getFieldName();
+      assertEquals(name, StandardCharsets.UTF_8.decode(reader.getFieldNameBytes()).toString());
+      switch (name) {
+      case "bool": assertTrue(reader.getBoolean()); break;
+      case "byte": assertEquals(-3, reader.getByte()); break;
+      case "short": assertEquals(300, reader.getShort()); break;
+      case "int": assertEquals(70000, reader.getInt()); break;
+      case "long": assertEquals(1L << 40, reader.getLong()); break;
+      case "float": assertEquals(1.5f, reader.getFloat(), 0); break;
+      case "double": assertEquals(-2.25, reader.getDouble(), 0); break;
+      case "decimal":
+        assertEquals(new BigDecimal("-12345.678"), reader.getDecimal());
+        assertEquals(3, reader.getDecimalScale());
+        assertEquals(-12345678, reader.getDecimalValueAsInt());
+        assertEquals(-12345678L, reader.getDecimalValueAsLong());
+        break;
+      case "wide":
+        assertEquals(new BigDecimal("123456789012345678901234567890.5"), reader.getDecimal());
+        try {
+          reader.getDecimalValueAsLong();
+          fail();
+        } catch (RangeException e) {}
+        break;
+      case "date": assertEquals(ODate.parse("2018-06-01").toDaysSinceEpoch(), reader.getDateInt()); break;
+      case "time": assertEquals(OTime.parse("12:34:56.789"), reader.getTime()); break;
+      case "timestamp": assertEquals(1527811200000L, reader.getTimestampLong()); break;
+      case "interval": assertEquals(86400000L, reader.getIntervalMillis()); break;
+      case "_id":
+        assertEquals(ByteBuffer.wrap(new byte[] {1, 2}), reader.getBinary()); break;
+      case "binary": assertEquals(ByteBuffer.wrap(new byte[] {9, 8, 7}), reader.getBinary()); break;
+      case "string": assertEquals("héllo", reader.getString()); break;
+      case "null": assertEquals(Type.NULL, reader.getType()); break;
+      default: fail(name);
+      }
+      if (reader.getType() != Type.INT) {
+        try {
+          reader.getInt();
+          fail();
+        } catch (TypeException e) {}
+      }
+    }
+    assertEquals(17, nodes);
+
+    try {
+      BinaryChangeDataRecord.of(new byte[] {42, 1});
+      fail();
+    } catch (DecodingException e) {}
+  }
+
+  @Test
+  public void testChangeLog() throws Exception {
+    final File directory = folder.newFolder("log");
+    final SyntheticChangeFeed feed = new SyntheticChangeFeed(3).setKeyCount(100).setLimit(3000);
+    final List<String> expected = new ArrayList<>();
+    final List<Long> offsets = new ArrayList<>();
+    final long end;
+    final int segmentCount;
+    try (ChangeLog log = new ChangeLog(directory, 8192)) {
+      for (int i = 0; i < 2000; i++) {
+        final ChangeDataRecord record = feed.next();
+        offsets.add(log.append(record));
+        expected.add(record.toString());
+      }
+      assertTrue(log.getSegmentCount() > 2);
+      end = log.getEndOffset();
+      segmentCount = log.getSegmentCount();
+    }
+
+    // an empty segment file, as left by a crash while starting a segment, is dropped
+    final File empty = new File(directory, String.format("%020d.log", end));
+    assertTrue(empty.createNewFile());
+    try (ChangeLog log = new ChangeLog(directory, 8192)) {
+      assertEquals(end, log.getEndOffset());
+      assertEquals(segmentCount, log.getSegmentCount());
+    }
+    assertFalse(empty.exists());
+
+    final ChangeDataApplier applier = new ChangeDataApplier();
+    try (ChangeLog log = new ChangeLog(directory, 8192)) {
+      final ChangeLog.Cursor tail = log.cursor(log.getEndOffset());
+      assertFalse(tail.hasNext());
+      while (feed.hasNext()) {
+        final ChangeDataRecord record = feed.next();
+        offsets.add(log.append(record));
+        expected.add(record.toString());
+      }
+      log.flush();
+      assertTrue(tail.hasNext());
+      assertEquals(expected.get(2000), tail.next().toString());
+
+      final ChangeLog.Cursor cursor = log.cursor(0);
+      for (int i = 0; i < expected.size(); i++) {
+        assertEquals((long) offsets.get(i), cursor.getOffset());
+        final ChangeDataRecord record = cursor.next();
+        assertEquals(expected.get(i), record.toString());
+        assertTrue(applier.apply(record));
+      }
+      assertFalse(cursor.hasNext());
+      assertEquals(log.getEndOffset(), cursor.getOffset());
+
+      final ChangeLog.Cursor middle = log.cursor(offsets.get(1234));
+      assertEquals(expected.get(1234), middle.next().toString());
+    }
+    assertReplicated(feed.getGenerator(), applier);
+  }
+
+}
@@ -0,0 +1,259 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.tests.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.ojai.Document;
+import org.ojai.DocumentStream;
+import org.ojai.Value;
+import org.ojai.json.Json;
+import org.ojai.store.bulk.BulkLoadReport;
+import org.ojai.store.bulk.BulkLoader;
+import org.ojai.store.exceptions.ConnectionException;
+import org.ojai.store.exceptions.MultiOpException;
+import org.ojai.store.exceptions.StoreException;
+import org.ojai.tests.BaseTest;
+import org.ojai.util.DocumentStreams;
+
+public class TestBulkLoader extends BaseTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static List<Document> documents(int count) {
+    final List<Document> documents = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      documents.add(Json.newDocument().setId(String.format("k%05d", i)).set("i", i));
+    }
+    return documents;
+  }
+
+  private static void assertLoaded(InMemoryDocumentStore store, int count) {
+    assertEquals(count, store.size());
+    int i = 0;
+    for (Document document : store.documents()) {
+      assertEquals(i++, document.getInt("i"));
+    }
+  }
+
+  /**
+   * Fails the first writes of every document whose "i" is a multiple of {@code every}.
+   */
+  private static class FlakyStore extends InMemoryDocumentStore {
+    private final Map<String, AtomicInteger> attempts = new ConcurrentHashMap<>();
+    private final int every;
+    private final int failures;
+
+    FlakyStore(int every, int failures) {
+      this.every = every;
+      this.failures = failures;
+    }
+
+    @Override
+    public void insertOrReplace(Value _id, Document doc) throws StoreException {
+      if (doc.getInt("i") % every == 0
+          && attempts.computeIfAbsent(_id.getString(), k -> new AtomicInteger()).incrementAndGet() <= failures) {
+        throw new ConnectionException("connection reset");
+      }
+      super.insertOrReplace(_id, doc);
+    }
+  }
+
+  @Test
+  public void testLoad() {
+    final InMemoryDocumentStore store = new InMemoryDocumentStore();
+    final List<BulkLoadReport> reports = new ArrayList<>();
+    final BulkLoadReport report;
+    try (DocumentStream input = DocumentStreams.of(documents(10000))) {
+      report = new BulkLoader(() -> store).setThreadCount(3).setBatchSize(64).setQueueDepth(2)
+          .setProgressListener(reports::add).load(input);
+    }
+    assertLoaded(store, 10000);
+    assertEquals(10000, report.getReadCount());
+    assertEquals(10000, report.getWrittenCount());
+    assertEquals(10000, report.getCheckpoint());
+    assertEquals(0, report.getDeadLetterCount());
+    assertEquals(0, report.getRetryCount());
+    assertEquals(0, report.getSkippedCount());
+    assertEquals(report.getBatchCount(), report.getBatchLatency().getCount());
+    assertTrue(report.getBatchCount() >= 10000 / 64);
+    assertTrue(report.getDocumentsPerSecond() > 0);
+    assertFalse(reports.isEmpty());
+  }
+
+  @Test
+  public void testTransientFailuresAreRetried() {
+    final FlakyStore store = new FlakyStore(10, 2);
+    final BulkLoadReport report = new BulkLoader(() -> store).setThreadCount(4).setBatchSize(50)
+        .setBackoff(1, 5, TimeUnit.MILLISECONDS).setMaxAttempts(3)
+        .load(DocumentStreams.of(documents(2000)));
+    assertLoaded(store, 2000);
+    assertEquals(2000, report.getWrittenCount());
+    assertEquals(400, report.getRetryCount());
+    assertEquals(0, report.getDeadLetterCount());
+  }
+
+  @Test
+  public void testPermanentFailuresAreDeadLettered() throws Exception {
+    final File deadLetters = new File(folder.getRoot(), "dead-letters.json");
+    final InMemoryDocumentStore store = new InMemoryDocumentStore();
+    final List<Document> documents = documents(1000);
+    for (int i = 0; i < 1000; i += 100) {
+      store.insert(documents.get(i));
+    }
+    final BulkLoader loader = new BulkLoader(() -> store).setMode(BulkLoader.Mode.INSERT).setBatchSize(32)
+        .setDeadLetterFile(deadLetters);
+    final BulkLoadReport report = loader.load(DocumentStreams.of(documents));
+    assertEquals(1000, store.size());
+    assertEquals(990, report.getWrittenCount());
+    assertEquals(10, report.getDeadLetterCount());
+
+    final List<String> lines = Files.readAllLines(deadLetters.toPath(), StandardCharsets.UTF_8);
+    assertEquals(10, lines.size());
+    for (String line : lines) {
+      final Document record = Json.newDocument(line);
+      assertEquals(1, record.getInt("attempts"));
+      assertTrue(record.getString("error"), record.getString("error").contains("DocumentExistsException"));
+      assertEquals(0, record.getInt("document.i") % 100);
+    }
+
+    // retries are exhausted
+    final FlakyStore flaky = new FlakyStore(7, 5);
+    final BulkLoadReport flakyReport = new BulkLoader(() -> flaky).setBackoff(0, 0, TimeUnit.MILLISECONDS)
+        .setMaxAttempts(3).load(DocumentStreams.of(documents));
+    assertEquals(1000 - 143, flaky.size());
+    assertEquals(143, flakyReport.getDeadLetterCount());
+    assertEquals(2 * 143, flakyReport.getRetryCount());
+
+    try {
+      new BulkLoader(() -> new FlakyStore(7, 5)).setMaxAttempts(1).setMaxDeadLetters(10)
+          .load(DocumentStreams.of(documents));
+      fail();
+    } catch (StoreException e) {}
+  }
+
+  @Test
+  public void testFailuresWithoutListFailTheBatch() throws Exception {
+    // the first write of every batch fails without telling which documents failed
+    final InMemoryDocumentStore store = new InMemoryDocumentStore() {
+      final AtomicInteger writes = new AtomicInteger();
+
+      @Override
+      public void insertOrReplace(DocumentStream stream) throws MultiOpException {
+        if (writes.incrementAndGet() % 2 == 1) {
+          throw new MultiOpException(new ConnectionException("connection reset"), null);
+        }
+        super.insertOrReplace(stream);
+      }
+    };
+    final BulkLoadReport report = new BulkLoader(() -> store).setThreadCount(1).setBatchSize(100)
+        .setBackoff(0, 0, TimeUnit.MILLISECONDS).load(DocumentStreams.of(documents(1000)));
+    assertLoaded(store, 1000);
+    assertEquals(1000, report.getWrittenCount());
+    assertEquals(1000, report.getRetryCount());
+
+    final File deadLetters = new File(folder.getRoot(), "dead-letters.json");
+    final BulkLoadReport failed = new BulkLoader(() -> new InMemoryDocumentStore() {
+      @Override
+      public void insertOrReplace(DocumentStream stream) throws MultiOpException {
+        throw new MultiOpException(null);
+      }
+    }).setBatchSize(100).setDeadLetterFile(deadLetters).load(DocumentStreams.of(documents(300)));
+    assertEquals(0, failed.getWrittenCount());
+    assertEquals(300, failed.getDeadLetterCount());
+    assertEquals(300, Files.readAllLines(deadLetters.toPath(), StandardCharsets.UTF_8).size());
+  }
+
+  @Test
+  public void testResumeFromCheckpoint() throws Exception {
+    final File checkpoint = new File(folder.getRoot(), "load.ckpt");
+    final List<Document> documents = documents(5000);
+
+    // the store fails for good after 2000 documents
+    final AtomicInteger budget = new AtomicInteger(2000);
+    final InMemoryDocumentStore store = new InMemoryDocumentStore() {
+      @Override
+      public void insertOrReplace(Value _id, Document doc) throws StoreException {
+        if (budget.decrementAndGet() < 0) {
+          throw new IllegalStateException("disk full");
+        }
+        super.insertOrReplace(_id, doc);
+      }
+    };
+    final BulkLoader loader = new BulkLoader(() -> store).setThreadCount(2).setBatchSize(100)
+        .setMaxDeadLetters(0).setCheckpointFile(checkpoint).setCheckpointInterval(0, TimeUnit.MILLISECONDS);
+    try {
+      loader.load(DocumentStreams.of(documents));
+      fail();
+    } catch (StoreException e) {}
+    final long position = Json.loadDocument(checkpoint).getLong("position");
+    assertTrue("position " + position, position > 0 && position <= 2000);
+    for (int i = 0; i < position; i++) {
+      assertTrue(store.findById(documents.get(i).getId()) != null);
+    }
+
+    budget.set(Integer.MAX_VALUE);
+    final BulkLoadReport report = loader.load(DocumentStreams.of(documents));
+    assertLoaded(store, 5000);
+    assertEquals(position, report.getSkippedCount());
+    assertEquals(5000 - position, report.getReadCount());
+    assertEquals(5000, report.getCheckpoint());
+    assertEquals(5000, Json.loadDocument(checkpoint).getLong("position"));
+  }
+
+  @Test
+  public void testLoadFiles() throws Exception {
+    final List<Document> documents = documents(300);
+    final List<File> files = new ArrayList<>();
+    for (int f = 0; f < 3; f++) {
+      final StringBuilder sb = new StringBuilder();
+      for (Document document : documents.subList(f * 100, f * 100 + 100)) {
+        sb.append(document.asJsonString()).append('\n');
+      }
+      final File file = new File(folder.getRoot(), "part-" + f + ".json");
+      Files.write(file.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+      files.add(file);
+    }
+    final InMemoryDocumentStore store = new InMemoryDocumentStore();
+    final BulkLoadReport report = new BulkLoader(() -> store).setBatchSize(16).load(files);
+    assertLoaded(store, 300);
+    assertEquals(300, report.getWrittenCount());
+
+    try {
+      new BulkLoader(() -> store).load(Arrays.asList(new File(folder.getRoot(), "missing.json")));
+      fail();
+    } catch (StoreException e) {}
+  }
+
+}
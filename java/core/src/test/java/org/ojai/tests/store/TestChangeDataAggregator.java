@@ -0,0 +1,208 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.tests.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.ojai.Document;
+import org.ojai.DocumentStream;
+import org.ojai.Value;
+import org.ojai.Value.Type;
+import org.ojai.exceptions.DecodingException;
+import org.ojai.json.Json;
+import org.ojai.store.cdc.ChangeDataAggregator;
+import org.ojai.store.cdc.ChangeDataApplier;
+import org.ojai.store.cdc.ChangeDataGenerator;
+import org.ojai.store.cdc.ChangeDataRecord;
+import org.ojai.store.cdc.SyntheticChangeFeed;
+import org.ojai.tests.BaseTest;
+import org.ojai.util.DocumentAggregator;
+import org.ojai.util.DocumentStreams;
+import org.ojai.util.Values;
+
+public class TestChangeDataAggregator extends BaseTest {
+
+  private static final String[] OUTPUTS = {"n", "c1", "s0", "s4", "s1", "min2", "max0", "a1"};
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static ChangeDataAggregator newAggregator() {
+    return new ChangeDataAggregator("f3")
+        .count("n").count("c1", "f1").sum("s0", "f0").sum("s4", "f4.x").sum("s1", "f1")
+        .min("min2", "f2").max("max0", "f0").avg("a1", "f1");
+  }
+
+  private static Map<String, Document> byGroup(Iterable<Document> results) {
+    final Map<String, Document> groups = new HashMap<>();
+    for (Document result : results) {
+      final Value group = result.getValue("f3");
+      groups.put(group == null ? "missing" : Values.asJsonString(group), result);
+    }
+    return groups;
+  }
+
+  private static void assertSameResults(Iterable<Document> expected, Iterable<Document> actual) {
+    final Map<String, Document> expectedGroups = byGroup(expected);
+    final Map<String, Document> actualGroups = byGroup(actual);
+    assertEquals(expectedGroups.keySet(), actualGroups.keySet());
+    for (Map.Entry<String, Document> e : expectedGroups.entrySet()) {
+      final Document actualGroup = actualGroups.get(e.getKey());
+      for (String output : OUTPUTS) {
+        final Value v1 = e.getValue().getValue(output);
+        final Value v2 = actualGroup.getValue(output);
+        final String message = output + " of " + e.getKey() + ": " + v1 + " != " + v2;
+        assertEquals(message, v1.getType(), v2.getType());
+        if (v1.getType() == Type.DOUBLE) {
+          assertEquals(message, v1.getDouble(), v2.getDouble(), 1e-9 * Math.max(1, Math.abs(v1.getDouble())));
+        } else {
+          assertEquals(message, 0, Values.compare(v1, v2));
+        }
+      }
+    }
+  }
+
+  private static List<Document> recompute(ChangeDataApplier replica) {
+    final DocumentAggregator aggregator = new DocumentAggregator("f3")
+        .count("n").count("c1", "f1").sum("s0", "f0").sum("s4", "f4.x").sum("s1", "f1")
+        .min("min2", "f2").max("max0", "f0").avg("a1", "f1");
+    try (DocumentStream results = aggregator.aggregate(DocumentStreams.of(replica.getDocuments()))) {
+      final List<Document> list = new ArrayList<>();
+      results.forEach(list::add);
+      return list;
+    }
+  }
+
+  @Test
+  public void testMatchesRecomputation() {
+    final SyntheticChangeFeed feed = new SyntheticChangeFeed(5).setKeyCount(300).setLimit(20000)
+        .setFieldCount(6).setMix(10, 80, 10);
+    final ChangeDataAggregator aggregator = newAggregator();
+    final ChangeDataApplier replica = new ChangeDataApplier();
+    while (feed.hasNext()) {
+      final ChangeDataRecord record = feed.next();
+      assertTrue(aggregator.apply(record));
+      replica.apply(record);
+      if (feed.getCount() % 5000 == 0) {
+        assertSameResults(recompute(replica), aggregator.getResults());
+      }
+    }
+    assertEquals(replica.size(), aggregator.size());
+    assertEquals(20000, aggregator.getAppliedCount());
+  }
+
+  @Test
+  public void testRetraction() {
+    final ChangeDataGenerator generator = new ChangeDataGenerator();
+    final ChangeDataAggregator aggregator = new ChangeDataAggregator("g").count("n").min("lo", "v").max("hi", "v");
+    aggregator.apply(generator.insert(Json.newDocument().setId("k1").set("g", "a").set("v", 1)));
+    aggregator.apply(generator.insert(Json.newDocument().setId("k2").set("g", "a").set("v", 5)));
+    aggregator.apply(generator.insert(Json.newDocument().setId("k3").set("g", "a").set("v", 5)));
+    assertEquals("[{\"g\":\"a\",\"n\":3,\"lo\":1,\"hi\":5}]", aggregator.getResults().toString());
+
+    aggregator.apply(generator.update("k1", InMemoryDriver.INSTANCE.newMutation().set("g", "b")));
+    aggregator.apply(generator.delete("k2"));
+    assertEquals("[{\"g\":\"a\",\"n\":1,\"lo\":5,\"hi\":5}, {\"g\":\"b\",\"n\":1,\"lo\":1,\"hi\":1}]",
+        aggregator.getResults().toString());
+
+    aggregator.apply(generator.update("k3", InMemoryDriver.INSTANCE.newMutation().delete("v")));
+    aggregator.apply(generator.delete("k1"));
+    assertEquals("[{\"g\":\"a\",\"n\":1,\"lo\":null,\"hi\":null}]", aggregator.getResults().toString());
+    assertEquals(1, aggregator.getGroupCount());
+  }
+
+  @Test
+  public void testOutOfOrderRecordsAreDropped() {
+    final long[] clock = {10};
+    final ChangeDataGenerator generator = new ChangeDataGenerator(() -> clock[0]);
+    final ChangeDataAggregator aggregator = new ChangeDataAggregator(new String[0]).count("n");
+    final ChangeDataRecord insert = generator.insert(Json.newDocument().setId("k1"));
+    clock[0] = 20;
+    assertTrue(aggregator.apply(generator.delete("k1")));
+    assertFalse(aggregator.apply(insert));
+    assertEquals(1, aggregator.getDroppedCount());
+    assertEquals(0, aggregator.getGroupCount());
+    assertEquals(1, aggregator.purgeTombstones(21));
+    assertTrue(aggregator.apply(insert));
+  }
+
+  @Test
+  public void testCheckpoint() throws Exception {
+    final File checkpoint = new File(folder.getRoot(), "aggregates.ckpt");
+    final SyntheticChangeFeed feed = new SyntheticChangeFeed(9).setKeyCount(200).setLimit(10000).setFieldCount(6);
+    final ChangeDataAggregator aggregator = newAggregator();
+    for (int i = 0; i < 5000; i++) {
+      aggregator.apply(feed.next());
+    }
+    aggregator.checkpoint(checkpoint);
+    assertFalse(new File(checkpoint.getPath() + ".tmp").exists());
+
+    final ChangeDataAggregator restored = newAggregator();
+    restored.restore(checkpoint);
+    assertEquals(aggregator.getLastOpTimestamp(), restored.getLastOpTimestamp());
+    assertEquals(aggregator.size(), restored.size());
+    assertSameResults(aggregator.getResults(), restored.getResults());
+    while (feed.hasNext()) {
+      final ChangeDataRecord record = feed.next();
+      aggregator.apply(record);
+      restored.apply(record);
+    }
+    assertSameResults(aggregator.getResults(), restored.getResults());
+
+    try {
+      new ChangeDataAggregator("f3").count("n").restore(checkpoint);
+      fail();
+    } catch (DecodingException e) {}
+
+    // a truncated checkpoint leaves the state unchanged
+    final File truncated = new File(folder.getRoot(), "truncated.ckpt");
+    final byte[] bytes = Files.readAllBytes(checkpoint.toPath());
+    Files.write(truncated.toPath(), Arrays.copyOf(bytes, bytes.length / 2));
+    try {
+      restored.restore(truncated);
+      fail();
+    } catch (EOFException e) {}
+    assertEquals(aggregator.getLastOpTimestamp(), restored.getLastOpTimestamp());
+    assertEquals(aggregator.size(), restored.size());
+    assertSameResults(aggregator.getResults(), restored.getResults());
+
+    // a failed checkpoint does not leave its temp file behind
+    final File directory = folder.newFolder("occupied");
+    assertTrue(new File(directory, "file").createNewFile());
+    try {
+      aggregator.checkpoint(directory);
+      fail();
+    } catch (IOException e) {}
+    assertFalse(new File(directory.getPath() + ".tmp").exists());
+  }
+
+}
@@ -0,0 +1,169 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.tests.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.ojai.Document;
+import org.ojai.json.Json;
+import org.ojai.json.impl.JsonValueBuilder;
+import org.ojai.store.cdc.ChangeDataApplier;
+import org.ojai.store.cdc.ChangeDataGenerator;
+import org.ojai.store.cdc.ChangeDataRecord;
+import org.ojai.tests.BaseTest;
+import org.ojai.util.Documents;
+
+public class TestChangeDataApplier extends BaseTest {
+
+  private static List<ChangeDataRecord> history() {
+    final long[] clock = {10};
+    final ChangeDataGenerator generator = new ChangeDataGenerator(() -> clock[0]);
+    final List<ChangeDataRecord> records = new ArrayList<>();
+    records.add(generator.insert(Json.newDocument("{\"_id\":\"k1\",\"a\":1,\"b\":{\"c\":2},\"tags\":[\"x\",{\"y\":1}]}")));
+    clock[0] = 11;
+    records.add(generator.insert(Json.newDocument("{\"_id\":\"k2\",\"a\":2}")));
+    clock[0] = 20;
+    records.add(generator.update("k1", InMemoryDriver.INSTANCE.newMutation()
+        .set("b.d", 3.0)
+        .merge("b", Json.newDocument("{\"e\":4,\"c\":5}"))
+        .delete("a")));
+    clock[0] = 21;
+    records.add(generator.update("k2", InMemoryDriver.INSTANCE.newMutation()
+        .merge("m", Json.newDocument("{\"n\":{\"o\":true}}"))
+        .setOrReplace("s", "text")
+        .set("top", 1.5)));
+    clock[0] = 22;
+    records.add(generator.update("k3", InMemoryDriver.INSTANCE.newMutation().set("p.q", 7L)));
+    clock[0] = 23;
+    records.add(generator.update("k1", InMemoryDriver.INSTANCE.newMutation()
+        .set("tags", Collections.<Object>singletonList(9.0))));
+    clock[0] = 30;
+    records.add(generator.delete("k2"));
+    return records;
+  }
+
+  private static void assertDocument(String expected, Document actual) {
+    assertTrue(actual == null ? "missing document" : actual.asJsonString(),
+        Documents.equals(Json.newDocument(expected), actual));
+  }
+
+  @Test
+  public void testApplyNodes() {
+    final ChangeDataApplier applier = new ChangeDataApplier();
+    for (ChangeDataRecord record : history()) {
+      assertTrue(applier.apply(record));
+    }
+    assertDocument("{\"_id\":\"k1\",\"b\":{\"c\":5,\"d\":3,\"e\":4},\"tags\":[9]}", applier.get("k1"));
+    assertDocument("{\"_id\":\"k3\",\"p\":{\"q\":{\"$numberLong\":7}}}", applier.get("k3"));
+    assertNull(applier.get("k2"));
+    assertEquals(2, applier.size());
+    assertEquals(7, applier.getAppliedCount());
+    assertEquals(30, applier.getOpTimestamp(JsonValueBuilder.initFrom("k2")));
+  }
+
+  @Test
+  public void testReaderAgreesWithNodes() {
+    final ChangeDataApplier nodes = new ChangeDataApplier();
+    final ChangeDataApplier reader = new ChangeDataApplier();
+    final List<ChangeDataRecord> records = history();
+    for (int i = 0; i < records.size(); i++) {
+      nodes.apply(records.get(i));
+      reader.applyFromReader(records.get(i));
+      for (String id : new String[] {"k1", "k2", "k3"}) {
+        final Document expected = nodes.get(id);
+        final Document actual = reader.get(id);
+        assertTrue("after record " + i + ": " + expected + " != " + actual,
+            expected == null ? actual == null : Documents.equals(expected, actual));
+      }
+    }
+
+    // k2 before its deletion
+    final ChangeDataApplier applier = new ChangeDataApplier();
+    for (ChangeDataRecord record : records.subList(0, 4)) {
+      applier.applyFromReader(record);
+    }
+    assertDocument("{\"_id\":\"k2\",\"a\":2,\"m\":{\"n\":{\"o\":true}},\"s\":\"text\",\"top\":1.5}",
+        applier.get("k2"));
+  }
+
+  @Test
+  public void testOutOfOrderRecordsAreDropped() {
+    final long[] clock = {10};
+    final ChangeDataGenerator generator = new ChangeDataGenerator(() -> clock[0]);
+    final ChangeDataRecord insert = generator.insert(Json.newDocument().setId("k1").set("a", 1));
+    clock[0] = 20;
+    final ChangeDataRecord update = generator.update("k1", InMemoryDriver.INSTANCE.newMutation().set("a", 2.0));
+    clock[0] = 30;
+    final ChangeDataRecord delete = generator.delete("k1");
+
+    final ChangeDataApplier applier = new ChangeDataApplier();
+    applier.apply(insert);
+    applier.apply(delete);
+    assertFalse(applier.apply(update));
+    assertNull(applier.get("k1"));
+    assertEquals(1, applier.getDroppedCount());
+
+    // a record with the same timestamp is a redelivery and applied again
+    assertTrue(applier.apply(delete));
+    assertEquals(0, applier.purgeTombstones(30));
+    assertEquals(1, applier.purgeTombstones(31));
+    assertTrue(applier.apply(update));
+    assertDocument("{\"_id\":\"k1\",\"a\":2}", applier.get("k1"));
+
+    applier.put(Json.newDocument().setId("k9").set("snapshot", true), 100);
+    clock[0] = 99;
+    assertFalse(applier.apply(generator.insert(Json.newDocument().setId("k9").set("snapshot", false))));
+    assertTrue(applier.get("k9").getBoolean("snapshot"));
+  }
+
+  @Test
+  public void testLastWriterWins() {
+    final Random random = new Random(42);
+    final ChangeDataGenerator generator = new ChangeDataGenerator(() -> 0);
+    final List<ChangeDataRecord> records = new ArrayList<>();
+    for (int id = 0; id < 50; id++) {
+      for (int version = 1; version <= 5; version++) {
+        records.add(generator.insertOrReplace(Json.newDocument().setId("k" + id).set("version", version)));
+      }
+    }
+    Collections.shuffle(records, random);
+
+    final ChangeDataApplier applier = new ChangeDataApplier();
+    for (ChangeDataRecord record : records) {
+      if (random.nextBoolean()) {
+        applier.apply(record);
+      } else {
+        applier.applyFromReader(record);
+      }
+    }
+    assertEquals(50, applier.size());
+    for (Document doc : applier.getDocuments()) {
+      assertEquals(5, doc.getInt("version"));
+    }
+    assertEquals(250, applier.getAppliedCount() + applier.getDroppedCount());
+    assertTrue(applier.getDroppedCount() > 0);
+  }
+
+}
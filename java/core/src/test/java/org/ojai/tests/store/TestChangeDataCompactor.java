@@ -0,0 +1,159 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.tests.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.ojai.Document;
+import org.ojai.FieldPath;
+import org.ojai.KeyValue;
+import org.ojai.json.Json;
+import org.ojai.store.cdc.ChangeDataApplier;
+import org.ojai.store.cdc.ChangeDataCompactor;
+import org.ojai.store.cdc.ChangeDataGenerator;
+import org.ojai.store.cdc.ChangeDataRecord;
+import org.ojai.store.cdc.ChangeDataRecordType;
+import org.ojai.store.cdc.ChangeNode;
+import org.ojai.store.cdc.SyntheticChangeFeed;
+import org.ojai.tests.BaseTest;
+import org.ojai.util.Documents;
+
+public class TestChangeDataCompactor extends BaseTest {
+
+  private static String describe(ChangeDataRecord record) {
+    final StringBuilder sb = new StringBuilder(record.getType().name()).append(':');
+    String separator = " ";
+    for (KeyValue<FieldPath, ChangeNode> kv : record) {
+      sb.append(separator);
+      separator = ", ";
+      sb.append(kv.getValue().getOp()).append(' ').append(kv.getKey().asPathString());
+      if (kv.getValue().getType() != null) {
+        sb.append('=').append(kv.getValue().getValue().asJsonString());
+      }
+    }
+    return sb.toString();
+  }
+
+  private static void replicate(SyntheticChangeFeed feed, ChangeDataCompactor compactor,
+      ChangeDataApplier applier, List<ChangeDataRecord> emitted) {
+    while (feed.hasNext()) {
+      assertTrue(compactor.offer(feed.next()));
+    }
+    compactor.flush();
+    for (ChangeDataRecord record : emitted) {
+      assertTrue(applier.apply(record));
+    }
+    final ChangeDataGenerator generator = feed.getGenerator();
+    assertEquals(generator.size(), applier.size());
+    for (Document doc : applier.getDocuments()) {
+      final Document expected = generator.get(doc.getId());
+      assertTrue(doc + " != " + expected, Documents.equals(expected, doc));
+    }
+  }
+
+  @Test
+  public void testFoldedFeedsReplicate() {
+    final int[][] mixes = {{10, 85, 5}, {0, 100, 0}, {1, 90, 9}};
+    for (int[] mix : mixes) {
+      for (long window : new long[] {0, 10, 200, Long.MAX_VALUE}) {
+        final List<ChangeDataRecord> emitted = new ArrayList<>();
+        final ChangeDataCompactor compactor = new ChangeDataCompactor(emitted::add)
+            .setWindow(window).setMaxPendingKeys(15).setMaxRecordsPerKey(50);
+        final SyntheticChangeFeed feed = new SyntheticChangeFeed(window ^ mix[0])
+            .setKeyCount(20).setLimit(5000).setMix(mix[0], mix[1], mix[2]);
+        replicate(feed, compactor, new ChangeDataApplier(), emitted);
+        assertEquals(5000, compactor.getReceivedCount());
+        assertEquals(emitted.size(), compactor.getEmittedCount());
+        assertEquals(0, compactor.getPendingKeyCount());
+        if (window == 0) {
+          assertEquals(5000, emitted.size());
+        } else {
+          // most windows are closed by the pressure of the 15 pending keys
+          assertTrue(emitted.size() + " records", emitted.size() < (window < 200 ? 4000 : 1500));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testUpdatesAreFolded() {
+    final List<ChangeDataRecord> emitted = new ArrayList<>();
+    final ChangeDataCompactor compactor = new ChangeDataCompactor(emitted::add).setWindow(100);
+    final long[] clock = {1};
+    final ChangeDataGenerator generator = new ChangeDataGenerator(() -> clock[0]);
+    generator.insert(Json.newDocument().setId("k1"));
+
+    compactor.offer(generator.update("k1", InMemoryDriver.INSTANCE.newMutation()
+        .set("a.x", 1).set("b", 1).set("m", Json.newDocument().set("p", 1))));
+    compactor.offer(generator.update("k1", InMemoryDriver.INSTANCE.newMutation()
+        .set("a", 2).delete("b").set("m.q", 2).merge("n", Json.newDocument().set("r", 1))));
+    compactor.offer(generator.update("k1", InMemoryDriver.INSTANCE.newMutation()
+        .set("a", 3).delete("m.p").merge("n", Json.newDocument().set("s", 2))));
+    assertTrue(emitted.isEmpty());
+    compactor.advanceTo(101);
+    assertTrue(emitted.isEmpty());
+    compactor.advanceTo(102);
+    assertEquals(1, emitted.size());
+    assertEquals("RECORD_UPDATE: SET m={\"q\":2}, DELETE b, MERGE n={\"r\":1,\"s\":2}, SET a={\"$numberInt\":3}",
+        describe(emitted.get(0)));
+    assertEquals("the clock of the generator was advanced", 4, emitted.get(0).getOpTimestamp());
+  }
+
+  @Test
+  public void testDeletesAndInserts() {
+    final List<ChangeDataRecord> emitted = new ArrayList<>();
+    final ChangeDataCompactor compactor = new ChangeDataCompactor(emitted::add);
+    final ChangeDataGenerator generator = new ChangeDataGenerator();
+
+    compactor.offer(generator.update("k1", InMemoryDriver.INSTANCE.newMutation().set("a", 1)));
+    compactor.offer(generator.delete("k1"));
+    compactor.offer(generator.update("k1", InMemoryDriver.INSTANCE.newMutation().set("b", 2)));
+    compactor.offer(generator.insertOrReplace(Json.newDocument().setId("k2").set("c", 3)));
+    compactor.offer(generator.update("k2", InMemoryDriver.INSTANCE.newMutation().set("d", 4)));
+    compactor.offer(generator.delete("k2"));
+    compactor.flush();
+
+    assertEquals(2, emitted.size());
+    assertEquals("RECORD_INSERT: SET =" + Json.newDocument().setId("k1").set("b", 2).asJsonString(),
+        describe(emitted.get(0)));
+    assertEquals(ChangeDataRecordType.RECORD_DELETE, emitted.get(1).getType());
+    assertEquals(generator.getLastTimestamp(), emitted.get(1).getOpTimestamp());
+  }
+
+  @Test
+  public void testOutOfOrderRecordsAreDropped() {
+    final List<ChangeDataRecord> emitted = new ArrayList<>();
+    final ChangeDataCompactor compactor = new ChangeDataCompactor(emitted::add);
+    final long[] clock = {10};
+    final ChangeDataGenerator generator = new ChangeDataGenerator(() -> clock[0]);
+    final ChangeDataRecord first = generator.update("k1", InMemoryDriver.INSTANCE.newMutation().set("a", 1));
+    clock[0] = 20;
+    final ChangeDataRecord second = generator.update("k1", InMemoryDriver.INSTANCE.newMutation().set("a", 2));
+
+    assertTrue(compactor.offer(second));
+    assertFalse(compactor.offer(first));
+    assertEquals(1, compactor.getDroppedCount());
+    compactor.flush();
+    assertEquals("RECORD_UPDATE: SET a={\"$numberInt\":2}", describe(emitted.get(0)));
+  }
+
+}
@@ -0,0 +1,178 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.tests.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.NoSuchElementException;
+
+import org.junit.Test;
+import org.ojai.Document;
+import org.ojai.FieldPath;
+import org.ojai.KeyValue;
+import org.ojai.Value;
+import org.ojai.json.Json;
+import org.ojai.store.cdc.BinaryChangeDataRecord;
+import org.ojai.store.cdc.BinaryChangeDataWriter;
+import org.ojai.store.cdc.ChangeDataApplier;
+import org.ojai.store.cdc.ChangeDataFilter;
+import org.ojai.store.cdc.ChangeDataGenerator;
+import org.ojai.store.cdc.ChangeDataReader;
+import org.ojai.store.cdc.ChangeDataReaderWithProjection;
+import org.ojai.store.cdc.ChangeDataRecord;
+import org.ojai.store.cdc.ChangeEvent;
+import org.ojai.store.cdc.ChangeNode;
+import org.ojai.store.cdc.SyntheticChangeFeed;
+import org.ojai.tests.BaseTest;
+import org.ojai.util.Values;
+
+public class TestChangeDataFilter extends BaseTest {
+
+  private static final String[] PATHS = {"f1", "f4.z", "f5", "f10.x"};
+
+  private static String describe(ChangeDataRecord record) {
+    if (record == null) {
+      return null;
+    }
+    final StringBuilder sb = new StringBuilder(record.getType().name()).append(':');
+    String separator = " ";
+    for (KeyValue<FieldPath, ChangeNode> kv : record) {
+      sb.append(separator);
+      separator = ", ";
+      sb.append(kv.getValue().getOp()).append(' ').append(kv.getKey().asPathString());
+      if (kv.getValue().getType() != null) {
+        sb.append('=').append(kv.getValue().getValue().asJsonString());
+      }
+    }
+    return sb.toString();
+  }
+
+  private static void assertSameProjection(ChangeDataApplier expected, ChangeDataApplier actual, Value id) {
+    final Document d1 = expected.get(id);
+    final Document d2 = actual.get(id);
+    for (String path : PATHS) {
+      final Value v1 = d1 == null ? null : d1.getValue(path);
+      final Value v2 = d2 == null ? null : d2.getValue(path);
+      final String message = path + " of " + id.asJsonString() + ": " + v1 + " != " + v2;
+      assertEquals(message, v1 == null, v2 == null);
+      if (v1 != null) {
+        assertEquals(message, Values.asJsonString(v1), Values.asJsonString(v2));
+      }
+    }
+  }
+
+  @Test
+  public void testFilteredFeedReplicates() {
+    final SyntheticChangeFeed feed = new SyntheticChangeFeed(3).setKeyCount(100).setLimit(10000)
+        .setFieldCount(12).setMix(5, 90, 5);
+    final ChangeDataFilter filter = new ChangeDataFilter(PATHS);
+    final BinaryChangeDataWriter writer = new BinaryChangeDataWriter();
+    final ChangeDataApplier replica = new ChangeDataApplier();
+    final ChangeDataApplier projected = new ChangeDataApplier();
+    int dropped = 0;
+    while (feed.hasNext()) {
+      final ChangeDataRecord record = feed.next();
+      replica.apply(record);
+      final ChangeDataRecord filtered = filter.filter(record);
+      assertEquals(filtered != null, filter.touches(record));
+
+      final ChangeDataRecord encoded = BinaryChangeDataRecord.of(writer.encode(record));
+      assertEquals(describe(filtered), describe(filter.filter(encoded)));
+      assertEquals(filtered != null, filter.touches(encoded));
+      if (filtered == null) {
+        dropped++;
+      } else {
+        projected.apply(filtered);
+      }
+    }
+    assertTrue(dropped + " records dropped", dropped > 4000);
+    for (Document document : replica.getDocuments()) {
+      assertSameProjection(replica, projected, document.getId());
+    }
+    for (Document document : projected.getDocuments()) {
+      assertSameProjection(replica, projected, document.getId());
+    }
+  }
+
+  @Test
+  public void testUpdates() {
+    final ChangeDataGenerator generator = new ChangeDataGenerator();
+    final ChangeDataRecord update = generator.update("k1", InMemoryDriver.INSTANCE.newMutation()
+        .set("a.b.c", 1).set("a.d", 2).set("x", 3).merge("m", Json.newDocument().set("p", 4).set("q", 5)));
+
+    assertEquals("RECORD_UPDATE: SET a.b.c={\"$numberInt\":1}", describe(new ChangeDataFilter("a.b").filter(update)));
+    assertEquals("RECORD_UPDATE: SET a.b.c={\"$numberInt\":1}",
+        describe(new ChangeDataFilter("a.b.c.e").filter(update)));
+    assertEquals("RECORD_UPDATE: SET a.b.c={\"$numberInt\":1}, SET a.d={\"$numberInt\":2}, SET x={\"$numberInt\":3}",
+        describe(new ChangeDataFilter("a", "x").filter(update)));
+    assertEquals("RECORD_UPDATE: MERGE m={\"q\":5}", describe(new ChangeDataFilter("m.q").filter(update)));
+    assertNull(new ChangeDataFilter("y", "a.e", "m.r").filter(update));
+
+    assertTrue(ChangeDataFilter.touches(update, FieldPath.parseFrom("a.b")));
+    assertTrue(ChangeDataFilter.touches(update, FieldPath.parseFrom("a.d.e")));
+    assertFalse(ChangeDataFilter.touches(update, FieldPath.parseFrom("a.e")));
+
+    final ChangeDataRecord delete = generator.update("k1", InMemoryDriver.INSTANCE.newMutation()
+        .delete("a").set("y", Json.newDocument().set("z", 1).set("w", 2)));
+    assertEquals("RECORD_UPDATE: DELETE a", describe(new ChangeDataFilter("a.b").filter(delete)));
+    assertEquals("RECORD_UPDATE: SET y={}", describe(new ChangeDataFilter("y.v").filter(delete)));
+  }
+
+  @Test
+  public void testInsertsAndDeletes() {
+    final ChangeDataGenerator generator = new ChangeDataGenerator();
+    final ChangeDataFilter filter = new ChangeDataFilter("a.x", "c");
+    final ChangeDataRecord insert = generator.insert(Json.newDocument().setId("k1")
+        .set("a", Json.newDocument().set("x", 1).set("y", 2)).set("b", 3));
+    assertEquals("RECORD_INSERT: SET ={\"a\":{\"x\":1}}", describe(filter.filter(insert)));
+    assertTrue(filter.touches(generator.insert(Json.newDocument().setId("k2"))));
+    assertEquals("RECORD_DELETE: DELETE ", describe(filter.filter(generator.delete("k1"))));
+  }
+
+  @Test
+  public void testReader() {
+    final ChangeDataGenerator generator = new ChangeDataGenerator();
+    final ChangeDataRecord update = generator.update("k1", InMemoryDriver.INSTANCE.newMutation()
+        .set("a.b", 1).set("c.d", "v").set("a.e", 2));
+    final ChangeDataReader reader = new ChangeDataReaderWithProjection(update.getReader(), "c", "a.e");
+
+    // the hasNext() lookahead does not disturb the current event
+    assertTrue(reader.hasNext());
+    assertEquals(ChangeEvent.START_MAP, reader.next());
+    assertEquals("c", reader.getFieldName());
+    assertEquals(ChangeEvent.NODE, reader.next());
+    assertTrue(reader.hasNext());
+    assertEquals("d", reader.getFieldName());
+    assertEquals("v", reader.getString());
+    assertEquals(ChangeEvent.END_MAP, reader.next());
+    assertEquals(ChangeEvent.START_MAP, reader.next());
+    assertEquals("a", reader.getFieldName());
+    assertEquals(ChangeEvent.NODE, reader.next());
+    assertEquals("e", reader.getFieldName());
+    assertEquals(2, reader.getInt());
+    assertEquals(ChangeEvent.END_MAP, reader.next());
+    assertFalse(reader.hasNext());
+    try {
+      reader.next();
+      fail();
+    } catch (NoSuchElementException e) {}
+  }
+
+}
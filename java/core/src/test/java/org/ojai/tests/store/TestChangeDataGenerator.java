@@ -0,0 +1,204 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.tests.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.ojai.Document;
+import org.ojai.FieldPath;
+import org.ojai.KeyValue;
+import org.ojai.json.Json;
+import org.ojai.store.DocumentMutation;
+import org.ojai.store.cdc.ChangeDataApplier;
+import org.ojai.store.cdc.ChangeDataGenerator;
+import org.ojai.store.cdc.ChangeDataReader;
+import org.ojai.store.cdc.ChangeDataRecord;
+import org.ojai.store.cdc.ChangeDataRecordType;
+import org.ojai.store.cdc.ChangeEvent;
+import org.ojai.store.cdc.ChangeNode;
+import org.ojai.store.cdc.ChangeOp;
+import org.ojai.store.cdc.SyntheticChangeFeed;
+import org.ojai.exceptions.TypeException;
+import org.ojai.store.exceptions.DocumentExistsException;
+import org.ojai.tests.BaseTest;
+import org.ojai.util.Documents;
+import org.ojai.util.Values;
+
+public class TestChangeDataGenerator extends BaseTest {
+
+  private static String describe(ChangeDataRecord record) {
+    final StringBuilder sb = new StringBuilder();
+    for (KeyValue<FieldPath, ChangeNode> kv : record) {
+      if (sb.length() > 0) {
+        sb.append(", ");
+      }
+      sb.append(kv.getValue().getOp()).append(' ').append(kv.getKey().asPathString());
+      if (kv.getValue().getType() != null) {
+        sb.append('=').append(Values.asJsonString(kv.getValue().getValue()));
+      }
+    }
+    return sb.toString();
+  }
+
+  private static void assertReplicated(ChangeDataGenerator generator, ChangeDataApplier applier) {
+    assertEquals(generator.size(), applier.size());
+    for (Document doc : applier.getDocuments()) {
+      final Document expected = generator.get(doc.getId());
+      assertTrue(doc + " != " + expected, Documents.equals(expected, doc));
+    }
+  }
+
+  @Test
+  public void testOperations() {
+    final long[] clock = {100};
+    final ChangeDataGenerator generator = new ChangeDataGenerator(() -> clock[0]);
+    final ChangeDataApplier applier = new ChangeDataApplier();
+
+    final Document doc = Json.newDocument().setId("k1").set("n", 1).set("s", "a")
+        .set("m.x", true).setArray("l", new int[] {1});
+    ChangeDataRecord record = generator.insert(doc);
+    doc.set("n", 42); // the record holds a copy
+    assertEquals(ChangeDataRecordType.RECORD_INSERT, record.getType());
+    assertEquals(100, record.getOpTimestamp());
+    assertEquals(100, record.getServerTimestamp());
+    assertEquals("SET =" + Values.asJsonString(record.iterator().next().getValue().getValue()), describe(record));
+    assertTrue(applier.apply(record));
+    try {
+      generator.insert(doc);
+      fail();
+    } catch (DocumentExistsException e) {}
+
+    final DocumentMutation mutation = InMemoryDriver.INSTANCE.newMutation()
+        .increment("n", 2)
+        .append("s", "b")
+        .append("l", Arrays.asList(2, 3))
+        .merge("m", Json.newDocument().set("y", 5))
+        .set("t.u", 7L)
+        .delete("m.x");
+    record = generator.update("k1", mutation);
+    assertEquals(ChangeDataRecordType.RECORD_UPDATE, record.getType());
+    assertEquals("the clock is advanced to keep timestamps increasing", 101, record.getOpTimestamp());
+    assertEquals(-1, record.getServerTimestamp());
+    assertEquals("SET n={\"$numberInt\":3}, SET s=\"ab\", "
+        + "SET l=[{\"$numberInt\":1},{\"$numberInt\":2},{\"$numberInt\":3}], "
+        + "MERGE m={\"y\":{\"$numberInt\":5}}, SET t.u={\"$numberLong\":7}, DELETE m.x", describe(record));
+    assertTrue(applier.applyFromReader(record));
+    assertReplicated(generator, applier);
+    assertEquals(3, generator.get("k1").getInt("n"));
+
+    record = generator.delete("k1");
+    assertEquals(ChangeDataRecordType.RECORD_DELETE, record.getType());
+    assertNull(generator.delete("k1"));
+    assertTrue(applier.apply(record));
+    assertEquals(0, applier.size());
+  }
+
+  @Test
+  public void testFailedUpdateIsNotApplied() {
+    final long[] clock = {100};
+    final ChangeDataGenerator generator = new ChangeDataGenerator(() -> clock[0]);
+    generator.insert(Json.newDocument().setId("k1").set("n", 1).set("s", "a"));
+    try {
+      generator.update("k1", InMemoryDriver.INSTANCE.newMutation().set("x", 1).increment("n", 1).increment("s", 1));
+      fail();
+    } catch (TypeException e) {}
+    try {
+      generator.update("k2", InMemoryDriver.INSTANCE.newMutation().set("x", 1).append("x", "b"));
+      fail();
+    } catch (TypeException e) {}
+    assertEquals("{\"_id\":\"k1\",\"n\":1,\"s\":\"a\"}", generator.get("k1").asJsonString());
+    assertNull(generator.get("k2"));
+    assertEquals(1, generator.size());
+    assertEquals(100, generator.getLastTimestamp());
+
+    final ChangeDataRecord record = generator.update("k1", InMemoryDriver.INSTANCE.newMutation().increment("n", 1));
+    assertEquals(101, record.getOpTimestamp());
+    assertEquals(2, generator.get("k1").getInt("n"));
+  }
+
+  @Test
+  public void testDiff() {
+    final ChangeDataGenerator generator = new ChangeDataGenerator();
+    final Document before = Json.newDocument("{\"_id\":\"k1\",\"a\":1,\"b\":{\"c\":1,\"d\":2},\"e\":[1],\"f\":\"x\"}");
+    final Document after = Json.newDocument("{\"_id\":\"k1\",\"a\":1,\"b\":{\"c\":3},\"e\":[1,2],\"g\":true}");
+
+    ChangeDataRecord record = generator.diff(null, before);
+    assertEquals(ChangeDataRecordType.RECORD_INSERT, record.getType());
+    record = generator.diff(before, after);
+    assertEquals(ChangeDataRecordType.RECORD_UPDATE, record.getType());
+    assertEquals("DELETE f, DELETE b.d, SET b.c=3, SET e=[1,2], SET g=true", describe(record));
+    assertNull(generator.diff(after, Json.newDocument(after.asJsonString())));
+    assertTrue(Documents.equals(after, generator.get("k1")));
+
+    // an integer and a double of the same value differ in type
+    final Document retyped = Json.newDocument(after.asJsonString()).set("a", 1);
+    assertEquals("SET a={\"$numberInt\":1}", describe(generator.diff(after, retyped)));
+    assertEquals(ChangeDataRecordType.RECORD_DELETE, generator.diff(retyped, null).getType());
+    assertEquals(0, generator.size());
+  }
+
+  @Test
+  public void testReaderEvents() {
+    final ChangeDataGenerator generator = new ChangeDataGenerator(() -> 1);
+    generator.insert(Json.newDocument().setId("k1"));
+    final ChangeDataRecord record = generator.update("k1", InMemoryDriver.INSTANCE.newMutation()
+        .set("a.b", 1).set("a.c", "x").delete("d"));
+    final ChangeDataReader reader = record.getReader();
+    final List<String> events = new ArrayList<>();
+    while (reader.hasNext()) {
+      final ChangeEvent event = reader.next();
+      events.add(event + (reader.getFieldName() == null ? "" : " " + reader.getFieldName())
+          + (event == ChangeEvent.NODE || event.name().startsWith("START") ? " " + reader.getOp() : ""));
+    }
+    assertEquals(Arrays.asList("START_MAP a NULL", "NODE b SET", "NODE c SET", "END_MAP", "NODE d DELETE"), events);
+  }
+
+  @Test
+  public void testSyntheticFeed() {
+    final SyntheticChangeFeed feed = new SyntheticChangeFeed(7).setKeyCount(300).setLimit(20000);
+    final ChangeDataApplier applier = new ChangeDataApplier();
+    final List<String> firstRecords = new ArrayList<>();
+    long lastTimestamp = -1;
+    final int[] types = new int[4];
+    while (feed.hasNext()) {
+      final ChangeDataRecord record = feed.next();
+      assertTrue(record.getOpTimestamp() > lastTimestamp);
+      lastTimestamp = record.getOpTimestamp();
+      types[record.getType().getCode()]++;
+      if (firstRecords.size() < 100) {
+        firstRecords.add(record.toString());
+      }
+      assertTrue(feed.getCount() % 2 == 0 ? applier.apply(record) : applier.applyFromReader(record));
+    }
+    assertEquals(20000, feed.getCount());
+    assertTrue(types[1] > 0 && types[2] > types[1] && types[3] > 0);
+    assertReplicated(feed.getGenerator(), applier);
+
+    final SyntheticChangeFeed replay = new SyntheticChangeFeed(7).setKeyCount(300).setLimit(100);
+    for (String expected : firstRecords) {
+      assertEquals(expected, replay.next().toString());
+    }
+  }
+
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.tests.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.ojai.Document;
+import org.ojai.Value;
+import org.ojai.json.Json;
+import org.ojai.json.impl.JsonValueBuilder;
+import org.ojai.store.QueryCondition;
+import org.ojai.store.base.CoalescingStore;
+import org.ojai.store.base.ForwardingStore;
+import org.ojai.store.exceptions.StoreException;
+import org.ojai.tests.BaseTest;
+
+public class TestCoalescingStore extends BaseTest {
+
+  private static final int THREADS = 8;
+
+  private static List<Future<Document>> concurrently(final Callable<Document> call) throws Exception {
+    final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    try {
+      final CountDownLatch start = new CountDownLatch(1);
+      final List<Future<Document>> futures = new ArrayList<>();
+      for (int i = 0; i < THREADS; i++) {
+        futures.add(executor.submit(() -> {
+          start.await();
+          return call.call();
+        }));
+      }
+      start.countDown();
+      for (Future<Document> f : futures) {
+        try {
+          f.get();
+        } catch (ExecutionException e) {
+          // inspected by the caller
+        }
+      }
+      return futures;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testConcurrentCallsAreMerged() throws Exception {
+    final InMemoryDocumentStore backing = new InMemoryDocumentStore();
+    backing.insert(Json.newDocument().setId("hot").set("views", 42));
+    backing.setLatencyMillis(300);
+    final CoalescingStore store = new CoalescingStore(backing);
+
+    final List<Future<Document>> results = concurrently(() -> store.findById("hot"));
+    assertEquals(1, backing.getCallCount("findById"));
+    assertEquals(THREADS - 1, store.getCoalescedCount());
+    assertEquals(0, store.getInFlightCount());
+
+    // every caller receives its own copy, which it may modify
+    final Set<Document> documents = Collections.newSetFromMap(new IdentityHashMap<>());
+    for (Future<Document> f : results) {
+      documents.add(f.get());
+    }
+    assertEquals(THREADS, documents.size());
+    final Document first = results.get(0).get();
+    first.set("views", 0);
+    for (Future<Document> f : results.subList(1, THREADS)) {
+      assertEquals(42, f.get().getInt("views"));
+    }
+    assertEquals(42, backing.findById("hot").getInt("views"));
+  }
+
+  @Test
+  public void testDistinctRequestsAreNotMerged() throws Exception {
+    final InMemoryDocumentStore backing = new InMemoryDocumentStore();
+    backing.insert(Json.newDocument().setId("k1").set("a", 1).set("b", 2));
+    final CoalescingStore store = new CoalescingStore(backing);
+    final Value k1 = JsonValueBuilder.initFrom("k1");
+    final QueryCondition c = InMemoryDriver.INSTANCE.newCondition().exists("a").build();
+
+    assertEquals(2, store.findById(k1).getInt("b"));
+    assertNull(store.findById(k1, "a").getValue("b"));
+    assertNull(store.findById("k1", c, "b").getValue("a"));
+    assertNull(store.findById("k2"));
+    // sequential calls never overlap, so nothing is merged or retained
+    assertEquals(1, store.findById("k1").getInt("a"));
+    assertEquals(5, backing.getCallCount("findById"));
+    assertEquals(0, store.getCoalescedCount());
+  }
+
+  @Test
+  public void testFailuresAreSharedAndNotRetained() throws Exception {
+    final InMemoryDocumentStore backing = new InMemoryDocumentStore();
+    backing.setLatencyMillis(300);
+    final StoreException failure = new StoreException("backend unavailable");
+    final CoalescingStore store = new CoalescingStore(new ForwardingStore(backing) {
+      @Override
+      public Document findById(String id) throws StoreException {
+        if (super.findById(id) == null) {
+          throw failure;
+        }
+        return null;
+      }
+    });
+
+    for (Future<Document> f : concurrently(() -> store.findById("k1"))) {
+      try {
+        f.get();
+        fail("Expected the backend failure");
+      } catch (ExecutionException e) {
+        assertSame(failure, e.getCause());
+      }
+    }
+    assertEquals(1, backing.getCallCount("findById"));
+
+    backing.setLatencyMillis(0);
+    backing.insert(Json.newDocument().setId("k1"));
+    assertNull(store.findById("k1"));
+    assertTrue(backing.getCallCount("findById") == 2);
+  }
+
+}
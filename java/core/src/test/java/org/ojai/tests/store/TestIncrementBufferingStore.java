@@ -0,0 +1,249 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.tests.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+import org.ojai.Document;
+import org.ojai.Value;
+import org.ojai.Value.Type;
+import org.ojai.store.DocumentMutation;
+import org.ojai.store.base.ForwardingStore;
+import org.ojai.store.base.IncrementBufferingStore;
+import org.ojai.store.exceptions.StoreException;
+import org.ojai.tests.BaseTest;
+
+public class TestIncrementBufferingStore extends BaseTest {
+
+  private static IncrementBufferingStore newStore(InMemoryDocumentStore backing) {
+    return new IncrementBufferingStore(backing, InMemoryDriver.INSTANCE, 1, TimeUnit.HOURS);
+  }
+
+  @Test
+  public void testConcurrentIncrementsAreAggregated() throws Exception {
+    final InMemoryDocumentStore backing = new InMemoryDocumentStore();
+    final IncrementBufferingStore store = newStore(backing);
+
+    final List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      final Thread thread = new Thread(() -> {
+        for (int i = 0; i < 10_000; i++) {
+          store.increment("c" + (i % 3), "hits", 1);
+          store.increment("c" + (i % 3), "stats.bytes", 10L);
+        }
+      });
+      thread.start();
+      threads.add(thread);
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(0, backing.getCallCount("update"));
+    assertEquals(6, store.getCounterCount());
+
+    store.flush();
+    assertEquals(3, backing.getCallCount("update"));
+    assertEquals(0, backing.getCallCount("increment"));
+    long hits = 0;
+    long bytes = 0;
+    for (int c = 0; c < 3; c++) {
+      final Document doc = backing.findById("c" + c);
+      assertEquals(Type.INT, doc.getValue("hits").getType());
+      assertEquals(Type.LONG, doc.getValue("stats.bytes").getType());
+      hits += doc.getInt("hits");
+      bytes += doc.getLong("stats.bytes");
+    }
+    assertEquals(40_000, hits);
+    assertEquals(400_000, bytes);
+
+    // nothing is pending, so nothing is written
+    store.flush();
+    assertEquals(3, backing.getCallCount("update"));
+  }
+
+  @Test
+  public void testTypesAndReadYourWrites() {
+    final InMemoryDocumentStore backing = new InMemoryDocumentStore();
+    final IncrementBufferingStore store = newStore(backing);
+    store.increment("k", "small", (byte) 2);
+    store.increment("k", "ratio", 0.25f);
+    store.increment("k", "ratio", 0.5);
+    store.increment("k", "mixed", 1);
+    store.increment("k", "mixed", 1.5);
+
+    // a read of the same _id first applies its pending increments
+    final Document doc = store.findById("k");
+    assertEquals(1, backing.getCallCount("update"));
+    assertEquals(Type.BYTE, doc.getValue("small").getType());
+    assertEquals(2, doc.getByte("small"));
+    assertEquals(Type.DOUBLE, doc.getValue("ratio").getType());
+    assertEquals(0.75, doc.getDouble("ratio"), 0);
+    assertEquals(2.5, doc.getDouble("mixed"), 0);
+
+    // so does a write of the same _id
+    store.increment("k", "small", (byte) 1);
+    store.delete("k");
+    assertEquals(2, backing.getCallCount("update"));
+    assertEquals(0, backing.size());
+  }
+
+  @Test
+  public void testPeriodicFlushAndClose() throws Exception {
+    final InMemoryDocumentStore backing = new InMemoryDocumentStore();
+    final IncrementBufferingStore store =
+        new IncrementBufferingStore(backing, InMemoryDriver.INSTANCE, 20, TimeUnit.MILLISECONDS);
+    store.increment("k", "n", 5L);
+    final long deadline = System.currentTimeMillis() + 10_000;
+    while (backing.findById("k") == null) {
+      assertTrue(System.currentTimeMillis() < deadline);
+      Thread.sleep(10);
+    }
+    assertEquals(5, backing.findById("k").getLong("n"));
+
+    store.increment("k", "n", 7L);
+    store.close();
+    assertTrue(backing.isClosed());
+    assertEquals(12, backing.findById("k").getLong("n"));
+  }
+
+  @Test
+  public void testFailedFlushIsRetried() {
+    final InMemoryDocumentStore backing = new InMemoryDocumentStore();
+    final AtomicBoolean failing = new AtomicBoolean(true);
+    final IncrementBufferingStore store = new IncrementBufferingStore(new ForwardingStore(backing) {
+      @Override
+      public void update(Value _id, DocumentMutation mutation) throws StoreException {
+        if (failing.get()) {
+          throw new StoreException("unavailable");
+        }
+        super.update(_id, mutation);
+      }
+    }, InMemoryDriver.INSTANCE, 1, TimeUnit.HOURS);
+
+    store.increment("k", "n", 3);
+    try {
+      store.flushPendingIncrements();
+      fail("Expected StoreException");
+    } catch (StoreException e) {
+      assertEquals("unavailable", e.getCause().getMessage());
+    }
+    store.increment("k", "n", 4);
+    failing.set(false);
+    store.flushPendingIncrements();
+    assertEquals(7, backing.findById("k").getInt("n"));
+  }
+
+  @Test
+  public void testMaxCounters() {
+    final InMemoryDocumentStore backing = new InMemoryDocumentStore();
+    final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    try {
+      final IncrementBufferingStore store = new IncrementBufferingStore(backing, InMemoryDriver.INSTANCE,
+          1, TimeUnit.HOURS, scheduler, 1);
+      store.increment("k1", "n", 1);
+      store.increment("k2", "n", 1);
+      store.increment("k1", "m", 1);
+      assertEquals(1, store.getCounterCount());
+      assertEquals(2, backing.getCallCount("increment"));
+      store.flushPendingIncrements();
+      assertEquals(1, backing.findById("k1").getInt("n"));
+      assertEquals(1, backing.findById("k2").getInt("n"));
+    } finally {
+      scheduler.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testConcurrentFlushesLoseNoIncrement() throws Exception {
+    final InMemoryDocumentStore backing = new InMemoryDocumentStore();
+    final IncrementBufferingStore store = newStore(backing);
+    final AtomicBoolean done = new AtomicBoolean();
+    final Thread flusher = new Thread(() -> {
+      while (!done.get()) {
+        store.flushPendingIncrements();
+      }
+    });
+    flusher.start();
+    final List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      final Thread thread = new Thread(() -> {
+        for (int i = 0; i < 20_000; i++) {
+          store.increment("c" + (i % 5), "hits", 1);
+        }
+      });
+      thread.start();
+      threads.add(thread);
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    done.set(true);
+    flusher.join();
+    store.flushPendingIncrements();
+    assertEquals(0, store.getCounterCount());
+    long hits = 0;
+    for (int c = 0; c < 5; c++) {
+      hits += backing.findById("c" + c).getInt("hits");
+    }
+    assertEquals(80_000, hits);
+  }
+
+  @Test
+  public void testAppliedCountersAreDropped() {
+    final InMemoryDocumentStore backing = new InMemoryDocumentStore();
+    final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    try {
+      final IncrementBufferingStore store = new IncrementBufferingStore(backing, InMemoryDriver.INSTANCE,
+          1, TimeUnit.HOURS, scheduler, 10);
+      for (int round = 0; round < 5; round++) {
+        for (int i = 0; i < 10; i++) {
+          store.increment("k" + round + "-" + i, "n", 1);
+          store.increment("k" + round + "-" + i, "n", 2);
+        }
+        assertEquals(10, store.getCounterCount());
+        store.flushPendingIncrements();
+        assertEquals(0, store.getCounterCount());
+      }
+      assertEquals(0, backing.getCallCount("increment"));
+      assertEquals(50, backing.getCallCount("update"));
+      assertEquals(50, backing.size());
+      for (Document doc : backing.documents()) {
+        assertEquals(3, doc.getInt("n"));
+      }
+
+      // a dropped counter is created again by the next increment
+      store.increment("k0-0", "n", 1);
+      store.flushPendingIncrements();
+      store.increment("k0-0", "n", 1);
+      assertEquals(1, store.getCounterCount());
+      assertEquals(5, store.findById("k0-0").getInt("n"));
+      assertEquals(0, store.getCounterCount());
+    } finally {
+      scheduler.shutdownNow();
+    }
+  }
+
+}
@@ -0,0 +1,179 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.tests.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+import org.ojai.Document;
+import org.ojai.DocumentStream;
+import org.ojai.json.Json;
+import org.ojai.store.exceptions.DocumentExistsException;
+import org.ojai.store.metrics.InstrumentedStore;
+import org.ojai.store.metrics.LatencyHistogram;
+import org.ojai.store.metrics.MetricsSink;
+import org.ojai.store.metrics.OperationMetrics;
+import org.ojai.store.metrics.StoreOperation;
+import org.ojai.tests.BaseTest;
+import org.ojai.util.Documents;
+
+public class TestInstrumentedStore extends BaseTest {
+
+  @Test
+  public void testOperationMetrics() {
+    final InstrumentedStore store = new InstrumentedStore(new InMemoryDocumentStore(),
+        "testOperationMetrics", true, null, Collections.<MetricsSink>emptyList());
+    final Document doc = Json.newDocument().setId("k1").set("name", "abc").set("count", 1);
+    store.insert(doc);
+    try {
+      store.insert(doc);
+      fail("Expected DocumentExistsException");
+    } catch (DocumentExistsException e) {
+      // expected
+    }
+    store.insertOrReplace("k2", Json.newDocument().set("count", 2));
+
+    assertEquals(1, store.findById("k1").getInt("count"));
+    assertNull(store.findById("k3"));
+
+    final OperationMetrics inserts = store.getMetrics(StoreOperation.INSERT);
+    assertEquals(2, inserts.getCount());
+    assertEquals(1, inserts.getErrorCount());
+    assertEquals(0.5, inserts.getErrorRate(), 0);
+    assertEquals(1, inserts.getDocumentCount());
+    assertEquals(Documents.estimateSize(doc), inserts.getByteCount());
+
+    final OperationMetrics finds = store.getMetrics(StoreOperation.FIND_BY_ID);
+    assertEquals(2, finds.getCount());
+    assertEquals(1, finds.getDocumentCount());
+    assertEquals(0, finds.getErrorCount());
+    assertTrue(finds.getMaxMicros() >= finds.getP50Micros());
+    assertEquals(1, store.getMetrics(StoreOperation.INSERT_OR_REPLACE).getCount());
+
+    try (DocumentStream stream = store.find()) {
+      int n = 0;
+      for (@SuppressWarnings("unused") Document d : stream) {
+        n++;
+      }
+      assertEquals(2, n);
+    }
+    assertEquals(1, store.getMetrics(StoreOperation.FIND).getCount());
+    assertEquals(2, store.getMetrics(StoreOperation.FIND).getDocumentCount());
+
+    store.resetMetrics();
+    assertEquals(0, inserts.getCount());
+    assertEquals(0, inserts.getByteCount());
+  }
+
+  @Test
+  public void testBulkOperationsAndSinks() {
+    final List<String> events = new ArrayList<>();
+    final MetricsSink sink = new MetricsSink() {
+      @Override
+      public synchronized void operationCompleted(String storeTag, StoreOperation operation,
+          long latencyNanos, Throwable failure, long documents, long bytes) {
+        events.add(storeTag + ":" + operation.getMethodName() + ":" + documents
+            + (failure != null ? ":failed" : ""));
+      }
+
+      @Override
+      public synchronized void documentsRead(String storeTag, StoreOperation operation,
+          long documents, long bytes) {
+        events.add(storeTag + ":" + operation.getMethodName() + ":read:" + documents);
+      }
+    };
+
+    final InMemoryDocumentStore source = new InMemoryDocumentStore();
+    for (int i = 0; i < 5; i++) {
+      source.insert(Json.newDocument().setId("k" + i).set("i", i));
+    }
+    final InstrumentedStore store = new InstrumentedStore(new InMemoryDocumentStore(),
+        "bulk", false, null, Collections.singletonList(sink));
+    store.insertOrReplace(source.find());
+    assertEquals(5, store.getMetrics(StoreOperation.INSERT_OR_REPLACE).getDocumentCount());
+
+    try (DocumentStream stream = store.find()) {
+      stream.iterator().next();
+    }
+    store.flush();
+
+    assertEquals(4, events.size());
+    assertEquals("bulk:insertOrReplace:5", events.get(0));
+    assertEquals("bulk:find:0", events.get(1));
+    assertEquals("bulk:find:read:1", events.get(2));
+    assertEquals("bulk:flush:0", events.get(3));
+  }
+
+  @Test
+  public void testJmxRegistration() throws Exception {
+    final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    final ObjectName name = new ObjectName(
+        "org.ojai:type=DocumentStore,store=\"jmx\",operation=findById");
+    final InMemoryDocumentStore backing = new InMemoryDocumentStore();
+    final InstrumentedStore store = new InstrumentedStore(backing, "jmx");
+    assertTrue(server.isRegistered(name));
+    store.findById("k1");
+    store.findById("k2");
+    assertEquals(2L, server.getAttribute(name, "Count"));
+    assertEquals(0L, server.getAttribute(name, "ErrorCount"));
+
+    store.close();
+    assertTrue(backing.isClosed());
+    assertFalse(server.isRegistered(name));
+  }
+
+  @Test
+  public void testLatencyHistogram() {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0, histogram.snapshot().getValueAtPercentile(99));
+    for (long i = 1; i <= 100_000; i++) {
+      histogram.record(i * 1000);
+    }
+    final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+    assertEquals(100_000, snapshot.getCount());
+    assertEquals(100_000_000, snapshot.getMax());
+    assertEquals(50_000_500, snapshot.getMean(), 1);
+    assertWithin(50_000_000, snapshot.getValueAtPercentile(50));
+    assertWithin(99_000_000, snapshot.getValueAtPercentile(99));
+    assertWithin(99_900_000, snapshot.getValueAtPercentile(99.9));
+    assertEquals(100_000_000, snapshot.getValueAtPercentile(100));
+
+    // small values are exact, huge values are clamped but the max is exact
+    histogram.reset();
+    histogram.record(7);
+    histogram.record(Long.MAX_VALUE);
+    assertEquals(7, histogram.snapshot().getValueAtPercentile(50));
+    assertEquals(Long.MAX_VALUE, histogram.snapshot().getMax());
+  }
+
+  private static void assertWithin(long expected, long actual) {
+    assertTrue("Expected " + expected + " but was " + actual,
+        Math.abs(actual - expected) <= expected * 0.016);
+  }
+
+}
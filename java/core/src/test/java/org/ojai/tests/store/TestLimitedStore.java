@@ -0,0 +1,212 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.tests.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.junit.Test;
+import org.ojai.Document;
+import org.ojai.json.Json;
+import org.ojai.store.DocumentStore;
+import org.ojai.store.base.ForwardingStore;
+import org.ojai.store.exceptions.ConcurrencyLimitExceededException;
+import org.ojai.store.exceptions.DocumentExistsException;
+import org.ojai.store.exceptions.StoreException;
+import org.ojai.store.limit.AdmissionPolicy;
+import org.ojai.store.limit.AimdLimit;
+import org.ojai.store.limit.ConcurrencyLimiter;
+import org.ojai.store.limit.GradientLimit;
+import org.ojai.store.limit.LimitedStore;
+import org.ojai.store.limit.VegasLimit;
+import org.ojai.tests.BaseTest;
+
+public class TestLimitedStore extends BaseTest {
+
+  private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private static AimdLimit fixedLimit(int limit) {
+    return new AimdLimit(limit, limit, limit, 0.5, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+  }
+
+  private static void awaitUntil(BooleanSupplier condition) throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + 10_000;
+    while (!condition.getAsBoolean()) {
+      assertTrue("Timed out", System.currentTimeMillis() < deadline);
+      Thread.sleep(5);
+    }
+  }
+
+  @Test
+  public void testAimdLimit() {
+    final AimdLimit limit = new AimdLimit(10, 2, 12, 0.5, 100, TimeUnit.MILLISECONDS);
+    limit.onSample(MS, 1, false);
+    assertEquals(10, limit.getLimit()); // under-utilised, no growth
+    limit.onSample(MS, 6, false);
+    limit.onSample(MS, 6, false);
+    limit.onSample(MS, 6, false);
+    assertEquals(12, limit.getLimit());
+    limit.onSample(MS, 5, true);
+    assertEquals(6, limit.getLimit());
+    limit.onSample(200 * MS, 5, false); // slower than the timeout
+    assertEquals(3, limit.getLimit());
+    limit.onSample(MS, 5, true);
+    assertEquals(2, limit.getLimit());
+  }
+
+  @Test
+  public void testVegasLimit() {
+    final VegasLimit limit = new VegasLimit(20, 1, 100, 1000);
+    for (int i = 0; i < 10; i++) {
+      limit.onSample(10 * MS, 20, false);
+    }
+    final int grown = limit.getLimit();
+    assertTrue(grown > 20);
+    // latency doubles: half of the in-flight operations are queued
+    for (int i = 0; i < 10; i++) {
+      limit.onSample(20 * MS, grown, false);
+    }
+    assertTrue(limit.getLimit() < grown);
+    final int beforeOverload = limit.getLimit();
+    limit.onSample(20 * MS, grown, true);
+    assertEquals(beforeOverload / 2, limit.getLimit());
+  }
+
+  @Test
+  public void testGradientLimit() {
+    final GradientLimit limit = new GradientLimit(20, 1, 100, 0.5);
+    for (int i = 0; i < 10; i++) {
+      limit.onSample(10 * MS, 20, false);
+    }
+    final int grown = limit.getLimit();
+    assertTrue(grown > 20);
+    for (int i = 0; i < 10; i++) {
+      limit.onSample(40 * MS, grown, false);
+    }
+    assertTrue(limit.getLimit() < grown);
+  }
+
+  @Test
+  public void testShedding() throws Exception {
+    final InMemoryDocumentStore backing = new InMemoryDocumentStore();
+    backing.setLatencyMillis(300);
+    final ConcurrencyLimiter limiter = new ConcurrencyLimiter(fixedLimit(2), 10);
+    final LimitedStore store = new LimitedStore(backing, limiter, AdmissionPolicy.shed(), AdmissionPolicy.shed());
+
+    final List<Thread> readers = new ArrayList<>();
+    for (int i = 0; i < 2; i++) {
+      final Thread reader = new Thread(() -> store.findById("k"));
+      reader.start();
+      readers.add(reader);
+    }
+    awaitUntil(() -> limiter.getInFlight() == 2);
+    try {
+      store.findById("k");
+      fail("Expected ConcurrencyLimitExceededException");
+    } catch (ConcurrencyLimitExceededException e) {
+      assertEquals(1, limiter.getRejectedCount());
+    }
+    for (Thread reader : readers) {
+      reader.join();
+    }
+    assertEquals(0, limiter.getInFlight());
+    assertEquals(2, backing.getCallCount("findById"));
+  }
+
+  @Test
+  public void testPriorities() throws Exception {
+    final CountDownLatch unblock = new CountDownLatch(1);
+    final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+    final DocumentStore backing = new ForwardingStore(new InMemoryDocumentStore()) {
+      @Override
+      public Document findById(String id) throws StoreException {
+        order.add("read:" + id);
+        if (id.equals("blocker")) {
+          try {
+            unblock.await();
+          } catch (InterruptedException e) {
+            throw new StoreException(e);
+          }
+        }
+        return super.findById(id);
+      }
+
+      @Override
+      public void insertOrReplace(Document doc) throws StoreException {
+        order.add("write:" + doc.getIdString());
+        super.insertOrReplace(doc);
+      }
+    };
+    final ConcurrencyLimiter limiter = new ConcurrencyLimiter(fixedLimit(1), 10);
+    final LimitedStore store = new LimitedStore(backing, limiter,
+        AdmissionPolicy.queue(1, 10, TimeUnit.SECONDS), AdmissionPolicy.queue(0, 10, TimeUnit.SECONDS));
+
+    final Thread blocker = new Thread(() -> store.findById("blocker"));
+    blocker.start();
+    awaitUntil(() -> limiter.getInFlight() == 1);
+    final Thread writer = new Thread(() -> store.insertOrReplace(Json.newDocument().setId("w1")));
+    writer.start();
+    awaitUntil(() -> limiter.getQueueLength() == 1);
+    final Thread reader = new Thread(() -> store.findById("r1"));
+    reader.start();
+    awaitUntil(() -> limiter.getQueueLength() == 2);
+
+    unblock.countDown();
+    blocker.join();
+    writer.join();
+    reader.join();
+    assertEquals(Arrays.asList("read:blocker", "read:r1", "write:w1"), order);
+    assertEquals(0, limiter.getRejectedCount());
+  }
+
+  @Test
+  public void testOverloadSignals() {
+    final InMemoryDocumentStore backing = new InMemoryDocumentStore();
+    final ConcurrencyLimiter limiter = new ConcurrencyLimiter(
+        new AimdLimit(10, 1, 10, 0.5, Long.MAX_VALUE, TimeUnit.NANOSECONDS), 10);
+    final LimitedStore store = new LimitedStore(new ForwardingStore(backing) {
+      @Override
+      public void flush() throws StoreException {
+        throw new StoreException("timed out");
+      }
+    }, limiter, LimitedStore.DEFAULT_READ_POLICY, LimitedStore.DEFAULT_WRITE_POLICY);
+
+    store.insert(Json.newDocument().setId("k1"));
+    try {
+      store.insert(Json.newDocument().setId("k1"));
+      fail("Expected DocumentExistsException");
+    } catch (DocumentExistsException e) {
+      assertEquals(10, limiter.getLimit());
+    }
+    try {
+      store.flush();
+      fail("Expected StoreException");
+    } catch (StoreException e) {
+      assertEquals(5, limiter.getLimit());
+    }
+    assertEquals(0, limiter.getInFlight());
+  }
+
+}
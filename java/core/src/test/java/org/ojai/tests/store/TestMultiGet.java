@@ -0,0 +1,187 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.tests.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.ojai.Document;
+import org.ojai.DocumentStream;
+import org.ojai.FieldPath;
+import org.ojai.Value;
+import org.ojai.json.Json;
+import org.ojai.json.impl.JsonValueBuilder;
+import org.ojai.store.DocumentStore;
+import org.ojai.store.base.ForwardingStore;
+import org.ojai.store.base.MultiGet;
+import org.ojai.store.exceptions.StoreException;
+import org.ojai.tests.BaseTest;
+
+public class TestMultiGet extends BaseTest {
+
+  private static InMemoryDocumentStore newStore(int count) {
+    final InMemoryDocumentStore store = new InMemoryDocumentStore();
+    for (int i = 0; i < count; i++) {
+      store.insert(Json.newDocument().setId("k" + i).set("i", i).set("name", "n" + i));
+    }
+    return store;
+  }
+
+  private static List<Value> ids(int from, int to) {
+    final List<Value> ids = new ArrayList<>();
+    for (int i = from; i < to; i++) {
+      ids.add(JsonValueBuilder.initFrom("k" + i));
+    }
+    return ids;
+  }
+
+  private static List<Document> toList(DocumentStream stream) {
+    final List<Document> documents = new ArrayList<>();
+    try (DocumentStream s = stream) {
+      for (Document d : s) {
+        documents.add(d);
+      }
+    }
+    return documents;
+  }
+
+  @Test
+  public void testDefaultImplementation() {
+    final Thread caller = Thread.currentThread();
+    final InMemoryDocumentStore store = new InMemoryDocumentStore() {
+      @Override
+      public Document findById(Value _id, FieldPath... fieldPaths) throws StoreException {
+        assertSame("the default looks up the documents on the consuming thread", caller, Thread.currentThread());
+        return super.findById(_id, fieldPaths);
+      }
+    };
+    for (int i = 0; i < 40; i++) {
+      store.insert(Json.newDocument().setId("k" + i).set("i", i));
+    }
+
+    // k40..k44 do not exist and are skipped
+    try (DocumentStream stream = store.findByIds(ids(0, 45))) {
+      final Iterator<Document> it = stream.iterator();
+      assertEquals("k0", it.next().getIdString());
+      assertEquals("the lookups are lazy", 1, store.getCallCount("findById"));
+      int count = 1;
+      while (it.hasNext()) {
+        assertEquals("k" + count++, it.next().getIdString());
+      }
+      assertEquals(40, count);
+    }
+    assertEquals(45, store.getCallCount("findById"));
+  }
+
+  @Test
+  public void testProjectionAndEmptyInput() {
+    final InMemoryDocumentStore store = newStore(3);
+    final List<Document> documents = toList(store.findByIds(ids(1, 3), FieldPath.parseFrom("name")));
+    assertEquals(2, documents.size());
+    assertEquals("n1", documents.get(0).getString("name"));
+    assertNull(documents.get(0).getValue("i"));
+    assertTrue(toList(store.findByIds(new ArrayList<Value>())).isEmpty());
+  }
+
+  @Test
+  public void testBoundedConcurrency() {
+    final AtomicInteger active = new AtomicInteger();
+    final AtomicInteger maxActive = new AtomicInteger();
+    final InMemoryDocumentStore backing = newStore(20);
+    backing.setLatencyMillis(20);
+    final DocumentStore store = new ForwardingStore(backing) {
+      @Override
+      public Document findById(Value _id, FieldPath... fieldPaths) throws StoreException {
+        maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+        try {
+          return super.findById(_id, fieldPaths);
+        } finally {
+          active.decrementAndGet();
+        }
+      }
+    };
+
+    final ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      assertEquals(20, toList(MultiGet.findByIds(store, ids(0, 20), executor, 3)).size());
+      assertTrue(maxActive.get() <= 3);
+      assertTrue(maxActive.get() > 1);
+
+      // closing early cancels the pending lookups
+      try (DocumentStream stream = MultiGet.findByIds(store, ids(0, 20), executor, 2)) {
+        final Iterator<Document> it = stream.iterator();
+        assertEquals("k0", it.next().getIdString());
+      }
+      assertTrue("calls: " + backing.getCallCount("findById"), backing.getCallCount("findById") < 40);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testFailure() {
+    final StoreException failure = new StoreException("k2 is unavailable");
+    final DocumentStore store = new ForwardingStore(newStore(5)) {
+      @Override
+      public Document findById(Value _id, FieldPath... fieldPaths) throws StoreException {
+        if (_id.getString().equals("k2")) {
+          throw failure;
+        }
+        return super.findById(_id, fieldPaths);
+      }
+    };
+    final List<String> seen = new ArrayList<>();
+    try (DocumentStream stream = MultiGet.findByIds(store, ids(0, 5))) {
+      for (Document d : stream) {
+        seen.add(d.getIdString());
+      }
+      fail("Expected the lookup of k2 to fail");
+    } catch (StoreException e) {
+      assertSame(failure, e);
+    }
+    assertEquals(2, seen.size());
+  }
+
+  @Test
+  public void testNativeOverrideIsForwarded() {
+    final List<Value> requested = new ArrayList<>();
+    final InMemoryDocumentStore backing = newStore(3);
+    final DocumentStore nativeStore = new ForwardingStore(backing) {
+      @Override
+      public DocumentStream findByIds(Collection<? extends Value> ids, FieldPath... fieldPaths) {
+        requested.addAll(ids);
+        return backing.find();
+      }
+    };
+    final DocumentStore wrapper = new ForwardingStore(nativeStore);
+    assertEquals(3, toList(wrapper.findByIds(ids(0, 2))).size());
+    assertEquals(2, requested.size());
+    assertEquals(0, backing.getCallCount("findById"));
+  }
+
+}
@@ -0,0 +1,335 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.tests.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.ojai.Document;
+import org.ojai.DocumentStream;
+import org.ojai.Value;
+import org.ojai.base.QueryResultBase;
+import org.ojai.json.Json;
+import org.ojai.json.impl.JsonValueBuilder;
+import org.ojai.store.DocumentStore;
+import org.ojai.store.Query;
+import org.ojai.store.QueryCondition.Op;
+import org.ojai.store.QueryResult;
+import org.ojai.store.SortOrder;
+import org.ojai.store.base.ForwardingStore;
+import org.ojai.store.exceptions.MultiOpException;
+import org.ojai.store.exceptions.StoreException;
+import org.ojai.store.sharding.ConsistentHashShardMap;
+import org.ojai.store.sharding.RangeShardMap;
+import org.ojai.store.sharding.ShardedDocumentStore;
+import org.ojai.tests.BaseTest;
+
+public class TestShardedDocumentStore extends BaseTest {
+
+  private static List<InMemoryDocumentStore> newShards(int count) {
+    final List<InMemoryDocumentStore> shards = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      shards.add(new InMemoryDocumentStore());
+    }
+    return shards;
+  }
+
+  private static Document newDocument(int i) {
+    return Json.newDocument().setId(String.format("k%03d", i)).set("i", i).set("group", i % 7);
+  }
+
+  private static List<Document> toList(DocumentStream stream) {
+    final List<Document> documents = new ArrayList<>();
+    try (DocumentStream s = stream) {
+      for (Document d : s) {
+        documents.add(d);
+      }
+    }
+    return documents;
+  }
+
+  @Test
+  public void testPointOperations() {
+    final List<InMemoryDocumentStore> shards = newShards(3);
+    final ShardedDocumentStore store = new ShardedDocumentStore(shards,
+        new ConsistentHashShardMap(3), InMemoryDriver.INSTANCE);
+    for (int i = 0; i < 300; i++) {
+      store.insert(newDocument(i));
+    }
+
+    int total = 0;
+    for (int s = 0; s < 3; s++) {
+      final InMemoryDocumentStore shard = shards.get(s);
+      assertTrue("shard " + s + " has " + shard.size(), shard.size() > 50);
+      total += shard.size();
+      for (Document doc : shard.documents()) {
+        assertEquals(s, store.getShardIndex(doc.getId()));
+      }
+    }
+    assertEquals(300, total);
+
+    // integral _ids of the same value are placed on the same shard, whatever their type
+    final ConsistentHashShardMap ring = new ConsistentHashShardMap(3);
+    for (long i = -100; i < 100; i++) {
+      final int shard = ring.getShard(JsonValueBuilder.initFrom(i));
+      assertEquals(shard, ring.getShard(JsonValueBuilder.initFrom((int) i)));
+      assertEquals(shard, ring.getShard(JsonValueBuilder.initFrom((short) i)));
+      assertEquals(shard, ring.getShard(JsonValueBuilder.initFrom((byte) i)));
+    }
+
+    assertEquals(42, store.findById("k042").getInt("i"));
+    assertNull(store.findById("k999"));
+    store.update("k042", InMemoryDriver.INSTANCE.newMutation().set("i", 420));
+    assertEquals(420, store.findById("k042").getInt("i"));
+    store.increment("k042", "i", 1);
+    assertEquals(421, store.findById("k042").getInt("i"));
+    assertTrue(store.checkAndDelete("k042",
+        InMemoryDriver.INSTANCE.newCondition().is("i", Op.EQUAL, 421).build()));
+    assertNull(store.findById("k042"));
+
+    store.close();
+    for (InMemoryDocumentStore shard : shards) {
+      assertTrue(shard.isClosed());
+    }
+  }
+
+  @Test
+  public void testRangeShardMap() {
+    final List<InMemoryDocumentStore> shards = newShards(3);
+    final ShardedDocumentStore store = new ShardedDocumentStore(shards, new RangeShardMap(0)
+        .withRange(JsonValueBuilder.initFrom("k100"), 1)
+        .withRange(JsonValueBuilder.initFrom("k200"), 2), InMemoryDriver.INSTANCE);
+    for (int i = 0; i < 250; i++) {
+      store.insertOrReplace(newDocument(i));
+    }
+    assertEquals(100, shards.get(0).size());
+    assertEquals(100, shards.get(1).size());
+    assertEquals(50, shards.get(2).size());
+    assertNotNull(shards.get(1).findById("k100"));
+    assertNotNull(shards.get(0).findById("k099"));
+  }
+
+  @Test
+  public void testRangePruning() {
+    final List<InMemoryDocumentStore> shards = newShards(3);
+    final ShardedDocumentStore store = new ShardedDocumentStore(shards, new RangeShardMap(0)
+        .withRange(JsonValueBuilder.initFrom("k100"), 1)
+        .withRange(JsonValueBuilder.initFrom("k200"), 2), InMemoryDriver.INSTANCE);
+    for (int i = 0; i < 250; i++) {
+      store.insertOrReplace(newDocument(i));
+    }
+
+    final long[] before = new long[3];
+    for (int s = 0; s < 3; s++) {
+      before[s] = shards.get(s).getCallCount("find");
+    }
+    final Query query = InMemoryDriver.INSTANCE.newQuery()
+        .where(InMemoryDriver.INSTANCE.newCondition().and()
+            .is("_id", Op.GREATER_OR_EQUAL, "k120")
+            .is("_id", Op.LESS, "k150")
+            .close().build())
+        .build();
+    final List<Document> results = toList(store.find(query));
+    assertEquals(30, results.size());
+    assertEquals(before[0], shards.get(0).getCallCount("find"));
+    assertEquals(before[1] + 1, shards.get(1).getCallCount("find"));
+    assertEquals(before[2], shards.get(2).getCallCount("find"));
+
+    // a range crossing a split point reaches both owners
+    final Query spanning = InMemoryDriver.INSTANCE.newQuery()
+        .where(InMemoryDriver.INSTANCE.newCondition().and()
+            .is("_id", Op.GREATER, "k190")
+            .is("i", Op.LESS, 1000)
+            .close().build())
+        .build();
+    assertEquals(59, toList(store.find(spanning)).size());
+    assertEquals(before[0], shards.get(0).getCallCount("find"));
+    assertEquals(before[1] + 2, shards.get(1).getCallCount("find"));
+    assertEquals(before[2] + 1, shards.get(2).getCallCount("find"));
+  }
+
+  @Test
+  public void testQueryPlanOfShardsWithoutPlan() {
+    final List<DocumentStore> shards = new ArrayList<>();
+    shards.add(new InMemoryDocumentStore());
+    shards.add(new InMemoryDocumentStore() {
+      @Override
+      public QueryResult find(Query query) throws StoreException {
+        return new QueryResultBase() {
+          @Override
+          protected Iterator<Document> iteratorDerived() {
+            return Collections.emptyIterator();
+          }
+
+          @Override
+          public Document getQueryPlan() {
+            return null;
+          }
+        };
+      }
+    });
+    final ShardedDocumentStore store = new ShardedDocumentStore(shards,
+        new ConsistentHashShardMap(2), InMemoryDriver.INSTANCE);
+    try (QueryResult result = store.find(InMemoryDriver.INSTANCE.newQuery().build())) {
+      final List<Object> plans = result.getQueryPlan().getList("shards");
+      assertEquals(2, plans.size());
+      assertTrue(((Map<?, ?>) plans.get(1)).isEmpty());
+    }
+  }
+
+  @Test
+  public void testOrderedScatterGather() {
+    final List<String> shardQueries = new ArrayList<>();
+    final List<DocumentStore> shards = new ArrayList<>();
+    for (InMemoryDocumentStore shard : newShards(4)) {
+      shards.add(new ForwardingStore(shard) {
+        @Override
+        public QueryResult find(Query query) throws StoreException {
+          synchronized (shardQueries) {
+            shardQueries.add(query.asJsonString());
+          }
+          return super.find(query);
+        }
+      });
+    }
+    final ShardedDocumentStore store = new ShardedDocumentStore(shards,
+        new ConsistentHashShardMap(4), InMemoryDriver.INSTANCE);
+    final InMemoryDocumentStore reference = new InMemoryDocumentStore();
+    for (int i = 0; i < 200; i++) {
+      store.insert(newDocument(i));
+      reference.insert(newDocument(i));
+    }
+
+    final Query query = InMemoryDriver.INSTANCE.newQuery()
+        .select("_id")
+        .where(InMemoryDriver.INSTANCE.newCondition().is("group", Op.NOT_EQUAL, 3).build())
+        .orderBy("i", SortOrder.DESC)
+        .offset(10)
+        .limit(25)
+        .build();
+    final List<Document> expected = toList(reference.find(query));
+    final List<Document> actual = toList(store.find(query));
+    assertEquals(25, actual.size());
+    assertEquals(expected, actual);
+    // the sort field was fetched from the shards but is not returned
+    assertNull(actual.get(0).getValue("i"));
+
+    assertEquals(4, shardQueries.size());
+    for (String shardQuery : shardQueries) {
+      final Document q = Json.newDocument(shardQuery);
+      assertEquals(35, q.getInt(Query.LIMIT));
+      assertNull(q.getValue(Query.OFFSET));
+    }
+
+    // without an order, every document is returned once
+    final List<Document> all = toList(store.find());
+    assertEquals(200, all.size());
+    assertEquals(200, all.stream().map(Document::getIdString).distinct().count());
+    assertEquals(5, toList(store.findQuery("{\"$limit\":5}")).size());
+  }
+
+  @Test
+  public void testRebalance() {
+    final List<InMemoryDocumentStore> shards = newShards(2);
+    final ConsistentHashShardMap ring = new ConsistentHashShardMap(2);
+    final ShardedDocumentStore store = new ShardedDocumentStore(shards, ring, InMemoryDriver.INSTANCE);
+    for (int i = 0; i < 300; i++) {
+      store.insert(newDocument(i));
+    }
+
+    final InMemoryDocumentStore newShard = new InMemoryDocumentStore();
+    final int index = store.addShard(newShard);
+    assertEquals(2, index);
+    store.updateShardMap(ring.withShard(index));
+    assertTrue(store.isRebalancePending());
+
+    // before the rebalance, lookups fall back to the previous owner and writes move the document
+    Value moving = null;
+    for (int i = 0; i < 300 && moving == null; i++) {
+      final Value _id = JsonValueBuilder.initFrom(String.format("k%03d", i));
+      if (store.getShardIndex(_id) == index) {
+        moving = _id;
+      }
+    }
+    assertNotNull(moving);
+    assertNotNull(store.findById(moving));
+    assertEquals(0, newShard.size());
+    store.update(moving, InMemoryDriver.INSTANCE.newMutation().set("moved", true));
+    assertEquals(1, newShard.size());
+    assertTrue(newShard.findById(moving).getBoolean("moved"));
+
+    try {
+      store.updateShardMap(ring);
+      fail("Expected the second update to be rejected until rebalanced");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+
+    final long moved = store.rebalance();
+    assertFalse(store.isRebalancePending());
+    // consistent hashing only moves documents to the new shard
+    assertEquals(300, shards.get(0).size() + shards.get(1).size() + newShard.size());
+    assertEquals(moved + 1, newShard.size());
+    assertTrue("moved " + moved, moved > 50 && moved < 150);
+    for (int i = 0; i < 300; i++) {
+      assertEquals(i, store.findById(String.format("k%03d", i)).getInt("i"));
+    }
+    assertTrue(store.findById(moving).getBoolean("moved"));
+    assertEquals(0, store.rebalance());
+  }
+
+  @Test
+  public void testBulkFailures() {
+    final ShardedDocumentStore store = new ShardedDocumentStore(newShards(2),
+        new ConsistentHashShardMap(2), InMemoryDriver.INSTANCE);
+    store.insert(newDocument(1));
+    final InMemoryDocumentStore source = new InMemoryDocumentStore();
+    source.insert(newDocument(0));
+    source.insert(newDocument(1));
+    source.insert(newDocument(2));
+    source.insert(Json.newDocument().setId("k003").set("name", "no key"));
+    try {
+      store.insert(source.find(), "i");
+      fail("Expected a MultiOpException");
+    } catch (MultiOpException e) {
+      final List<String> failed = new ArrayList<>();
+      e.forEach(op -> failed.add(op.getDocument().getIdString()));
+      assertEquals(Arrays.asList("k003"), failed);
+    }
+    try {
+      store.insert(source.find());
+      fail("Expected a MultiOpException");
+    } catch (MultiOpException e) {
+      final List<String> failed = new ArrayList<>();
+      e.forEach(op -> failed.add(op.getDocument().getIdString()));
+      assertEquals(Arrays.asList("k001"), failed);
+    }
+    assertNotNull(store.findById("k003"));
+  }
+
+}
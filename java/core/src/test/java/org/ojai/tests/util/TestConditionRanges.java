@@ -0,0 +1,173 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.tests.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.ojai.Document;
+import org.ojai.FieldPath;
+import org.ojai.Value;
+import org.ojai.json.Json;
+import org.ojai.json.impl.JsonValueBuilder;
+import org.ojai.store.QueryCondition;
+import org.ojai.store.QueryCondition.Op;
+import org.ojai.tests.BaseTest;
+import org.ojai.tests.store.InMemoryDocumentStore;
+import org.ojai.tests.store.InMemoryDriver;
+import org.ojai.types.ODate;
+import org.ojai.util.ConditionRanges;
+import org.ojai.util.KeyRange;
+
+public class TestConditionRanges extends BaseTest {
+
+  private static QueryCondition condition() {
+    return InMemoryDriver.INSTANCE.newCondition();
+  }
+
+  private static Value v(Object o) {
+    return JsonValueBuilder.initFromObject(o);
+  }
+
+  @Test
+  public void testKeyRange() {
+    final KeyRange r1 = KeyRange.of(v(1), true, v(5), false);
+    final KeyRange r2 = KeyRange.of(v(5), true, v(8), true);
+    final KeyRange r3 = KeyRange.of(v(10), false, null, false);
+    assertEquals(Arrays.asList(KeyRange.of(v(1), true, v(8), true), r3),
+        KeyRange.union(Arrays.asList(r3, r2, r1)));
+    assertTrue(r1.intersect(r2).isEmpty());
+    assertEquals(KeyRange.singleton(v(5)), KeyRange.of(v(1), true, v(5L), true).intersect(r2));
+    assertTrue(KeyRange.all().contains(null));
+    assertTrue(KeyRange.missing().contains(null));
+    assertFalse(KeyRange.missing().contains(v(null)));
+    assertFalse(r3.contains(v(10.0)));
+    assertTrue(r3.contains(v(10.5)));
+    assertEquals("[\"a\", +inf)", KeyRange.of(v("a"), true, null, true).toString());
+  }
+
+  @Test
+  public void testComparisonsAndResidual() {
+    final ConditionRanges ranges = ConditionRanges.analyze(condition()
+        .and()
+          .is("_id", Op.GREATER_OR_EQUAL, "k10")
+          .is("_id", Op.LESS, "k20")
+          .matches("name", "^a")
+          .is("age", Op.GREATER, 30)
+        .close()
+        .build());
+    assertEquals(Arrays.asList(KeyRange.of(v("k10"), true, v("k20"), false)), ranges.getRanges("_id"));
+    // a numeric comparison stops at the end of the numbers
+    assertEquals(Arrays.asList(KeyRange.of(v(30), false, v(Double.POSITIVE_INFINITY), true)),
+        ranges.getRanges("age"));
+    assertTrue(ranges.mayMatch(FieldPath.parseFrom("age"), v(30.5)));
+    assertFalse(ranges.mayMatch(FieldPath.parseFrom("age"), v("31")));
+    assertFalse(ranges.mayMatch(FieldPath.parseFrom("age"), null));
+    assertEquals(Arrays.asList(KeyRange.all()), ranges.getRanges("other"));
+    // $matches only restricts name to strings, so it stays in the residual
+    assertEquals("{\"$matches\":{\"name\":\"^a\"}}", ranges.getResidual());
+    assertFalse(ranges.isUnsatisfiable());
+  }
+
+  @Test
+  public void testInOrAndLike() {
+    final ConditionRanges ranges = ConditionRanges.analyze(condition()
+        .or()
+          .in("_id", Arrays.asList("k5", "k1"))
+          .like("_id", "user%")
+          .is("_id", Op.EQUAL, "k3")
+        .close()
+        .build());
+    assertEquals(Arrays.asList(KeyRange.singleton(v("k1")), KeyRange.singleton(v("k3")),
+        KeyRange.singleton(v("k5")), KeyRange.of(v("user"), true, v("uses"), false)), ranges.getRanges("_id"));
+    assertNull(ranges.getResidual());
+
+    // a like pattern with inner wildcards is not exact
+    final ConditionRanges like = ConditionRanges.analyze(condition().like("s", "ab_d%").build());
+    assertEquals(Arrays.asList(KeyRange.of(v("ab"), true, v("ac"), false)), like.getRanges("s"));
+    assertEquals("{\"$like\":{\"s\":\"ab_d%\"}}", like.getResidual());
+
+    // an or of different fields constrains neither
+    final ConditionRanges either = ConditionRanges.analyze(condition()
+        .or().is("a", Op.EQUAL, 1).is("b", Op.EQUAL, 2).close().build());
+    assertEquals(Arrays.asList(KeyRange.all()), either.getRanges("a"));
+    assertTrue(either.getResidual().startsWith("{\"$or\""));
+  }
+
+  @Test
+  public void testNegationsAndExistence() {
+    final ConditionRanges ranges = ConditionRanges.analyze(condition()
+        .and()
+          .notIn("a", Arrays.asList(1, 2))
+          .is("b", Op.NOT_EQUAL, "x")
+          .exists("c")
+          .notExists("d")
+          .typeOf("e", Value.Type.DATE)
+        .close()
+        .build());
+    final List<KeyRange> a = ranges.getRanges("a");
+    assertEquals(3, a.size());
+    assertTrue(ranges.mayMatch(FieldPath.parseFrom("a"), null));
+    assertFalse(ranges.mayMatch(FieldPath.parseFrom("a"), v(2L)));
+    assertFalse(ranges.mayMatch(FieldPath.parseFrom("b"), v("x")));
+    assertFalse(ranges.mayMatch(FieldPath.parseFrom("c"), null));
+    assertTrue(ranges.mayMatch(FieldPath.parseFrom("c"), v(null)));
+    assertEquals(Arrays.asList(KeyRange.missing()), ranges.getRanges("d"));
+    assertTrue(ranges.mayMatch(FieldPath.parseFrom("e"), v(ODate.parse("2018-01-01"))));
+    assertFalse(ranges.mayMatch(FieldPath.parseFrom("e"), v(0)));
+    assertNull(ranges.getResidual());
+  }
+
+  @Test
+  public void testUnsatisfiable() {
+    assertTrue(ConditionRanges.analyze(condition()
+        .and().is("a", Op.GREATER, 10).is("a", Op.LESS, 5).close().build()).isUnsatisfiable());
+    assertTrue(ConditionRanges.analyze(condition()
+        .and().is("a", Op.GREATER, 10).is("a", Op.LESS, "z").close().build()).isUnsatisfiable());
+    assertFalse(ConditionRanges.analyze(condition().build()).isUnsatisfiable());
+  }
+
+  @Test
+  public void testRangesAgreeWithEvaluation() {
+    final QueryCondition c = condition()
+        .and()
+          .is("n", Op.GREATER_OR_EQUAL, 3)
+          .or()
+            .is("n", Op.LESS, 5)
+            .in("n", Arrays.asList(8, 9))
+          .close()
+          .is("s", Op.NOT_EQUAL, "b")
+        .close()
+        .build();
+    final ConditionRanges ranges = ConditionRanges.analyze(c);
+    assertNull(ranges.getResidual());
+    for (int n = 0; n < 12; n++) {
+      for (String s : Arrays.asList("a", "b", "c")) {
+        final Document d = Json.newDocument().set("n", n).set("s", s);
+        final boolean inRanges = ranges.mayMatch(FieldPath.parseFrom("n"), d.getValue("n"))
+            && ranges.mayMatch(FieldPath.parseFrom("s"), d.getValue("s"));
+        assertEquals(d.toString(), InMemoryDocumentStore.matches(c, d), inRanges);
+      }
+    }
+  }
+
+}
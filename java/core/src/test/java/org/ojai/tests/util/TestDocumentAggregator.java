@@ -0,0 +1,219 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.tests.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.ojai.Document;
+import org.ojai.DocumentStream;
+import org.ojai.Value.Type;
+import org.ojai.json.Json;
+import org.ojai.tests.BaseTest;
+import org.ojai.util.DocumentAggregator;
+import org.ojai.util.DocumentStreams;
+
+public class TestDocumentAggregator extends BaseTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static List<Document> orders(int count, int groups, long seed) {
+    final Random random = new Random(seed);
+    final List<Document> documents = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      final Document d = Json.newDocument()
+          .set("customer", "c" + random.nextInt(groups))
+          .set("amount", random.nextInt(1000));
+      if (i % 10 != 0) {
+        d.set("rating", random.nextInt(5) + 1);
+      }
+      documents.add(d);
+    }
+    return documents;
+  }
+
+  private static DocumentAggregator newAggregator() {
+    return new DocumentAggregator("customer")
+        .count("orders")
+        .count("rated", "rating")
+        .sum("total", "amount")
+        .min("smallest", "amount")
+        .max("largest", "amount")
+        .avg("rating", "rating");
+  }
+
+  private static Map<String, Document> byCustomer(DocumentStream stream) {
+    final Map<String, Document> result = new HashMap<>();
+    try (DocumentStream s = stream) {
+      for (Document d : s) {
+        assertNull(result.put(d.getString("customer"), d));
+      }
+    }
+    return result;
+  }
+
+  private static void assertMatchesReference(List<Document> input, Map<String, Document> result) {
+    final Map<String, long[]> expected = new HashMap<>();
+    for (Document d : input) {
+      final long[] e = expected.computeIfAbsent(d.getString("customer"),
+          k -> new long[] {0, 0, 0, Long.MAX_VALUE, Long.MIN_VALUE, 0});
+      final int amount = d.getInt("amount");
+      e[0]++;
+      e[2] += amount;
+      e[3] = Math.min(e[3], amount);
+      e[4] = Math.max(e[4], amount);
+      if (d.getValue("rating") != null) {
+        e[1]++;
+        e[5] += d.getInt("rating");
+      }
+    }
+    assertEquals(expected.size(), result.size());
+    for (Map.Entry<String, long[]> e : expected.entrySet()) {
+      final Document d = result.get(e.getKey());
+      final long[] x = e.getValue();
+      assertEquals(x[0], d.getLong("orders"));
+      assertEquals(x[1], d.getLong("rated"));
+      assertEquals(x[2], d.getLong("total"));
+      assertEquals(x[3], d.getInt("smallest"));
+      assertEquals(x[4], d.getInt("largest"));
+      if (x[1] == 0) {
+        assertEquals(Type.NULL, d.getValue("rating").getType());
+      } else {
+        assertEquals((double) x[5] / x[1], d.getDouble("rating"), 1e-9);
+      }
+    }
+  }
+
+  @Test
+  public void testInMemoryAggregation() {
+    final List<Document> input = orders(5000, 50, 1);
+    final DocumentAggregator aggregator = newAggregator();
+    assertMatchesReference(input, byCustomer(aggregator.aggregate(DocumentStreams.of(input))));
+    assertEquals(0, aggregator.getSpilledRunCount());
+  }
+
+  @Test
+  public void testSpilling() {
+    final List<Document> input = orders(20000, 3000, 2);
+    final DocumentAggregator aggregator = newAggregator()
+        .setMemoryBudget(32 * 1024)
+        .setSpillDirectory(folder.getRoot());
+    final DocumentStream result = aggregator.aggregate(DocumentStreams.of(input));
+    assertTrue(aggregator.getSpilledRunCount() > 5);
+    assertMatchesReference(input, byCustomer(result));
+    assertEquals(0, folder.getRoot().list().length);
+  }
+
+  @Test
+  public void testParallel() {
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      final List<Document> input = orders(50000, 500, 3);
+      assertMatchesReference(input, byCustomer(newAggregator()
+          .setParallelism(4, executor)
+          .aggregate(DocumentStreams.of(input))));
+
+      // parallel, with every worker spilling
+      final DocumentAggregator spilling = newAggregator()
+          .setParallelism(4, executor)
+          .setMemoryBudget(64 * 1024)
+          .setSpillDirectory(folder.getRoot());
+      final List<Document> many = orders(50000, 5000, 4);
+      assertMatchesReference(many, byCustomer(spilling.aggregate(DocumentStreams.of(many))));
+      assertTrue(spilling.getSpilledRunCount() >= 4);
+      assertEquals(0, folder.getRoot().list().length);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testSumPromotionAndMissingKeys() {
+    final List<Document> input = new ArrayList<>();
+    input.add(Json.newDocument().set("k", "a").set("v", Long.MAX_VALUE));
+    input.add(Json.newDocument().set("k", "a").set("v", 1));
+    input.add(Json.newDocument().set("k", "b").set("v", 1));
+    input.add(Json.newDocument().set("k", "b").set("v", 0.5));
+    input.add(Json.newDocument().set("k", "c").set("v", "not a number"));
+    input.add(Json.newDocument().set("v", 7));
+    input.add(Json.newDocument().set("v", 8));
+
+    final Map<Object, Document> result = new HashMap<>();
+    try (DocumentStream s = new DocumentAggregator("k").sum("sum", "v").max("max", "v")
+        .aggregate(DocumentStreams.of(input))) {
+      for (Document d : s) {
+        result.put(d.getValue("k") == null ? null : d.getString("k"), d);
+      }
+    }
+    assertEquals(4, result.size());
+    assertEquals(Type.DECIMAL, result.get("a").getValue("sum").getType());
+    assertEquals(new BigDecimal(Long.MAX_VALUE).add(BigDecimal.ONE), result.get("a").getDecimal("sum"));
+    assertEquals(1.5, result.get("b").getDouble("sum"), 0);
+    assertEquals(Type.NULL, result.get("c").getValue("sum").getType());
+    assertEquals("not a number", result.get("c").getString("max"));
+    // the documents without the group field form their own group
+    assertFalse(result.get(null).asMap().containsKey("k"));
+    assertEquals(15, result.get(null).getLong("sum"));
+  }
+
+
+  @Test
+  public void testGroupNormalizationAndAverages() {
+    final List<Document> input = new ArrayList<>();
+    input.add(Json.newDocument().set("k", 1).set("v", Long.MAX_VALUE - 1));
+    input.add(Json.newDocument().set("k", 1L).set("v", Long.MAX_VALUE - 3));
+    input.add(Json.newDocument().set("k", (short) 1).set("v", Long.MAX_VALUE - 5));
+    input.add(Json.newDocument().set("k", 0.5f).set("v", new BigDecimal("0.1")));
+    input.add(Json.newDocument().set("k", 0.5).set("v", new BigDecimal("0.2")));
+    input.add(Json.newDocument().set("k", "1").set("v", 1));
+
+    for (long budget : new long[] {DocumentAggregator.DEFAULT_MEMORY_BUDGET, 1}) {
+      final Map<Object, Document> result = new HashMap<>();
+      try (DocumentStream s = new DocumentAggregator("k").count("n").avg("avg", "v")
+          .setMemoryBudget(budget).setSpillDirectory(folder.getRoot())
+          .aggregate(DocumentStreams.of(input))) {
+        for (Document d : s) {
+          assertNull(result.put(d.getValue("k").getObject(), d));
+        }
+      }
+      // the integral and the floating point group values are merged, but not the string
+      assertEquals(3, result.size());
+      assertEquals(3, result.get(1L).getLong("n"));
+      assertEquals(2, result.get(0.5).getLong("n"));
+      assertEquals(1, result.get("1").getLong("n"));
+
+      // the sum of the longs overflows, but not their average
+      assertEquals((double) (Long.MAX_VALUE - 3), result.get(1L).getDouble("avg"), 0);
+      assertEquals(Type.DECIMAL, result.get(0.5).getValue("avg").getType());
+      assertEquals(0, new BigDecimal("0.15").compareTo(result.get(0.5).getDecimal("avg")));
+    }
+  }
+}
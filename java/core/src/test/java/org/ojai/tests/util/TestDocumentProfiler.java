@@ -0,0 +1,218 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.tests.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.ojai.Document;
+import org.ojai.DocumentStream;
+import org.ojai.Value.Type;
+import org.ojai.json.Json;
+import org.ojai.tests.BaseTest;
+import org.ojai.util.DocumentStreams;
+import org.ojai.util.stats.DocumentProfile;
+import org.ojai.util.stats.DocumentProfiler;
+import org.ojai.util.stats.FieldStatistics;
+import org.ojai.util.stats.HyperLogLog;
+import org.ojai.util.stats.KllSketch;
+import org.ojai.util.stats.SpaceSaving;
+
+import com.google.common.hash.Hashing;
+
+public class TestDocumentProfiler extends BaseTest {
+
+  @Test
+  public void testHyperLogLog() {
+    final HyperLogLog all = new HyperLogLog();
+    final HyperLogLog even = new HyperLogLog();
+    final HyperLogLog odd = new HyperLogLog();
+    for (int i = 0; i < 100000; i++) {
+      final long hash = Hashing.murmur3_128().hashInt(i % 50000).asLong();
+      all.add(hash);
+      (i % 2 == 0 ? even : odd).add(hash);
+    }
+    assertEquals(50000, all.estimate(), 50000 * 0.05);
+    even.merge(odd);
+    assertEquals(all.estimate(), even.estimate());
+
+    final HyperLogLog small = new HyperLogLog();
+    for (int i = 0; i < 100; i++) {
+      small.add(Hashing.murmur3_128().hashInt(i).asLong());
+    }
+    assertEquals(100, small.estimate(), 2);
+  }
+
+  @Test
+  public void testKllSketch() {
+    final Random random = new Random(7);
+    final KllSketch all = new KllSketch();
+    final KllSketch[] parts = {new KllSketch(), new KllSketch(), new KllSketch()};
+    for (int i = 0; i < 100000; i++) {
+      final double value = random.nextInt(100000);
+      all.update(value);
+      parts[i % 3].update(value);
+    }
+    parts[0].merge(parts[1]);
+    parts[0].merge(parts[2]);
+    for (KllSketch sketch : Arrays.asList(all, parts[0])) {
+      assertEquals(100000, sketch.getCount());
+      assertEquals(50000, sketch.getQuantile(0.5), 2000);
+      assertEquals(99000, sketch.getQuantile(0.99), 2000);
+      assertEquals(0.25, sketch.getRank(25000), 0.02);
+      assertEquals(all.getMin(), sketch.getQuantile(0), 0);
+      assertEquals(all.getMax(), sketch.getQuantile(1), 0);
+    }
+    assertTrue(Double.isNaN(new KllSketch().getQuantile(0.5)));
+  }
+
+  @Test
+  public void testSpaceSaving() {
+    final SpaceSaving<String> all = new SpaceSaving<>(16);
+    final SpaceSaving<String> first = new SpaceSaving<>(16);
+    final SpaceSaving<String> second = new SpaceSaving<>(16);
+    final Random random = new Random(3);
+    for (int i = 0; i < 20000; i++) {
+      // "a" a quarter of the time, "b" an eighth, the rest spread over 1000 values
+      final int r = random.nextInt(8);
+      final String item = r < 2 ? "a" : r < 3 ? "b" : "v" + random.nextInt(1000);
+      all.add(item);
+      (i < 10000 ? first : second).add(item);
+    }
+    first.merge(second);
+    for (SpaceSaving<String> sketch : Arrays.asList(all, first)) {
+      final List<SpaceSaving.Entry<String>> top = sketch.getTop(2);
+      assertEquals("a", top.get(0).getItem());
+      assertEquals("b", top.get(1).getItem());
+      assertTrue(top.get(0).getCount() - top.get(0).getError() <= 5000 + 300);
+      assertTrue(top.get(0).getCount() >= 5000 - 300);
+      assertEquals(20000, sketch.getTotal());
+    }
+  }
+
+  private static List<Document> documents(int count) {
+    final List<Document> documents = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      final Document d = Json.newDocument().setId("id" + i).set("n", i % 100);
+      if (i % 10 == 0) {
+        d.setNull("color");
+      } else {
+        d.set("color", i % 3 == 0 ? "red" : "blue");
+      }
+      if (i % 2 == 0) {
+        d.set("mixed", i);
+      } else {
+        d.set("mixed", "s" + i);
+      }
+      d.set("address.zip", 95000 + i % 7);
+      d.setArray("tags", new Object[] {"t" + i % 4, "t" + (i + 1) % 4});
+      documents.add(d);
+    }
+    return documents;
+  }
+
+  @Test
+  public void testProfile() {
+    final DocumentProfile profile = new DocumentProfiler().profile(DocumentStreams.of(documents(1000)));
+    assertEquals(1000, profile.getDocumentCount());
+    assertFalse(profile.isTruncated());
+
+    final FieldStatistics id = profile.getField("_id");
+    assertEquals(1000, id.getDistinctCount(), 20);
+    assertEquals(1000, id.getTypeCount(Type.STRING));
+
+    final FieldStatistics n = profile.getField("n");
+    assertEquals(100, n.getDistinctCount());
+    assertEquals(49.5, n.getQuantile(0.5), 1);
+    assertEquals(0, n.getMin().getInt());
+    assertEquals(99, n.getMax().getInt());
+
+    final FieldStatistics color = profile.getField("color");
+    assertEquals(100, color.getNullCount());
+    assertEquals(2, color.getDistinctCount());
+    assertEquals("\"blue\"", color.getTopValues(1).get(0).getItem());
+
+    final FieldStatistics mixed = profile.getField("mixed");
+    assertEquals(500, mixed.getTypeCount(Type.STRING));
+    assertEquals(500, mixed.getNumericCount());
+    assertEquals(2, mixed.getTypeHistogram().size());
+
+    assertEquals(1000, profile.getField("address").getTypeCount(Type.MAP));
+    assertEquals(7, profile.getField("address.zip").getDistinctCount());
+    assertEquals(1000, profile.getField("tags").getTypeCount(Type.ARRAY));
+    assertEquals(2000, profile.getField("tags[]").getCount());
+    assertEquals(4, profile.getField("tags[]").getDistinctCount());
+    assertNull(profile.getField("missing"));
+  }
+
+  @Test
+  public void testParallelPartitions() {
+    final List<Document> documents = documents(3000);
+    final DocumentProfiler profiler = new DocumentProfiler();
+    final List<DocumentStream> partitions = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      partitions.add(DocumentStreams.of(documents.subList(i * 1000, (i + 1) * 1000)));
+    }
+    final DocumentProfile parallel = profiler.profile(partitions);
+    final DocumentProfile serial = profiler.profile(DocumentStreams.of(documents));
+    assertEquals(serial.getDocumentCount(), parallel.getDocumentCount());
+    assertEquals(serial.getFields().keySet(), parallel.getFields().keySet());
+    for (FieldStatistics field : serial.getFields().values()) {
+      final FieldStatistics other = parallel.getField(field.getFieldPath());
+      assertEquals(field.getTypeHistogram(), other.getTypeHistogram());
+      assertEquals(field.getDistinctCount(), other.getDistinctCount());
+    }
+  }
+
+  @Test
+  public void testSamplingAndLimits() {
+    final DocumentProfile sampled = new DocumentProfiler()
+        .setSampleRate(0.1, 42)
+        .profile(DocumentStreams.of(documents(10000)));
+    assertEquals(10000, sampled.getScannedCount());
+    assertEquals(1000, sampled.getDocumentCount(), 100);
+    assertEquals(0.1, (double) sampled.getField("color").getNullCount() / sampled.getDocumentCount(), 0.03);
+
+    final DocumentProfile limited = new DocumentProfiler()
+        .setMaxDocuments(50)
+        .setFields("n", "address.zip")
+        .profile(DocumentStreams.of(documents(1000)));
+    assertEquals(50, limited.getDocumentCount());
+    assertEquals(2, limited.getFields().size());
+    assertNull(limited.getField("color"));
+
+    final DocumentProfile truncated = new DocumentProfiler()
+        .setMaxFields(3)
+        .profile(DocumentStreams.of(documents(10)));
+    assertTrue(truncated.isTruncated());
+    assertEquals(3, truncated.getFields().size());
+
+    final DocumentProfile shallow = new DocumentProfiler()
+        .setMaxDepth(1)
+        .profile(DocumentStreams.of(documents(10)));
+    assertNull(shallow.getField("address.zip"));
+    assertEquals(10, shallow.getField("address").getCount());
+  }
+
+}
@@ -0,0 +1,191 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.tests.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.ojai.Document;
+import org.ojai.DocumentStream;
+import org.ojai.json.Json;
+import org.ojai.tests.BaseTest;
+import org.ojai.types.ODate;
+import org.ojai.types.OInterval;
+import org.ojai.types.OTime;
+import org.ojai.types.OTimestamp;
+import org.ojai.util.BinaryDocumentCodec;
+import org.ojai.util.DocumentComparator;
+import org.ojai.util.DocumentSorter;
+import org.ojai.util.DocumentStreams;
+import org.ojai.util.SortKey;
+import org.ojai.util.SpillFile;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+
+public class TestDocumentSorter extends BaseTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static final List<SortKey> KEYS = Arrays.asList(SortKey.asc("key"), SortKey.desc("sub"));
+
+  private static List<Document> randomDocuments(int count, long seed) {
+    final Random random = new Random(seed);
+    final List<Document> documents = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      documents.add(Json.newDocument()
+          .set("seq", i)
+          .set("key", random.nextInt(count / 10))
+          .set("sub", random.nextInt(3))
+          .set("payload", "some text to make the document a little larger " + i));
+    }
+    return documents;
+  }
+
+  private static List<Document> sortedCopy(List<Document> documents) {
+    final List<Document> sorted = new ArrayList<>(documents);
+    sorted.sort(new DocumentComparator(KEYS));
+    return sorted;
+  }
+
+  private static List<Integer> seqs(List<Document> documents) {
+    final List<Integer> seqs = new ArrayList<>();
+    for (Document d : documents) {
+      seqs.add(d.getInt("seq"));
+    }
+    return seqs;
+  }
+
+  private static List<Document> toList(DocumentStream stream) {
+    final List<Document> documents = new ArrayList<>();
+    try (DocumentStream s = stream) {
+      for (Document d : s) {
+        documents.add(d);
+      }
+    }
+    return documents;
+  }
+
+  @Test
+  public void testCodecRoundTrip() throws IOException {
+    final URL url = Resources.getResource("org/ojai/test/data/test0.json");
+    final Document document = Json.newDocument(Resources.toString(url, Charsets.UTF_8));
+    document.set("decimal", new BigDecimal("-12345678901234567890.0123"))
+        .set("date", ODate.parse("1969-07-20"))
+        .set("time", OTime.parse("23:59:59.999"))
+        .set("timestamp", new OTimestamp(-1234567L))
+        .set("interval", new OInterval(1, 2, 3, 4, 5))
+        .set("binary", ByteBuffer.wrap(new byte[] {0, (byte) 0xff, 1}))
+        .set("long", Long.MIN_VALUE)
+        .set("unicode", "é漢😀");
+
+    final byte[] encoded = BinaryDocumentCodec.encode(document);
+    final Document decoded = BinaryDocumentCodec.decode(encoded);
+    assertEquals(document, decoded);
+    assertEquals(document.getInterval("interval").getMonths(), decoded.getInterval("interval").getMonths());
+    assertEquals(document.getValue("byte").getType(), decoded.getValue("byte").getType());
+    // more compact than the JSON form
+    assertTrue(encoded.length < document.asJsonString().length());
+  }
+
+  @Test
+  public void testSpillFile() throws IOException {
+    final SpillFile spill = SpillFile.create(folder.getRoot());
+    final List<Document> documents = randomDocuments(100, 1);
+    for (Document d : documents) {
+      spill.write(d);
+    }
+    assertEquals(100, spill.getDocumentCount());
+    final File file = spill.getFile();
+    assertTrue(spill.getSize() > 0);
+    assertEquals(documents, toList(spill.read()));
+    assertTrue(!file.exists());
+  }
+
+  @Test
+  public void testInMemorySort() {
+    final List<Document> documents = randomDocuments(2000, 2);
+    final DocumentSorter sorter = new DocumentSorter(KEYS);
+    final List<Document> sorted = toList(sorter.sort(DocumentStreams.of(documents)));
+    assertEquals(seqs(sortedCopy(documents)), seqs(sorted));
+    assertEquals(0, sorter.getSpilledRunCount());
+  }
+
+  @Test
+  public void testExternalSort() {
+    final List<Document> documents = randomDocuments(5000, 3);
+    final DocumentSorter sorter = new DocumentSorter(KEYS)
+        .setMemoryBudget(16 * 1024)
+        .setMergeFactor(4)
+        .setSpillDirectory(folder.getRoot());
+    final DocumentStream stream = sorter.sort(DocumentStreams.of(documents));
+    assertTrue(sorter.getSpilledRunCount() > 20);
+    // the intermediate merges leave fewer than mergeFactor runs
+    assertTrue(folder.getRoot().list().length < 4);
+
+    // the sort is stable, like List.sort()
+    assertEquals(seqs(sortedCopy(documents)), seqs(toList(stream)));
+    assertEquals(0, folder.getRoot().list().length);
+  }
+
+  @Test
+  public void testTopK() {
+    final List<Document> documents = randomDocuments(20000, 4);
+    final DocumentSorter sorter = new DocumentSorter(KEYS)
+        .setMemoryBudget(64 * 1024)
+        .setSpillDirectory(folder.getRoot())
+        .setOffset(5)
+        .setLimit(10);
+    final List<Document> top = toList(sorter.sort(DocumentStreams.of(documents)));
+    assertEquals(seqs(sortedCopy(documents).subList(5, 15)), seqs(top));
+    assertEquals(0, sorter.getSpilledRunCount());
+  }
+
+  @Test
+  public void testTopKExceedingBudget() {
+    final List<Document> documents = randomDocuments(5000, 5);
+    final DocumentSorter sorter = new DocumentSorter(KEYS)
+        .setMemoryBudget(8 * 1024)
+        .setSpillDirectory(folder.getRoot())
+        .setLimit(1000);
+    final DocumentStream stream = sorter.sort(DocumentStreams.of(documents));
+    assertTrue(sorter.getSpilledRunCount() > 0);
+    final Iterator<Document> it = stream.iterator();
+    final List<Document> top = new ArrayList<>();
+    while (it.hasNext()) {
+      top.add(it.next());
+    }
+    assertEquals(seqs(sortedCopy(documents).subList(0, 1000)), seqs(top));
+    stream.close();
+    assertEquals(0, folder.getRoot().list().length);
+  }
+
+}
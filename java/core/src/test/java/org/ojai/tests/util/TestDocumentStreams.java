@@ -0,0 +1,183 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.tests.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+import org.ojai.Document;
+import org.ojai.DocumentStream;
+import org.ojai.base.DocumentStreamBase;
+import org.ojai.json.Json;
+import org.ojai.tests.BaseTest;
+import org.ojai.util.DocumentComparator;
+import org.ojai.util.DocumentStreams;
+import org.ojai.util.SortKey;
+
+public class TestDocumentStreams extends BaseTest {
+
+  /**
+   * A stream over a list which counts the documents pulled from it.
+   */
+  private static class ListStream extends DocumentStreamBase {
+    private final List<Document> documents;
+    int pulled;
+    boolean closed;
+
+    ListStream(List<Document> documents) {
+      this.documents = documents;
+    }
+
+    @Override
+    protected Iterator<Document> iteratorDerived() {
+      final Iterator<Document> it = documents.iterator();
+      return new Iterator<Document>() {
+        @Override
+        public boolean hasNext() {
+          return it.hasNext();
+        }
+
+        @Override
+        public Document next() {
+          pulled++;
+          return it.next();
+        }
+      };
+    }
+
+    @Override
+    protected void closeDerived() {
+      closed = true;
+    }
+  }
+
+  private static ListStream sorted(List<SortKey> keys, String... json) {
+    final List<Document> documents = new ArrayList<>();
+    for (String j : json) {
+      documents.add(Json.newDocument(j));
+    }
+    Collections.sort(documents, new DocumentComparator(keys));
+    return new ListStream(documents);
+  }
+
+  private static ListStream range(String source, int from, int to, int step) {
+    final List<Document> documents = new ArrayList<>();
+    for (int i = from; i < to; i += step) {
+      documents.add(Json.newDocument().set("n", i).set("source", source));
+    }
+    return new ListStream(documents);
+  }
+
+  private static ListStream reversed(ListStream stream) {
+    Collections.reverse(stream.documents);
+    return stream;
+  }
+
+  private static List<Object> values(DocumentStream stream, String field) {
+    final List<Object> values = new ArrayList<>();
+    try (DocumentStream s = stream) {
+      for (Document d : s) {
+        values.add(d.getValue(field) == null ? null : d.getValue(field).getObject());
+      }
+    }
+    return values;
+  }
+
+  @Test
+  public void testMergeMultipleKeys() {
+    final List<SortKey> keys = Arrays.asList(SortKey.asc("a"), SortKey.desc("b"));
+    final ListStream s1 = sorted(keys, "{\"a\":1,\"b\":1,\"id\":1}", "{\"a\":2,\"b\":5,\"id\":2}",
+        "{\"b\":7,\"id\":3}");
+    final ListStream s2 = sorted(keys, "{\"a\":1,\"b\":3,\"id\":4}", "{\"a\":2.5,\"id\":5}",
+        "{\"a\":\"x\",\"id\":6}");
+    final ListStream s3 = sorted(keys);
+
+    // documents without "a" sort first, then types by their type code, and numbers
+    // compare across types
+    assertEquals(Arrays.<Object>asList(3d, 6d, 4d, 1d, 2d, 5d), values(DocumentStreams.merge(
+        Arrays.asList(s1, s2, s3), keys), "id"));
+    assertTrue(s1.closed && s2.closed && s3.closed);
+  }
+
+  @Test
+  public void testOffsetLimitAndLaziness() {
+    final ListStream s1 = range("s1", 0, 300, 3);
+    final ListStream s2 = range("s2", 1, 300, 3);
+    final ListStream s3 = range("s3", 2, 300, 3);
+    final DocumentStream merged = DocumentStreams.merge(Arrays.asList(s1, s2, s3),
+        Arrays.asList(SortKey.asc("n")), 10, 5);
+    final List<Object> expected = new ArrayList<>();
+    for (int i = 10; i < 15; i++) {
+      expected.add(i);
+    }
+    final Iterator<Document> it = merged.iterator();
+    final List<Object> actual = new ArrayList<>();
+    while (it.hasNext()) {
+      actual.add(it.next().getInt("n"));
+    }
+    assertEquals(expected, actual);
+    // only the skipped and returned documents, plus one lookahead per source, were read
+    assertTrue(s1.pulled + s2.pulled + s3.pulled <= 15 + 3);
+    // the sources are released once the limit is reached
+    assertTrue(s1.closed && s2.closed && s3.closed);
+    merged.close();
+  }
+
+  @Test
+  public void testDescendingAndStability() {
+    final ListStream s1 = reversed(range("s1", 0, 10, 2));
+    final ListStream s2 = reversed(range("s2", 0, 10, 2));
+    final List<Document> merged = new ArrayList<>();
+    try (DocumentStream stream = DocumentStreams.merge(Arrays.asList(s1, s2),
+        DocumentComparator.of(SortKey.desc("n")), 0, -1)) {
+      for (Document d : stream) {
+        merged.add(d);
+      }
+    }
+    assertEquals(10, merged.size());
+    for (int i = 0; i < 10; i += 2) {
+      // equal documents come out in the order of their sources
+      assertEquals(8 - i, merged.get(i).getInt("n"));
+      assertEquals("s1", merged.get(i).getString("source"));
+      assertEquals("s2", merged.get(i + 1).getString("source"));
+    }
+  }
+
+  @Test
+  public void testConcatenationAndEarlyClose() {
+    final ListStream s1 = range("s1", 0, 3, 1);
+    final ListStream s2 = range("s2", 0, 3, 1);
+    assertEquals(Arrays.<Object>asList("s1", "s1", "s1", "s2", "s2", "s2"),
+        values(DocumentStreams.merge(Arrays.asList(s1, s2), Collections.<SortKey>emptyList()), "source"));
+
+    final ListStream s3 = range("s3", 0, 100, 1);
+    final ListStream s4 = range("s4", 0, 100, 1);
+    final DocumentStream merged = DocumentStreams.merge(Arrays.asList(s3, s4), Arrays.asList(SortKey.asc("n")));
+    merged.iterator().next();
+    assertFalse(s3.closed);
+    merged.close();
+    assertTrue(s3.closed && s4.closed);
+  }
+
+}
@@ -0,0 +1,170 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.tests.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.ojai.Document;
+import org.ojai.DocumentStream;
+import org.ojai.json.Json;
+import org.ojai.tests.BaseTest;
+import org.ojai.util.DocumentStreams;
+import org.ojai.util.HashJoin;
+import org.ojai.util.HashJoin.Type;
+
+public class TestHashJoin extends BaseTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static DocumentStream orders() {
+    final List<Document> orders = new ArrayList<>();
+    orders.add(Json.newDocument().setId("o1").set("customer", 1).set("total", 10));
+    orders.add(Json.newDocument().setId("o2").set("customer", 2).set("total", 20));
+    orders.add(Json.newDocument().setId("o3").set("customer", 1L).set("total", 30));
+    orders.add(Json.newDocument().setId("o4").set("customer", 4).set("total", 40));
+    orders.add(Json.newDocument().setId("o5").set("total", 50));
+    return DocumentStreams.of(orders);
+  }
+
+  private static DocumentStream customers() {
+    final List<Document> customers = new ArrayList<>();
+    customers.add(Json.newDocument().set("cid", 1).set("name", "alice"));
+    customers.add(Json.newDocument().set("cid", (short) 2).set("name", "bob"));
+    customers.add(Json.newDocument().set("cid", 2).set("name", "robert"));
+    customers.add(Json.newDocument().set("cid", 3).set("name", "carol"));
+    customers.add(Json.newDocument().setNull("cid").set("name", "nobody"));
+    return DocumentStreams.of(customers);
+  }
+
+  private static List<String> results(DocumentStream stream) {
+    final List<String> results = new ArrayList<>();
+    try (DocumentStream s = stream) {
+      for (Document d : s) {
+        results.add(d.getIdString() + (d.getString("name") == null ? "" : ":" + d.getString("name")));
+      }
+    }
+    Collections.sort(results);
+    return results;
+  }
+
+  @Test
+  public void testInnerJoin() {
+    final HashJoin join = new HashJoin(Type.INNER, "customer", "cid");
+    assertEquals("[o1:alice, o2:bob, o2:robert, o3:alice]", results(join.join(orders(), customers())).toString());
+    assertEquals(0, join.getSpilledPartitionCount());
+  }
+
+  @Test
+  public void testLeftOuterJoin() {
+    final HashJoin join = new HashJoin(Type.LEFT_OUTER, "customer", "cid");
+    assertEquals("[o1:alice, o2:bob, o2:robert, o3:alice, o4, o5]",
+        results(join.join(orders(), customers())).toString());
+  }
+
+  @Test
+  public void testSemiAndAntiJoins() {
+    assertEquals("[o1, o2, o3]",
+        results(new HashJoin(Type.SEMI, "customer", "cid").join(orders(), customers())).toString());
+    assertEquals("[o4, o5]",
+        results(new HashJoin(Type.ANTI, "customer", "cid").join(orders(), customers())).toString());
+  }
+
+  @Test
+  public void testMergers() {
+    try (DocumentStream s = new HashJoin(Type.INNER, "customer", "cid")
+        .setMerger(HashJoin.nest("c")).join(orders(), customers())) {
+      for (Document d : s) {
+        assertNull(d.getValue("name"));
+        assertEquals(d.getInt("customer"), d.getInt("c.cid"));
+      }
+    }
+
+    // by default, the fields of the left document win
+    final HashJoin join = new HashJoin(Type.INNER, "k", "k");
+    try (DocumentStream s = join.join(
+        DocumentStreams.of(Collections.singletonList(Json.newDocument().set("k", 1).set("a", "left"))),
+        DocumentStreams.of(Collections.singletonList(Json.newDocument().set("k", 1).set("a", "right").set("b", 2))))) {
+      final Document d = s.iterator().next();
+      assertEquals("left", d.getString("a"));
+      assertEquals(2, d.getInt("b"));
+    }
+
+    try (DocumentStream s = join.setMerger((left, right) -> Json.newDocument().set("names", left.getString("a")
+        + "," + right.getString("a"))).join(
+        DocumentStreams.of(Collections.singletonList(Json.newDocument().set("k", 1).set("a", "left"))),
+        DocumentStreams.of(Collections.singletonList(Json.newDocument().set("k", 1).set("a", "right"))))) {
+      assertEquals("left,right", s.iterator().next().getString("names"));
+    }
+  }
+
+  @Test
+  public void testGraceHashJoin() {
+    final List<Document> left = new ArrayList<>();
+    final List<Document> right = new ArrayList<>();
+    for (int i = 0; i < 2000; i++) {
+      left.add(Json.newDocument().setId("l" + i).set("k", i % 700));
+      if (i < 1000) {
+        right.add(Json.newDocument().set("k", i).set("name", "r" + i));
+      }
+    }
+    for (Type type : Type.values()) {
+      final HashJoin join = new HashJoin(type, "k", "k")
+          .setMemoryBudget(4096)
+          .setPartitionCount(4)
+          .setSpillDirectory(folder.getRoot());
+      final HashJoin inMemory = new HashJoin(type, "k", "k");
+      final List<String> expected = results(inMemory.join(DocumentStreams.of(left), DocumentStreams.of(right)));
+      assertEquals(expected, results(join.join(DocumentStreams.of(left), DocumentStreams.of(right))));
+      assertTrue(join.getSpilledPartitionCount() > 4);
+      assertEquals(type == Type.ANTI ? 0 : 2000, expected.size());
+      assertEquals(0, folder.getRoot().list().length);
+    }
+  }
+
+  @Test
+  public void testGraceHashJoinMergesUnmatchedLeftDocuments() {
+    final List<Document> left = new ArrayList<>();
+    final List<Document> right = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      left.add(i % 10 == 0 ? Json.newDocument().setId("l" + i) : Json.newDocument().setId("l" + i).set("k", i));
+      right.add(Json.newDocument().set("k", i).set("name", "r" + i));
+    }
+    final HashJoin.Merger merger = (l, r) -> Json.newDocument().setId(l.getIdString())
+        .set("name", r == null ? "none" : r.getString("name"));
+    final HashJoin join = new HashJoin(Type.LEFT_OUTER, "k", "k")
+        .setMerger(merger)
+        .setMemoryBudget(4096)
+        .setPartitionCount(4)
+        .setSpillDirectory(folder.getRoot());
+    final List<String> expected = results(new HashJoin(Type.LEFT_OUTER, "k", "k").setMerger(merger)
+        .join(DocumentStreams.of(left), DocumentStreams.of(right)));
+    assertEquals(expected, results(join.join(DocumentStreams.of(left), DocumentStreams.of(right))));
+    assertTrue(join.getSpilledPartitionCount() > 0);
+    assertTrue(expected.contains("l0:none"));
+    assertEquals(1000, expected.size());
+  }
+
+}
@@ -0,0 +1,155 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.tests.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.ojai.Document;
+import org.ojai.Value.Type;
+import org.ojai.store.DocumentMutation;
+import org.ojai.store.MutationOp;
+import org.ojai.store.exceptions.IllegalMutationException;
+import org.ojai.tests.BaseTest;
+import org.ojai.tests.store.InMemoryDocumentStore;
+import org.ojai.tests.store.InMemoryDriver;
+import org.ojai.util.Mutations;
+
+public class TestMutations extends BaseTest {
+
+  private static DocumentMutation mutation() {
+    return InMemoryDriver.INSTANCE.newMutation();
+  }
+
+  private static List<MutationOp> ops(DocumentMutation mutation) {
+    final List<MutationOp> ops = new ArrayList<>();
+    mutation.forEach(ops::add);
+    return ops;
+  }
+
+  /**
+   * Checks that the composed mutation has the same effect as applying both in order.
+   */
+  private static DocumentMutation assertEquivalent(String json, DocumentMutation first, DocumentMutation second) {
+    final Document expected = InMemoryDriver.doc(json);
+    InMemoryDocumentStore.apply(expected, first);
+    InMemoryDocumentStore.apply(expected, second);
+
+    final DocumentMutation composed = Mutations.compose(first, second, mutation());
+    final Document actual = InMemoryDriver.doc(json);
+    InMemoryDocumentStore.apply(actual, composed);
+    assertEquals(expected, actual);
+    return composed;
+  }
+
+  private static void assertRejected(DocumentMutation first, DocumentMutation second) {
+    assertFalse(Mutations.isComposable(first, second));
+    try {
+      Mutations.compose(first, second, mutation());
+      fail("Expected IllegalMutationException");
+    } catch (IllegalMutationException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testSameFieldFolding() {
+    final String json = "{\"_id\":\"k\",\"a\":1,\"s\":\"x\",\"l\":[1]}";
+
+    DocumentMutation composed = assertEquivalent(json,
+        mutation().set("a", 5).set("b", "y"), mutation().set("a", 6));
+    assertEquals(2, ops(composed).size());
+
+    composed = assertEquivalent(json, mutation().increment("a", 2), mutation().increment("a", 3));
+    assertEquals(1, ops(composed).size());
+    assertEquals(5, ops(composed).get(0).getOpValue().getInt());
+
+    composed = assertEquivalent(json, mutation().set("a", 10), mutation().increment("a", 5));
+    assertEquals(MutationOp.Type.SET, ops(composed).get(0).getType());
+    assertEquals(15, ops(composed).get(0).getOpValue().getInt());
+
+    composed = assertEquivalent(json, mutation().set("a", 1).increment("c", 1), mutation().delete("a"));
+    assertEquals(2, ops(composed).size());
+    assertEquals(MutationOp.Type.DELETE, ops(composed).get(0).getType());
+
+    composed = assertEquivalent(json, mutation().delete("a"), mutation().increment("a", 4L));
+    assertEquals(MutationOp.Type.SET_OR_REPLACE, ops(composed).get(0).getType());
+    assertEquals(Type.LONG, ops(composed).get(0).getOpValue().getType());
+
+    // the sum of increments is widened rather than overflowed
+    composed = assertEquivalent(json, mutation().increment("a", Integer.MAX_VALUE), mutation().increment("a", 1));
+    assertEquals(Type.LONG, ops(composed).get(0).getOpValue().getType());
+    assertEquals(Integer.MAX_VALUE + 1L, ops(composed).get(0).getOpValue().getLong());
+    composed = assertEquivalent(json, mutation().increment("a", (byte) 100), mutation().increment("a", (byte) -28));
+    assertEquals(Type.BYTE, ops(composed).get(0).getOpValue().getType());
+    composed = Mutations.compose(mutation().increment("a", Long.MAX_VALUE), mutation().increment("a", 1), mutation());
+    assertEquals(new BigDecimal(Long.MAX_VALUE).add(BigDecimal.ONE), ops(composed).get(0).getOpValue().getDecimal());
+
+    assertEquivalent(json, mutation().append("l", Arrays.asList(2)), mutation().append("l", Arrays.asList(3, 4)));
+    assertEquivalent(json, mutation().append("s", "y"), mutation().append("s", "z"));
+    assertEquivalent(json, mutation().set("m", Collections.singletonMap("p", 1)),
+        mutation().merge("m", Collections.<String, Object>singletonMap("q", 2)));
+  }
+
+  @Test
+  public void testAncestorOverrides() {
+    final String json = "{\"_id\":\"k\",\"a\":{\"b\":1,\"c\":2}}";
+    final DocumentMutation composed = assertEquivalent(json,
+        mutation().set("a.b", 5).increment("a.c", 1), mutation().setOrReplace("a", "flat"));
+    assertEquals(1, ops(composed).size());
+    assertEquals("flat", ops(composed).get(0).getOpValue().getString());
+
+    assertRejected(mutation().set("a.b", 5), mutation().increment("a", 1));
+    assertRejected(mutation().delete("a"), mutation().set("a.b", 1));
+  }
+
+  @Test
+  public void testUnsafeCombinations() {
+    assertRejected(mutation().set("a", "text"), mutation().increment("a", 1));
+    assertRejected(mutation().increment("a", 0.5), mutation().increment("a", 0.25));
+    assertRejected(mutation().delete("a"), mutation().append("a", "x"));
+    assertRejected(mutation().set("a", Arrays.asList(1)), mutation().set("a", 2));
+    assertRejected(mutation().merge("m", Collections.<String, Object>singletonMap("p", Collections.singletonMap("x", 1))),
+        mutation().merge("m", Collections.<String, Object>singletonMap("p", Collections.singletonMap("y", 1))));
+
+    // whole-valued fractional types are safe to sum
+    assertTrue(Mutations.isComposable(mutation().increment("a", 1.0), mutation().increment("a", 2.0)));
+  }
+
+  @Test
+  public void testCompactAndEstimateSize() {
+    final DocumentMutation mutation = mutation()
+        .set("a", 1).increment("a", 1).increment("a", 1)
+        .set("b", "xyz").delete("b")
+        .set("c.d", true);
+    final DocumentMutation compacted = Mutations.compact(mutation, mutation());
+    assertEquals(3, ops(compacted).size());
+    assertEquals(3, ops(compacted).get(0).getOpValue().getInt());
+    assertTrue(Mutations.estimateSize(compacted) < Mutations.estimateSize(mutation));
+    // path + type byte
+    assertEquals(2, Mutations.estimateSize(ops(compacted).get(1)));
+  }
+
+}
@@ -0,0 +1,200 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.tests.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.ojai.Document;
+import org.ojai.Value;
+import org.ojai.json.Json;
+import org.ojai.json.impl.JsonValueBuilder;
+import org.ojai.store.SortOrder;
+import org.ojai.tests.BaseTest;
+import org.ojai.types.ODate;
+import org.ojai.types.OInterval;
+import org.ojai.types.OTime;
+import org.ojai.types.OTimestamp;
+import org.ojai.util.DocumentComparator;
+import org.ojai.util.OrderedKeyCodec;
+import org.ojai.util.SortKey;
+import org.ojai.util.Values;
+
+public class TestOrderedKeyCodec extends BaseTest {
+
+  private static final Comparator<byte[]> BYTES = OrderedKeyCodec.comparator();
+
+  private static Value randomValue(Random random, int depth) {
+    switch (random.nextInt(depth > 0 ? 14 : 15)) {
+    case 0:
+      return JsonValueBuilder.initFromNull();
+    case 1:
+      return JsonValueBuilder.initFrom(random.nextBoolean());
+    case 2:
+      final StringBuilder sb = new StringBuilder();
+      for (int i = random.nextInt(6); i > 0; i--) {
+        // ASCII, NUL, Latin-1, CJK, surrogates and the private use area
+        final char[] chars = {'a', 'b', '\0', '\u00e9', '\u4e2d', '\ud83d', '\ude00', '\ue000'};
+        sb.append(chars[random.nextInt(chars.length)]);
+      }
+      return JsonValueBuilder.initFrom(sb.toString());
+    case 3:
+      return JsonValueBuilder.initFrom(random.nextInt(2001) - 1000);
+    case 4:
+      return JsonValueBuilder.initFrom(random.nextBoolean() ? random.nextLong() : random.nextInt(100) * 1000L);
+    case 5:
+      return JsonValueBuilder.initFrom((random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(40) - 20));
+    case 6:
+      return JsonValueBuilder.initFrom((float) (random.nextInt(200) - 100) / 8);
+    case 7:
+      return JsonValueBuilder.initFrom(new BigDecimal(random.nextInt(20001) - 10000).scaleByPowerOfTen(
+          random.nextInt(10) - 5));
+    case 8:
+      return JsonValueBuilder.initFrom(ODate.fromDaysSinceEpoch(random.nextInt(40000) - 20000));
+    case 9:
+      return JsonValueBuilder.initFrom(OTime.fromMillisOfDay(random.nextInt(86400000)));
+    case 10:
+      return JsonValueBuilder.initFrom(new OTimestamp(random.nextLong() / 1000));
+    case 11:
+      return JsonValueBuilder.initFrom(new OInterval(random.nextInt() * 1000L));
+    case 12:
+      final byte[] bytes = new byte[random.nextInt(5)];
+      for (int i = 0; i < bytes.length; i++) {
+        bytes[i] = (byte) (random.nextBoolean() ? 0 : random.nextInt());
+      }
+      return JsonValueBuilder.initFrom(ByteBuffer.wrap(bytes));
+    case 13:
+      return JsonValueBuilder.initFrom(Json.newDocument().set("k", random.nextInt(10)));
+    default:
+      final List<Object> list = new ArrayList<>();
+      for (int i = random.nextInt(4); i > 0; i--) {
+        list.add(randomValue(random, depth + 1));
+      }
+      return JsonValueBuilder.initFrom(list);
+    }
+  }
+
+  @Test
+  public void testOrderMatchesValuesCompare() {
+    final Random random = new Random(11);
+    final List<Value> values = new ArrayList<>();
+    for (int i = 0; i < 2000; i++) {
+      values.add(randomValue(random, 0));
+    }
+    for (int i = 0; i < values.size(); i++) {
+      final Value v1 = values.get(i);
+      final Value v2 = values.get(random.nextInt(values.size()));
+      final int expected = Integer.signum(Values.compare(v1, v2));
+      final String message = v1 + " vs " + v2;
+      assertEquals(message, expected, Integer.signum(BYTES.compare(
+          OrderedKeyCodec.encodeValue(v1), OrderedKeyCodec.encodeValue(v2))));
+      assertEquals(message, -expected, Integer.signum(BYTES.compare(
+          OrderedKeyCodec.encodeValue(v1, SortOrder.DESC), OrderedKeyCodec.encodeValue(v2, SortOrder.DESC))));
+    }
+  }
+
+  @Test
+  public void testRoundTrip() {
+    final Random random = new Random(5);
+    for (int i = 0; i < 2000; i++) {
+      final Value value = randomValue(random, 0);
+      for (SortOrder order : SortOrder.values()) {
+        final Value decoded = OrderedKeyCodec.decodeValue(OrderedKeyCodec.encodeValue(value, order), order);
+        assertEquals(value.toString(), 0, Values.compare(value, decoded));
+      }
+    }
+
+    // numbers decode to the narrowest exact type
+    assertEquals(Value.Type.LONG, decode(JsonValueBuilder.initFrom(3.0)).getType());
+    assertEquals(Value.Type.DOUBLE, decode(JsonValueBuilder.initFrom(0.25f)).getType());
+    assertEquals(Value.Type.DECIMAL, decode(JsonValueBuilder.initFrom(new BigDecimal("0.1"))).getType());
+    assertEquals(Long.MIN_VALUE, decode(JsonValueBuilder.initFrom(Long.MIN_VALUE)).getLong());
+    assertTrue(Double.isNaN(decode(JsonValueBuilder.initFrom(Double.NaN)).getDouble()));
+  }
+
+  private static Value decode(Value value) {
+    return OrderedKeyCodec.decodeValue(OrderedKeyCodec.encodeValue(value));
+  }
+
+  @Test
+  public void testSpecialNumbers() {
+    final Value[] ordered = {
+        JsonValueBuilder.initFrom(Double.NEGATIVE_INFINITY),
+        JsonValueBuilder.initFrom(-1e300),
+        JsonValueBuilder.initFrom(Long.MIN_VALUE),
+        JsonValueBuilder.initFrom(-10),
+        JsonValueBuilder.initFrom(new BigDecimal("-9.99")),
+        JsonValueBuilder.initFrom(-1e-300),
+        JsonValueBuilder.initFrom(0),
+        JsonValueBuilder.initFrom(new BigDecimal("0.001")),
+        JsonValueBuilder.initFrom(0.1),
+        JsonValueBuilder.initFrom(new BigDecimal("0.1000000000000000055511151231257828")),
+        JsonValueBuilder.initFrom(99),
+        JsonValueBuilder.initFrom(100L),
+        JsonValueBuilder.initFrom(Long.MAX_VALUE),
+        JsonValueBuilder.initFrom(0x1p63),
+        JsonValueBuilder.initFrom(Double.POSITIVE_INFINITY),
+        JsonValueBuilder.initFrom(Double.NaN)};
+    for (int i = 1; i < ordered.length; i++) {
+      assertTrue(ordered[i - 1] + " < " + ordered[i], BYTES.compare(OrderedKeyCodec.encodeValue(ordered[i - 1]),
+          OrderedKeyCodec.encodeValue(ordered[i])) < 0);
+    }
+    assertArrayEquals(OrderedKeyCodec.encodeValue(JsonValueBuilder.initFrom(-0.0)),
+        OrderedKeyCodec.encodeValue(JsonValueBuilder.initFrom((byte) 0)));
+    assertArrayEquals(OrderedKeyCodec.encodeValue(JsonValueBuilder.initFrom(7)),
+        OrderedKeyCodec.encodeValue(JsonValueBuilder.initFrom(new BigDecimal("7.000"))));
+  }
+
+  @Test
+  public void testCompositeKeys() {
+    final OrderedKeyCodec codec = OrderedKeyCodec.of(SortKey.asc("a"), SortKey.desc("b"), SortKey.asc("c"));
+    final DocumentComparator comparator = new DocumentComparator(codec.getSortKeys());
+    final Random random = new Random(13);
+    final List<Document> documents = new ArrayList<>();
+    for (int i = 0; i < 500; i++) {
+      final Document d = Json.newDocument();
+      d.set("a", "s" + random.nextInt(3));
+      if (random.nextInt(5) > 0) {
+        d.set("b", randomValue(random, 0));
+      }
+      d.set("c", random.nextInt(4));
+      documents.add(d);
+    }
+    for (Document d1 : documents) {
+      final Document d2 = documents.get(random.nextInt(documents.size()));
+      assertEquals(d1 + " vs " + d2, Integer.signum(comparator.compare(d1, d2)),
+          Integer.signum(BYTES.compare(codec.encode(d1), codec.encode(d2))));
+    }
+
+    final byte[] key = codec.encode(JsonValueBuilder.initFrom("x"), null, JsonValueBuilder.initFrom(1));
+    final List<Value> decoded = codec.decode(key);
+    assertEquals("x", decoded.get(0).getString());
+    assertNull(decoded.get(1));
+    assertEquals(1, decoded.get(2).getLong());
+    assertEquals(3, decoded.size());
+  }
+
+}
@@ -0,0 +1,202 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.tests.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+import org.ojai.Document;
+import org.ojai.base.DocumentStreamBase;
+import org.ojai.exceptions.OjaiException;
+import org.ojai.json.Json;
+import org.ojai.store.exceptions.StoreException;
+import org.ojai.tests.BaseTest;
+import org.ojai.util.Documents;
+import org.ojai.util.PrefetchingDocumentStream;
+
+public class TestPrefetchingDocumentStream extends BaseTest {
+
+  /**
+   * A stream of {@code count} documents, or an endless one, which fails after
+   * {@code failAfter} documents.
+   */
+  private static class Source extends DocumentStreamBase {
+    final long count;
+    final long failAfter;
+    final String padding;
+    volatile long read;
+    volatile boolean closed;
+
+    Source(long count, long failAfter, int paddingLength) {
+      this.count = count;
+      this.failAfter = failAfter;
+      final StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < paddingLength; i++) {
+        sb.append('x');
+      }
+      this.padding = sb.toString();
+    }
+
+    @Override
+    protected Iterator<Document> iteratorDerived() {
+      return new Iterator<Document>() {
+        @Override
+        public boolean hasNext() {
+          return read < count;
+        }
+
+        @Override
+        public Document next() {
+          if (read == failAfter) {
+            throw new StoreException("failed after " + read + " documents");
+          }
+          return Json.newDocument().setId("id" + read).set("n", read++).set("pad", padding);
+        }
+      };
+    }
+
+    @Override
+    protected void closeDerived() {
+      closed = true;
+    }
+  }
+
+  @Test
+  public void testDocumentsInOrder() {
+    final Source source = new Source(5000, -1, 0);
+    final List<Long> seen = new ArrayList<>();
+    try (PrefetchingDocumentStream stream = new PrefetchingDocumentStream(source).setDepth(16)) {
+      for (Document document : stream) {
+        seen.add(document.getLong("n"));
+      }
+      assertEquals(5000, stream.getPrefetchedCount());
+      assertEquals(0, stream.getBufferedCount());
+    }
+    assertEquals(5000, seen.size());
+    for (int i = 0; i < seen.size(); i++) {
+      assertEquals(i, (long) seen.get(i));
+    }
+    assertTrue(source.closed);
+  }
+
+  @Test
+  public void testBufferIsBounded() throws Exception {
+    final Source source = new Source(200, -1, 1000);
+    final long size = Documents.estimateSize(Json.newDocument().setId("id100").set("n", 100L).set("pad", source.padding));
+    try (PrefetchingDocumentStream stream = new PrefetchingDocumentStream(source).setDepth(50).setMaxBytes(10 * size)) {
+      final Iterator<Document> it = stream.iterator();
+      long count = 0;
+      while (it.hasNext()) {
+        it.next();
+        count++;
+        if (count % 20 == 0) {
+          Thread.sleep(10); // let the producer fill the buffer
+          assertTrue(stream.getBufferedCount() <= 10);
+        }
+      }
+      assertEquals(200, count);
+      assertTrue(stream.getPeakBufferedBytes() <= 10 * size + 20);
+      assertTrue(stream.getProducerStallCount() > 0);
+    }
+
+    try (PrefetchingDocumentStream stream = new PrefetchingDocumentStream(new Source(100, -1, 10)).setDepth(4)) {
+      final Iterator<Document> it = stream.iterator();
+      it.next();
+      for (int i = 0; i < 500 && stream.getBufferedCount() < 4; i++) {
+        Thread.sleep(10);
+      }
+      assertEquals(4, stream.getBufferedCount());
+      Thread.sleep(20);
+      assertEquals(5, stream.getPrefetchedCount());
+    }
+  }
+
+  @Test
+  public void testFailureIsPropagated() {
+    final Source source = new Source(100, 5, 0);
+    long count = 0;
+    try (PrefetchingDocumentStream stream = new PrefetchingDocumentStream(source)) {
+      for (@SuppressWarnings("unused") Document document : stream) {
+        count++;
+      }
+      fail();
+    } catch (StoreException e) {
+      assertEquals("failed after 5 documents", e.getMessage());
+    }
+    assertEquals(5, count);
+    assertTrue(source.closed);
+  }
+
+  @Test
+  public void testCloseStopsTheProducer() {
+    final Source source = new Source(Long.MAX_VALUE, -1, 0);
+    final PrefetchingDocumentStream stream = new PrefetchingDocumentStream(source).setDepth(8);
+    final Iterator<Document> it = stream.iterator();
+    for (int i = 0; i < 3; i++) {
+      it.next();
+    }
+    stream.close();
+    assertTrue(source.closed);
+    assertFalse(it.hasNext());
+    final long read = source.read;
+    assertTrue(read + " documents read", read <= 3 + 8 + 1);
+
+    final Source unused = new Source(10, -1, 0);
+    new PrefetchingDocumentStream(unused).close();
+    assertTrue(unused.closed);
+    assertEquals(0, unused.read);
+  }
+
+  @Test
+  public void testInterruptIsRestored() throws Exception {
+    final Source source = new Source(Long.MAX_VALUE, -1, 0);
+    final Thread[] worker = new Thread[1];
+    final AtomicBoolean interrupted = new AtomicBoolean();
+    final PrefetchingDocumentStream stream = new PrefetchingDocumentStream(source).setDepth(1)
+        .setExecutor(task -> {
+          worker[0] = new Thread(() -> {
+            task.run();
+            interrupted.set(Thread.currentThread().isInterrupted());
+          });
+          worker[0].start();
+        });
+    final Iterator<Document> it = stream.iterator();
+    while (stream.getProducerStallCount() == 0) {
+      Thread.sleep(1);
+    }
+    worker[0].interrupt();
+    worker[0].join(10_000);
+    assertTrue(interrupted.get());
+    assertTrue(source.closed);
+    it.next();
+    try {
+      it.hasNext();
+      fail();
+    } catch (OjaiException e) {
+      assertTrue(e.getCause() instanceof InterruptedException);
+    }
+    stream.close();
+  }
+
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright (c) 2018 MapR, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ojai.tests.reactive;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.ojai.Document;
+import org.ojai.json.Json;
+import org.ojai.reactive.DocumentStoreSubscriber;
+import org.ojai.reactive.DocumentStreamPublisher;
+import org.ojai.reactive.FlowAdapters;
+import org.ojai.reactive.Publisher;
+import org.ojai.tests.BaseTest;
+import org.ojai.tests.store.InMemoryDocumentStore;
+import org.ojai.util.DocumentStreams;
+
+public class TestFlowAdapters extends BaseTest {
+
+  private static List<Document> documents(int count) {
+    final List<Document> documents = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      documents.add(Json.newDocument().setId("k" + i).set("i", i));
+    }
+    return documents;
+  }
+
+  @Test
+  public void testPublisherToFlow() {
+    final Publisher<Document> publisher = new DocumentStreamPublisher(DocumentStreams.of(documents(10)));
+    final Flow.Publisher<Document> flow = FlowAdapters.toFlowPublisher(publisher);
+    assertSame(publisher, FlowAdapters.fromFlowPublisher(flow));
+
+    final List<Document> received = new ArrayList<>();
+    final boolean[] completed = new boolean[1];
+    flow.subscribe(new Flow.Subscriber<Document>() {
+      private Flow.Subscription subscription;
+
+      @Override
+      public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        subscription.request(3);
+      }
+
+      @Override
+      public void onNext(Document item) {
+        received.add(item);
+        if (received.size() % 3 == 0) {
+          subscription.request(3);
+        }
+      }
+
+      @Override
+      public void onError(Throwable throwable) {
+        throw new AssertionError(throwable);
+      }
+
+      @Override
+      public void onComplete() {
+        completed[0] = true;
+      }
+    });
+    assertEquals(10, received.size());
+    assertEquals("k9", received.get(9).getIdString());
+    assertTrue(completed[0]);
+  }
+
+  @Test
+  public void testFlowToStoreSubscriber() throws Exception {
+    final InMemoryDocumentStore store = new InMemoryDocumentStore();
+    final DocumentStoreSubscriber subscriber = new DocumentStoreSubscriber(store, 4);
+    final Flow.Subscriber<Document> flow = FlowAdapters.toFlowSubscriber(subscriber);
+    assertSame(subscriber, FlowAdapters.fromFlowSubscriber(flow));
+
+    try (SubmissionPublisher<Document> publisher = new SubmissionPublisher<>()) {
+      FlowAdapters.fromFlowPublisher(publisher).subscribe(subscriber);
+      for (Document document : documents(10)) {
+        publisher.submit(document);
+      }
+    }
+    assertEquals(10L, (long) subscriber.getCompletion().get(10, TimeUnit.SECONDS));
+    assertEquals(10, store.size());
+    assertEquals(3, subscriber.getBatchCount());
+  }
+
+}